@@ -0,0 +1,209 @@
+package com.technathon.vmedicine;
+
+import android.content.Context;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.technathon.vmedicine.api.ApiResult;
+import com.technathon.vmedicine.api.DiskLruCache;
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.api.LabelCache;
+import com.technathon.vmedicine.api.LabelRepository;
+import com.technathon.vmedicine.api.OpenFDA;
+import com.technathon.vmedicine.api.OpenFDAClient;
+import com.technathon.vmedicine.api.OpenFDAResponse;
+import com.technathon.vmedicine.api.OpenFDATypeAdapterFactory;
+import com.technathon.vmedicine.api.Result;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fills the label store with 50k synthetic OpenFDA-sized labels and times name and full-text queries, and
+ * checks that network answers are stored off the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LabelStorePerformanceTest {
+
+    private static final String TAG = "LabelStorePerf";
+    private static final String DATABASE_NAME = "labels-perf-test.db";
+    private static final int LABEL_COUNT = 50_000;
+    private static final int QUERY_COUNT = 200;
+    private static final String[] WORDS = {"pain", "fever", "relief", "hypertension", "infection", "tablet", "adults",
+            "children", "dose", "liver", "kidney", "stomach", "bleeding", "allergic", "reaction", "doctor", "pregnant",
+            "alcohol", "drowsiness", "dizziness", "symptoms", "temporary", "minor", "aches", "headache", "cold", "flu"};
+
+    private Context context;
+    private LabelStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        store = new LabelStore(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void findsMedicinesByNameAndPhrase() {
+        store.putAll(Arrays.asList(
+                label("Tylenol Extra Strength", "ACETAMINOPHEN", "Temporarily relieves minor aches and pains", "Liver warning"),
+                label("Duexis", "IBUPROFEN AND FAMOTIDINE", "Rheumatoid arthritis", "Stomach bleeding warning"),
+                label("Advil", "IBUPROFEN", "Fever and pain", "Stomach bleeding warning")));
+        store.putAll(Collections.singletonList(label("Advil", "IBUPROFEN", "Fever and pain", "Stomach bleeding warning")));
+
+        assertEquals("Storing a label again replaces it", 3, store.count());
+        assertEquals(1, store.findByName("Tylenol", 5).size());
+        assertEquals(2, store.findByName("ibuprofen", 5).size());
+        assertEquals("Tylenol Extra Strength", store.findByName("tylenol extra strength", 5).get(0).openfda.brandName.get(0));
+        assertTrue("Words must be adjacent in a name", store.findByName("Extra Tylenol", 5).isEmpty());
+        assertEquals("Operators in names are plain words", 1, store.findByName("ibuprofen and", 5).size());
+        assertEquals(2, store.search("stomach bleeding", 5).size());
+        Result tylenol = store.search("liver", 5).get(0);
+        assertEquals(Collections.singletonList("ORAL"), tylenol.openfda.route);
+        assertEquals("Temporarily relieves minor aches and pains", tylenol.indicationsAndUsage.get(0));
+    }
+
+    /**
+     * Full label text goes into the FTS table on every network answer; that insert must not run on the UI thread.
+     */
+    @Test
+    public void networkAnswers_areStoredOffTheMainLooper() throws Exception {
+        AtomicReference<Boolean> storedOnMainLooper = new AtomicReference<>();
+        CountDownLatch stored = new CountDownLatch(1);
+        LabelRepository.LocalLabels recording = new LabelRepository.LocalLabels() {
+            @Override
+            public List<Result> findByName(String medicineName, int limit) {
+                return store.findByName(medicineName, limit);
+            }
+
+            @Override
+            public void putAll(Collection<Result> labels) {
+                storedOnMainLooper.set(Looper.myLooper() == Looper.getMainLooper());
+                store.putAll(labels);
+                stored.countDown();
+            }
+        };
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"results\": [{\"openfda\": {\"brand_name\": [\"Tylenol\"],"
+                + " \"generic_name\": [\"ACETAMINOPHEN\"]}, \"warnings\": [\"Liver warning\"]}]}"));
+        server.start();
+        try {
+            File cacheDir = new File(context.getCacheDir(), "labels-perf-test");
+            File[] previousRun = cacheDir.listFiles();
+            if (previousRun != null) { // A cached answer would skip the network and the store
+                for (File file : previousRun) {
+                    file.delete();
+                }
+            }
+            LabelRepository repository = new LabelRepository(
+                    new LabelCache(new DiskLruCache(cacheDir, LabelCache.DEFAULT_MAX_BYTES), LabelCache.DEFAULT_TTL_MILLIS,
+                            LabelCache.DEFAULT_STALE_WHILE_REVALIDATE_MILLIS, System::currentTimeMillis),
+                    recording,
+                    OpenFDAClient.createService(server.url("/").toString(), HttpStack.client(),
+                            OpenFDATypeAdapterFactory.allModeledFields()));
+
+            repository.load("acetaminophen-main-looper-test", "Tylenol", new LabelRepository.Listener() {
+                @Override
+                public void onLabels(ApiResult<OpenFDAResponse> labels, boolean stale) {
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                }
+            });
+
+            assertTrue(stored.await(10, TimeUnit.SECONDS));
+            assertFalse("putAll ran on the main looper", storedOnMainLooper.get());
+            assertEquals(1, store.findByName("Tylenol", 5).size());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void queriesOver50kLabels_stayWellUnder50ms() {
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        List<Result> batch = new ArrayList<>(1000);
+        for (int i = 0; i < LABEL_COUNT; i++) {
+            batch.add(label("Brand" + i + " " + WORDS[random.nextInt(WORDS.length)], "GENERIC" + (i % 5000),
+                    sentence(random, 40), sentence(random, 120)));
+            if (batch.size() == 1000) {
+                store.putAll(batch);
+                batch.clear();
+            }
+        }
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(LABEL_COUNT, store.count());
+
+        long[] byName = new long[QUERY_COUNT];
+        long[] fullText = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            long queryStart = System.nanoTime();
+            List<Result> found = store.findByName("generic" + random.nextInt(5000), 5);
+            byName[i] = System.nanoTime() - queryStart;
+            assertFalse(found.isEmpty());
+
+            queryStart = System.nanoTime();
+            store.search(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)], 20);
+            fullText[i] = System.nanoTime() - queryStart;
+        }
+        Arrays.sort(byName);
+        Arrays.sort(fullText);
+        Log.i(TAG, "Loaded " + LABEL_COUNT + " labels in " + loadMillis + " ms; by name p50 " + micros(byName, 50)
+                + " us, p95 " + micros(byName, 95) + " us; full text p50 " + micros(fullText, 50)
+                + " us, p95 " + micros(fullText, 95) + " us");
+        assertTrue(micros(byName, 95) < 50_000);
+        assertTrue(micros(fullText, 95) < 50_000);
+    }
+
+    private static long micros(long[] sortedNanos, int percentile) {
+        return sortedNanos[(sortedNanos.length - 1) * percentile / 100] / 1000;
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    private static Result label(String brandName, String genericName, String indications, String warnings) {
+        Result result = new Result();
+        result.openfda = new OpenFDA();
+        result.openfda.brandName = Collections.singletonList(brandName);
+        result.openfda.genericName = Collections.singletonList(genericName);
+        result.openfda.route = Collections.singletonList("ORAL");
+        result.indicationsAndUsage = Collections.singletonList(indications);
+        result.warnings = Collections.singletonList(warnings);
+        return result;
+    }
+}
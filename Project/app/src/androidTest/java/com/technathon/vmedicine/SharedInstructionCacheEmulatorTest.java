@@ -0,0 +1,199 @@
+package com.technathon.vmedicine;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.MemoryCacheSettings;
+import com.technathon.vmedicine.api.InstructionCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the shared instruction cache against the Firestore and Auth emulators on the host, with the project's
+ * firestore.rules ({@code firebase emulators:start --only firestore,auth} in the project directory); skipped
+ * when the emulators are not running. Setting up and clearing data goes through the emulator's REST API as
+ * the owner, which the rules do not apply to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SharedInstructionCacheEmulatorTest {
+
+    // The host's loopback as seen from the Android emulator
+    private static final String EMULATOR_HOST = "10.0.2.2";
+    private static final int EMULATOR_PORT = 8080;
+    private static final int AUTH_EMULATOR_PORT = 9099;
+    private static final String APP_NAME = "instruction-cache-emulator-test";
+
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    private final OkHttpClient owner = new OkHttpClient();
+    private FirebaseFirestore db;
+    private SharedInstructionCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("Firestore emulator not running on the host", emulatorRunning(EMULATOR_PORT));
+        assumeTrue("Auth emulator not running on the host", emulatorRunning(AUTH_EMULATOR_PORT));
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // A separate app instance, so the app's own Firestore keeps pointing at production
+        FirebaseApp app = FirebaseApp.initializeApp(context, FirebaseApp.getInstance().getOptions(), APP_NAME);
+        db = FirebaseFirestore.getInstance(app);
+        db.useEmulator(EMULATOR_HOST, EMULATOR_PORT);
+        db.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                .setLocalCacheSettings(MemoryCacheSettings.newBuilder().build())
+                .build());
+        FirebaseAuth auth = FirebaseAuth.getInstance(app);
+        auth.useEmulator(EMULATOR_HOST, AUTH_EMULATOR_PORT);
+        Tasks.await(auth.signInAnonymously(), 10, TimeUnit.SECONDS);
+        cache = new SharedInstructionCache(db, now::get);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (db == null) {
+            return;
+        }
+        // Leave the emulator empty for the next test
+        asOwner(new Request.Builder().url(emulatorUrl("/emulator/v1/projects/" + projectId()
+                + "/databases/(default)/documents")).delete());
+        Tasks.await(db.terminate(), 10, TimeUnit.SECONDS);
+        FirebaseApp.getInstance(APP_NAME).delete();
+    }
+
+    @Test
+    public void readsBackWhatAnotherDeviceWrote() throws Exception {
+        assertNull(cache.get("acetaminophen", 34, Arrays.asList("Asthma")));
+
+        Tasks.await(cache.put("acetaminophen", 34, Arrays.asList("Asthma"), "Take with water."), 10, TimeUnit.SECONDS);
+
+        assertEquals("Take with water.", cache.get("acetaminophen", 34, Arrays.asList("Asthma")));
+        assertEquals("Same age group and conditions, another user",
+                "Take with water.", cache.get("acetaminophen", 40, Arrays.asList("asthma")));
+        assertNull("Other conditions", cache.get("acetaminophen", 34, Arrays.asList("Hypertension")));
+    }
+
+    @Test
+    public void keepsRareConditionsOnTheDevice() throws Exception {
+        String key = InstructionCache.key("warfarin", 52, Arrays.asList("Atrial fibrillation", "Gout"));
+        Tasks.await(cache.put("warfarin", 52, Arrays.asList("Atrial fibrillation", "Gout"), "Avoid alcohol."),
+                10, TimeUnit.SECONDS);
+
+        assertFalse(Tasks.await(db.collection(SharedInstructionCache.COLLECTION)
+                .document(SharedInstructionCache.documentId(key)).get(), 10, TimeUnit.SECONDS).exists());
+        assertNull(cache.get("warfarin", 52, Arrays.asList("Atrial fibrillation", "Gout")));
+    }
+
+    @Test
+    public void ignoresExpiredEntriesAndOtherPromptVersions() throws Exception {
+        String key = InstructionCache.key("ibuprofen", 70, null);
+        Tasks.await(cache.put("ibuprofen", 70, null, "Take with food."), 10, TimeUnit.SECONDS);
+
+        now.addAndGet(SharedInstructionCache.TTL_MILLIS + 1);
+        assertNull("Expired", cache.get("ibuprofen", 70, null));
+
+        now.set(System.currentTimeMillis());
+        asOwner(new Request.Builder()
+                .url(emulatorUrl("/v1/projects/" + projectId() + "/databases/(default)/documents/"
+                        + SharedInstructionCache.COLLECTION + "/" + SharedInstructionCache.documentId(key)
+                        + "?updateMask.fieldPaths=" + SharedInstructionCache.FIELD_VERSION))
+                .patch(RequestBody.create("{\"fields\": {\"" + SharedInstructionCache.FIELD_VERSION
+                        + "\": {\"integerValue\": \"" + (InstructionCache.PROMPT_VERSION - 1) + "\"}}}",
+                        MediaType.get("application/json"))));
+        assertNull("Answer to another prompt", cache.get("ibuprofen", 70, null));
+
+        Tasks.await(cache.put("ibuprofen", 70, null, "Take with food or milk."), 10, TimeUnit.SECONDS);
+        assertEquals("Replaced by the next writer", "Take with food or milk.", cache.get("ibuprofen", 70, null));
+    }
+
+    @Test
+    public void rules_keepLiveEntriesAndTheCollectionFromOtherClients() throws Exception {
+        Tasks.await(cache.put("metformin", 34, null, "Take with meals."), 10, TimeUnit.SECONDS);
+
+        assertDenied(cache.put("metformin", 34, null, "Stop taking it."));
+        assertEquals("Take with meals.", cache.get("metformin", 34, null));
+        assertDenied(db.collection(SharedInstructionCache.COLLECTION).get());
+        assertDenied(db.collection(SharedInstructionCache.COLLECTION)
+                .document(SharedInstructionCache.documentId(InstructionCache.key("metformin", 34, null))).delete());
+        assertDenied(db.collection(SharedInstructionCache.COLLECTION).document("not-a-key")
+                .set(Collections.singletonMap(SharedInstructionCache.FIELD_TEXT, "Anything")));
+    }
+
+    @Test
+    public void storesNoUserData() throws Exception {
+        String key = InstructionCache.key("warfarin", 52, Arrays.asList("Hypertension"));
+        Tasks.await(cache.put("warfarin", 52, Arrays.asList("Hypertension"), "Avoid alcohol."), 10, TimeUnit.SECONDS);
+
+        Map<String, Object> stored = Tasks.await(db.collection(SharedInstructionCache.COLLECTION)
+                .document(SharedInstructionCache.documentId(key)).get(), 10, TimeUnit.SECONDS).getData();
+
+        assertNotNull(stored);
+        assertEquals(new HashSet<>(Arrays.asList(SharedInstructionCache.FIELD_TEXT, SharedInstructionCache.FIELD_MEDICINE,
+                SharedInstructionCache.FIELD_AGE_GROUP, SharedInstructionCache.FIELD_VERSION,
+                SharedInstructionCache.FIELD_CREATED_AT, SharedInstructionCache.FIELD_EXPIRES_AT)), stored.keySet());
+        assertEquals("adult (18-64 years)", stored.get(SharedInstructionCache.FIELD_AGE_GROUP));
+        assertFalse(stored.toString(), stored.toString().toUpperCase().contains("HYPERTENSION"));
+    }
+
+    private static void assertDenied(Task<?> task) throws Exception {
+        try {
+            Tasks.await(task, 10, TimeUnit.SECONDS);
+            fail("Allowed by the rules");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof FirebaseFirestoreException);
+            assertEquals(FirebaseFirestoreException.Code.PERMISSION_DENIED, ((FirebaseFirestoreException) e.getCause()).getCode());
+        }
+    }
+
+    private void asOwner(Request.Builder request) throws IOException {
+        try (Response response = owner.newCall(request.header("Authorization", "Bearer owner").build()).execute()) {
+            assertTrue(response.toString(), response.isSuccessful());
+        }
+    }
+
+    private static String emulatorUrl(String path) {
+        return "http://" + EMULATOR_HOST + ":" + EMULATOR_PORT + path;
+    }
+
+    private static String projectId() {
+        return FirebaseApp.getInstance(APP_NAME).getOptions().getProjectId();
+    }
+
+    private static boolean emulatorRunning(int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(EMULATOR_HOST, port), 500);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -19,26 +19,20 @@ import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.technathon.vmedicine.api.ConversationManager;
+import com.technathon.vmedicine.api.GeminiClient;
+import com.technathon.vmedicine.api.GeminiRequest;
+import com.technathon.vmedicine.api.GeminiStream;
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.data.ProfileText;
 import com.technathon.vmedicine.data.UserProfile;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit; // For OkHttpClient timeouts
 
 import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 public class ChatBotActivity extends AppCompatActivity {
 
@@ -52,11 +46,14 @@ public class ChatBotActivity extends AppCompatActivity {
     private ScrollView chatScrollView;
 
     private OkHttpClient okHttpClient;
+    private GeminiClient gemini;
+    private volatile Call currentReply; // The reply being streamed, cancelled when the user leaves
     private ExecutorService executorService;
     private FirebaseFirestore db;
     private String currentUserId = "testUser123"; // Placeholder User ID
 
-    private List<JSONObject> chatHistory = new ArrayList<>(); // Stores chat history for context
+    // Recent turns plus a summary of older ones, so requests stay the same size in long chats
+    private final ConversationManager conversation = new ConversationManager();
     private UserProfile currentUserProfile; // To store fetched user profile for personalization
 
     @Override
@@ -71,12 +68,16 @@ public class ChatBotActivity extends AppCompatActivity {
         chatScrollView = findViewById(R.id.chatScrollView);
 
         // Initialize OkHttp and ExecutorService
-        okHttpClient = new OkHttpClient.Builder()
+        // Derived from the shared client, so it reuses its connections
+        okHttpClient = HttpStack.client().newBuilder()
                 .connectTimeout(30, TimeUnit.SECONDS) // Increased timeout for API calls
                 .readTimeout(60, TimeUnit.SECONDS)   // Increased timeout
                 .build();
+        HttpStack.preconnect(HttpStack.GEMINI_BASE_URL);
+        gemini = new GeminiClient(okHttpClient, GEMINI_API_KEY);
         executorService = Executors.newSingleThreadExecutor();
         db = FirebaseFirestore.getInstance();
+        conversation.setSystemInstruction(ProfileText.buildSystemInstruction(null)); // Until the profile loads
 
         // Fetch user profile for personalization
         fetchUserProfile();
@@ -101,6 +102,7 @@ public class ChatBotActivity extends AppCompatActivity {
                             DocumentSnapshot document = task.getResult();
                             if (document.exists()) {
                                 currentUserProfile = document.toObject(UserProfile.class);
+                                conversation.setSystemInstruction(ProfileText.buildSystemInstruction(currentUserProfile));
                                 Log.d(TAG, "User profile fetched for chatbot personalization.");
                             } else {
                                 Log.d(TAG, "No user profile found for " + currentUserId + ". Chatbot responses will be general.");
@@ -127,175 +129,124 @@ public class ChatBotActivity extends AppCompatActivity {
         etChatMessage.setText(""); // Clear input field
         btnSendMessage.setEnabled(false); // Disable send button
 
-        // Construct the full prompt including user profile data
-        String fullPrompt = buildPersonalizedPrompt(userMessage);
-        callGeminiApi(fullPrompt);
-    }
-
-    /**
-     * Builds a personalized prompt for the Gemini API based on the user's profile.
-     */
-    private String buildPersonalizedPrompt(String userMessage) {
-        StringBuilder promptBuilder = new StringBuilder();
-        promptBuilder.append("You are VMedicine AI, a helpful assistant specialized in general medicine information. ");
-        promptBuilder.append("Provide concise and direct answers. DO NOT give specific medical advice or dosages, always recommend consulting a doctor/pharmacist. ");
-        promptBuilder.append("If a query is about personal health or medicine, use the provided user profile context. ");
-        promptBuilder.append("If a question is outside medical/health domain, politely decline. ");
-        promptBuilder.append("Keep responses brief, usually 1-3 sentences.\n\n");
-
-        if (currentUserProfile != null) {
-            promptBuilder.append("User Profile Context:\n");
-            promptBuilder.append("- Age: ").append(currentUserProfile.getAge()).append(" years\n");
-            if (currentUserProfile.getMedicalConditions() != null && !currentUserProfile.getMedicalConditions().isEmpty()) {
-                promptBuilder.append("- Medical Conditions: ").append(String.join(", ", currentUserProfile.getMedicalConditions())).append("\n");
-            }
-            if (currentUserProfile.getAllergies() != null && !currentUserProfile.getAllergies().isEmpty()) {
-                promptBuilder.append("- Allergies: ").append(String.join(", ", currentUserProfile.getAllergies())).append("\n");
-            }
-            if (currentUserProfile.getCurrentMedications() != null && !currentUserProfile.getCurrentMedications().isEmpty()) {
-                promptBuilder.append("- Current Medications: ").append(String.join(", ", currentUserProfile.getCurrentMedications())).append("\n");
-            }
-            promptBuilder.append("\n"); // Separate context from query
-        } else {
-            promptBuilder.append("User profile is not available. Provide general medical information.\n\n");
-        }
-
-        promptBuilder.append("User Query: ").append(userMessage);
-        return promptBuilder.toString();
+        // The instructions and profile data go along as the system instruction, not in the message
+        callGeminiApi(userMessage);
     }
 
-
     /**
      * Adds a message to the chat display.
      * @param message The message text.
      * @param isUser True if it's a user message, false if it's a bot message.
      */
     private void addMessage(String message, boolean isUser) {
-        runOnUiThread(() -> {
-            TextView messageTextView = new TextView(this);
-            messageTextView.setText(message);
-            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-                    LinearLayout.LayoutParams.WRAP_CONTENT,
-                    LinearLayout.LayoutParams.WRAP_CONTENT
-            );
-            int margin = (int) getResources().getDisplayMetrics().density * 8; // 8dp margin
-
-            if (isUser) {
-                params.gravity = Gravity.END;
-                params.setMargins(margin * 4, margin, margin, margin); // Left margin wider for user
-                messageTextView.setBackgroundResource(R.drawable.user_chat_bubble);
-                messageTextView.setTextColor(ContextCompat.getColor(this, android.R.color.white));
-            } else {
-                params.gravity = Gravity.START;
-                params.setMargins(margin, margin, margin * 4, margin); // Right margin wider for bot
-                messageTextView.setBackgroundResource(R.drawable.bot_chat_bubble);
-                messageTextView.setTextColor(ContextCompat.getColor(this, android.R.color.black));
-            }
-            messageTextView.setPadding(margin * 2, margin, margin * 2, margin);
-            messageTextView.setMaxWidth((int) (getResources().getDisplayMetrics().widthPixels * 0.7)); // 70% width
-            messageTextView.setLayoutParams(params);
-            chatContainer.addView(messageTextView);
-
-            // Scroll to the bottom
-            chatScrollView.post(() -> chatScrollView.fullScroll(View.FOCUS_DOWN));
-        });
+        runOnUiThread(() -> addMessageView(message, isUser));
     }
 
     /**
-     * Calls the Gemini API with the given prompt.
-     * @param prompt The prompt to send to the AI.
+     * Adds a message bubble and returns it, so a streamed reply can keep updating its text. UI thread only.
      */
-    private void callGeminiApi(String prompt) {
-        executorService.execute(() -> {
-            try {
-                // Add user message to chat history for context
-                JSONObject userMessagePart = new JSONObject().put("text", prompt);
-                JSONObject userContent = new JSONObject().put("role", "user").put("parts", new JSONArray().put(userMessagePart));
-                chatHistory.add(userContent); // Add to history
-
-                JSONArray contentsArray = new JSONArray(chatHistory); // Use entire history
+    private TextView addMessageView(String message, boolean isUser) {
+        TextView messageTextView = new TextView(this);
+        messageTextView.setText(message);
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.WRAP_CONTENT,
+                LinearLayout.LayoutParams.WRAP_CONTENT
+        );
+        int margin = (int) getResources().getDisplayMetrics().density * 8; // 8dp margin
+
+        if (isUser) {
+            params.gravity = Gravity.END;
+            params.setMargins(margin * 4, margin, margin, margin); // Left margin wider for user
+            messageTextView.setBackgroundResource(R.drawable.user_chat_bubble);
+            messageTextView.setTextColor(ContextCompat.getColor(this, android.R.color.white));
+        } else {
+            params.gravity = Gravity.START;
+            params.setMargins(margin, margin, margin * 4, margin); // Right margin wider for bot
+            messageTextView.setBackgroundResource(R.drawable.bot_chat_bubble);
+            messageTextView.setTextColor(ContextCompat.getColor(this, android.R.color.black));
+        }
+        messageTextView.setPadding(margin * 2, margin, margin * 2, margin);
+        messageTextView.setMaxWidth((int) (getResources().getDisplayMetrics().widthPixels * 0.7)); // 70% width
+        messageTextView.setLayoutParams(params);
+        chatContainer.addView(messageTextView);
 
-                JSONObject payload = new JSONObject();
-                payload.put("contents", contentsArray);
+        scrollToBottom();
+        return messageTextView;
+    }
 
-                MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
-                String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent?key=" + GEMINI_API_KEY;
+    private void scrollToBottom() {
+        chatScrollView.post(() -> chatScrollView.fullScroll(View.FOCUS_DOWN));
+    }
 
-                RequestBody body = RequestBody.create(payload.toString(), JSON_MEDIA_TYPE);
-                Request request = new Request.Builder()
-                        .url(apiUrl)
-                        .post(body)
-                        .build();
+    /**
+     * Calls the Gemini API with the given prompt. The reply is streamed into a bot bubble as it is generated,
+     * instead of appearing only once the whole answer is done.
+     * @param userMessage The user's message.
+     */
+    private void callGeminiApi(String userMessage) {
+        TextView replyView = addMessageView("…", false); // Filled in as the reply streams in
+        executorService.execute(() -> {
+            try {
+                GeminiRequest request = conversation.beginTurn(userMessage);
+                Log.d(TAG, "Gemini request of about " + conversation.getLastRequestTokens() + " tokens, "
+                        + conversation.getTurnCount() + " earlier turns");
 
-                okHttpClient.newCall(request).enqueue(new Callback() {
+                currentReply = gemini.stream(request, new GeminiStream.Listener() {
                     @Override
-                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    public void onText(String text) {
                         runOnUiThread(() -> {
-                            addBotMessage("Sorry, I couldn't connect. Please check your internet connection.");
-                            Log.e(TAG, "Gemini API call failed: " + e.getMessage(), e);
-                            btnSendMessage.setEnabled(true);
+                            replyView.setText(text);
+                            scrollToBottom();
                         });
-                        // Remove last user message from history if API call failed for next retry
-                        if (!chatHistory.isEmpty()) chatHistory.remove(chatHistory.size() - 1);
                     }
 
                     @Override
-                    public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                        runOnUiThread(() -> btnSendMessage.setEnabled(true));
-                        if (response.isSuccessful()) {
-                            try {
-                                String responseBody = response.body() != null ? response.body().string() : "";
-                                Log.d(TAG, "Gemini API Response: " + responseBody);
-
-                                JSONObject jsonResponse = new JSONObject(responseBody);
-                                String generatedText = "I'm sorry, I couldn't generate a response.";
-
-                                if (jsonResponse.has("candidates") && jsonResponse.getJSONArray("candidates").length() > 0) {
-                                    JSONObject candidate = jsonResponse.getJSONArray("candidates").getJSONObject(0);
-                                    if (candidate.has("content") && candidate.getJSONObject("content").has("parts") && candidate.getJSONObject("content").getJSONArray("parts").length() > 0) {
-                                        generatedText = candidate.getJSONObject("content").getJSONArray("parts").getJSONObject(0).getString("text");
-                                        // Add bot message to chat history for context
-                                        JSONObject botMessagePart = new JSONObject().put("text", generatedText);
-                                        JSONObject botContent = new JSONObject().put("role", "model").put("parts", new JSONArray().put(botMessagePart));
-                                        chatHistory.add(botContent);
-                                    }
-                                }
-                                final String finalGeneratedText = generatedText;
-                                runOnUiThread(() -> addBotMessage(finalGeneratedText));
-
-                            } catch (JSONException e) {
-                                runOnUiThread(() -> {
-                                    addBotMessage("I encountered an error trying to understand the response.");
-                                    Log.e(TAG, "Error parsing Gemini response: " + e.getMessage(), e);
-                                });
-                                // Remove last user message from history if parsing failed
-                                if (!chatHistory.isEmpty()) chatHistory.remove(chatHistory.size() - 1);
-                            }
-                        } else {
+                    public void onComplete(String text, GeminiStream.Timing timing) {
+                        Log.d(TAG, timing.toString());
+                        if (text.isEmpty()) {
                             runOnUiThread(() -> {
-                                try {
-                                    String errorBody = response.body() != null ? response.body().string() : "No error body";
-                                    addBotMessage("I'm having trouble processing that request. Error: " + response.code());
-                                    Log.e(TAG, "Gemini API HTTP Error: " + response.code() + " - " + errorBody);
-                                } catch (IOException e) {
-                                    addBotMessage("I'm having trouble processing that request. Unknown error.");
-                                    Log.e(TAG, "Gemini API HTTP Error (no body): " + response.code());
-                                }
-                                // Remove last user message from history if API call failed
-                                if (!chatHistory.isEmpty()) chatHistory.remove(chatHistory.size() - 1);
+                                replyView.setText("I'm sorry, I couldn't generate a response.");
+                                btnSendMessage.setEnabled(true);
                             });
+                            // Remove last user message from history if nothing came back
+                            conversation.abandonTurn();
+                            return;
                         }
+                        conversation.completeTurn(text); // Add bot message to chat history for context
+                        runOnUiThread(() -> btnSendMessage.setEnabled(true));
+                    }
+
+                    @Override
+                    public void onHttpError(int code, String errorBody) {
+                        runOnUiThread(() -> {
+                            replyView.setText("I'm having trouble processing that request. Error: " + code);
+                            Log.e(TAG, "Gemini API HTTP Error: " + code + " - " + (errorBody != null ? errorBody : "No error body"));
+                            btnSendMessage.setEnabled(true);
+                        });
+                        // Remove last user message from history if API call failed
+                        conversation.abandonTurn();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        runOnUiThread(() -> {
+                            replyView.setText("Sorry, I couldn't connect. Please check your internet connection.");
+                            Log.e(TAG, "Gemini API call failed: " + error.getMessage(), error);
+                            btnSendMessage.setEnabled(true);
+                        });
+                        // Remove last user message from history if API call failed for next retry
+                        conversation.abandonTurn();
                     }
                 });
 
             } catch (Exception e) {
                 runOnUiThread(() -> {
-                    addBotMessage("An unexpected error occurred. Please try again.");
+                    replyView.setText("An unexpected error occurred. Please try again.");
                     Log.e(TAG, "Error building/sending Gemini request: " + e.getMessage(), e);
                     btnSendMessage.setEnabled(true);
                 });
                 // Remove last user message from history if unexpected error before API call
-                if (!chatHistory.isEmpty()) chatHistory.remove(chatHistory.size() - 1);
+                conversation.abandonTurn();
             }
         });
     }
@@ -311,6 +262,9 @@ public class ChatBotActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (currentReply != null) {
+            currentReply.cancel(); // Stop reading a reply nobody will see
+        }
         executorService.shutdown(); // Ensure executor service is shut down
     }
 }
@@ -6,6 +6,7 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -22,39 +23,47 @@ import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.gson.JsonParseException;
+import com.technathon.vmedicine.api.ApiResult;
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.api.LabelCache;
+import com.technathon.vmedicine.api.LabelRepository;
+import com.technathon.vmedicine.api.Lookups;
+import com.technathon.vmedicine.api.OpenFDABatch;
+import com.technathon.vmedicine.api.OpenFDAClient;
+import com.technathon.vmedicine.api.OpenFDAResponse;
+import com.technathon.vmedicine.api.OpenFDAService;
+import com.technathon.vmedicine.api.OpenFDATypeAdapterFactory;
+import com.technathon.vmedicine.api.RateLimitedException;
+import com.technathon.vmedicine.api.RequestPriority;
+import com.technathon.vmedicine.api.Result;
+import com.technathon.vmedicine.api.SingleFlight;
+import com.technathon.vmedicine.data.DrugInteractionDatabase;
+import com.technathon.vmedicine.data.ProfileText;
 import com.technathon.vmedicine.data.UserProfile;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale; // Ensure this is imported if used elsewhere
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import okhttp3.Cache;
-import okhttp3.Call;
-import okhttp3.Callback;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
 
 public class FindMedicineActivity extends AppCompatActivity {
 
     private static final String TAG = "FindMedicineActivity";
     // Removed OPEN_FDA_API_KEY constant - as discussed, it's not typically needed for basic OpenFDA queries
-    private static final String OPEN_FDA_BASE_URL = "https://api.fda.gov/drug/label.json";
     private static final int LOCATION_PERMISSION_REQUEST = 1001; // Keeping if still used for manual search
 
     private static final String PREFS_NAME = "VMedicinePrefs";
     private static final String KEY_CURRENT_USER_ID = "current_user_id";
 
+    private static final String RARITY_COMMON = "Rarity: Commonly Available (FDA approved)";
+    private static final String RARITY_RARE = "Rarity: May be rare or not FDA approved";
+
     private Spinner medicineSpinner;
     private TextView tvRarity;
     private TextView tvOnlineLink;
@@ -67,8 +76,20 @@ public class FindMedicineActivity extends AppCompatActivity {
     private String currentUserId;
 
     private OkHttpClient okHttpClient;
+    private OpenFDAService openFDAService;
+    private LabelRepository labelRepository;
     private ExecutorService executorService;
 
+    // Rarity results keyed by drug concept ID, so "Tylenol" reuses the result fetched for "Paracetamol".
+    // Concept IDs belong to one dataset version; the cache is dropped when the data changes.
+    private final SparseArray<String> rarityByConcept = new SparseArray<>();
+    // Names the dictionary does not know have no concept ID and are cached by lowercase name instead
+    private final Map<String, String> rarityByName = new HashMap<>();
+    private long rarityCacheDataVersion = -1;
+
+    // The lookup for the medicine on screen; cancelled when the user selects another one
+    private SingleFlight<ApiResult<OpenFDAResponse>>.Ticket currentLookup;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -88,11 +109,11 @@ public class FindMedicineActivity extends AppCompatActivity {
         Log.d(TAG, "Current User ID in FindMedicineActivity: " + currentUserId);
 
         db = FirebaseFirestore.getInstance();
-        okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .cache(new Cache(getCacheDir(), 10 * 1024 * 1024))
-                .build();
+        okHttpClient = HttpStack.client(); // Shared connections and response cache
+        HttpStack.preconnect(HttpStack.OPEN_FDA_BASE_URL);
+        // Label text is kept in the offline label store, so read it even though this screen only shows names
+        openFDAService = OpenFDAClient.createService(okHttpClient, OpenFDATypeAdapterFactory.allModeledFields());
+        labelRepository = LabelRepository.get();
         executorService = Executors.newSingleThreadExecutor();
 
         initializeViews();
@@ -124,6 +145,7 @@ public class FindMedicineActivity extends AppCompatActivity {
                             if (userProfile != null && userProfile.getCurrentMedications() != null &&
                                     !userProfile.getCurrentMedications().isEmpty()) {
                                 populateMedicineSpinner(userProfile.getCurrentMedications());
+                                prefetchMedicineDetails(userProfile.getCurrentMedications());
                             } else {
                                 showMessageAndSetupEmptySpinner("No medications found in profile for this user.");
                             }
@@ -171,9 +193,10 @@ public class FindMedicineActivity extends AppCompatActivity {
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 if (position > 0) {
                     String selectedMedicine = spinnerItems.get(position);
-                    String medicineName = extractMedicineName(selectedMedicine);
+                    String medicineName = ProfileText.medicineName(selectedMedicine);
                     displayMedicineDetails(medicineName);
                 } else {
+                    cancelCurrentLookup();
                     resetMedicineDetailsDisplay();
                 }
             }
@@ -195,16 +218,105 @@ public class FindMedicineActivity extends AppCompatActivity {
         });
     }
 
-    private String extractMedicineName(String combinedString) {
-        int parenthesisIndex = combinedString.indexOf(" (");
-        return parenthesisIndex != -1 ?
-                combinedString.substring(0, parenthesisIndex).trim() :
-                combinedString.trim();
-    }
-
     private void displayMedicineDetails(String medicineName) {
+        cancelCurrentLookup();
         showLoadingState(medicineName);
-        executorService.execute(() -> fetchMedicineDataFromAPI(medicineName));
+        executorService.execute(() -> {
+            int conceptId = DrugInteractionDatabase.conceptId(medicineName);
+            String cachedRarity = getCachedRarity(conceptId, medicineName);
+            if (cachedRarity != null) {
+                Log.d(TAG, "Using cached details for " + medicineName + " (concept " + conceptId + ")");
+                runOnUiThread(() -> tvLoadingApiData.setVisibility(View.GONE));
+                updateUIWithMedicineDetails(cachedRarity, buildOnlineSearchUrl(medicineName));
+            } else {
+                // Sent at once even while prefetch batches run: those are background work in the rate limiter,
+                // so waiting for one would put this lookup behind them rather than ahead
+                fetchMedicineDataFromAPI(medicineName, conceptId);
+            }
+        });
+    }
+
+    /**
+     * Fills the rarity cache for every profile medicine: from the device (label cache and offline store)
+     * where possible, the rest (and stale answers) in as few OpenFDA requests as possible, so selecting
+     * a medicine afterwards needs no request of its own and works offline.
+     */
+    private void prefetchMedicineDetails(List<String> medications) {
+        executorService.execute(() -> {
+            List<String> medicineNames = new ArrayList<>(medications.size());
+            for (String medication : medications) {
+                String name = ProfileText.medicineName(medication);
+                LabelCache.Entry cached = labelRepository.peek(labelKey(name), name);
+                if (cached != null) {
+                    cacheRarity(DrugInteractionDatabase.conceptId(name), name, rarityOf(cached.getResult()));
+                }
+                if (cached == null || cached.isStale()) {
+                    medicineNames.add(name);
+                }
+            }
+            searchInBatches(medicineNames);
+        });
+    }
+
+    private void searchInBatches(List<String> medicineNames) {
+        for (OpenFDABatch batch : OpenFDABatch.of(medicineNames)) {
+            Log.d(TAG, "OpenFDA batch search for " + batch.getNames().size() + " medicines, limit " + batch.limit());
+            searchLabels(batch.query(), batch.limit(), new SingleFlight.Listener<ApiResult<OpenFDAResponse>>() {
+                @Override
+                public void onSuccess(ApiResult<OpenFDAResponse> response) {
+                    if (response.isSuccessful() && response.getBody() != null) {
+                        cacheBatchResults(batch, response.getBody().results);
+                    } else if (response.getCode() == 404) {
+                        // OpenFDA answers 404 when nothing matched, which settles every medicine in the batch
+                        for (String name : batch.getNames()) {
+                            cacheRarity(DrugInteractionDatabase.conceptId(name), name, RARITY_RARE);
+                            labelRepository.put(labelKey(name), response);
+                        }
+                    } else {
+                        Log.w(TAG, "OpenFDA batch search failed with " + response.getCode());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    Log.w(TAG, "OpenFDA batch search failed: " + t.getMessage(), t);
+                }
+            });
+        }
+    }
+
+    private void cacheBatchResults(OpenFDABatch batch, List<Result> results) {
+        for (Map.Entry<String, List<Result>> entry : batch.split(results).entrySet()) {
+            // A medicine missing from the batch is left uncached and looked up on its own when selected
+            if (!entry.getValue().isEmpty()) {
+                String name = entry.getKey();
+                cacheRarity(DrugInteractionDatabase.conceptId(name), name, RARITY_COMMON);
+                OpenFDAResponse labels = new OpenFDAResponse();
+                labels.results = entry.getValue();
+                labelRepository.put(labelKey(name), ApiResult.success(200, labels));
+            }
+        }
+    }
+
+    private synchronized String getCachedRarity(int conceptId, String medicineName) {
+        if (rarityCacheDataVersion != DrugInteractionDatabase.getDataVersion()) {
+            return null;
+        }
+        return conceptId >= 0 ? rarityByConcept.get(conceptId) : rarityByName.get(medicineName.toLowerCase(Locale.ROOT));
+    }
+
+    private synchronized void cacheRarity(int conceptId, String medicineName, String rarityText) {
+        long dataVersion = DrugInteractionDatabase.getDataVersion();
+        if (rarityCacheDataVersion != dataVersion) {
+            rarityByConcept.clear();
+            rarityByName.clear();
+            rarityCacheDataVersion = dataVersion;
+        }
+        if (conceptId >= 0) {
+            rarityByConcept.put(conceptId, rarityText);
+        } else {
+            rarityByName.put(medicineName.toLowerCase(Locale.ROOT), rarityText);
+        }
     }
 
     private void showLoadingState(String medicineName) {
@@ -218,46 +330,72 @@ public class FindMedicineActivity extends AppCompatActivity {
         });
     }
 
-    private void fetchMedicineDataFromAPI(String medicineName) {
+    private void fetchMedicineDataFromAPI(String medicineName, int conceptId) {
         try {
-            String apiUrl = buildApiUrl(medicineName);
-            Log.d(TAG, "OpenFDA API URL: " + apiUrl);
-
-            Request request = new Request.Builder()
-                    .url(apiUrl)
-                    .build();
-
-            okHttpClient.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    handleApiFailure(medicineName, e);
-                }
+            // Renders straight from the device if the medicine is known there (stale answers are shown too
+            // and refreshed in the background), otherwise searches OpenFDA
+            SingleFlight<ApiResult<OpenFDAResponse>>.Ticket lookup = labelRepository.load(labelKey(medicineName), medicineName,
+                    new LabelRepository.Listener() {
+                        @Override
+                        public void onLabels(ApiResult<OpenFDAResponse> response, boolean stale) {
+                            Log.d(TAG, "Labels for " + medicineName + (stale ? " (stale, refreshing)" : ""));
+                            handleApiResponse(medicineName, conceptId, response);
+                        }
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    handleApiResponse(medicineName, response);
-                }
-            });
+                        @Override
+                        public void onFailure(Throwable t) {
+                            if (t instanceof JsonParseException) {
+                                handleJsonParsingError(t);
+                            } else if (t instanceof RateLimitedException) {
+                                handleRateLimited(((RateLimitedException) t).getRetryAfterMillis());
+                            } else {
+                                handleApiFailure(medicineName, t);
+                            }
+                        }
+                    });
+            synchronized (this) {
+                currentLookup = lookup;
+            }
         } catch (Exception e) {
             handleUnexpectedError(e);
         }
     }
 
-    private String buildApiUrl(String medicineName) throws UnsupportedEncodingException {
-        // Encode the brand name (exact phrase search)
-        String encodedBrandName = URLEncoder.encode("\"" + medicineName + "\"", "UTF-8");
-        // Encode the generic name (plain search)
-        String encodedGenericName = URLEncoder.encode(medicineName, "UTF-8");
+    /**
+     * Cached labels are shared by every name of a drug, so "Tylenol" finds what "Paracetamol" fetched.
+     */
+    private static String labelKey(String medicineName) {
+        return DrugInteractionDatabase.resolveMedicineName(medicineName);
+    }
 
-        // Combine search for brand_name (exact phrase) OR generic_name (plain)
-        String query = "(openfda.brand_name:" + encodedBrandName + "+OR+openfda.generic_name:" + encodedGenericName + ")";
+    private static String rarityOf(ApiResult<OpenFDAResponse> labels) {
+        OpenFDAResponse body = labels.getBody();
+        return body != null && body.results != null && !body.results.isEmpty() ? RARITY_COMMON : RARITY_RARE;
+    }
 
-        String apiUrl = OPEN_FDA_BASE_URL + "?search=" + query + "&limit=1";
-        Log.d(TAG, "OpenFDA API URL (final construction): " + apiUrl);
-        return apiUrl;
+    /**
+     * Searches labels through the app-wide single-flight group, so a search that is already running
+     * (the same batch sent by another instance of this screen) is joined rather than repeated.
+     * Batches are prefetching, so the rate limiter lets the user's own lookups go first.
+     */
+    private SingleFlight<ApiResult<OpenFDAResponse>>.Ticket searchLabels(
+            String encodedQuery, int limit, SingleFlight.Listener<ApiResult<OpenFDAResponse>> listener) {
+        return Lookups.OPEN_FDA_LABELS.execute(OpenFDAClient.searchKey(encodedQuery, limit),
+                ApiResult.loader(openFDAService.searchDrugLabel(encodedQuery, limit, RequestPriority.BACKGROUND)), listener);
     }
 
-    private void handleApiFailure(String medicineName, IOException e) {
+    private void cancelCurrentLookup() {
+        SingleFlight<ApiResult<OpenFDAResponse>>.Ticket lookup;
+        synchronized (this) {
+            lookup = currentLookup;
+            currentLookup = null;
+        }
+        if (lookup != null) {
+            lookup.cancel();
+        }
+    }
+
+    private void handleApiFailure(String medicineName, Throwable e) {
         runOnUiThread(() -> {
             tvLoadingApiData.setVisibility(View.GONE);
             tvRarity.setText("Rarity: Data unavailable");
@@ -277,46 +415,59 @@ public class FindMedicineActivity extends AppCompatActivity {
         });
     }
 
-    private void handleApiResponse(String medicineName, Response response) throws IOException {
+    private void handleApiResponse(String medicineName, int conceptId, ApiResult<OpenFDAResponse> response) {
         runOnUiThread(() -> tvLoadingApiData.setVisibility(View.GONE));
 
-        if (!response.isSuccessful()) {
+        // 404 is OpenFDA's "no matching label", an answer rather than an error
+        if (!response.isSuccessful() && response.getCode() != 404) {
             handleUnsuccessfulResponse(response);
             return;
         }
 
-        try {
-            String responseBody = response.body() != null ? response.body().string() : "";
-            JSONObject jsonResponse = new JSONObject(responseBody);
-            JSONArray results = jsonResponse.optJSONArray("results");
-
-            String rarityText = results != null && results.length() > 0 ?
-                    "Rarity: Commonly Available (FDA approved)" :
-                    "Rarity: May be rare or not FDA approved";
+        // Parsed by the streaming adapters straight off the network stream, or read from the device
+        String rarityText = rarityOf(response);
 
-            String onlineSearchUrl = "https://www.google.com/search?q=buy+" +
-                    Uri.encode(medicineName) + "+online";
-
-            updateUIWithMedicineDetails(rarityText, onlineSearchUrl);
+        cacheRarity(conceptId, medicineName, rarityText);
+        updateUIWithMedicineDetails(rarityText, buildOnlineSearchUrl(medicineName));
+    }
 
-        } catch (JSONException e) {
-            handleJsonParsingError(e);
-        }
+    private String buildOnlineSearchUrl(String medicineName) {
+        return "https://www.google.com/search?q=buy+" + Uri.encode(medicineName) + "+online";
     }
 
-    private void handleUnsuccessfulResponse(Response response) throws IOException {
-        String errorMessage = "API Error: " + response.code() + " - " +
-                (response.body() != null ? response.body().string() : "No error details");
+    private void handleUnsuccessfulResponse(ApiResult<OpenFDAResponse> response) {
+        if (response.getCode() == 429) {
+            // Still throttled after the client's retries; the error body is not worth showing
+            handleRateLimited(-1);
+            return;
+        }
+        String errorDetails = response.getErrorBody() != null ? response.getErrorBody() : "No error details";
+        String errorMessage = "API Error: " + response.getCode() + " - " + errorDetails;
         Log.e(TAG, errorMessage);
 
         runOnUiThread(() -> {
-            tvRarity.setText("Rarity: API Error (" + response.code() + ")");
+            tvRarity.setText("Rarity: API Error (" + response.getCode() + ")");
             tvOnlineLink.setText("Online Link: Error");
             tvLocalStock.setText("Local Stock: Error");
             Toast.makeText(FindMedicineActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
         });
     }
 
+    private void handleRateLimited(long retryAfterMillis) {
+        Log.w(TAG, "OpenFDA request quota reached, retry after " + retryAfterMillis + " ms");
+        String retryHint = retryAfterMillis > 0 && retryAfterMillis < 60_000 ?
+                "Try again in " + Math.max(1, retryAfterMillis / 1000) + " s." :
+                "Try again later.";
+        runOnUiThread(() -> {
+            tvLoadingApiData.setVisibility(View.GONE);
+            tvRarity.setText("Rarity: Lookup limit reached");
+            tvOnlineLink.setText("Online Link: Unavailable");
+            tvLocalStock.setText("Local Stock: Click 'Find Pharmacies'");
+            Toast.makeText(FindMedicineActivity.this,
+                    "Too many medicine lookups right now. " + retryHint, Toast.LENGTH_SHORT).show();
+        });
+    }
+
     private void updateUIWithMedicineDetails(String rarityText, String onlineSearchUrl) {
         runOnUiThread(() -> {
             tvRarity.setText(rarityText);
@@ -333,7 +484,7 @@ public class FindMedicineActivity extends AppCompatActivity {
         });
     }
 
-    private void handleJsonParsingError(JSONException e) {
+    private void handleJsonParsingError(Throwable e) {
         Log.e(TAG, "JSON parsing error: " + e.getMessage(), e);
         runOnUiThread(() -> {
             tvRarity.setText("Rarity: Data error");
@@ -388,6 +539,8 @@ public class FindMedicineActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        cancelCurrentLookup();
+        Log.d(TAG, Lookups.OPEN_FDA_LABELS.metrics().toString());
         executorService.shutdown();
     }
 }
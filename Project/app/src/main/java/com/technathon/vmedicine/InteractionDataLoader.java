@@ -0,0 +1,115 @@
+package com.technathon.vmedicine;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.technathon.vmedicine.data.DrugInteractionDatabase;
+import com.technathon.vmedicine.data.InteractionBundle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the interaction data bundle in the background and installs it into DrugInteractionDatabase.
+ * A downloaded bundle in the app's files directory wins over the one shipped in assets when it is newer.
+ * Until a bundle is installed, the built-in mock data stays in use. Bundles are read once per process; a
+ * bundle put into the files directory later is picked up on the next start.
+ */
+public final class InteractionDataLoader {
+
+    private static final String TAG = "InteractionDataLoader";
+    public static final String BUNDLE_FILE_NAME = "interactions.vmib";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static Future<?> loading;
+
+    private InteractionDataLoader() {
+    }
+
+    /**
+     * Starts loading the bundle once per process. Safe to call from every screen's onCreate.
+     * Checks already running keep using the data they started with; later checks see the new data.
+     */
+    public static void loadAsync(Context context) {
+        start(context);
+    }
+
+    /**
+     * Loads the bundle like {@link #loadAsync} and waits until it is installed, for work that needs the same
+     * names as the screens but may run in a process no screen was opened in, such as a WorkManager job.
+     * Blocks on reading the bundle, so call it off the main thread.
+     */
+    public static void loadAndWait(Context context) throws InterruptedException {
+        try {
+            start(context).get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Interaction bundle could not be loaded, using built-in data: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private static synchronized Future<?> start(Context context) {
+        if (loading == null) {
+            Context appContext = context.getApplicationContext();
+            loading = executor.submit(() -> load(appContext));
+        }
+        return loading;
+    }
+
+    private static void load(Context context) {
+        long start = System.nanoTime();
+        InteractionBundle best = openAssetBundle(context);
+        InteractionBundle downloaded = openDownloadedBundle(context);
+        if (downloaded != null && (best == null || downloaded.getDataVersion() > best.getDataVersion())) {
+            best = downloaded;
+        }
+        if (best == null) {
+            Log.d(TAG, "No interaction bundle available, using built-in data.");
+            return;
+        }
+        if (DrugInteractionDatabase.install(best)) {
+            Log.i(TAG, "Installed interaction data version " + best.getDataVersion() + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            // Build the name matcher and scanner here rather than on the first scan
+            DrugInteractionDatabase.getSnapshot().getNameMatcher();
+            DrugInteractionDatabase.getSnapshot().getNameScanner();
+        } else {
+            Log.d(TAG, "Interaction data version " + DrugInteractionDatabase.getDataVersion() + " is already current.");
+        }
+    }
+
+    /**
+     * Maps the bundle straight out of the APK. This works because the asset is stored uncompressed
+     * (see androidResources.noCompress in build.gradle).
+     */
+    private static InteractionBundle openAssetBundle(Context context) {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(BUNDLE_FILE_NAME);
+             FileInputStream stream = descriptor.createInputStream();
+             FileChannel channel = stream.getChannel()) {
+            return InteractionBundle.wrap(channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getDeclaredLength()));
+        } catch (IOException e) {
+            Log.d(TAG, "No usable interaction bundle in assets: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static InteractionBundle openDownloadedBundle(Context context) {
+        File file = new File(context.getFilesDir(), BUNDLE_FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return InteractionBundle.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Downloaded interaction bundle is unreadable: " + e.getMessage(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.technathon.vmedicine;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.technathon.vmedicine.api.LabelRepository;
+import com.technathon.vmedicine.api.OpenFDA;
+import com.technathon.vmedicine.api.Result;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Every drug label the app has seen, in a local SQLite database with an FTS4 full-text index, so lookups
+ * keep working without a connection. LabelRepository asks it before the network and adds whatever the
+ * network returns, so the store grows with use.
+ *
+ * Only the fields modeled in {@link Result} and {@link OpenFDA} are kept. Each list is stored as one
+ * column, its items separated by U+001F, which the FTS tokenizer treats as a word break.
+ * Open and query it off the main thread.
+ */
+public final class LabelStore extends SQLiteOpenHelper implements LabelRepository.LocalLabels {
+
+    private static final String DATABASE_NAME = "labels.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String SEPARATOR = "\u001F";
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final String[] COLUMNS = {"brand_names", "generic_names", "routes", "indications", "warnings"};
+
+    private static LabelStore instance;
+
+    LabelStore(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+    }
+
+    public static synchronized LabelStore get(Context context) {
+        if (instance == null) {
+            instance = new LabelStore(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // The docid is a hash of the label's content, so storing a label twice replaces it instead of duplicating it.
+        // Routes are only displayed, never searched.
+        db.execSQL("CREATE VIRTUAL TABLE labels USING fts4("
+                + "brand_names, generic_names, routes, indications, warnings, notindexed=routes)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // A cache of network data: rebuild rather than migrate
+        db.execSQL("DROP TABLE IF EXISTS labels");
+        onCreate(db);
+    }
+
+    /**
+     * Adds labels, replacing any stored copy of the same label, in one transaction.
+     */
+    @Override
+    public void putAll(Collection<Result> labels) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Result label : labels) {
+                if (label == null || label.openfda == null) {
+                    continue;
+                }
+                values.clear();
+                values.put("brand_names", join(label.openfda.brandName));
+                values.put("generic_names", join(label.openfda.genericName));
+                values.put("routes", join(label.openfda.route));
+                values.put("indications", join(label.indicationsAndUsage));
+                values.put("warnings", join(label.warnings));
+                long docid = contentHash(values);
+                values.put("docid", docid);
+                db.delete("labels", "docid = ?", new String[]{Long.toString(docid)});
+                db.insertOrThrow("labels", null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Finds labels whose brand or generic names contain the medicine name as a phrase, e.g. "Tylenol" finds
+     * "Tylenol Extra Strength" and "ibuprofen" finds "IBUPROFEN AND FAMOTIDINE".
+     */
+    @Override
+    public List<Result> findByName(String medicineName, int limit) {
+        String phrase = phrase(medicineName);
+        if (phrase == null) {
+            return new ArrayList<>();
+        }
+        return query("brand_names:" + phrase + " OR generic_names:" + phrase, limit);
+    }
+
+    /**
+     * Full-text search over names, indications and warnings, e.g. "liver warning" or "hypertension".
+     * Every word must appear somewhere in the label.
+     */
+    public List<Result> search(String text, int limit) {
+        StringBuilder match = new StringBuilder();
+        Matcher words = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (words.find()) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(words.group());
+        }
+        return match.length() == 0 ? new ArrayList<>() : query(match.toString(), limit);
+    }
+
+    public long count() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT count(*) FROM labels", null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private List<Result> query(String match, int limit) {
+        List<Result> labels = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query("labels", COLUMNS, "labels MATCH ?", new String[]{match},
+                null, null, null, Integer.toString(limit))) {
+            while (cursor.moveToNext()) {
+                Result label = new Result();
+                label.openfda = new OpenFDA();
+                label.openfda.brandName = split(cursor.getString(0));
+                label.openfda.genericName = split(cursor.getString(1));
+                label.openfda.route = split(cursor.getString(2));
+                label.indicationsAndUsage = split(cursor.getString(3));
+                label.warnings = split(cursor.getString(4));
+                labels.add(label);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @return The name as a quoted FTS phrase of its words, or null if it has none. Quoting keeps
+     * words like "and" or "near" from being read as operators.
+     */
+    private static String phrase(String medicineName) {
+        StringBuilder phrase = new StringBuilder("\"");
+        Matcher words = WORD.matcher(medicineName.toLowerCase(Locale.ROOT));
+        while (words.find()) {
+            if (phrase.length() > 1) {
+                phrase.append(' ');
+            }
+            phrase.append(words.group());
+        }
+        return phrase.length() == 1 ? null : phrase.append('"').toString();
+    }
+
+    private static String join(List<String> items) {
+        return items == null ? null : String.join(SEPARATOR, items);
+    }
+
+    private static List<String> split(String column) {
+        return column == null ? null : new ArrayList<>(Arrays.asList(column.split(SEPARATOR, -1)));
+    }
+
+    /**
+     * 64-bit FNV-1a over the stored columns, made non-negative for use as a docid.
+     */
+    private static long contentHash(ContentValues values) {
+        long hash = 0xcbf29ce484222325L;
+        for (String column : COLUMNS) {
+            String value = values.getAsString(column);
+            byte[] bytes = (value != null ? value : "\u0000").getBytes(StandardCharsets.UTF_8);
+            for (byte b : bytes) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            hash ^= 0xFF; // Column boundary, so ("ab", "c") and ("a", "bc") differ
+            hash *= 0x100000001b3L;
+        }
+        return hash & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,120 @@
+package com.technathon.vmedicine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.technathon.vmedicine.api.LabelRepository;
+import com.technathon.vmedicine.data.DrugInteractionDatabase;
+import com.technathon.vmedicine.data.ProfileText;
+import com.technathon.vmedicine.data.UserProfile;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Refreshes the label data of every medicine in the current user's profile, so the medicine screens find
+ * it on the device instead of fetching it while the user waits. Runs daily, and soon after the profile or
+ * the user changes, but only on an unmetered network while charging: it is never urgent.
+ */
+public class LabelWarmUpWorker extends Worker {
+
+    private static final String TAG = "LabelWarmUpWorker";
+    private static final String PERIODIC_WORK_NAME = "label-warm-up";
+    private static final String ONE_TIME_WORK_NAME = "label-warm-up-now";
+    private static final String PREFS_NAME = "VMedicinePrefs";
+    private static final String KEY_CURRENT_USER_ID = "current_user_id";
+    private static final long PROFILE_TIMEOUT_SECONDS = 30;
+
+    public LabelWarmUpWorker(@NonNull Context context, @NonNull WorkerParameters parameters) {
+        super(context, parameters);
+    }
+
+    /**
+     * Schedules the daily warm-up. Safe to call on every app start; an existing schedule is kept.
+     */
+    public static void schedule(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(LabelWarmUpWorker.class, 1, TimeUnit.DAYS)
+                .setConstraints(constraints())
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Asks for a warm-up as soon as the constraints allow, e.g. after the medications were edited.
+     */
+    public static void runSoon(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(LabelWarmUpWorker.class)
+                .setConstraints(constraints())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(ONE_TIME_WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    private static Constraints constraints() {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        SharedPreferences preferences = getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String userId = preferences.getString(KEY_CURRENT_USER_ID, null);
+        if (userId == null) {
+            return Result.success(); // Nobody signed in, nothing to warm up
+        }
+        try {
+            DocumentSnapshot document = Tasks.await(FirebaseFirestore.getInstance().collection("users").document(userId).get(),
+                    PROFILE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            UserProfile userProfile = document.exists() ? document.toObject(UserProfile.class) : null;
+            List<String> medications = userProfile != null ? userProfile.getCurrentMedications() : null;
+            if (medications == null || medications.isEmpty()) {
+                return Result.success();
+            }
+
+            // Keyed like the screens key their lookups, so they find what this job stored. WorkManager may have
+            // started the process without any screen, so install the bundle they resolve names against first
+            InteractionDataLoader.loadAndWait(getApplicationContext());
+            Map<String, String> medicines = new LinkedHashMap<>();
+            for (String medication : medications) {
+                String name = ProfileText.medicineName(medication);
+                if (!name.isEmpty()) {
+                    medicines.put(DrugInteractionDatabase.resolveMedicineName(name), name);
+                }
+            }
+            long start = System.nanoTime();
+            int requests = LabelRepository.get().refreshAll(medicines);
+            Log.i(TAG, "Warmed up " + medicines.size() + " medicines with " + requests + " requests in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return Result.success();
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Warm-up failed, will retry: " + e.getMessage(), e);
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+}
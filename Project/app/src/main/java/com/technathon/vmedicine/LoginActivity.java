@@ -145,6 +145,7 @@ public class LoginActivity extends AppCompatActivity {
         editor.putString(KEY_CURRENT_USER_ID, userId);
         editor.apply();
         Log.d(TAG, "User ID saved to SharedPreferences: " + userId);
+        LabelWarmUpWorker.runSoon(this); // Another user's medications
     }
 
     /**
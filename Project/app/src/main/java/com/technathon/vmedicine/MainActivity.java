@@ -48,6 +48,9 @@ public class MainActivity extends AppCompatActivity {
         Log.d(TAG, "Current User ID in MainActivity: " + currentUserId);
         // --- End: Retrieve currentUserId from SharedPreferences ---
 
+        // Map the interaction data bundle off the main thread before any scan needs it
+        InteractionDataLoader.loadAsync(this);
+
 
         // Initialize buttons
         btnScanQrCode = findViewById(R.id.btnScanQrCode);
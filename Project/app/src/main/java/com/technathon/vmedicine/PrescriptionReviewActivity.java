@@ -11,28 +11,19 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.technathon.vmedicine.api.GeminiClient;
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.api.PrescriptionAnalyzer;
+import com.technathon.vmedicine.api.SingleFlight;
+import com.technathon.vmedicine.data.DrugInteractionDatabase;
+import com.technathon.vmedicine.data.ExtractedPrescription;
+import com.technathon.vmedicine.data.ProfileText;
 import com.technathon.vmedicine.data.UserProfile;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONArray; // Import JSONArray for parsing AI response
-
-import java.io.IOException; // For OkHttp exceptions
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-// OkHttp imports for network requests
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
 public class PrescriptionReviewActivity extends AppCompatActivity {
 
     private static final String TAG = "PrescriptionReview";
@@ -51,6 +42,7 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
     private FirebaseFirestore db;
     private ExecutorService executorService = Executors.newSingleThreadExecutor(); // For background tasks
     private String currentUserId; // Declared to store the retrieved user ID (no longer hardcoded)
+    private SingleFlight.Cancellable analysis; // The running Gemini call(s), guarded by this
 
     // Data passed from previous activity
     private String originalScannedText;
@@ -89,10 +81,11 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
         // Retrieve the scanned text from the intent that started this activity
         originalScannedText = getIntent().getStringExtra("scanned_text");
 
-        // If scanned text is available, process it with the Gemini AI
+        // If scanned text is available, read the profile fields from it
         if (originalScannedText != null && !originalScannedText.isEmpty()) {
             Log.d(TAG, "Scanned text received: " + originalScannedText);
-            processTextWithGeminiAPI(originalScannedText);
+            prefillDetectedMedicines(originalScannedText);
+            extractProfileFields(originalScannedText, getIntent().getStringArrayListExtra("scanned_blocks"));
         } else {
             // Handle case where no text was passed (e.g., direct launch, error)
             Toast.makeText(this, "No prescription text received for review.", Toast.LENGTH_LONG).show();
@@ -106,130 +99,125 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
     }
 
     /**
-     * Sends the raw prescription text to the Gemini API to extract structured medical data.
-     * Expects a JSON response with allergies, current medications, and medical conditions.
+     * Pre-fills the medications with the known medicines found in the text, before the extracted fields arrive.
+     * Runs on the executor, ahead of the extraction: before the interaction data has warmed up, the first search
+     * builds the dictionary's scanner, which takes hundreds of milliseconds.
+     */
+    private void prefillDetectedMedicines(String text) {
+        executorService.execute(() -> {
+            long scanStart = System.nanoTime();
+            List<String> detectedMedicines = DrugInteractionDatabase.findMedicineNames(text);
+            Log.d(TAG, "Detected " + detectedMedicines.size() + " known medicines in "
+                    + (System.nanoTime() - scanStart) / 1000 + " us: " + detectedMedicines);
+            if (!detectedMedicines.isEmpty()) {
+                onUiThread(() -> etCurrentMedications.setText(joinMedicineNames(detectedMedicines)));
+            }
+        });
+    }
+
+    /**
+     * Fills the allergies, medications and conditions from the raw prescription text: on the device when its
+     * rules understand the text, else with the Gemini API, showing what the device read meanwhile.
+     *
+     * <p>Long prescriptions are read in chunks of OCR blocks, several at once.
      *
      * @param text The raw text extracted from the scanned prescription image.
+     * @param blocks The same text in ML Kit's blocks, or null if the scan did not pass them.
      */
-    private void processTextWithGeminiAPI(String text) {
-        Toast.makeText(this, "Sending to AI for analysis...", Toast.LENGTH_SHORT).show(); // User feedback
-
-        executorService.execute(() -> { // Execute network request on a background thread
-            OkHttpClient client = new OkHttpClient();
-            MediaType JSON = MediaType.get("application/json; charset=utf-8"); // Define content type
-
-            // Construct the prompt for Gemini API
-            String prompt = "From the following prescription text, extract: " +
-                    "1. Allergies (as a comma-separated list, e.g., Penicillin, Sulfa drugs)\n" +
-                    "2. Current Medications (as a comma-separated list, e.g., Lisinopril 10mg, Metformin 500mg)\n" +
-                    "3. Medical Conditions (as a comma-separated list, e.g., Hypertension, Type 2 Diabetes)\n" +
-                    "Return the extracted data as a JSON object with keys: 'allergies', 'currentMedications', 'medicalConditions'. " +
-                    "Each key should map to an array of strings. If a category is not found, its array should be empty. " +
-                    "Do not include any other text or formatting. Here is the prescription text: " + text;
-
-            // Prepare the JSON payload for the Gemini API request
-            // Ensure quotes and newlines are properly escaped for JSON
-            String jsonPayload = String.format(
-                    "{\"contents\": [{\"role\": \"user\", \"parts\": [{\"text\": \"%s\"}]}], " +
-                            "\"generationConfig\": {\"responseMimeType\": \"application/json\", \"responseSchema\": {" +
-                            "\"type\": \"OBJECT\", \"properties\": {" +
-                            "\"allergies\": {\"type\": \"ARRAY\", \"items\": {\"type\": \"STRING\"}}," +
-                            "\"currentMedications\": {\"type\": \"ARRAY\", \"items\": {\"type\": \"STRING\"}}," +
-                            "\"medicalConditions\": {\"type\": \"ARRAY\", \"items\": {\"type\": \"STRING\"}}" +
-                            "}, \"propertyOrdering\": [\"allergies\", \"currentMedications\", \"medicalConditions\"]}}}",
-                    prompt.replace("\"", "\\\"").replace("\n", "\\n")
-            );
-
+    private void extractProfileFields(String text, List<String> blocks) {
+        executorService.execute(() -> { // The medicine dictionary may be built on first use
+            long start = System.nanoTime();
             // API key is left empty; Canvas will inject it for gemini-2.0-flash
             // IMPORTANT: If you are hardcoding an API key for Gemini here,
             // make sure it's correct. Otherwise, use BuildConfig or leave blank if Canvas injects.
             String apiKey = "*********"; // Use your actual Gemini API Key here if hardcoding, or leave blank if Canvas injects
-            String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent?key=" + apiKey;
-
-            RequestBody body = RequestBody.create(JSON, jsonPayload);
+            PrescriptionAnalyzer analyzer = new PrescriptionAnalyzer(new GeminiClient(HttpStack.client(), apiKey));
 
-            Request request = new Request.Builder()
-                    .url(apiUrl)
-                    .post(body)
-                    .build();
+            PrescriptionAnalyzer.Listener listener = new PrescriptionAnalyzer.Listener() {
+                @Override
+                public void onAskingGemini(ExtractedPrescription onDevice) {
+                    onUiThread(() -> {
+                        showExtracted(onDevice);
+                        Toast.makeText(PrescriptionReviewActivity.this, "Sending to AI for analysis...", Toast.LENGTH_SHORT).show();
+                    });
+                }
 
-            // Enqueue the network call asynchronously
-            client.newCall(request).enqueue(new Callback() {
                 @Override
-                public void onFailure(Call call, IOException e) {
-                    runOnUiThread(() -> { // Run on UI thread for Toast
-                        Toast.makeText(PrescriptionReviewActivity.this, "AI processing failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                        Log.e(TAG, "Gemini API call failed: " + e.getMessage(), e);
+                public void onExtracted(ExtractedPrescription prescription, PrescriptionAnalyzer.Source source) {
+                    Log.d(TAG, "Extracted " + prescription + " (" + source + ") in "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms");
+                    onUiThread(() -> { // Update UI on the main thread
+                        showExtracted(prescription);
+                        Toast.makeText(PrescriptionReviewActivity.this, source == PrescriptionAnalyzer.Source.ON_DEVICE ?
+                                "Prescription read! Review and save." : "AI parsing complete! Review and save.", Toast.LENGTH_SHORT).show();
                     });
                 }
 
                 @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    if (response.isSuccessful()) {
-                        try {
-                            String responseBody = response.body().string();
-                            Log.d(TAG, "Gemini API Raw Response: " + responseBody);
-
-                            // Parse the main JSON response from the API
-                            JSONObject jsonResponse = new JSONObject(responseBody);
-                            if (jsonResponse.has("candidates") && jsonResponse.getJSONArray("candidates").length() > 0) {
-                                JSONObject candidate = jsonResponse.getJSONArray("candidates").getJSONObject(0);
-                                if (candidate.has("content") && candidate.getJSONObject("content").has("parts") && candidate.getJSONObject("content").getJSONArray("parts").length() > 0) {
-                                    // Get the actual text content that contains the parsed JSON
-                                    String textContent = candidate.getJSONObject("content").getJSONArray("parts").getJSONObject(0).getString("text");
-                                    Log.d(TAG, "Gemini API Parsed Text Content: " + textContent);
-
-                                    // Parse this 'textContent' string as a JSON object
-                                    final JSONObject parsedData = new JSONObject(textContent);
-
-                                    runOnUiThread(() -> { // Update UI on the main thread
-                                        etAllergies.setText(joinJSONArray(parsedData.optJSONArray("allergies")));
-                                        etCurrentMedications.setText(joinJSONArray(parsedData.optJSONArray("currentMedications")));
-                                        etMedicalConditions.setText(joinJSONArray(parsedData.optJSONArray("medicalConditions")));
-
-                                        Toast.makeText(PrescriptionReviewActivity.this, "AI parsing complete! Review and save.", Toast.LENGTH_SHORT).show();
-                                    });
-                                } else {
-                                    runOnUiThread(() -> Toast.makeText(PrescriptionReviewActivity.this, "AI response content is empty or malformed.", Toast.LENGTH_LONG).show());
-                                    Log.e(TAG, "Gemini response missing content or parts.");
-                                }
-                            } else {
-                                runOnUiThread(() -> Toast.makeText(PrescriptionReviewActivity.this, "AI response candidates missing.", Toast.LENGTH_LONG).show());
-                                Log.e(TAG, "Gemini response candidates missing array.");
-                            }
-                        } catch (IOException | JSONException e) {
-                            runOnUiThread(() -> {
-                                Toast.makeText(PrescriptionReviewActivity.this, "Error processing AI response: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                                Log.e(TAG, "Error reading/parsing Gemini API response: " + e.getMessage(), e);
-                            });
-                        }
-                    } else {
-                        // Handle unsuccessful HTTP responses (e.g., 400, 500)
-                        runOnUiThread(() -> {
-                            try {
-                                String errorBody = response.body() != null ? response.body().string() : "No error body";
-                                Toast.makeText(PrescriptionReviewActivity.this, "AI processing failed (HTTP " + response.code() + "): " + errorBody, Toast.LENGTH_LONG).show();
-                                Log.e(TAG, "Gemini API HTTP Error: " + response.code() + " - " + errorBody);
-                            } catch (IOException e) {
-                                Toast.makeText(PrescriptionReviewActivity.this, "AI processing failed (HTTP " + response.code() + "): Could not read error body.", Toast.LENGTH_LONG).show();
-                                Log.e(TAG, "Gemini API HTTP Error: " + response.code() + " (Error reading body: " + e.getMessage() + ")");
-                            }
-                        });
-                    }
+                public void onFailure(Throwable e, ExtractedPrescription onDevice) {
+                    Log.e(TAG, "Gemini API call failed: " + e.getMessage(), e);
+                    onUiThread(() -> { // Includes the chunks Gemini did answer, if the text was read in chunks
+                        showExtracted(onDevice);
+                        Toast.makeText(PrescriptionReviewActivity.this, "AI processing failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    });
                 }
-            });
+            };
+            if (blocks != null && !blocks.isEmpty()) {
+                track(analyzer.analyzeBlocks(blocks, listener));
+            } else {
+                track(analyzer.analyze(text, listener));
+            }
+        });
+    }
+
+    /**
+     * Runs the action on the main thread, unless the screen has been closed by then.
+     */
+    private void onUiThread(Runnable action) {
+        runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                action.run();
+            }
         });
     }
 
+    /**
+     * Remembers the running Gemini call, or the chunked calls of a long prescription, so closing the screen
+     * cancels them.
+     *
+     * @param call The call, or null if the device answered.
+     */
+    private void track(SingleFlight.Cancellable call) {
+        if (call == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!isDestroyed()) {
+                analysis = call;
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    private void showExtracted(ExtractedPrescription prescription) {
+        etAllergies.setText(join(prescription.getAllergies()));
+        String medications = join(prescription.getCurrentMedications());
+        if (!medications.isEmpty()) { // Keep the scanner's pre-fill if none were found
+            etCurrentMedications.setText(medications);
+        }
+        etMedicalConditions.setText(join(prescription.getMedicalConditions()));
+    }
+
     /**
      * Saves the user's profile data, including allergies, medications, conditions, and age, to Firestore.
      * Performs basic validation on age.
      */
     private void saveUserProfileToFirestore() {
         // Retrieve parsed data from EditText fields
-        List<String> allergies = parseCommaSeparatedText(etAllergies.getText().toString());
-        List<String> currentMedications = parseCommaSeparatedText(etCurrentMedications.getText().toString());
-        List<String> medicalConditions = parseCommaSeparatedText(etMedicalConditions.getText().toString());
+        List<String> allergies = ProfileText.splitCommaSeparated(etAllergies.getText().toString());
+        List<String> currentMedications = ProfileText.splitCommaSeparated(etCurrentMedications.getText().toString());
+        List<String> medicalConditions = ProfileText.splitCommaSeparated(etMedicalConditions.getText().toString());
 
         // Parse and validate user's age
         int age = 0; // Default if not valid
@@ -253,6 +241,11 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
         // Create a new UserProfile object with all the collected data
         // Ensure UserProfile constructor or setters handle this
         UserProfile userProfile = new UserProfile(currentUserId, allergies, currentMedications, medicalConditions, age);
+        String allergyWarning = ProfileText.allergyWarning(userProfile);
+        if (allergyWarning != null) {
+            Toast.makeText(this, allergyWarning, Toast.LENGTH_LONG).show();
+            Log.w(TAG, allergyWarning);
+        }
 
         // Save the UserProfile object to Firestore
         db.collection("users").document(currentUserId)
@@ -260,6 +253,7 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
                 .addOnSuccessListener(aVoid -> {
                     Toast.makeText(PrescriptionReviewActivity.this, "Profile saved successfully!", Toast.LENGTH_SHORT).show();
                     Log.d(TAG, "User profile data saved for user: " + currentUserId);
+                    LabelWarmUpWorker.runSoon(PrescriptionReviewActivity.this); // The medications were replaced
                     finish(); // Close this activity and return to the previous one
                 })
                 .addOnFailureListener(e -> {
@@ -269,41 +263,24 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
     }
 
     /**
-     * Helper method to parse a comma-separated string from an EditText into a List of Strings.
-     * Handles trimming whitespace and empty input.
+     * Joins extracted items into a single comma-separated String.
      *
-     * @param text The input string (e.g., from an EditText).
-     * @return A List of strings, where each string is an item from the input. Returns an empty list if input is null or empty.
+     * @return The items separated by ", ", or an empty string if null/empty.
      */
-    private List<String> parseCommaSeparatedText(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return new ArrayList<>();
-        }
-        return new ArrayList<>(Arrays.asList(text.split("\\s*,\\s*")));
+    private static String join(List<String> items) {
+        return items == null ? "" : String.join(", ", items);
     }
 
     /**
-     * Helper method to convert a JSONArray into a single comma-separated String.
-     * Handles potential JSONException internally when accessing elements.
-     *
-     * @param jsonArray The JSONArray to process.
-     * @return A comma-separated string representation of the array, or an empty string if null/empty.
+     * Joins dictionary medicine names (lowercase) into a comma-separated list for display, capitalizing each.
      */
-    private String joinJSONArray(JSONArray jsonArray) {
-        if (jsonArray == null || jsonArray.length() == 0) {
-            return "";
-        }
+    private String joinMedicineNames(List<String> names) {
         StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < jsonArray.length(); i++) {
-            try {
-                builder.append(jsonArray.getString(i));
-                if (i < jsonArray.length() - 1) {
-                    builder.append(", ");
-                }
-            } catch (JSONException e) {
-                // Log the exception but continue processing other elements
-                Log.e(TAG, "JSONException in joinJSONArray at index " + i + ": " + e.getMessage());
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(", ");
             }
+            builder.append(Character.toUpperCase(name.charAt(0))).append(name.substring(1));
         }
         return builder.toString();
     }
@@ -311,6 +288,14 @@ public class PrescriptionReviewActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        SingleFlight.Cancellable call;
+        synchronized (this) {
+            call = analysis;
+            analysis = null;
+        }
+        if (call != null) {
+            call.cancel();
+        }
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdownNow();
         }
@@ -30,10 +30,12 @@ import com.google.mlkit.vision.text.Text;
 import com.google.mlkit.vision.text.TextRecognition;
 import com.google.mlkit.vision.text.TextRecognizer;
 import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+import com.technathon.vmedicine.api.HttpStack;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
 
@@ -79,6 +81,9 @@ public class PrescriptionScanActivity extends AppCompatActivity {
         // --- End: Retrieve currentUserId from SharedPreferences ---
 
 
+        // The review screen sends the recognized text to Gemini; open that connection while the user takes the photo
+        HttpStack.preconnect(HttpStack.GEMINI_BASE_URL);
+
         // Initialize UI elements
         ivPrescriptionImage = findViewById(R.id.ivPrescriptionImage);
         btnCaptureImage = findViewById(R.id.btnCaptureImage);
@@ -264,7 +269,7 @@ public class PrescriptionScanActivity extends AppCompatActivity {
                                 Toast.makeText(PrescriptionScanActivity.this, "Text extracted successfully!", Toast.LENGTH_SHORT).show();
                                 Log.d(TAG, "Text recognition successful. Passing to handler.");
                                 // Pass the recognized text to a handler method for further processing (e.g., AI parsing)
-                                handleRecognizedText(recognizedText);
+                                handleRecognizedText(recognizedText, blockTexts(result));
                             }
                         }
                     })
@@ -287,11 +292,22 @@ public class PrescriptionScanActivity extends AppCompatActivity {
     }
 
     /**
-     * Handles the recognized text. Currently logs it and shows a toast.
-     * In future steps, this will be where the text is sent to an AI for parsing.
+     * The text of each block ML Kit recognized, in reading order; long prescriptions are analyzed in chunks of them.
+     */
+    private static ArrayList<String> blockTexts(Text result) {
+        ArrayList<String> blocks = new ArrayList<>();
+        for (Text.TextBlock block : result.getTextBlocks()) {
+            blocks.add(block.getText());
+        }
+        return blocks;
+    }
+
+    /**
+     * Handles the recognized text by opening the review screen with it.
      * @param text The full text recognized by ML Kit.
+     * @param blocks The same text split into ML Kit's blocks.
      */
-    private void handleRecognizedText(String text) {
+    private void handleRecognizedText(String text, ArrayList<String> blocks) {
         // Log the full recognized text for debugging purposes
         Log.d(TAG, "Full Recognized Text:\n" + text);
 
@@ -299,6 +315,7 @@ public class PrescriptionScanActivity extends AppCompatActivity {
         Intent intent = new Intent(PrescriptionScanActivity.this, PrescriptionReviewActivity.class);
         // Put the recognized text as an extra in the Intent
         intent.putExtra("scanned_text", text);
+        intent.putStringArrayListExtra("scanned_blocks", blocks);
         startActivity(intent);
 
         // Finish this activity so user doesn't come back here with back button immediately
@@ -9,55 +9,61 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import com.technathon.vmedicine.api.ApiResult;
+import com.technathon.vmedicine.api.GeminiClient;
+import com.technathon.vmedicine.api.GeminiRequest;
+import com.technathon.vmedicine.api.GeminiResponse;
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.api.InstructionCache;
+import com.technathon.vmedicine.api.LabelRepository;
+import com.technathon.vmedicine.api.Lookups;
+import com.technathon.vmedicine.api.OpenFDAResponse;
+import com.technathon.vmedicine.api.RateLimitedException;
+import com.technathon.vmedicine.api.Result;
+import com.technathon.vmedicine.api.SingleFlight;
+import com.technathon.vmedicine.data.DrugInteraction;
 import com.technathon.vmedicine.data.DrugInteractionDatabase;
 import com.technathon.vmedicine.data.UserProfile;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
 public class ScannedMedicineDetailActivity extends AppCompatActivity {
 
     private static final String TAG = "ScannedMedDetail";
     private static final String PREFS_NAME = "VMedicinePrefs";
     private static final String KEY_CURRENT_USER_ID = "current_user_id";
+    private static final int LABEL_SECTION_CHARS = 300;
 
     // UI Elements
     private TextView tvMedicineName;
     private TextView tvAllergyStatus;
     private TextView tvHowToUse;
+    private TextView tvLabelInfo;
     private Button btnBackToMain;
 
     // Data members
     private FirebaseFirestore db;
+    private SharedInstructionCache sharedInstructions;
     private String currentUserId; // Now dynamically fetched
     private String scannedMedicineName;
     private UserProfile currentUserProfile;
 
-    private ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // The label, general instructions and personalized instructions lookups each wait on the disk or Firestore
+    private ExecutorService executorService = Executors.newFixedThreadPool(3);
+    private final List<SingleFlight.Cancellable> inFlight = new ArrayList<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -80,28 +86,34 @@ public class ScannedMedicineDetailActivity extends AppCompatActivity {
         Log.d(TAG, "Current User ID in ScannedMedicineDetailActivity: " + currentUserId);
         // --- End: Retrieve currentUserId from SharedPreferences ---
 
+        // Instructions come from Gemini and the label from OpenFDA; connect while the caches and Firestore answer
+        HttpStack.preconnect(HttpStack.GEMINI_BASE_URL, HttpStack.OPEN_FDA_BASE_URL);
+
         // Initialize UI elements
         tvMedicineName = findViewById(R.id.tvMedicineName);
         tvAllergyStatus = findViewById(R.id.tvAllergyStatus);
         tvHowToUse = findViewById(R.id.tvHowToUse);
+        tvLabelInfo = findViewById(R.id.tvLabelInfo);
         btnBackToMain = findViewById(R.id.btnBackToMain);
 
         // Initialize Firestore
         db = FirebaseFirestore.getInstance();
+        sharedInstructions = new SharedInstructionCache(db);
 
         // Get the scanned medicine name from the Intent
         scannedMedicineName = getIntent().getStringExtra("medicine_name");
         if (scannedMedicineName != null && !scannedMedicineName.isEmpty()) {
             tvMedicineName.setText(scannedMedicineName);
             Log.d(TAG, "Scanned medicine received: " + scannedMedicineName);
-            // Start the process: fetch user profile, then check, then get how-to-use
-            fetchUserProfileAndProcessMedicine();
+            tvHowToUse.setText("Generating instructions...");
+            startLookups();
         } else {
             tvMedicineName.setText("N/A - No medicine scanned");
             tvAllergyStatus.setText("Error: No medicine name found.");
             tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_error);
             tvAllergyStatus.setTextColor(ContextCompat.getColor(this, android.R.color.holo_red_dark));
             tvHowToUse.setText("Cannot provide details without medicine name.");
+            tvLabelInfo.setText("Cannot provide details without medicine name.");
             Toast.makeText(this, "No medicine name found from QR scan.", Toast.LENGTH_LONG).show();
             Log.e(TAG, "No medicine_name extra found in intent.");
         }
@@ -110,59 +122,251 @@ public class ScannedMedicineDetailActivity extends AppCompatActivity {
     }
 
     /**
-     * Fetches the current user's profile from Firestore to get allergies, age, and medical conditions.
-     * After fetching, it calls methods to check for allergy interactions and get personalized usage.
+     * Starts every lookup the screen needs and joins them as their inputs arrive, so the screen is filled in
+     * the time of the slowest call rather than the sum of them all:
+     * <ul>
+     *     <li>The user's profile is fetched from Firestore.</li>
+     *     <li>At the same time the name is canonicalized, and with it the FDA label and the general
+     *     instructions (for no particular age or condition) are looked up. The general instructions are a
+     *     guess: they are shown until the personalized ones arrive, and used if those fail.</li>
+     *     <li>When the profile lands, the allergy and interaction checks run on the canonical name and the
+     *     personalized instructions are looked up, unless the profile asks for nothing the general
+     *     instructions do not cover.</li>
+     * </ul>
+     */
+    private void startLookups() {
+        long start = System.nanoTime();
+        CompletableFuture<UserProfile> profile = fetchUserProfile();
+        CompletableFuture<String> canonicalName = CompletableFuture.supplyAsync(
+                () -> DrugInteractionDatabase.resolveMedicineName(scannedMedicineName), executorService);
+        CompletableFuture<ApiResult<OpenFDAResponse>> labels = canonicalName.thenComposeAsync(this::fetchLabels, executorService);
+        CompletableFuture<String> generalInstructions = canonicalName.thenComposeAsync(
+                name -> fetchInstructions(name, 0, null), executorService);
+
+        // A failed profile still gets the general instructions
+        CompletableFuture<String> instructions = canonicalName
+                .thenCombine(profile.handle((userProfile, error) -> userProfile), (name, userProfile) -> {
+                    if (userProfile == null || InstructionCache.key(name, userProfile.getAge(), userProfile.getMedicalConditions())
+                            .equals(InstructionCache.key(name, 0, null))) {
+                        return generalInstructions;
+                    }
+                    return CompletableFuture.supplyAsync(() -> fetchInstructions(name, userProfile.getAge(),
+                            userProfile.getMedicalConditions()), executorService)
+                            .thenCompose(personalized -> personalized)
+                            .handle((text, error) -> error == null ? CompletableFuture.completedFuture(text) : generalInstructions)
+                            .thenCompose(text -> text);
+                })
+                .thenCompose(text -> text);
+
+        CompletableFuture<SafetyChecks> safetyChecks = profile.thenCombineAsync(canonicalName, SafetyChecks::new, executorService);
+        safetyChecks.whenComplete((checks, error) -> onUiThread(() -> showSafetyChecks(checks, error)));
+        labels.whenComplete((result, error) -> onUiThread(() -> showLabels(result, error)));
+        generalInstructions.thenAccept(text -> onUiThread(() -> {
+            if (!instructions.isDone()) {
+                tvHowToUse.setText(text + "\n\nPersonalizing for your profile...");
+            }
+        }));
+        instructions.whenComplete((text, error) -> onUiThread(() -> showInstructions(text, error)));
+
+        CompletableFuture.allOf(safetyChecks, labels, instructions).whenComplete((done, error) ->
+                Log.d(TAG, "Screen filled in " + (System.nanoTime() - start) / 1_000_000 + " ms"));
+    }
+
+    /**
+     * @return The current user's profile, or null if they have not created one.
      */
-    private void fetchUserProfileAndProcessMedicine() {
+    private CompletableFuture<UserProfile> fetchUserProfile() {
         Log.d(TAG, "Fetching user profile for " + currentUserId);
-        DocumentReference userDocRef = db.collection("users").document(currentUserId);
-        userDocRef.get().addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
-            @Override
-            public void onComplete(@NonNull Task<DocumentSnapshot> task) {
-                if (task.isSuccessful()) {
-                    DocumentSnapshot document = task.getResult();
-                    if (document.exists()) {
-                        currentUserProfile = document.toObject(UserProfile.class);
-                        if (currentUserProfile != null) {
-                            Log.d(TAG, "User profile fetched: " + currentUserProfile.getAllergies() + ", Age: " + currentUserProfile.getAge());
-                            checkAllergyInteraction(scannedMedicineName, currentUserProfile.getAllergies());
-                            getPersonalizedHowToUse(scannedMedicineName, currentUserProfile.getAge(), currentUserProfile.getMedicalConditions());
-                        } else {
-                            Log.e(TAG, "UserProfile object is null after conversion.");
-                            Toast.makeText(ScannedMedicineDetailActivity.this, "Error: User profile data malformed.", Toast.LENGTH_LONG).show();
-                            tvAllergyStatus.setText("Profile data error.");
-                            tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_error);
-                            tvAllergyStatus.setTextColor(ContextCompat.getColor(ScannedMedicineDetailActivity.this, android.R.color.holo_red_dark));
-                            tvHowToUse.setText("Cannot get instructions due to profile error.");
-                        }
-                    } else {
-                        Log.d(TAG, "No user profile document found for " + currentUserId);
-                        Toast.makeText(ScannedMedicineDetailActivity.this, "User profile not found. Please create one in User Profile section.", Toast.LENGTH_LONG).show();
-                        tvAllergyStatus.setText("No profile. Cannot check allergies.");
-                        tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_warning);
-                        tvAllergyStatus.setTextColor(ContextCompat.getColor(ScannedMedicineDetailActivity.this, android.R.color.holo_orange_dark));
-                        getPersonalizedHowToUse(scannedMedicineName, 0, new ArrayList<>()); // Still try to get general how-to-use
+        CompletableFuture<UserProfile> profile = new CompletableFuture<>();
+        db.collection("users").document(currentUserId).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                profile.completeExceptionally(task.getException());
+                return;
+            }
+            try {
+                DocumentSnapshot document = task.getResult();
+                profile.complete(document.exists() ? document.toObject(UserProfile.class) : null);
+            } catch (RuntimeException e) { // Malformed profile data
+                profile.completeExceptionally(e);
+            }
+        });
+        return profile;
+    }
+
+    /**
+     * Looks the label up through the label repository: from the device if it is known there, else from OpenFDA.
+     * Reads the disk, so call it off the main thread.
+     */
+    private CompletableFuture<ApiResult<OpenFDAResponse>> fetchLabels(String canonicalName) {
+        CompletableFuture<ApiResult<OpenFDAResponse>> labels = new CompletableFuture<>();
+        SingleFlight<ApiResult<OpenFDAResponse>>.Ticket lookup = LabelRepository.get().load(canonicalName, scannedMedicineName,
+                new LabelRepository.Listener() {
+                    @Override
+                    public void onLabels(ApiResult<OpenFDAResponse> result, boolean stale) {
+                        labels.complete(result);
                     }
-                } else {
-                    Log.e(TAG, "Error fetching user profile: " + task.getException().getMessage(), task.getException());
-                    Toast.makeText(ScannedMedicineDetailActivity.this, "Error loading profile: " + task.getException().getMessage(), Toast.LENGTH_LONG).show();
-                    tvAllergyStatus.setText("Error loading profile. Cannot check allergies.");
-                    tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_error);
-                    tvAllergyStatus.setTextColor(ContextCompat.getColor(ScannedMedicineDetailActivity.this, android.R.color.holo_red_dark));
-                    tvHowToUse.setText("Cannot get instructions due to loading error.");
-                }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        labels.completeExceptionally(error);
+                    }
+                });
+        if (lookup != null) {
+            track(lookup::cancel);
+        }
+        return labels;
+    }
+
+    /**
+     * The outcome of the checks that need the profile. Checking may build the name matcher and compiles the
+     * profile's allergies and medications, so create it off the main thread.
+     */
+    private static final class SafetyChecks {
+        final UserProfile userProfile;
+        final String interactingAllergy;
+        final List<DrugInteraction> interactions;
+
+        /**
+         * @param userProfile The profile, or null if the user has none.
+         */
+        SafetyChecks(UserProfile userProfile, String canonicalName) {
+            this.userProfile = userProfile;
+            if (userProfile == null) {
+                interactingAllergy = null;
+                interactions = Collections.emptyList();
+                return;
+            }
+            List<String> allergies = userProfile.getAllergies();
+            interactingAllergy = allergies == null || allergies.isEmpty() ? null :
+                    DrugInteractionDatabase.checkForAllergyInteraction(canonicalName, userProfile.allergyProfile());
+            interactions = DrugInteractionDatabase.checkForDrugInteractions(canonicalName, userProfile.regimen());
+        }
+    }
+
+    /**
+     * Shows the outcome of the checks that need the profile in tvAllergyStatus.
+     *
+     * @param checks The outcome, or null if there was an error.
+     * @param error Why the profile could not be loaded, or null.
+     */
+    private void showSafetyChecks(SafetyChecks checks, Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            Log.e(TAG, "Error fetching user profile: " + cause.getMessage(), cause);
+            Toast.makeText(this, "Error loading profile: " + cause.getMessage(), Toast.LENGTH_LONG).show();
+            tvAllergyStatus.setText("Error loading profile. Cannot check allergies.");
+            tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_error);
+            tvAllergyStatus.setTextColor(ContextCompat.getColor(this, android.R.color.holo_red_dark));
+            return;
+        }
+        UserProfile userProfile = checks.userProfile;
+        if (userProfile == null) {
+            Log.d(TAG, "No user profile document found for " + currentUserId);
+            Toast.makeText(this, "User profile not found. Please create one in User Profile section.", Toast.LENGTH_LONG).show();
+            tvAllergyStatus.setText("No profile. Cannot check allergies.");
+            tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_warning);
+            tvAllergyStatus.setTextColor(ContextCompat.getColor(this, android.R.color.holo_orange_dark));
+            return;
+        }
+        currentUserProfile = userProfile;
+        Log.d(TAG, "User profile fetched: " + userProfile.getAllergies() + ", Age: " + userProfile.getAge());
+        showAllergyCheck(scannedMedicineName, userProfile, checks.interactingAllergy);
+        showDrugInteractions(scannedMedicineName, checks.interactions);
+    }
+
+    /**
+     * Shows the start of the first label's indications and warnings in tvLabelInfo.
+     */
+    private void showLabels(ApiResult<OpenFDAResponse> result, Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            Log.e(TAG, "Label lookup failed: " + cause.getMessage(), cause);
+            tvLabelInfo.setText(cause instanceof RateLimitedException ?
+                    "Too many label lookups right now. Try again later." :
+                    "Could not load the FDA label. Check connection.");
+            return;
+        }
+        // 404 is OpenFDA's "no matching label", an answer rather than an error
+        if (!result.isSuccessful() && result.getCode() != 404) {
+            Log.e(TAG, "Label lookup HTTP error: " + result.getCode() + " - " + result.getErrorBody());
+            tvLabelInfo.setText("Could not load the FDA label (HTTP " + result.getCode() + ").");
+            return;
+        }
+        OpenFDAResponse body = result.getBody();
+        if (body == null || body.results == null || body.results.isEmpty()) {
+            tvLabelInfo.setText("No FDA label found for this medicine.");
+            return;
+        }
+        Result label = body.results.get(0);
+        StringBuilder text = new StringBuilder();
+        appendLabelSection(text, "Indications: ", label.indicationsAndUsage);
+        appendLabelSection(text, "Warnings: ", label.warnings);
+        tvLabelInfo.setText(text.length() > 0 ? text.toString() : "The FDA label has no indications or warnings.");
+    }
+
+    private static void appendLabelSection(StringBuilder text, String heading, List<String> paragraphs) {
+        if (paragraphs == null || paragraphs.isEmpty()) {
+            return;
+        }
+        String paragraph = paragraphs.get(0).trim();
+        if (paragraph.length() > LABEL_SECTION_CHARS) {
+            paragraph = paragraph.substring(0, LABEL_SECTION_CHARS - 1) + "…";
+        }
+        if (text.length() > 0) {
+            text.append("\n\n");
+        }
+        text.append(heading).append(paragraph);
+    }
+
+    private void showInstructions(String text, Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            Log.e(TAG, "Gemini API call for how-to-use failed: " + cause.getMessage(), cause);
+            tvHowToUse.setText(cause instanceof InstructionsUnavailableException ?
+                    cause.getMessage() :
+                    "Error generating instructions: " + cause.getMessage());
+            return;
+        }
+        tvHowToUse.setText(text);
+    }
+
+    /**
+     * Runs the action on the main thread, unless the screen has been closed by then.
+     */
+    private void onUiThread(Runnable action) {
+        runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                action.run();
             }
         });
     }
 
     /**
-     * Performs an allergy interaction check for the given medicine against user's allergies.
-     * Updates tvAllergyStatus accordingly.
+     * Remembers a running call, so closing the screen cancels it.
+     */
+    private void track(SingleFlight.Cancellable call) {
+        synchronized (inFlight) {
+            if (!isDestroyed()) {
+                inFlight.add(call);
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Shows the outcome of the allergy check for the given medicine in tvAllergyStatus.
      *
-     * @param medicineName The name of the medicine to check.
-     * @param userAllergies List of allergies from the user's profile.
+     * @param medicineName The name of the medicine, as shown to the user.
+     * @param userProfile The user's profile.
+     * @param interactingAllergy The allergy the medicine conflicts with, or null.
      */
-    private void checkAllergyInteraction(String medicineName, List<String> userAllergies) {
+    private void showAllergyCheck(String medicineName, UserProfile userProfile, String interactingAllergy) {
+        List<String> userAllergies = userProfile.getAllergies();
         if (userAllergies == null || userAllergies.isEmpty()) {
             tvAllergyStatus.setText("No allergies found in your profile. Assuming safe for allergies.");
             tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_success);
@@ -170,8 +374,6 @@ public class ScannedMedicineDetailActivity extends AppCompatActivity {
             return;
         }
 
-        String interactingAllergy = DrugInteractionDatabase.checkForAllergyInteraction(medicineName, userAllergies);
-
         if (interactingAllergy != null) {
             String warningMessage = "WARNING: This medicine (" + medicineName + ") is contraindicated due to your " + interactingAllergy + " allergy. Do not use it.";
             tvAllergyStatus.setText(warningMessage);
@@ -187,103 +389,132 @@ public class ScannedMedicineDetailActivity extends AppCompatActivity {
     }
 
     /**
-     * Calls Gemini API to get personalized "How to Use" instructions based on medicine, age, and medical conditions.
-     * Updates tvHowToUse accordingly.
+     * Appends a warning for the interactions of the medicine with the user's current medications to
+     * tvAllergyStatus.
      *
-     * @param medicineName The medicine to get instructions for.
-     * @param age The user's age.
-     * @param medicalConditions List of user's medical conditions.
+     * @param medicineName The name of the medicine, as shown to the user.
+     * @param interactions The interactions found, if any.
      */
-    private void getPersonalizedHowToUse(String medicineName, int age, List<String> medicalConditions) {
-        tvHowToUse.setText("Generating personalized instructions...");
-        executorService.execute(() -> {
-            OkHttpClient client = new OkHttpClient();
-            MediaType JSON = MediaType.get("application/json; charset=utf-8");
-
-            String conditionsString = medicalConditions != null && !medicalConditions.isEmpty() ?
-                    "User has medical conditions: " + String.join(", ", medicalConditions) + ". " :
-                    "";
-            String prompt = String.format(
-                    "For the medicine '%s', provide a very brief and concise explanation of its general use and how to administer it. " +
-                            "If it's a cream, briefly explain how to apply. " +
-                            "DO NOT provide specific dosage numbers or quantities. " +
-                            "Also, include any common and important warnings or side effects relevant to daily activities (e.g., drowsiness, dizziness) if applicable. " +
-                            "Keep the response to 2-4 sentences max. " +
-                            "Consider the user's age (%d years old) and their medical conditions: %s. " +
-                            "Start directly with the explanation. If information is not available, state that briefly.",
-                    medicineName, age, conditionsString
-            );
-            String jsonPayload = String.format(
-                    "{\"contents\": [{\"role\": \"user\", \"parts\": [{\"text\": \"%s\"}]}]}",
-                    prompt.replace("\"", "\\\"").replace("\n", "\\n")
-            );
-
-            // FIX: Set API key to empty string for Canvas to inject it.
-            String apiKey = "*********"; // Set to empty string for Canvas to inject automatically
-            String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent?key=" + apiKey;
-
-            RequestBody body = RequestBody.create(jsonPayload, JSON);
-            Request request = new Request.Builder()
-                    .url(apiUrl)
-                    .post(body)
-                    .build();
-
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    runOnUiThread(() -> {
-                        tvHowToUse.setText("Error generating instructions: " + e.getMessage());
-                        Log.e(TAG, "Gemini API call for how-to-use failed: " + e.getMessage(), e);
-                    });
-                }
+    private void showDrugInteractions(String medicineName, List<DrugInteraction> interactions) {
+        if (interactions.isEmpty()) {
+            Log.i(TAG, "No drug interaction found for " + medicineName + " with user's current medications.");
+            return;
+        }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    if (response.isSuccessful()) {
-                        try {
-                            String responseBody = response.body().string();
-                            JSONObject jsonResponse = new JSONObject(responseBody);
-                            String generatedText = "Could not generate instructions.";
-
-                            if (jsonResponse.has("candidates") && jsonResponse.getJSONArray("candidates").length() > 0) {
-                                JSONObject candidate = jsonResponse.getJSONArray("candidates").getJSONObject(0);
-                                if (candidate.has("content") && candidate.getJSONObject("content").has("parts") && candidate.getJSONObject("content").getJSONArray("parts").length() > 0) {
-                                    generatedText = candidate.getJSONObject("content").getJSONArray("parts").getJSONObject(0).getString("text");
-                                    Log.d(TAG, "Gemini generated how-to-use: " + generatedText);
-                                }
-                            }
-
-                            final String finalGeneratedText = generatedText;
-                            runOnUiThread(() -> tvHowToUse.setText(finalGeneratedText));
-
-                        } catch (IOException | JSONException e) {
-                            runOnUiThread(() -> {
-                                tvHowToUse.setText("Error parsing instructions: " + e.getMessage());
-                                Log.e(TAG, "Error parsing Gemini response for how-to-use: " + e.getMessage(), e);
-                            });
-                        }
-                    } else {
-                        runOnUiThread(() -> {
-                            try {
-                                String errorBody = response.body() != null ? response.body().string() : "No error body";
-                                tvHowToUse.setText("Failed to get instructions: HTTP " + response.code() + " - " + errorBody);
-                                Log.e(TAG, "Gemini API HTTP Error for how-to-use: " + response.code() + " - " + errorBody);
-                            } catch (IOException e) {
-                                tvHowToUse.setText("Failed to get instructions: HTTP " + response.code());
-                                Log.e(TAG, "Gemini API HTTP Error (no body) for how-to-use: " + response.code());
-                            }
-                        });
-                    }
+        StringBuilder warningMessage = new StringBuilder(tvAllergyStatus.getText()).append("\n\nDRUG INTERACTION: ");
+        for (DrugInteraction interaction : interactions) {
+            warningMessage.append(medicineName).append(" has a ").append(interaction.getSeverityLabel())
+                    .append(" interaction with ").append(interaction.getInteractingDrugName()).append(". ");
+        }
+        warningMessage.append("Consult your doctor or pharmacist before use.");
+        tvAllergyStatus.setText(warningMessage.toString());
+        tvAllergyStatus.setBackgroundResource(R.drawable.rounded_box_error);
+        tvAllergyStatus.setTextColor(ContextCompat.getColor(this, android.R.color.holo_red_dark));
+        Log.w(TAG, warningMessage.toString());
+    }
+
+    /**
+     * Looks up the "How to Use" instructions for the medicine, age group and medical conditions: from this
+     * device's cache, else from the cache shared by all users, else from Gemini. Reads the disk and waits for
+     * Firestore, so call it off the main thread.
+     *
+     * @param canonicalName The canonical name of the medicine to get instructions for.
+     * @param age The user's age, or 0 if unknown.
+     * @param medicalConditions List of user's medical conditions, or null.
+     * @return The instructions; fails with {@link InstructionsUnavailableException} if Gemini gave none.
+     */
+    private CompletableFuture<String> fetchInstructions(String canonicalName, int age, List<String> medicalConditions) {
+        // The same medicine for the same age group and conditions was explained before: use that at once
+        InstructionCache instructionCache = InstructionCache.get();
+        String cacheKey = InstructionCache.key(canonicalName, age, medicalConditions);
+        String cachedText = instructionCache.get(cacheKey);
+        if (cachedText == null) {
+            // Another user with the same age group and conditions may have asked already
+            cachedText = sharedInstructions.get(canonicalName, age, medicalConditions);
+            if (cachedText != null) {
+                storeInstructions(instructionCache, cacheKey, cachedText);
+            }
+        }
+        if (cachedText != null) {
+            return CompletableFuture.completedFuture(cachedText);
+        }
+
+        String prompt = InstructionCache.prompt(canonicalName, age, medicalConditions);
+
+        // FIX: Set API key to empty string for Canvas to inject it.
+        String apiKey = "*********"; // Set to empty string for Canvas to inject automatically
+        GeminiClient gemini = new GeminiClient(HttpStack.client(), apiKey);
+
+        CompletableFuture<String> instructions = new CompletableFuture<>();
+        // Keyed like the instruction cache: the same inputs give the same prompt, so a running call for the
+        // same instructions (e.g. the same QR code scanned again) is joined instead of repeated
+        SingleFlight<ApiResult<GeminiResponse>>.Ticket lookup = Lookups.GEMINI.execute(gemini.getModel() + ":" + cacheKey,
+                gemini.loader(GeminiRequest.prompt(prompt)), new SingleFlight.Listener<ApiResult<GeminiResponse>>() {
+            @Override
+            public void onFailure(Throwable e) {
+                instructions.completeExceptionally(e);
+            }
+
+            @Override
+            public void onSuccess(ApiResult<GeminiResponse> response) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.getErrorBody();
+                    Log.e(TAG, "Gemini API HTTP Error for how-to-use: " + response.getCode() + " - " + errorBody);
+                    instructions.completeExceptionally(new InstructionsUnavailableException(
+                            "Failed to get instructions: HTTP " + response.getCode() + (errorBody != null ? " - " + errorBody : "")));
+                    return;
+                }
+                String generatedText = response.getBody().text();
+                if (generatedText.isEmpty()) {
+                    instructions.completeExceptionally(new InstructionsUnavailableException("Could not generate instructions."));
+                    return;
                 }
-            });
+                Log.d(TAG, "Gemini generated how-to-use: " + generatedText);
+                storeInstructions(instructionCache, cacheKey, generatedText);
+                sharedInstructions.put(canonicalName, age, medicalConditions, generatedText);
+                instructions.complete(generatedText);
+            }
         });
+        track(lookup::cancel);
+        return instructions;
+    }
+
+    private static void storeInstructions(InstructionCache instructionCache, String cacheKey, String text) {
+        try {
+            instructionCache.put(cacheKey, text);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache instructions: " + e.getMessage(), e);
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        List<SingleFlight.Cancellable> calls;
+        synchronized (inFlight) {
+            calls = new ArrayList<>(inFlight);
+            inFlight.clear();
+        }
+        for (SingleFlight.Cancellable call : calls) {
+            call.cancel();
+        }
+        if (tvHowToUse != null) { // Not when onCreate redirected to the login screen
+            Log.d(TAG, Lookups.GEMINI.metrics().toString());
+            Log.d(TAG, InstructionCache.get().metrics().toString());
+        }
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdownNow();
         }
     }
+
+    /**
+     * Gemini answered, but with no instructions; the message is meant for the user.
+     */
+    private static final class InstructionsUnavailableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        InstructionsUnavailableException(String message) {
+            super(message);
+        }
+    }
 }
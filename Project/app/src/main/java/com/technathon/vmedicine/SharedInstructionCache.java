@@ -0,0 +1,139 @@
+package com.technathon.vmedicine;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.technathon.vmedicine.api.InstructionCache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * "How to use" instructions shared by every user in Firestore, so a common medicine is explained by Gemini once
+ * per age group and condition rather than once per device. Sits behind the device's {@link InstructionCache}:
+ * entries are keyed with {@link InstructionCache#key} from the same medicine, age and conditions that
+ * {@link InstructionCache#prompt} asked Gemini about, so a shared answer always matches the prompt of its key.
+ *
+ * Only coarse buckets are shared: an age group with no conditions or a single common one
+ * ({@link InstructionCache#isCommonProfile}). A rarer set of conditions would point to the user, both through
+ * the key and through the text, which restates them; those answers stay in the device's cache.
+ *
+ * Documents are named by a SHA-256 of the key and hold the text, the medicine, the age group, the prompt version
+ * it answers and when it expires. firestore.rules lets signed-in users read them by ID only and create them with
+ * that schema; an entry of another prompt version or past its expiry is ignored here and may be replaced by the
+ * next writer, a live one cannot be.
+ */
+public class SharedInstructionCache {
+
+    private static final String TAG = "SharedInstructionCache";
+    static final String COLLECTION = "instructions";
+    static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+    // A slow answer is not worth waiting for: asking Gemini takes about as long
+    private static final long READ_TIMEOUT_MILLIS = 3000;
+
+    static final String FIELD_TEXT = "text";
+    static final String FIELD_MEDICINE = "medicine";
+    static final String FIELD_AGE_GROUP = "ageGroup";
+    static final String FIELD_VERSION = "version";
+    static final String FIELD_CREATED_AT = "createdAt";
+    static final String FIELD_EXPIRES_AT = "expiresAt";
+
+    private final CollectionReference collection;
+    private final LongSupplier clock;
+
+    public SharedInstructionCache(FirebaseFirestore db) {
+        this(db, System::currentTimeMillis);
+    }
+
+    SharedInstructionCache(FirebaseFirestore db, LongSupplier clock) {
+        this.collection = db.collection(COLLECTION);
+        this.clock = clock;
+    }
+
+    /**
+     * Reads the shared entry for a medicine and profile. Blocks for up to a few seconds, so call it off the
+     * main thread.
+     *
+     * @return The instructions, or null if there are none for the current prompt version that have not expired,
+     * the profile is not shared, or Firestore could not be read in time.
+     */
+    public String get(String canonicalMedicineName, int age, List<String> medicalConditions) {
+        if (!InstructionCache.isCommonProfile(medicalConditions)) {
+            return null;
+        }
+        String key = InstructionCache.key(canonicalMedicineName, age, medicalConditions);
+        try {
+            DocumentSnapshot document = Tasks.await(collection.document(documentId(key)).get(),
+                    READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (!document.exists()) {
+                return null;
+            }
+            Long version = document.getLong(FIELD_VERSION);
+            Timestamp expiresAt = document.getTimestamp(FIELD_EXPIRES_AT);
+            String text = document.getString(FIELD_TEXT);
+            if (version == null || version != InstructionCache.PROMPT_VERSION || expiresAt == null
+                    || expiresAt.toDate().getTime() <= clock.getAsLong() || text == null || text.isEmpty()) {
+                return null;
+            }
+            return text;
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Shared instructions not available: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Shares instructions generated just now for {@link InstructionCache#prompt} of the same arguments, if the
+     * profile is shared at all. Returns without waiting for the write; failures are only logged.
+     */
+    public Task<Void> put(String canonicalMedicineName, int age, List<String> medicalConditions, String text) {
+        if (!InstructionCache.isCommonProfile(medicalConditions)) {
+            return Tasks.forResult(null);
+        }
+        String key = InstructionCache.key(canonicalMedicineName, age, medicalConditions);
+        long now = clock.getAsLong();
+        Map<String, Object> entry = new HashMap<>();
+        entry.put(FIELD_TEXT, text);
+        entry.put(FIELD_MEDICINE, canonicalMedicineName);
+        entry.put(FIELD_AGE_GROUP, InstructionCache.ageGroup(age));
+        entry.put(FIELD_VERSION, InstructionCache.PROMPT_VERSION);
+        entry.put(FIELD_CREATED_AT, new Timestamp(new Date(now)));
+        entry.put(FIELD_EXPIRES_AT, new Timestamp(new Date(now + TTL_MILLIS)));
+        return collection.document(documentId(key)).set(entry)
+                .addOnFailureListener(e -> Log.w(TAG, "Could not share instructions: " + e.getMessage(), e));
+    }
+
+    /**
+     * @return A SHA-256 of the key, so document IDs carry neither the conditions hash nor characters Firestore
+     * does not allow in IDs.
+     */
+    static String documentId(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+}
@@ -19,11 +19,9 @@ import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import com.technathon.vmedicine.data.ProfileText;
 import com.technathon.vmedicine.data.UserProfile;
-import java.util.Arrays;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.stream.Collectors;
 
 public class UserProfileActivity extends AppCompatActivity {
 
@@ -161,9 +159,9 @@ public class UserProfileActivity extends AppCompatActivity {
     }
 
     private void saveUserProfile() {
-        List<String> allergies = parseCommaSeparatedString(etAllergies.getText().toString());
-        List<String> currentMedications = parseCommaSeparatedString(etCurrentMedications.getText().toString());
-        List<String> medicalConditions = parseCommaSeparatedString(etMedicalConditions.getText().toString());
+        List<String> allergies = ProfileText.splitCommaSeparatedUpperCase(etAllergies.getText().toString());
+        List<String> currentMedications = ProfileText.splitCommaSeparatedUpperCase(etCurrentMedications.getText().toString());
+        List<String> medicalConditions = ProfileText.splitCommaSeparatedUpperCase(etMedicalConditions.getText().toString());
 
         int age = 0;
         String ageText = etUserAge.getText().toString().trim();
@@ -184,6 +182,11 @@ public class UserProfileActivity extends AppCompatActivity {
         }
 
         UserProfile userProfile = new UserProfile(currentUserId, allergies, currentMedications, medicalConditions, age);
+        String allergyWarning = ProfileText.allergyWarning(userProfile);
+        if (allergyWarning != null) {
+            Toast.makeText(this, allergyWarning, Toast.LENGTH_LONG).show();
+            Log.w(TAG, allergyWarning);
+        }
 
         db.collection("users").document(currentUserId)
                 .set(userProfile)
@@ -193,6 +196,7 @@ public class UserProfileActivity extends AppCompatActivity {
                         if (task.isSuccessful()) {
                             Toast.makeText(UserProfileActivity.this, "Profile saved successfully!", Toast.LENGTH_SHORT).show();
                             Log.d(TAG, "Profile saved for user: " + currentUserId);
+                            LabelWarmUpWorker.runSoon(UserProfileActivity.this); // Medications may have changed
                         } else {
                             Log.e(TAG, "Error saving profile for " + currentUserId + ": " + task.getException().getMessage(), task.getException());
                             Toast.makeText(UserProfileActivity.this, "Error saving profile: " + task.getException().getMessage(), Toast.LENGTH_LONG).show();
@@ -201,17 +205,6 @@ public class UserProfileActivity extends AppCompatActivity {
                 });
     }
 
-    private List<String> parseCommaSeparatedString(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return new ArrayList<>();
-        }
-        return Arrays.stream(text.split(","))
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .map(String::toUpperCase)
-                .collect(Collectors.toList());
-    }
-
     /**
      * Handles user logout: signs out from Firebase, clears SharedPreferences, and redirects to LoginActivity.
      */
@@ -55,6 +55,7 @@ public class UserSelectionActivity extends AppCompatActivity {
         editor.apply(); // Use apply() for async save
 
         Log.d(TAG, "Selected User ID: " + userId);
+        LabelWarmUpWorker.runSoon(this); // Another user's medications
         Toast.makeText(this, "Logged in as: " + userId, Toast.LENGTH_SHORT).show();
 
         // Ensure the user's profile exists in Firestore
@@ -0,0 +1,26 @@
+package com.technathon.vmedicine;
+
+import android.app.Application;
+
+import com.technathon.vmedicine.api.HttpStack;
+import com.technathon.vmedicine.api.InstructionCache;
+import com.technathon.vmedicine.api.LabelRepository;
+
+/**
+ * Process-wide setup that every screen relies on.
+ */
+public class VMedicineApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // One HTTP client (connection pool, TLS sessions, response cache) for the whole app
+        HttpStack.init(getCacheDir());
+        // OpenFDA labels on the device, shared by every screen that looks a drug up
+        LabelRepository.init(getCacheDir(), LabelStore.get(this));
+        // Gemini's "how to use" answers, so a repeat scan does not wait for the model
+        InstructionCache.init(getCacheDir());
+        // Keep the profile's medicines on the device, refreshed while charging on Wi-Fi
+        LabelWarmUpWorker.schedule(this);
+    }
+}
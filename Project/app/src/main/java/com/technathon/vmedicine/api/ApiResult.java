@@ -0,0 +1,114 @@
+package com.technathon.vmedicine.api;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * A finished HTTP exchange with its body already read, so it can be handed to several callers
+ * (see {@link SingleFlight}). Unlike a live response, the error body can be read any number of times.
+ */
+public final class ApiResult<T> {
+
+    private final int code;
+    private final T body;
+    private final String errorBody;
+
+    private ApiResult(int code, T body, String errorBody) {
+        this.code = code;
+        this.body = body;
+        this.errorBody = errorBody;
+    }
+
+    public static <T> ApiResult<T> success(int code, T body) {
+        return new ApiResult<>(code, body, null);
+    }
+
+    public static <T> ApiResult<T> error(int code, String errorBody) {
+        return new ApiResult<>(code, null, errorBody);
+    }
+
+    public boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return The parsed body of a successful response, or null.
+     */
+    public T getBody() {
+        return body;
+    }
+
+    /**
+     * @return The body of an unsuccessful response as text, or null.
+     */
+    public String getErrorBody() {
+        return errorBody;
+    }
+
+    /**
+     * Wraps a Retrofit call. Each load enqueues a fresh clone of it.
+     */
+    public static <T> SingleFlight.Loader<ApiResult<T>> loader(Call<T> call) {
+        return listener -> {
+            Call<T> attempt = call.clone();
+            attempt.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> c, Response<T> response) {
+                    if (response.isSuccessful()) {
+                        listener.onSuccess(new ApiResult<>(response.code(), response.body(), null));
+                        return;
+                    }
+                    try (ResponseBody error = response.errorBody()) {
+                        listener.onSuccess(new ApiResult<>(response.code(), null, error != null ? error.string() : null));
+                    } catch (IOException e) {
+                        listener.onFailure(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<T> c, Throwable t) {
+                    listener.onFailure(t);
+                }
+            });
+            return attempt::cancel;
+        };
+    }
+
+    /**
+     * Wraps a plain OkHttp request whose body is wanted as text.
+     */
+    public static SingleFlight.Loader<ApiResult<String>> loader(OkHttpClient client, Request request) {
+        return listener -> {
+            okhttp3.Call call = client.newCall(request);
+            call.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onResponse(okhttp3.Call c, okhttp3.Response response) {
+                    try (ResponseBody responseBody = response.body()) {
+                        String text = responseBody != null ? responseBody.string() : null;
+                        listener.onSuccess(response.isSuccessful() ?
+                                new ApiResult<>(response.code(), text, null) :
+                                new ApiResult<>(response.code(), null, text));
+                    } catch (IOException e) {
+                        listener.onFailure(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(okhttp3.Call c, IOException e) {
+                    listener.onFailure(e);
+                }
+            });
+            return call::cancel;
+        };
+    }
+}
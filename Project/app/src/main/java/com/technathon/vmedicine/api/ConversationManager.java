@@ -0,0 +1,161 @@
+package com.technathon.vmedicine.api;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The chat history sent to Gemini, kept to a steady size however long the conversation runs.
+ * <ul>
+ *     <li>The instructions and profile go once per request, as the system instruction.</li>
+ *     <li>Recent turns are sent verbatim, as many as fit the token budget.</li>
+ *     <li>Older turns are compacted into a short summary of the questions and answers, carried in the
+ *     system instruction and itself capped.</li>
+ * </ul>
+ * Tokens are estimated at four characters each, which is close enough for English text to bound the size.
+ * Thread-safe: requests are built off the main thread and replies arrive on OkHttp threads.
+ */
+public final class ConversationManager {
+
+    public static final int DEFAULT_HISTORY_TOKENS = 1500;
+    public static final int DEFAULT_SUMMARY_TOKENS = 300;
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int SUMMARY_LINE_CHARS = 120; // Each side of a compacted turn
+
+    private final int historyTokens;
+    private final int summaryTokens;
+    private final Deque<Turn> turns = new ArrayDeque<>();
+    private final Deque<String> summary = new ArrayDeque<>();
+    private String systemInstruction = "";
+    private String pendingMessage;
+    private int turnTokens;
+    private int summaryLineTokens;
+    private int lastRequestTokens;
+
+    public ConversationManager() {
+        this(DEFAULT_HISTORY_TOKENS, DEFAULT_SUMMARY_TOKENS);
+    }
+
+    public ConversationManager(int historyTokens, int summaryTokens) {
+        this.historyTokens = historyTokens;
+        this.summaryTokens = summaryTokens;
+    }
+
+    private static final class Turn {
+        final String userMessage;
+        final String reply;
+        final int tokens;
+
+        Turn(String userMessage, String reply) {
+            this.userMessage = userMessage;
+            this.reply = reply;
+            this.tokens = estimateTokens(userMessage) + estimateTokens(reply);
+        }
+    }
+
+    public static int estimateTokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Sets the instructions and profile context, e.g. once the profile has loaded.
+     */
+    public synchronized void setSystemInstruction(String systemInstruction) {
+        this.systemInstruction = systemInstruction;
+    }
+
+    /**
+     * Starts a turn and returns the request for it: the system instruction, the recent turns and the new
+     * message. Finish the turn with {@link #completeTurn(String)} or {@link #abandonTurn()}.
+     */
+    public synchronized GeminiRequest beginTurn(String userMessage) {
+        pendingMessage = userMessage;
+        // Make room for the new message; the newest turn is kept even if it alone is over budget
+        while (turns.size() > 1 && turnTokens + estimateTokens(userMessage) > historyTokens) {
+            compact(turns.removeFirst());
+        }
+
+        GeminiRequest request = new GeminiRequest();
+        for (Turn turn : turns) {
+            request.contents.add(GeminiContent.of("user", turn.userMessage));
+            request.contents.add(GeminiContent.of("model", turn.reply));
+        }
+        request.contents.add(GeminiContent.user(userMessage));
+        String instruction = systemInstructionWithSummary();
+        request.systemInstruction = GeminiContent.of(null, instruction); // The API takes no role here
+        lastRequestTokens = estimateTokens(instruction) + turnTokens + estimateTokens(userMessage);
+        return request;
+    }
+
+    /**
+     * Adds the reply to the started turn to the history.
+     */
+    public synchronized void completeTurn(String reply) {
+        if (pendingMessage == null) {
+            return;
+        }
+        Turn turn = new Turn(pendingMessage, reply);
+        turns.addLast(turn);
+        turnTokens += turn.tokens;
+        pendingMessage = null;
+    }
+
+    /**
+     * Forgets the started turn, e.g. after the request failed, so it is not sent again.
+     */
+    public synchronized void abandonTurn() {
+        pendingMessage = null;
+    }
+
+    /**
+     * @return The estimated size of the last request built, for logging.
+     */
+    public synchronized int getLastRequestTokens() {
+        return lastRequestTokens;
+    }
+
+    public synchronized int getTurnCount() {
+        return turns.size();
+    }
+
+    private void compact(Turn turn) {
+        turnTokens -= turn.tokens;
+        String line = "- The user asked: " + shorten(turn.userMessage) + " You answered: " + shorten(turn.reply);
+        summary.addLast(line);
+        summaryLineTokens += estimateTokens(line);
+        while (summaryLineTokens > summaryTokens && !summary.isEmpty()) {
+            summaryLineTokens -= estimateTokens(summary.removeFirst());
+        }
+    }
+
+    private String systemInstructionWithSummary() {
+        if (summary.isEmpty()) {
+            return systemInstruction;
+        }
+        StringBuilder instruction = new StringBuilder(systemInstruction.length() + summaryLineTokens * CHARS_PER_TOKEN + 64);
+        instruction.append(systemInstruction).append("Earlier in this conversation:\n");
+        for (String line : summary) {
+            instruction.append(line).append('\n');
+        }
+        return instruction.toString();
+    }
+
+    /**
+     * @return The first sentence of the text, cut to {@link #SUMMARY_LINE_CHARS}.
+     */
+    static String shorten(String text) {
+        String flat = text.replace('\n', ' ').trim();
+        int end = flat.length();
+        for (int i = 0; i < flat.length() - 1; i++) {
+            char c = flat.charAt(i);
+            if ((c == '.' || c == '?' || c == '!') && flat.charAt(i + 1) == ' ') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end > SUMMARY_LINE_CHARS) {
+            return flat.substring(0, SUMMARY_LINE_CHARS - 1) + "…";
+        }
+        return flat.substring(0, end);
+    }
+}
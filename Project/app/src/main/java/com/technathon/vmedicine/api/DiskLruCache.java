@@ -0,0 +1,155 @@
+package com.technathon.vmedicine.api;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded key/value store on disk: one file per entry, least recently used entries evicted first.
+ * File names are hashes of the keys, so any string works as a key. Recency survives restarts through the
+ * files' modification times. Writes go to a temporary file that is renamed into place, so a reader never
+ * sees half an entry.
+ *
+ * Reads and writes touch the disk, so keep them off the main thread.
+ */
+public final class DiskLruCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // File name -> size, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    /**
+     * Opens (or creates) a cache in the given directory, which must not be used for anything else. The
+     * directory is read on first use, so the cache can be created on the main thread, e.g. at app start.
+     */
+    public DiskLruCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> existing = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete(); // Left over from a write that did not finish
+            } else if (file.isFile()) {
+                existing.add(file);
+            }
+        }
+        existing.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : existing) {
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    /**
+     * @return The stored bytes, or null if the key is not cached.
+     */
+    public synchronized byte[] get(String key) {
+        load();
+        String fileName = fileName(key);
+        if (entries.get(fileName) == null) {
+            return null;
+        }
+        File file = new File(directory, fileName);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] value = new byte[(int) file.length()];
+            in.readFully(value);
+            file.setLastModified(System.currentTimeMillis());
+            return value;
+        } catch (IOException e) {
+            remove(key); // Deleted behind our back or unreadable; treat it as a miss
+            return null;
+        }
+    }
+
+    /**
+     * Stores a value, replacing any previous one, then evicts least recently used entries beyond the size limit.
+     */
+    public synchronized void put(String key, byte[] value) throws IOException {
+        load();
+        String fileName = fileName(key);
+        File file = new File(directory, fileName);
+        File temp = new File(directory, fileName + TEMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(value);
+        }
+        if (!temp.renameTo(file)) { // Replaces the old file atomically on Android's file systems
+            temp.delete();
+            throw new IOException("Could not write cache entry " + file);
+        }
+        Long previous = entries.put(fileName, (long) value.length);
+        totalBytes += value.length - (previous != null ? previous : 0);
+        trimToSize();
+    }
+
+    public synchronized void remove(String key) {
+        load();
+        String fileName = fileName(key);
+        Long size = entries.remove(fileName);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, fileName).delete();
+        }
+    }
+
+    public synchronized long size() {
+        load();
+        return totalBytes;
+    }
+
+    public synchronized int entryCount() {
+        load();
+        return entries.size();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-1 is always available", e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * Calls one Gemini model with typed requests and responses. The request is serialized by a streaming JSON
+ * writer straight into the HTTP body (so into the gzip stream, see {@link GzipRequestInterceptor}) and the
+ * response is bound to {@link GeminiResponse} from the body's reader: no JSON text and no JSON tree is built
+ * on either side, and escaping is the JSON writer's job rather than the caller's.
+ */
+public final class GeminiClient {
+
+    public static final String DEFAULT_MODEL = "gemini-2.0-flash";
+
+    static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final Gson GSON = new Gson(); // Leaves null fields out, as the API expects
+
+    private final OkHttpClient client;
+    private final String baseUrl;
+    private final String model;
+    private final String apiKey;
+
+    public GeminiClient(OkHttpClient client, String apiKey) {
+        this(client, HttpStack.GEMINI_BASE_URL, DEFAULT_MODEL, apiKey);
+    }
+
+    public GeminiClient(OkHttpClient client, String baseUrl, String model, String apiKey) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.model = model;
+        this.apiKey = apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Sends a generateContent request. The listener gets the parsed response for a 2xx answer and the error body
+     * otherwise; it is called on an OkHttp thread.
+     */
+    public SingleFlight.Cancellable generateContent(GeminiRequest request,
+                                                    SingleFlight.Listener<ApiResult<GeminiResponse>> listener) {
+        Call call = client.newCall(new Request.Builder()
+                .url(baseUrl + "v1beta/models/" + model + ":generateContent?key=" + apiKey)
+                .post(body(request))
+                .build());
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call c, Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful()) {
+                        listener.onSuccess(ApiResult.error(response.code(), responseBody != null ? responseBody.string() : null));
+                        return;
+                    }
+                    if (responseBody == null) {
+                        throw new IOException("Empty Gemini response");
+                    }
+                    GeminiResponse parsed = GSON.fromJson(new JsonReader(responseBody.charStream()), GeminiResponse.class);
+                    listener.onSuccess(ApiResult.success(response.code(), parsed != null ? parsed : new GeminiResponse()));
+                } catch (IOException | JsonParseException e) {
+                    listener.onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call c, IOException e) {
+                listener.onFailure(e);
+            }
+        });
+        return call::cancel;
+    }
+
+    /**
+     * @return A loader for {@link SingleFlight}; each load sends the request again.
+     */
+    public SingleFlight.Loader<ApiResult<GeminiResponse>> loader(GeminiRequest request) {
+        return listener -> generateContent(request, listener);
+    }
+
+    /**
+     * Sends a streamGenerateContent request, see {@link GeminiStream}.
+     */
+    public Call stream(GeminiRequest request, GeminiStream.Listener listener) {
+        return GeminiStream.enqueue(client, new Request.Builder()
+                .url(GeminiStream.streamUrl(baseUrl, model, apiKey))
+                .post(body(request))
+                .build(), listener);
+    }
+
+    /**
+     * @return A body that writes the request as JSON into the sink each time it is sent. Its length is unknown
+     * up front, so it goes out gzipped or chunked.
+     */
+    static RequestBody body(GeminiRequest request) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // Not closed: that would close the sink, which belongs to OkHttp
+                Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+                JsonWriter json = new JsonWriter(writer);
+                GSON.toJson(request, GeminiRequest.class, json);
+                json.flush();
+            }
+        };
+    }
+
+    /**
+     * Binds a JSON answer requested with {@link GeminiRequest#withJsonResponse} to a class.
+     *
+     * @throws JsonParseException If the text is not JSON of that shape.
+     */
+    public static <T> T parseJson(String text, Class<T> type) {
+        return GSON.fromJson(text, type);
+    }
+
+    /**
+     * Binds one streamed event.
+     */
+    static GeminiResponse parseEvent(String json) {
+        return GSON.fromJson(json, GeminiResponse.class);
+    }
+}
@@ -0,0 +1,47 @@
+package com.technathon.vmedicine.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One message of a Gemini conversation: a role ("user" or "model") and its parts. Used both in requests and in
+ * the candidates of a response.
+ */
+public final class GeminiContent {
+
+    public String role;
+    public List<Part> parts;
+
+    public static final class Part {
+        public String text;
+    }
+
+    public static GeminiContent of(String role, String text) {
+        Part part = new Part();
+        part.text = text;
+        GeminiContent content = new GeminiContent();
+        content.role = role;
+        content.parts = Collections.singletonList(part);
+        return content;
+    }
+
+    public static GeminiContent user(String text) {
+        return of("user", text);
+    }
+
+    /**
+     * @return The text of all parts joined, or an empty string if there is none.
+     */
+    public String text() {
+        if (parts == null) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Part part : parts) {
+            if (part != null && part.text != null) {
+                text.append(part.text);
+            }
+        }
+        return text.toString();
+    }
+}
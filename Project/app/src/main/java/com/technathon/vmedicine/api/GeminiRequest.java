@@ -0,0 +1,79 @@
+package com.technathon.vmedicine.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The body of a generateContent or streamGenerateContent call. Fields left null are not sent.
+ * {@link GeminiClient} writes it straight into the HTTP request, without building the JSON text first.
+ */
+public final class GeminiRequest {
+
+    public GeminiContent systemInstruction;
+    public List<GeminiContent> contents = new ArrayList<>();
+    public GenerationConfig generationConfig;
+
+    public static final class GenerationConfig {
+        public String responseMimeType;
+        public Schema responseSchema;
+    }
+
+    /**
+     * The subset of Gemini's OpenAPI schema objects the app uses for structured output.
+     */
+    public static final class Schema {
+        public String type;
+        public Map<String, Schema> properties;
+        public Schema items;
+        public List<String> propertyOrdering;
+
+        public static Schema string() {
+            Schema schema = new Schema();
+            schema.type = "STRING";
+            return schema;
+        }
+
+        public static Schema arrayOf(Schema items) {
+            Schema schema = new Schema();
+            schema.type = "ARRAY";
+            schema.items = items;
+            return schema;
+        }
+
+        /**
+         * @return An object schema with the given properties, in the given order.
+         */
+        public static Schema object(String[] names, Schema... types) {
+            Schema schema = new Schema();
+            schema.type = "OBJECT";
+            schema.properties = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                schema.properties.put(names[i], types[i]);
+            }
+            schema.propertyOrdering = Arrays.asList(names);
+            return schema;
+        }
+    }
+
+    /**
+     * @return A request with a single user message.
+     */
+    public static GeminiRequest prompt(String text) {
+        GeminiRequest request = new GeminiRequest();
+        request.contents.add(GeminiContent.user(text));
+        return request;
+    }
+
+    /**
+     * Asks for a JSON answer matching the schema.
+     */
+    public GeminiRequest withJsonResponse(Schema schema) {
+        generationConfig = new GenerationConfig();
+        generationConfig.responseMimeType = "application/json";
+        generationConfig.responseSchema = schema;
+        return this;
+    }
+}
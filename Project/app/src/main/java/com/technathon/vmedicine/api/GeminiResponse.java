@@ -0,0 +1,27 @@
+package com.technathon.vmedicine.api;
+
+import java.util.List;
+
+/**
+ * A generateContent response, or one event of a streamed one. Only the fields the app reads are modeled.
+ */
+public final class GeminiResponse {
+
+    public List<Candidate> candidates;
+
+    public static final class Candidate {
+        public GeminiContent content;
+        public String finishReason;
+    }
+
+    /**
+     * @return The text of the first candidate, or an empty string if there is none (e.g. a blocked prompt or a
+     * streamed event carrying only usage metadata).
+     */
+    public String text() {
+        if (candidates == null || candidates.isEmpty() || candidates.get(0) == null || candidates.get(0).content == null) {
+            return "";
+        }
+        return candidates.get(0).content.text();
+    }
+}
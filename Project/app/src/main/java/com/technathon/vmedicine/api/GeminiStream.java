@@ -0,0 +1,170 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Reads a Gemini reply from the streaming endpoint ({@code streamGenerateContent?alt=sse}) as it is generated.
+ * Each server-sent event carries a GenerateContentResponse holding the next piece of text; the listener sees the
+ * text so far after every piece, on the OkHttp thread that reads the stream.
+ */
+public final class GeminiStream {
+
+    private GeminiStream() {
+    }
+
+    public interface Listener {
+        /**
+         * @param text The whole reply received so far.
+         */
+        void onText(String text);
+
+        void onComplete(String text, Timing timing);
+
+        /**
+         * Called for a non-2xx response, with its body as text.
+         */
+        void onHttpError(int code, String errorBody);
+
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * How long a streamed reply took, measured from the moment it was requested.
+     */
+    public static final class Timing {
+        private final long timeToFirstTokenMillis;
+        private final long totalMillis;
+        private final int events;
+
+        Timing(long timeToFirstTokenMillis, long totalMillis, int events) {
+            this.timeToFirstTokenMillis = timeToFirstTokenMillis;
+            this.totalMillis = totalMillis;
+            this.events = events;
+        }
+
+        /**
+         * @return Time until the first text arrived, or -1 if the reply had none.
+         */
+        public long getTimeToFirstTokenMillis() {
+            return timeToFirstTokenMillis;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        @Override
+        public String toString() {
+            return "Gemini stream: first token after " + timeToFirstTokenMillis + " ms, complete after "
+                    + totalMillis + " ms (" + events + " events)";
+        }
+    }
+
+    /**
+     * @return The streaming URL of a model, e.g. {@code streamUrl(HttpStack.GEMINI_BASE_URL, "gemini-2.0-flash", key)}.
+     */
+    public static String streamUrl(String baseUrl, String model, String apiKey) {
+        return baseUrl + "v1beta/models/" + model + ":streamGenerateContent?alt=sse&key=" + apiKey;
+    }
+
+    /**
+     * Sends the request and streams the reply to the listener. Cancel the returned call to stop reading; a
+     * cancelled stream reports nothing further.
+     */
+    public static Call enqueue(OkHttpClient client, Request request, Listener listener) {
+        long start = System.nanoTime();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                if (!c.isCanceled()) {
+                    listener.onFailure(e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful()) {
+                        listener.onHttpError(response.code(), body != null ? body.string() : null);
+                        return;
+                    }
+                    if (body == null) {
+                        throw new IOException("Empty Gemini stream");
+                    }
+                    read(body.source(), start, listener);
+                } catch (IOException | JsonParseException e) {
+                    if (!c.isCanceled()) {
+                        listener.onFailure(e);
+                    }
+                }
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Reads events until the stream ends. Events are separated by blank lines; an event's data lines are
+     * joined with newlines, as the SSE format prescribes.
+     */
+    static void read(BufferedSource source, long startNanos, Listener listener) throws IOException {
+        StringBuilder text = new StringBuilder();
+        StringBuilder data = new StringBuilder();
+        long firstTokenNanos = -1;
+        int events = 0;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    events++;
+                    if (appendText(data.toString(), text)) {
+                        firstTokenNanos = firstTokenNanos < 0 ? System.nanoTime() : firstTokenNanos;
+                        listener.onText(text.toString());
+                    }
+                    data.setLength(0);
+                }
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+            }
+            // Comments (":") and other fields (event, id, retry) carry nothing for us
+        }
+        if (data.length() > 0) { // Stream ended without the final blank line
+            events++;
+            if (appendText(data.toString(), text)) {
+                firstTokenNanos = firstTokenNanos < 0 ? System.nanoTime() : firstTokenNanos;
+                listener.onText(text.toString());
+            }
+        }
+        long end = System.nanoTime();
+        listener.onComplete(text.toString(), new Timing(
+                firstTokenNanos < 0 ? -1 : (firstTokenNanos - startNanos) / 1_000_000, (end - startNanos) / 1_000_000, events));
+    }
+
+    /**
+     * Appends the text of the first candidate in one event.
+     * @return Whether the event added any text.
+     */
+    private static boolean appendText(String json, StringBuilder text) {
+        GeminiResponse event = GeminiClient.parseEvent(json);
+        String eventText = event != null ? event.text() : "";
+        text.append(eventText);
+        return !eventText.isEmpty();
+    }
+}
@@ -0,0 +1,50 @@
+package com.technathon.vmedicine.api;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Gzips request bodies (the prompts and chat histories sent to Gemini) and marks them with
+ * Content-Encoding: gzip. Small bodies are sent as-is, since gzip would only make them bigger.
+ * Responses need nothing here: OkHttp already asks for and transparently unzips gzip responses.
+ */
+public final class GzipRequestInterceptor implements Interceptor {
+
+    static final long MIN_COMPRESSED_LENGTH = 1024;
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header("Content-Encoding") != null
+                || (body.contentLength() >= 0 && body.contentLength() < MIN_COMPRESSED_LENGTH)) {
+            return chain.proceed(request);
+        }
+        Request compressed = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), gzip(body))
+                .build();
+        return chain.proceed(compressed);
+    }
+
+    /**
+     * Compresses the body up front so the request carries a Content-Length instead of being chunked.
+     */
+    private static RequestBody gzip(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(buffer))) {
+            body.writeTo(sink);
+        }
+        MediaType contentType = body.contentType();
+        return RequestBody.create(buffer.readByteString(), contentType);
+    }
+}
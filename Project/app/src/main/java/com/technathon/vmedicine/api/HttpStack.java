@@ -0,0 +1,147 @@
+package com.technathon.vmedicine.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The app's one HTTP client. Every caller shares its connection pool, dispatcher and TLS sessions,
+ * so a screen reuses the warm (HTTP/2, multiplexed) connection of the previous one instead of paying
+ * a fresh TCP and TLS handshake. Callers needing other timeouts derive a client with
+ * {@code client().newBuilder()}, which keeps sharing all of that.
+ */
+public final class HttpStack {
+
+    public static final String GEMINI_BASE_URL = "https://generativelanguage.googleapis.com/";
+    public static final String OPEN_FDA_BASE_URL = OpenFDAClient.BASE_URL;
+
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static OkHttpClient client;
+    // Host -> time of the last preconnect that reached it, so repeated screen opens do not keep sending
+    // warm-up requests; a failed one does not count, so the next screen tries again
+    private static final Map<String, Long> lastPreconnect = new HashMap<>();
+    // Hosts with a warm-up request in flight
+    private static final Set<String> preconnecting = new HashSet<>();
+
+    private HttpStack() {
+    }
+
+    /**
+     * Creates the shared client with a response cache in the given directory. Called once from
+     * VMedicineApplication.onCreate; later calls are ignored.
+     */
+    public static synchronized void init(File cacheDir) {
+        if (client == null) {
+            client = newBuilder()
+                    .cache(new Cache(new File(cacheDir, "http"), CACHE_SIZE))
+                    .build();
+        }
+    }
+
+    /**
+     * @return The shared client (without a cache if {@link #init(File)} has not run, e.g. in unit tests).
+     */
+    public static synchronized OkHttpClient client() {
+        if (client == null) {
+            client = newBuilder().build();
+        }
+        return client;
+    }
+
+    /**
+     * The configuration of the shared client, for tests that need to add their own certificates or listeners.
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .addInterceptor(new GzipRequestInterceptor());
+    }
+
+    /**
+     * Opens connections to hosts a screen is about to call, in the background, so the first real request
+     * finds a pooled connection with TLS already negotiated. Safe to call from onCreate.
+     */
+    public static void preconnect(String... baseUrls) {
+        preconnect(client(), baseUrls);
+    }
+
+    /**
+     * Same as {@link #preconnect(String...)} for a given client.
+     */
+    public static void preconnect(OkHttpClient client, String... baseUrls) {
+        for (String baseUrl : baseUrls) {
+            HttpUrl url = HttpUrl.get(baseUrl);
+            String host = url.host();
+            if (!shouldPreconnect(host)) {
+                continue;
+            }
+            // Any cheap request opens the connection; HEAD on the root needs no credentials and has no body
+            Request request = new Request.Builder()
+                    .url(url)
+                    .head()
+                    .header("Cache-Control", "no-cache")
+                    .build();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    // The real request will connect on its own; the next preconnect may try again
+                    preconnected(host, false);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    preconnected(host, true); // Any answer, even an error status, leaves a pooled connection
+                }
+            });
+        }
+    }
+
+    private static synchronized boolean shouldPreconnect(String host) {
+        if (preconnecting.contains(host)) {
+            return false;
+        }
+        Long last = lastPreconnect.get(host);
+        // Idle pooled connections live for KEEP_ALIVE_MINUTES; only preconnect again once they may be gone
+        if (last != null && System.nanoTime() - last < TimeUnit.MINUTES.toNanos(KEEP_ALIVE_MINUTES - 1)) {
+            return false;
+        }
+        preconnecting.add(host);
+        return true;
+    }
+
+    private static synchronized void preconnected(String host, boolean connected) {
+        preconnecting.remove(host);
+        if (connected) {
+            lastPreconnect.put(host, System.nanoTime());
+        }
+    }
+
+    /**
+     * Forgets previous preconnects. For tests only.
+     */
+    static synchronized void resetPreconnects() {
+        lastPreconnect.clear();
+        preconnecting.clear();
+    }
+}
@@ -0,0 +1,264 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Gemini's personalized "how to use" instructions, so scanning the same medicine again shows them at once.
+ *
+ * Entries are keyed by prompt version, canonical medicine name, age group and a hash of the medical conditions:
+ * the inputs the answer depends on. A profile change that matters (a birthday into another age group, a new
+ * condition) thus misses and asks Gemini again, while entries for the old profile age out. A small in-memory LRU
+ * sits in front of the disk; both tiers drop entries older than the TTL.
+ */
+public final class InstructionCache {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+    public static final int DEFAULT_MEMORY_ENTRIES = 32;
+    // Part of every key: bump it when the prompt changes, so answers to the old prompt are no longer used.
+    // firestore.rules only accepts shared entries of this version, so bump it there too
+    public static final int PROMPT_VERSION = 2;
+
+    // Conditions many users have, so an answer for one of them points to nobody in particular
+    private static final Set<String> COMMON_CONDITIONS = new HashSet<>(Arrays.asList(
+            "HYPERTENSION", "DIABETES", "TYPE 2 DIABETES", "HYPERLIPIDEMIA", "ASTHMA", "COPD", "HYPOTHYROIDISM",
+            "GERD", "OSTEOARTHRITIS", "MIGRAINE", "OBESITY", "DEPRESSION", "ANXIETY"));
+
+    private static InstructionCache instance;
+
+    private final DiskLruCache disk;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Stored> memory;
+    private final Gson gson = new Gson();
+    private int memoryHits;
+    private int diskHits;
+    private int misses;
+
+    public InstructionCache(DiskLruCache disk, long ttlMillis, int memoryEntries, LongSupplier clock) {
+        this.disk = disk;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.memory = new LinkedHashMap<String, Stored>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stored> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates the shared cache in the app's cache directory. Called once from VMedicineApplication.onCreate;
+     * later calls are ignored.
+     */
+    public static synchronized void init(File cacheDir) {
+        if (instance == null) {
+            instance = new InstructionCache(new DiskLruCache(new File(cacheDir, "instructions"), DEFAULT_MAX_BYTES),
+                    DEFAULT_TTL_MILLIS, DEFAULT_MEMORY_ENTRIES, System::currentTimeMillis);
+        }
+    }
+
+    public static synchronized InstructionCache get() {
+        if (instance == null) {
+            throw new IllegalStateException("InstructionCache.init has not been called");
+        }
+        return instance;
+    }
+
+    /**
+     * The age groups instructions are personalized for. The prompt names the group rather than the exact age,
+     * so one answer serves everyone in it.
+     *
+     * @return The group of an age in years, or "unknown" for 0 (no profile).
+     */
+    public static String ageGroup(int age) {
+        if (age <= 0) {
+            return "unknown";
+        } else if (age < 2) {
+            return "infant (under 2 years)";
+        } else if (age < 12) {
+            return "child (2-11 years)";
+        } else if (age < 18) {
+            return "adolescent (12-17 years)";
+        } else if (age < 65) {
+            return "adult (18-64 years)";
+        }
+        return "older adult (65 years and over)";
+    }
+
+    /**
+     * @return The cache key of the instructions for a medicine and profile. Conditions are compared ignoring
+     * order, case and surrounding whitespace.
+     */
+    public static String key(String canonicalMedicineName, int age, List<String> medicalConditions) {
+        // FNV-1a over the sorted list; the key is hashed again by the disk tier, this only keeps it short
+        long hash = 0xcbf29ce484222325L;
+        for (String condition : conditions(medicalConditions)) {
+            for (int i = 0; i < condition.length(); i++) {
+                hash = (hash ^ condition.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ '\n') * 0x100000001b3L;
+        }
+        return "v" + PROMPT_VERSION + "|" + canonicalMedicineName + "|" + ageGroup(age) + "|" + Long.toHexString(hash);
+    }
+
+    /**
+     * Builds the Gemini prompt from the same inputs as {@link #key}, so an entry, whether cached here or shared
+     * with other users, always answers the prompt its key stands for.
+     */
+    public static String prompt(String canonicalMedicineName, int age, List<String> medicalConditions) {
+        List<String> conditions = conditions(medicalConditions);
+        String conditionsString = conditions.isEmpty() ? "none" : String.join(", ", conditions).toLowerCase(Locale.ROOT);
+        return String.format(
+                "For the medicine '%s', provide a very brief and concise explanation of its general use and how to administer it. " +
+                        "If it's a cream, briefly explain how to apply. " +
+                        "DO NOT provide specific dosage numbers or quantities. " +
+                        "Also, include any common and important warnings or side effects relevant to daily activities (e.g., drowsiness, dizziness) if applicable. " +
+                        "Keep the response to 2-4 sentences max. " +
+                        "Consider the user's age group (%s) and their medical conditions: %s. " +
+                        "Start directly with the explanation. If information is not available, state that briefly.",
+                canonicalMedicineName, ageGroup(age), conditionsString);
+    }
+
+    /**
+     * Whether instructions for these conditions may be shared with other users: they are none, or a single
+     * common one. Any other set of conditions is rare enough to point to the user, and answers for it stay on
+     * the device.
+     */
+    public static boolean isCommonProfile(List<String> medicalConditions) {
+        List<String> conditions = conditions(medicalConditions);
+        return conditions.isEmpty() || conditions.size() == 1 && COMMON_CONDITIONS.contains(conditions.get(0));
+    }
+
+    private static List<String> conditions(List<String> medicalConditions) {
+        List<String> conditions = new ArrayList<>();
+        if (medicalConditions != null) {
+            for (String condition : medicalConditions) {
+                String normalized = condition.trim().toUpperCase(Locale.ROOT);
+                if (!normalized.isEmpty()) {
+                    conditions.add(normalized);
+                }
+            }
+        }
+        Collections.sort(conditions);
+        return conditions;
+    }
+
+    /**
+     * @return The instructions, or null if there are none younger than the TTL. May read the disk, so call it
+     * off the main thread.
+     */
+    public synchronized String get(String key) {
+        Stored stored = memory.get(key);
+        if (stored != null && isFresh(stored)) {
+            memoryHits++;
+            return stored.text;
+        }
+        memory.remove(key);
+        stored = read(key);
+        if (stored != null && isFresh(stored)) {
+            memory.put(key, stored);
+            diskHits++;
+            return stored.text;
+        }
+        if (stored != null) {
+            disk.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores instructions generated just now.
+     *
+     * @throws IOException If the disk entry could not be written; the memory tier still has it.
+     */
+    public synchronized void put(String key, String text) throws IOException {
+        Stored stored = new Stored();
+        stored.fetchedAt = clock.getAsLong();
+        stored.text = text;
+        memory.put(key, stored);
+        disk.put(key, gson.toJson(stored).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public synchronized Metrics metrics() {
+        return new Metrics(memoryHits, diskHits, misses);
+    }
+
+    private boolean isFresh(Stored stored) {
+        return clock.getAsLong() - stored.fetchedAt <= ttlMillis;
+    }
+
+    private Stored read(String key) {
+        byte[] bytes = disk.get(key);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Stored stored = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Stored.class);
+            return stored != null && stored.text != null ? stored : null;
+        } catch (JsonParseException e) {
+            disk.remove(key);
+            return null;
+        }
+    }
+
+    public static final class Metrics {
+        private final int memoryHits;
+        private final int diskHits;
+        private final int misses;
+
+        Metrics(int memoryHits, int diskHits, int misses) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+        }
+
+        public int getMemoryHits() {
+            return memoryHits;
+        }
+
+        public int getDiskHits() {
+            return diskHits;
+        }
+
+        public int getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return Hits in either tier over all lookups, or 0 before the first lookup.
+         */
+        public double getHitRatio() {
+            int lookups = memoryHits + diskHits + misses;
+            return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Instruction cache: %d memory hits, %d disk hits, %d misses (hit ratio %.2f)",
+                    memoryHits, diskHits, misses, getHitRatio());
+        }
+    }
+
+    private static final class Stored {
+        long fetchedAt;
+        String text;
+    }
+}
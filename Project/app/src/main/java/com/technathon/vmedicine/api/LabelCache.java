@@ -0,0 +1,118 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * OpenFDA label search results on disk, keyed by canonical medicine name, so "Tylenol" and "Paracetamol"
+ * share one entry and a repeat visit needs no network at all.
+ *
+ * OpenFDA sends no useful cache headers, so freshness is decided here: an entry is fresh for the TTL,
+ * then stale for the stale-while-revalidate window (still shown, but refreshed in the background),
+ * then gone. Only answers worth keeping are stored: found labels and "no label" (404), never server errors.
+ */
+public final class LabelCache {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    private final DiskLruCache disk;
+    private final long ttlMillis;
+    private final long staleWhileRevalidateMillis;
+    private final LongSupplier clock;
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(OpenFDATypeAdapterFactory.allModeledFields())
+            .create();
+
+    public LabelCache(DiskLruCache disk, long ttlMillis, long staleWhileRevalidateMillis, LongSupplier clock) {
+        this.disk = disk;
+        this.ttlMillis = ttlMillis;
+        this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return The cached answer for a medicine, or null if there is none or it is past the stale window.
+     */
+    public Entry get(String medicineKey) {
+        byte[] bytes = disk.get(medicineKey);
+        if (bytes == null) {
+            return null;
+        }
+        Stored stored;
+        try {
+            stored = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Stored.class);
+        } catch (JsonParseException e) {
+            stored = null;
+        }
+        long age = clock.getAsLong() - (stored != null ? stored.fetchedAt : 0);
+        if (stored == null || age > ttlMillis + staleWhileRevalidateMillis) {
+            disk.remove(medicineKey);
+            return null;
+        }
+        ApiResult<OpenFDAResponse> result = stored.code == 404 ?
+                ApiResult.error(404, null) :
+                ApiResult.success(stored.code, stored.labels);
+        return new Entry(result, stored.fetchedAt, age > ttlMillis);
+    }
+
+    /**
+     * Stores an answer fetched just now. Answers that should not be cached are ignored.
+     *
+     * @throws IOException If the entry could not be written; the cache is left as it was.
+     */
+    public void put(String medicineKey, ApiResult<OpenFDAResponse> result) throws IOException {
+        if (!isCacheable(result)) {
+            return;
+        }
+        Stored stored = new Stored();
+        stored.fetchedAt = clock.getAsLong();
+        stored.code = result.getCode();
+        stored.labels = result.getBody();
+        disk.put(medicineKey, gson.toJson(stored).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static boolean isCacheable(ApiResult<OpenFDAResponse> result) {
+        return (result.isSuccessful() && result.getBody() != null) || result.getCode() == 404;
+    }
+
+    public static final class Entry {
+        private final ApiResult<OpenFDAResponse> result;
+        private final long fetchedAt;
+        private final boolean stale;
+
+        Entry(ApiResult<OpenFDAResponse> result, long fetchedAt, boolean stale) {
+            this.result = result;
+            this.fetchedAt = fetchedAt;
+            this.stale = stale;
+        }
+
+        public ApiResult<OpenFDAResponse> getResult() {
+            return result;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * @return True if the entry is past its TTL and should be refreshed after being shown.
+         */
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
+    private static final class Stored {
+        long fetchedAt;
+        int code;
+        OpenFDAResponse labels;
+    }
+}
@@ -0,0 +1,251 @@
+package com.technathon.vmedicine.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Where screens get OpenFDA labels, offline first: from the answer cache when it is fresh, then from the
+ * local label store, and from the network only when neither knows the medicine. Answers from the store
+ * or a stale cache entry are returned at once and refreshed in the background (stale-while-revalidate),
+ * so a view renders without waiting and works without a connection. Network lookups go through
+ * {@link Lookups#OPEN_FDA_LABELS}, so concurrent lookups of one medicine share a request, and every
+ * answer is written back to the cache and the store.
+ *
+ * Network answers are read with {@link OpenFDATypeAdapterFactory#allModeledFields()}, since the store keeps
+ * indications and warnings for offline use and full-text search.
+ */
+public final class LabelRepository {
+
+    public interface Listener {
+        /**
+         * @param stale True if the labels come from a stale cache entry that is being refreshed.
+         */
+        void onLabels(ApiResult<OpenFDAResponse> labels, boolean stale);
+
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * Labels kept on the device, searchable by medicine name (the app's SQLite store).
+     */
+    public interface LocalLabels {
+        List<Result> findByName(String medicineName, int limit);
+
+        void putAll(Collection<Result> labels);
+    }
+
+    // Showing whether a medicine has a label needs only a few of them
+    static final int LOCAL_LIMIT = 5;
+
+    private static LabelRepository instance;
+
+    private final LabelCache cache;
+    private final LocalLabels localLabels;
+    private final OpenFDAService service;
+
+    public LabelRepository(LabelCache cache, LocalLabels localLabels, OpenFDAService service) {
+        this.cache = cache;
+        this.localLabels = localLabels;
+        this.service = service;
+    }
+
+    /**
+     * Creates the app-wide repository with its cache in the given directory. Called once from
+     * VMedicineApplication.onCreate, after {@link HttpStack#init(File)}; later calls are ignored.
+     */
+    public static synchronized void init(File cacheDir, LocalLabels localLabels) {
+        if (instance == null) {
+            LabelCache cache = new LabelCache(new DiskLruCache(new File(cacheDir, "labels"), LabelCache.DEFAULT_MAX_BYTES),
+                    LabelCache.DEFAULT_TTL_MILLIS, LabelCache.DEFAULT_STALE_WHILE_REVALIDATE_MILLIS, System::currentTimeMillis);
+            instance = new LabelRepository(cache, localLabels, OpenFDAClient.createService(HttpStack.client(),
+                    OpenFDATypeAdapterFactory.allModeledFields()));
+        }
+    }
+
+    public static synchronized LabelRepository get() {
+        if (instance == null) {
+            throw new IllegalStateException("LabelRepository.init has not been called");
+        }
+        return instance;
+    }
+
+    /**
+     * Answers from the cache, or looks the medicine up. Reads the disk, so call it off the main thread.
+     * The listener is called once: with the cached labels (fresh or stale) or with the network answer.
+     *
+     * @param medicineKey The canonical medicine name the answer is cached under.
+     * @param medicineName The name to search OpenFDA for.
+     * @return The ticket of the network lookup, for cancelling it, or null if the cache answered.
+     */
+    public SingleFlight<ApiResult<OpenFDAResponse>>.Ticket load(String medicineKey, String medicineName, Listener listener) {
+        LabelCache.Entry entry = peek(medicineKey, medicineName);
+        if (entry != null) {
+            listener.onLabels(entry.getResult(), entry.isStale());
+            if (entry.isStale()) {
+                refresh(medicineKey, medicineName);
+            }
+            return null;
+        }
+        return search(medicineKey, medicineName, RequestPriority.INTERACTIVE, new SingleFlight.Listener<ApiResult<OpenFDAResponse>>() {
+            @Override
+            public void onSuccess(ApiResult<OpenFDAResponse> labels) {
+                listener.onLabels(labels, false);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                listener.onFailure(error);
+            }
+        });
+    }
+
+    /**
+     * Answers from the device only: the cache entry if it is fresh, else the store's labels for the name,
+     * else the stale cache entry. Store answers count as stale, so the network tops them up when it can.
+     * Reads the disk.
+     *
+     * @return The local answer, or null if the medicine has to be looked up online.
+     */
+    public LabelCache.Entry peek(String medicineKey, String medicineName) {
+        LabelCache.Entry cached = cache.get(medicineKey);
+        if (cached != null && !cached.isStale()) {
+            return cached;
+        }
+        List<Result> stored = localLabels.findByName(medicineName, LOCAL_LIMIT);
+        if (!stored.isEmpty()) {
+            OpenFDAResponse labels = new OpenFDAResponse();
+            labels.results = stored;
+            return new LabelCache.Entry(ApiResult.success(200, labels), 0, true);
+        }
+        return cached;
+    }
+
+    /**
+     * Keeps an answer obtained elsewhere, e.g. one medicine's share of a batch search.
+     */
+    public void put(String medicineKey, ApiResult<OpenFDAResponse> labels) {
+        try {
+            cache.put(medicineKey, labels);
+        } catch (IOException e) {
+            // Not fatal: the medicine is simply looked up again next time
+        }
+        if (labels.isSuccessful() && labels.getBody() != null && labels.getBody().results != null) {
+            localLabels.putAll(labels.getBody().results);
+        }
+    }
+
+    /**
+     * Refreshes a medicine's entry in the background. Nobody waits for the answer, so it is not cancelled
+     * when the screen that triggered it goes away.
+     */
+    public void refresh(String medicineKey, String medicineName) {
+        search(medicineKey, medicineName, RequestPriority.BACKGROUND, new SingleFlight.Listener<ApiResult<OpenFDAResponse>>() {
+            @Override
+            public void onSuccess(ApiResult<OpenFDAResponse> labels) {
+                // Already stored by the loader
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                // Keep serving the stale entry; the next view tries again
+            }
+        });
+    }
+
+    /**
+     * Brings the answers for several medicines up to date in as few requests as possible: one batch search
+     * per {@link OpenFDABatch#MAX_NAMES_PER_QUERY} medicines that are missing or stale, then single searches
+     * for the medicines a batch did not settle. Blocks until done, so call it from a background job.
+     *
+     * @param medicines Canonical medicine key -> name to search for.
+     * @return The number of requests sent (0 if every answer was fresh).
+     * @throws IOException If a request failed; answers received before it are kept.
+     */
+    public int refreshAll(Map<String, String> medicines) throws IOException {
+        Map<String, String> keyByName = new LinkedHashMap<>();
+        for (Map.Entry<String, String> medicine : medicines.entrySet()) {
+            LabelCache.Entry cached = cache.get(medicine.getKey());
+            if (cached == null || cached.isStale()) {
+                keyByName.put(medicine.getValue().trim(), medicine.getKey());
+            }
+        }
+        int requests = 0;
+        List<String> unsettled = new ArrayList<>();
+        for (OpenFDABatch batch : OpenFDABatch.of(keyByName.keySet())) {
+            ApiResult<OpenFDAResponse> answer = execute(service.searchDrugLabel(batch.query(), batch.limit(),
+                    RequestPriority.BACKGROUND));
+            requests++;
+            if (answer.getCode() == 404) {
+                for (String name : batch.getNames()) {
+                    put(keyByName.get(name), answer);
+                }
+                continue;
+            }
+            for (Map.Entry<String, List<Result>> labels : batch.split(answer.getBody().results).entrySet()) {
+                if (labels.getValue().isEmpty()) {
+                    unsettled.add(labels.getKey());
+                } else {
+                    OpenFDAResponse response = new OpenFDAResponse();
+                    response.results = labels.getValue();
+                    put(keyByName.get(labels.getKey()), ApiResult.success(200, response));
+                }
+            }
+        }
+        for (String name : unsettled) {
+            String query = OpenFDAClient.brandOrGenericNameQuery(OpenFDAClient.normalizeMedicineName(name));
+            put(keyByName.get(name), execute(service.searchDrugLabel(query, 1, RequestPriority.BACKGROUND)));
+            requests++;
+        }
+        return requests;
+    }
+
+    /**
+     * @return A successful answer with a body, or 404.
+     * @throws IOException For any other outcome.
+     */
+    private static ApiResult<OpenFDAResponse> execute(retrofit2.Call<OpenFDAResponse> call) throws IOException {
+        Response<OpenFDAResponse> response = call.execute();
+        if (response.isSuccessful() && response.body() != null) {
+            return ApiResult.success(response.code(), response.body());
+        }
+        ResponseBody errorBody = response.errorBody();
+        if (response.code() == 404) {
+            if (errorBody != null) {
+                errorBody.close();
+            }
+            return ApiResult.error(404, null);
+        }
+        String error = errorBody != null ? errorBody.string() : ""; // string() closes the body
+        throw new IOException("OpenFDA search failed with " + response.code() + (error.isEmpty() ? "" : ": " + error));
+    }
+
+    private SingleFlight<ApiResult<OpenFDAResponse>>.Ticket search(String medicineKey, String medicineName,
+                                                                 RequestPriority priority,
+                                                                 SingleFlight.Listener<ApiResult<OpenFDAResponse>> listener) {
+        String query = OpenFDAClient.brandOrGenericNameQuery(OpenFDAClient.normalizeMedicineName(medicineName));
+        SingleFlight.Loader<ApiResult<OpenFDAResponse>> network = ApiResult.loader(service.searchDrugLabel(query, 1, priority));
+        // Store inside the loader, so the answer is written once however many callers share the request
+        SingleFlight.Loader<ApiResult<OpenFDAResponse>> caching = done -> network.load(
+                new SingleFlight.Listener<ApiResult<OpenFDAResponse>>() {
+                    @Override
+                    public void onSuccess(ApiResult<OpenFDAResponse> labels) {
+                        put(medicineKey, labels);
+                        done.onSuccess(labels);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        done.onFailure(error);
+                    }
+                });
+        return Lookups.OPEN_FDA_LABELS.execute(OpenFDAClient.searchKey(query, 1), caching, listener);
+    }
+}
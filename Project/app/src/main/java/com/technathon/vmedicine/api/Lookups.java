@@ -0,0 +1,16 @@
+package com.technathon.vmedicine.api;
+
+/**
+ * The app-wide single-flight groups, shared by every screen so that, say, a repeated QR scan joins the
+ * Gemini call the previous scan started.
+ */
+public final class Lookups {
+
+    // Keyed by the request path and query, see OpenFDAClient#searchKey
+    public static final SingleFlight<ApiResult<OpenFDAResponse>> OPEN_FDA_LABELS = new SingleFlight<>("OpenFDA labels");
+    // Keyed by model and everything the prompt is built from
+    public static final SingleFlight<ApiResult<GeminiResponse>> GEMINI = new SingleFlight<>("Gemini");
+
+    private Lookups() {
+    }
+}
@@ -0,0 +1,124 @@
+package com.technathon.vmedicine.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One OpenFDA label search that covers several medicines at once: the per-medicine brand/generic searches
+ * joined with OR. The labels that come back are split per medicine again by their openfda names.
+ *
+ * A medicine with no label in a successful batch is not proof that OpenFDA has none: the limit may have been
+ * used up by other medicines' labels, or the label may name it differently (strengths, combinations).
+ * Callers look such medicines up on their own. Only a 404 (no label matched at all) answers every medicine.
+ */
+public final class OpenFDABatch {
+
+    // Keeps the query URL well below what servers accept
+    public static final int MAX_NAMES_PER_QUERY = 20;
+    // Room for a few labels per medicine so one very common drug cannot use up the whole limit
+    static final int LABELS_PER_NAME = 5;
+
+    private final List<String> names;
+
+    private OpenFDABatch(List<String> names) {
+        this.names = names;
+    }
+
+    /**
+     * Splits medicine names into batches of at most {@link #MAX_NAMES_PER_QUERY}. Blank names and names that
+     * differ only in case are dropped.
+     */
+    public static List<OpenFDABatch> of(Collection<String> medicineNames) {
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (String name : medicineNames) {
+            if (name != null && !name.trim().isEmpty()) {
+                unique.putIfAbsent(normalize(name), name.trim());
+            }
+        }
+        List<String> all = new ArrayList<>(unique.values());
+        List<OpenFDABatch> batches = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += MAX_NAMES_PER_QUERY) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + MAX_NAMES_PER_QUERY));
+            batches.add(new OpenFDABatch(Collections.unmodifiableList(new ArrayList<>(chunk))));
+        }
+        return batches;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return The already URL-encoded search, for {@link OpenFDAService#searchDrugLabel(String, int)}.
+     */
+    public String query() {
+        StringBuilder query = new StringBuilder("(");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                query.append("+OR+");
+            }
+            query.append(OpenFDAClient.brandOrGenericNameQuery(names.get(i)));
+        }
+        return query.append(')').toString();
+    }
+
+    public int limit() {
+        return names.size() * LABELS_PER_NAME;
+    }
+
+    /**
+     * Assigns each label to every medicine of this batch that its brand or generic names contain as whole words.
+     *
+     * @return The labels per medicine name, in batch order. Medicines without a label map to an empty list.
+     */
+    public Map<String, List<Result>> split(List<Result> results) {
+        Map<String, List<Result>> byName = new LinkedHashMap<>();
+        for (String name : names) {
+            byName.put(name, new ArrayList<>());
+        }
+        if (results == null) {
+            return byName;
+        }
+        for (Result result : results) {
+            if (result == null || result.openfda == null) {
+                continue;
+            }
+            for (String name : names) {
+                String needle = normalize(name);
+                if (containsWord(result.openfda.brandName, needle) || containsWord(result.openfda.genericName, needle)) {
+                    byName.get(name).add(result);
+                }
+            }
+        }
+        return byName;
+    }
+
+    private static boolean containsWord(List<String> labelNames, String needle) {
+        if (labelNames == null) {
+            return false;
+        }
+        for (String labelName : labelNames) {
+            if (labelName == null) {
+                continue;
+            }
+            String haystack = normalize(labelName);
+            for (int at = haystack.indexOf(needle); at >= 0; at = haystack.indexOf(needle, at + 1)) {
+                int end = at + needle.length();
+                if ((at == 0 || !Character.isLetterOrDigit(haystack.charAt(at - 1)))
+                        && (end == haystack.length() || !Character.isLetterOrDigit(haystack.charAt(end)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,128 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Creates {@link OpenFDAService} instances that parse responses with the streaming adapters of
+ * {@link OpenFDATypeAdapterFactory}, and builds the search expressions the service expects.
+ *
+ * Every service shares one {@link RateLimiter} sized to OpenFDA's quotas for clients without an API key,
+ * so all screens together stay under them; throttled requests are retried with backoff.
+ *
+ * Callbacks of enqueued calls run on a background thread, not Retrofit's Android default of the main thread:
+ * the callers write answers to the disk cache and the label store, and post to the UI themselves.
+ */
+public final class OpenFDAClient {
+
+    public static final String BASE_URL = "https://api.fda.gov/";
+
+    // https://open.fda.gov/apis/authentication/: 240 requests per minute and 1,000 per day without a key
+    static final int REQUESTS_PER_MINUTE = 240;
+    static final int REQUESTS_PER_DAY = 1000;
+    static final int MAX_RETRIES = 3;
+    static final long BASE_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final RateLimiter LIMITER = RateLimiter.perMinuteAndDay(REQUESTS_PER_MINUTE, REQUESTS_PER_DAY);
+    // Requests waiting for a permit block a dispatcher thread; allow enough of them that background work
+    // cannot keep an interactive lookup from reaching the limiter's queue
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+    private static Dispatcher dispatcher;
+    // One thread, so the cache and store writes in callbacks do not contend with each other
+    private static final Executor CALLBACKS = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "OpenFDA callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private OpenFDAClient() {
+    }
+
+    /**
+     * @param client The HTTP client (and its cache) to send requests with.
+     * @param adapters Which fields to read, e.g. {@link OpenFDATypeAdapterFactory#namesOnly()} for lookups
+     *                 that never show label text.
+     */
+    public static OpenFDAService createService(OkHttpClient client, OpenFDATypeAdapterFactory adapters) {
+        return createService(BASE_URL, client, adapters);
+    }
+
+    /**
+     * Same as {@link #createService(OkHttpClient, OpenFDATypeAdapterFactory)} against another base URL, e.g. a test server.
+     */
+    public static OpenFDAService createService(String baseUrl, OkHttpClient client, OpenFDATypeAdapterFactory adapters) {
+        return createService(baseUrl, client, adapters, new RateLimitInterceptor(LIMITER, MAX_RETRIES,
+                BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, new Random()));
+    }
+
+    /**
+     * Same as {@link #createService(String, OkHttpClient, OpenFDATypeAdapterFactory)} with its own rate limiting,
+     * e.g. a test's.
+     */
+    public static OpenFDAService createService(String baseUrl, OkHttpClient client, OpenFDATypeAdapterFactory adapters,
+                                               RateLimitInterceptor rateLimiting) {
+        OkHttpClient limitedClient = client.newBuilder()
+                .dispatcher(dispatcher())
+                .addInterceptor(rateLimiting)
+                .build();
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapterFactory(adapters)
+                .create();
+        return new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(limitedClient)
+                .callbackExecutor(CALLBACKS)
+                .addConverterFactory(GsonConverterFactory.create(gson))
+                .build()
+                .create(OpenFDAService.class);
+    }
+
+    private static synchronized Dispatcher dispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new Dispatcher();
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Trims, lowercases and collapses spaces, so names typed or scanned slightly differently build the same
+     * search (OpenFDA matches names case-insensitively).
+     */
+    public static String normalizeMedicineName(String medicineName) {
+        return medicineName.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The {@link Lookups#OPEN_FDA_LABELS} key of a label search.
+     */
+    public static String searchKey(String encodedQuery, int limit) {
+        return "drug/label.json?search=" + encodedQuery + "&limit=" + limit;
+    }
+
+    /**
+     * Builds an already URL-encoded search matching a brand name (exact phrase) or a generic name (plain search).
+     */
+    public static String brandOrGenericNameQuery(String medicineName) {
+        try {
+            String encodedBrandName = URLEncoder.encode("\"" + medicineName + "\"", "UTF-8");
+            String encodedGenericName = URLEncoder.encode(medicineName, "UTF-8");
+            return "(openfda.brand_name:" + encodedBrandName + "+OR+openfda.generic_name:" + encodedGenericName + ")";
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is always supported", e);
+        }
+    }
+}
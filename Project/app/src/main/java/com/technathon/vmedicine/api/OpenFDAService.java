@@ -4,18 +4,28 @@ package com.technathon.vmedicine.api;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Query;
+import retrofit2.http.Tag;
 
 // This interface defines the endpoints for the OpenFDA API
 public interface OpenFDAService {
 
-    // Example: Search drug labels by brand name
+    // Search drug labels, e.g. by brand or generic name
     // Endpoint: https://api.fda.gov/drug/label.json?search=openfda.brand_name:"{drug_name}"&limit=1
+    // The query is sent as-is, so OpenFDA's '+' separators survive; build it with OpenFDAClient.
     @GET("drug/label.json")
     Call<OpenFDAResponse> searchDrugLabel(
-            @Query("search") String query,
+            @Query(value = "search", encoded = true) String encodedQuery,
             @Query("limit") int limit
     );
 
+    // Same search with a priority for the client-side rate limiter, e.g. BACKGROUND for prefetching
+    @GET("drug/label.json")
+    Call<OpenFDAResponse> searchDrugLabel(
+            @Query(value = "search", encoded = true) String encodedQuery,
+            @Query("limit") int limit,
+            @Tag RequestPriority priority
+    );
+
     // You might add more methods here for other OpenFDA endpoints,
     // e.g., to search for adverse events, etc.
 }
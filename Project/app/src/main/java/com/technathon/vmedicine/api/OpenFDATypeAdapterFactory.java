@@ -0,0 +1,224 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming Gson adapters for the OpenFDA label models. They read straight off the response stream and
+ * skip every field the models do not declare with {@link JsonReader#skipValue()}, so the large label
+ * sections nobody uses (package inserts, boxed warnings, ...) are never turned into objects or strings.
+ *
+ * The label text fields ({@link Result#indicationsAndUsage}, {@link Result#warnings}) can be projected
+ * away as well when a caller only needs to know which drugs matched, see {@link #namesOnly()}.
+ * These adapters only read; serializing the models falls back to Gson's default behavior.
+ */
+public final class OpenFDATypeAdapterFactory implements TypeAdapterFactory {
+
+    private final boolean readLabelText;
+
+    private OpenFDATypeAdapterFactory(boolean readLabelText) {
+        this.readLabelText = readLabelText;
+    }
+
+    /**
+     * Adapters that read every field modeled in {@link Result} and {@link OpenFDA}.
+     */
+    public static OpenFDATypeAdapterFactory allModeledFields() {
+        return new OpenFDATypeAdapterFactory(true);
+    }
+
+    /**
+     * Adapters that also skip the label text (indications, warnings), leaving only the openfda names and routes.
+     */
+    public static OpenFDATypeAdapterFactory namesOnly() {
+        return new OpenFDATypeAdapterFactory(false);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == OpenFDAResponse.class) {
+            return (TypeAdapter<T>) new ResponseAdapter(gson.getDelegateAdapter(this, TypeToken.get(OpenFDAResponse.class)),
+                    gson.getAdapter(Result.class));
+        }
+        if (rawType == Result.class) {
+            return (TypeAdapter<T>) new ResultAdapter(gson.getDelegateAdapter(this, TypeToken.get(Result.class)),
+                    gson.getAdapter(OpenFDA.class), readLabelText);
+        }
+        if (rawType == OpenFDA.class) {
+            return (TypeAdapter<T>) new OpenFDAAdapter(gson.getDelegateAdapter(this, TypeToken.get(OpenFDA.class)));
+        }
+        return null;
+    }
+
+    private static final class ResponseAdapter extends TypeAdapter<OpenFDAResponse> {
+        private final TypeAdapter<OpenFDAResponse> writer;
+        private final TypeAdapter<Result> resultAdapter;
+
+        ResponseAdapter(TypeAdapter<OpenFDAResponse> writer, TypeAdapter<Result> resultAdapter) {
+            this.writer = writer;
+            this.resultAdapter = resultAdapter;
+        }
+
+        @Override
+        public OpenFDAResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            OpenFDAResponse response = new OpenFDAResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("results") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    List<Result> results = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        results.add(resultAdapter.read(in));
+                    }
+                    in.endArray();
+                    response.results = results;
+                } else {
+                    in.skipValue(); // "meta" and anything else
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        @Override
+        public void write(JsonWriter out, OpenFDAResponse value) throws IOException {
+            writer.write(out, value);
+        }
+    }
+
+    private static final class ResultAdapter extends TypeAdapter<Result> {
+        private final TypeAdapter<Result> writer;
+        private final TypeAdapter<OpenFDA> openFdaAdapter;
+        private final boolean readLabelText;
+
+        ResultAdapter(TypeAdapter<Result> writer, TypeAdapter<OpenFDA> openFdaAdapter, boolean readLabelText) {
+            this.writer = writer;
+            this.openFdaAdapter = openFdaAdapter;
+            this.readLabelText = readLabelText;
+        }
+
+        @Override
+        public Result read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Result result = new Result();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "openfda":
+                        result.openfda = openFdaAdapter.read(in);
+                        break;
+                    case "indications_and_usage":
+                        if (readLabelText) {
+                            result.indicationsAndUsage = readStringList(in);
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    case "warnings":
+                        if (readLabelText) {
+                            result.warnings = readStringList(in);
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, Result value) throws IOException {
+            writer.write(out, value);
+        }
+    }
+
+    private static final class OpenFDAAdapter extends TypeAdapter<OpenFDA> {
+        private final TypeAdapter<OpenFDA> writer;
+
+        OpenFDAAdapter(TypeAdapter<OpenFDA> writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public OpenFDA read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            OpenFDA openFda = new OpenFDA();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "brand_name":
+                        openFda.brandName = readStringList(in);
+                        break;
+                    case "generic_name":
+                        openFda.genericName = readStringList(in);
+                        break;
+                    case "route":
+                        openFda.route = readStringList(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return openFda;
+        }
+
+        @Override
+        public void write(JsonWriter out, OpenFDA value) throws IOException {
+            writer.write(out, value);
+        }
+    }
+
+    /**
+     * Reads an array of strings. OpenFDA occasionally sends a bare string where an array is documented,
+     * which is read as a one-element list.
+     */
+    private static List<String> readStringList(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        if (token != JsonToken.BEGIN_ARRAY) {
+            values.add(in.nextString());
+            return values;
+        }
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else {
+                values.add(in.nextString());
+            }
+        }
+        in.endArray();
+        return values;
+    }
+}
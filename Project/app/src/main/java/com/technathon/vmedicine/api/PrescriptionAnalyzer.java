@@ -0,0 +1,297 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.JsonParseException;
+import com.technathon.vmedicine.data.ExtractedPrescription;
+import com.technathon.vmedicine.data.PrescriptionExtractor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads allergies, current medications and medical conditions from a prescription's OCR text. The rules of
+ * {@link PrescriptionExtractor} answer on the device in a millisecond or so; Gemini is only asked when they
+ * did not understand enough of the text, such as a discharge summary written as prose.
+ *
+ * <p>Long prescriptions are read in chunks of OCR blocks ({@link #analyzeBlocks}), so Gemini answers several
+ * short prompts at once instead of one long one, which is slow and may be cut off.
+ */
+public final class PrescriptionAnalyzer {
+
+    /**
+     * Characters of OCR text per Gemini prompt; about a page of a discharge summary.
+     */
+    public static final int CHUNK_CHARS = 1500;
+    /**
+     * Chunks Gemini is asked about at once.
+     */
+    public static final int MAX_PARALLEL_CHUNKS = 4;
+
+    public enum Source {
+        ON_DEVICE, GEMINI
+    }
+
+    public interface Listener {
+        /**
+         * Called before Gemini is asked, with what the device read so far, so it can be shown meanwhile.
+         */
+        default void onAskingGemini(ExtractedPrescription onDevice) {
+        }
+
+        /**
+         * @param source {@link Source#GEMINI} if Gemini read any of the text.
+         */
+        void onExtracted(ExtractedPrescription prescription, Source source);
+
+        /**
+         * Gemini could not be reached or gave no usable answer.
+         *
+         * @param onDevice What the device read, to fall back to, with the chunks Gemini did answer. May be empty.
+         */
+        void onFailure(Throwable error, ExtractedPrescription onDevice);
+    }
+
+    private final GeminiClient gemini;
+
+    public PrescriptionAnalyzer(GeminiClient gemini) {
+        this.gemini = gemini;
+    }
+
+    /**
+     * Extracts on the device, and with Gemini if the device was not confident. Reads the medicine dictionary,
+     * which is built on first use, so call it off the main thread.
+     *
+     * @return The Gemini call, for cancelling it, or null if the device answered; the listener has then been
+     * called already.
+     */
+    public SingleFlight.Cancellable analyze(String text, Listener listener) {
+        PrescriptionExtractor.Extraction onDevice = PrescriptionExtractor.extract(text);
+        if (onDevice.isConfident()) {
+            listener.onExtracted(onDevice.getPrescription(), Source.ON_DEVICE);
+            return null;
+        }
+        listener.onAskingGemini(onDevice.getPrescription());
+        return extractWithGemini(text, new SingleFlight.Listener<ExtractedPrescription>() {
+            @Override
+            public void onSuccess(ExtractedPrescription prescription) {
+                listener.onExtracted(prescription, Source.GEMINI);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                listener.onFailure(error, onDevice.getPrescription());
+            }
+        });
+    }
+
+    /**
+     * {@link #analyzeBlocks(List, int, int, Listener)} with the default chunk size and parallelism.
+     */
+    public SingleFlight.Cancellable analyzeBlocks(List<String> blocks, Listener listener) {
+        return analyzeBlocks(blocks, CHUNK_CHARS, MAX_PARALLEL_CHUNKS, listener);
+    }
+
+    /**
+     * Like {@link #analyze}, for text recognized in blocks (ML Kit's {@code Text.getTextBlocks()}). If the device
+     * is not confident about the whole text and it is longer than a chunk, the blocks are grouped into chunks
+     * of up to {@code chunkChars}; each chunk is read on the device, and the ones it is not confident about are
+     * sent to Gemini, {@code maxParallel} at a time. The chunks' readings are merged in order, without
+     * duplicates ({@link ExtractedPrescription#merge}).
+     *
+     * <p>If Gemini fails on a chunk, the device's reading of that chunk is used, the other chunks still finish,
+     * and the listener's {@link Listener#onFailure} gets the first error with the merged readings.
+     *
+     * @return The Gemini calls, for cancelling them, or null if the device answered.
+     */
+    public SingleFlight.Cancellable analyzeBlocks(List<String> blocks, int chunkChars, int maxParallel, Listener listener) {
+        String text = String.join("\n", blocks);
+        if (text.length() <= chunkChars) {
+            return analyze(text, listener);
+        }
+        PrescriptionExtractor.Extraction whole = PrescriptionExtractor.extract(text);
+        if (whole.isConfident()) {
+            listener.onExtracted(whole.getPrescription(), Source.ON_DEVICE);
+            return null;
+        }
+        List<String> chunks = chunks(blocks, chunkChars);
+        ExtractedPrescription[] readings = new ExtractedPrescription[chunks.size()];
+        List<Integer> unsure = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            PrescriptionExtractor.Extraction onDevice = PrescriptionExtractor.extract(chunks.get(i));
+            readings[i] = onDevice.getPrescription();
+            if (!onDevice.isConfident()) {
+                unsure.add(i);
+            }
+        }
+        if (unsure.isEmpty()) {
+            listener.onExtracted(ExtractedPrescription.merge(Arrays.asList(readings)), Source.ON_DEVICE);
+            return null;
+        }
+        listener.onAskingGemini(ExtractedPrescription.merge(Arrays.asList(readings)));
+        ChunkedCall call = new ChunkedCall(chunks, unsure, readings, listener);
+        for (int lane = 0; lane < Math.min(maxParallel, unsure.size()); lane++) {
+            call.next();
+        }
+        return call;
+    }
+
+    /**
+     * Groups consecutive blocks into chunks of at most {@code chunkChars} characters, joined by line breaks. A
+     * block longer than that is a chunk of its own; blocks are never split.
+     */
+    static List<String> chunks(List<String> blocks, int chunkChars) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        for (String block : blocks) {
+            if (chunk.length() > 0 && chunk.length() + 1 + block.length() > chunkChars) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+            }
+            if (chunk.length() > 0) {
+                chunk.append('\n');
+            }
+            chunk.append(block);
+        }
+        if (chunk.length() > 0) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * The Gemini calls of one {@link #analyzeBlocks} run. Each lane asks about the next unsure chunk when its
+     * previous one is answered, which keeps at most as many calls in flight as lanes were started. Once
+     * cancelled, the lanes start no more chunks and the listener is not called.
+     */
+    private final class ChunkedCall implements SingleFlight.Cancellable {
+        private final List<String> chunks;
+        private final List<Integer> unsure;
+        private final ExtractedPrescription[] readings;
+        private final Listener listener;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final List<SingleFlight.Cancellable> inFlight = Collections.synchronizedList(new ArrayList<>());
+        private volatile Throwable firstError;
+        private volatile boolean cancelled;
+
+        ChunkedCall(List<String> chunks, List<Integer> unsure, ExtractedPrescription[] readings, Listener listener) {
+            this.chunks = chunks;
+            this.unsure = unsure;
+            this.readings = readings;
+            this.listener = listener;
+            this.remaining = new AtomicInteger(unsure.size());
+        }
+
+        void next() {
+            int position = started.getAndIncrement();
+            if (position >= unsure.size() || cancelled) {
+                return;
+            }
+            int chunk = unsure.get(position);
+            SingleFlight.Cancellable call = extractWithGemini(chunks.get(chunk), new SingleFlight.Listener<ExtractedPrescription>() {
+                @Override
+                public void onSuccess(ExtractedPrescription prescription) {
+                    readings[chunk] = prescription;
+                    finished();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (firstError == null) { // The device's reading of the chunk stays
+                        firstError = error;
+                    }
+                    finished();
+                }
+            });
+            inFlight.add(call);
+            if (cancelled) { // Cancelled while this call was starting
+                call.cancel();
+            }
+        }
+
+        // The counter's decrement publishes this lane's reading to whichever lane reports the result
+        private void finished() {
+            if (cancelled) { // OkHttp fails the cancelled calls; nobody waits for the result any more
+                return;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                ExtractedPrescription merged = ExtractedPrescription.merge(Arrays.asList(readings));
+                if (firstError != null) {
+                    listener.onFailure(firstError, merged);
+                } else {
+                    listener.onExtracted(merged, Source.GEMINI);
+                }
+            } else {
+                next();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (inFlight) {
+                for (SingleFlight.Cancellable call : inFlight) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks Gemini, whatever the device would have read. The listener is called on an OkHttp thread; HTTP errors
+     * and empty answers fail with an IOException, answers that are not the requested JSON with a JsonParseException.
+     */
+    public SingleFlight.Cancellable extractWithGemini(String text, SingleFlight.Listener<ExtractedPrescription> listener) {
+        return gemini.generateContent(request(text), new SingleFlight.Listener<ApiResult<GeminiResponse>>() {
+            @Override
+            public void onSuccess(ApiResult<GeminiResponse> response) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.getErrorBody() != null ? response.getErrorBody() : "No error body";
+                    listener.onFailure(new IOException("HTTP " + response.getCode() + ": " + errorBody));
+                    return;
+                }
+                String json = response.getBody().text();
+                if (json.isEmpty()) {
+                    listener.onFailure(new IOException("AI response content is empty or malformed."));
+                    return;
+                }
+                ExtractedPrescription prescription;
+                try {
+                    prescription = GeminiClient.parseJson(json, ExtractedPrescription.class);
+                } catch (JsonParseException e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                if (prescription == null) {
+                    listener.onFailure(new JsonParseException("AI response content is empty or malformed."));
+                    return;
+                }
+                listener.onSuccess(prescription);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                listener.onFailure(error);
+            }
+        });
+    }
+
+    /**
+     * Asks for JSON in the shape of {@link ExtractedPrescription}; the scanned text is escaped by the JSON writer.
+     */
+    static GeminiRequest request(String text) {
+        String prompt = "From the following prescription text, extract: " +
+                "1. Allergies (as a comma-separated list, e.g., Penicillin, Sulfa drugs)\n" +
+                "2. Current Medications (as a comma-separated list, e.g., Lisinopril 10mg, Metformin 500mg)\n" +
+                "3. Medical Conditions (as a comma-separated list, e.g., Hypertension, Type 2 Diabetes)\n" +
+                "Return the extracted data as a JSON object with keys: 'allergies', 'currentMedications', 'medicalConditions'. " +
+                "Each key should map to an array of strings. If a category is not found, its array should be empty. " +
+                "Do not include any other text or formatting. Here is the prescription text: " + text;
+        GeminiRequest.Schema strings = GeminiRequest.Schema.arrayOf(GeminiRequest.Schema.string());
+        return GeminiRequest.prompt(prompt).withJsonResponse(GeminiRequest.Schema.object(
+                new String[]{"allergies", "currentMedications", "medicalConditions"}, strings, strings, strings));
+    }
+}
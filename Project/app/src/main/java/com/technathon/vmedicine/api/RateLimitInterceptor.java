@@ -0,0 +1,93 @@
+package com.technathon.vmedicine.api;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends requests through a {@link RateLimiter} and retries throttled ones (429, 503) with jittered
+ * exponential backoff. A Retry-After from the server wins over the computed backoff and pauses the whole
+ * limiter, so other requests do not hammer the server in the meantime either.
+ *
+ * Add it as an application interceptor ({@code addInterceptor}), so each retry is a new network attempt.
+ */
+public final class RateLimitInterceptor implements Interceptor {
+
+    // How long a request may wait for a permit before failing with RateLimitedException
+    static final long INTERACTIVE_MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final long BACKGROUND_MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final RateLimiter limiter;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random;
+
+    public RateLimitInterceptor(RateLimiter limiter, int maxRetries, long baseBackoffMillis, long maxBackoffMillis,
+                                Random random) {
+        this.limiter = limiter;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.random = random;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestPriority priority = request.tag(RequestPriority.class);
+        if (priority == null) {
+            priority = RequestPriority.INTERACTIVE;
+        }
+        long maxWait = priority == RequestPriority.INTERACTIVE ? INTERACTIVE_MAX_WAIT_MILLIS : BACKGROUND_MAX_WAIT_MILLIS;
+        for (int attempt = 0; ; attempt++) {
+            limiter.acquire(priority, maxWait, () -> chain.call().isCanceled());
+            Response response = chain.proceed(request);
+            if (!isThrottled(response)) {
+                return response;
+            }
+            long retryAfter = retryAfterMillis(response);
+            long delay = retryAfter >= 0 ? retryAfter : backoffMillis(attempt);
+            limiter.pauseFor(delay);
+            if (attempt == maxRetries) {
+                return response; // Let the caller see the 429
+            }
+            response.close();
+        }
+    }
+
+    static boolean isThrottled(Response response) {
+        return response.code() == 429 || response.code() == 503;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half the exponential delay plus a random part of the other half,
+     * so retries from many devices spread out but never come back sooner than half the delay.
+     */
+    long backoffMillis(int attempt) {
+        long exponential = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        long half = exponential / 2;
+        return half + (long) (random.nextDouble() * (exponential - half));
+    }
+
+    /**
+     * @return The Retry-After delay in milliseconds (delta-seconds or HTTP date), or -1 if absent or unparseable.
+     */
+    static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
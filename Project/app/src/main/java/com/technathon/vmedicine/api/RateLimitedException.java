@@ -0,0 +1,27 @@
+package com.technathon.vmedicine.api;
+
+import java.io.IOException;
+
+/**
+ * A request was not sent because the client-side quota ({@link RateLimiter}) would not allow it soon enough.
+ * A server that keeps answering 429 or 503 after every retry does not raise this: {@link RateLimitInterceptor}
+ * hands that last response to the caller, which sees it as an unsuccessful status.
+ */
+public final class RateLimitedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return How long until a request has a chance again.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,127 @@
+package com.technathon.vmedicine.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hands out request permits from one or more token buckets (e.g. per minute and per day), first to
+ * {@link RequestPriority#INTERACTIVE} requests, then to background ones, first come first served within a
+ * priority. The server can also pause everyone, see {@link #pauseFor(long)}.
+ *
+ * Waiting blocks the calling thread, which for OkHttp is a dispatcher thread: run limited requests on a
+ * client whose dispatcher allows enough requests per host, or background work can hold every slot.
+ */
+public final class RateLimiter {
+
+    // How often waiters recheck cancellation and their place in the queue
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final TokenBucket[] buckets;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private long nextSequence;
+    private long pausedUntil = Long.MIN_VALUE;
+    private boolean paused;
+
+    RateLimiter(TokenBucket... buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * @param permitsPerMinute Burst size and per-minute rate.
+     * @param permitsPerDay Daily quota, counted from process start.
+     */
+    public static RateLimiter perMinuteAndDay(int permitsPerMinute, int permitsPerDay) {
+        return new RateLimiter(
+                new TokenBucket(permitsPerMinute, permitsPerMinute, TimeUnit.MINUTES.toNanos(1), System::nanoTime),
+                new TokenBucket(permitsPerDay, permitsPerDay, TimeUnit.DAYS.toNanos(1), System::nanoTime));
+    }
+
+    /**
+     * Waits for a permit.
+     *
+     * @param maxWaitMillis Give up (rather than wait) if no permit can be had within this time.
+     * @param cancelled Checked while waiting; a cancelled request gives up its place.
+     * @throws RateLimitedException If no permit is available within maxWaitMillis.
+     * @throws IOException If the request was cancelled or the thread interrupted while waiting.
+     */
+    public synchronized void acquire(RequestPriority priority, long maxWaitMillis, BooleanSupplier cancelled)
+            throws IOException {
+        Waiter waiter = new Waiter(priority, nextSequence++);
+        waiters.add(waiter);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        try {
+            while (true) {
+                if (cancelled.getAsBoolean()) {
+                    throw new IOException("Canceled");
+                }
+                long now = System.nanoTime();
+                long wait = POLL_NANOS;
+                if (waiters.peek() == waiter) {
+                    wait = nanosUntilPermit(now);
+                    if (wait == 0) {
+                        for (TokenBucket bucket : buckets) {
+                            bucket.take();
+                        }
+                        return;
+                    }
+                    if (now + wait - deadline > 0) {
+                        throw new RateLimitedException("Request quota used up", TimeUnit.NANOSECONDS.toMillis(wait));
+                    }
+                } else if (now - deadline > 0) {
+                    throw new RateLimitedException("Too many requests waiting", TimeUnit.NANOSECONDS.toMillis(POLL_NANOS));
+                }
+                long waitNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), Math.min(wait, POLL_NANOS));
+                wait(TimeUnit.NANOSECONDS.toMillis(waitNanos), (int) (waitNanos % 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request permit");
+        } finally {
+            waiters.remove(waiter);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Holds back every request for the given time, e.g. when the server answered 429 with Retry-After.
+     * A shorter pause never cuts a longer one short.
+     */
+    public synchronized void pauseFor(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (!paused || until - pausedUntil > 0) {
+            pausedUntil = until;
+            paused = true;
+        }
+        notifyAll();
+    }
+
+    private long nanosUntilPermit(long now) {
+        long wait = paused ? Math.max(0, pausedUntil - now) : 0;
+        if (wait == 0) {
+            paused = false;
+        }
+        for (TokenBucket bucket : buckets) {
+            wait = Math.max(wait, bucket.nanosUntilAvailable());
+        }
+        return wait;
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final RequestPriority priority;
+        final long sequence;
+
+        Waiter(RequestPriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.technathon.vmedicine.api;
+
+/**
+ * How soon a rate-limited request should go out when several are waiting. Attach it as the request's tag
+ * (Retrofit {@code @Tag}); untagged requests are treated as {@link #INTERACTIVE}.
+ */
+public enum RequestPriority {
+    /** Someone is looking at a loading indicator. */
+    INTERACTIVE,
+    /** Prefetching and refreshing: nobody waits for it. */
+    BACKGROUND
+}
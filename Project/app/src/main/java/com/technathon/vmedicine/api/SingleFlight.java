@@ -0,0 +1,196 @@
+package com.technathon.vmedicine.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent identical lookups: callers asking for the same key while a call for it is running
+ * join that call instead of starting another, and all of them get its result.
+ *
+ * Each caller holds a {@link Ticket}. Cancelling a ticket (e.g. because the user picked another medicine)
+ * only detaches that caller; the underlying call is cancelled once no caller is waiting for it any more.
+ * Results are not kept after the call finishes, caching them is up to the caller.
+ */
+public final class SingleFlight<V> {
+
+    public interface Listener<V> {
+        void onSuccess(V value);
+
+        void onFailure(Throwable error);
+    }
+
+    public interface Cancellable {
+        void cancel();
+    }
+
+    /**
+     * Starts the underlying call and reports its outcome to the listener exactly once, on any thread.
+     */
+    public interface Loader<V> {
+        Cancellable load(Listener<V> listener);
+    }
+
+    private final String name;
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private long requests;
+    private long loads;
+    private long coalesced;
+    private long cancelledLoads;
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the loader for this key unless a call for the key is already running, in which case the listener
+     * joins it. The listener is called on the thread that completes the call, and never after its ticket
+     * was cancelled.
+     */
+    public Ticket execute(String key, Loader<V> loader, Listener<V> listener) {
+        Flight flight;
+        Ticket ticket;
+        boolean start;
+        synchronized (this) {
+            requests++;
+            flight = inFlight.get(key);
+            start = flight == null;
+            if (start) {
+                loads++;
+                flight = new Flight(key);
+                inFlight.put(key, flight);
+            } else {
+                coalesced++;
+            }
+            ticket = new Ticket(flight, listener);
+            flight.tickets.add(ticket);
+        }
+        if (start) {
+            Cancellable call = loader.load(flight);
+            synchronized (this) {
+                if (flight.finished) {
+                    call.cancel(); // Every caller left while the call was being started
+                } else {
+                    flight.call = call;
+                }
+            }
+        }
+        return ticket;
+    }
+
+    public synchronized Metrics metrics() {
+        return new Metrics(name, requests, loads, coalesced, cancelledLoads);
+    }
+
+    /**
+     * One caller's interest in a running call.
+     */
+    public final class Ticket {
+        private final Flight flight;
+        private final Listener<V> listener;
+
+        private Ticket(Flight flight, Listener<V> listener) {
+            this.flight = flight;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops delivering the result to this caller, and cancels the call if nobody else waits for it.
+         */
+        public void cancel() {
+            Cancellable call = null;
+            synchronized (SingleFlight.this) {
+                if (!flight.tickets.remove(this) || !flight.tickets.isEmpty() || flight.finished) {
+                    return;
+                }
+                flight.finished = true;
+                inFlight.remove(flight.key);
+                cancelledLoads++;
+                call = flight.call;
+            }
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+    private final class Flight implements Listener<V> {
+        final String key;
+        final List<Ticket> tickets = new ArrayList<>(2);
+        Cancellable call;
+        boolean finished;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onSuccess(V value) {
+            for (Ticket ticket : finish()) {
+                ticket.listener.onSuccess(value);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            for (Ticket ticket : finish()) {
+                ticket.listener.onFailure(error);
+            }
+        }
+
+        private List<Ticket> finish() {
+            synchronized (SingleFlight.this) {
+                if (finished) {
+                    return new ArrayList<>(0); // Cancelled, or the loader reported twice
+                }
+                finished = true;
+                inFlight.remove(key);
+                List<Ticket> waiting = new ArrayList<>(tickets);
+                tickets.clear();
+                return waiting;
+            }
+        }
+    }
+
+    /**
+     * Counters since process start. Every coalesced request is a network call that was not made.
+     */
+    public static final class Metrics {
+        private final String name;
+        private final long requests;
+        private final long loads;
+        private final long coalesced;
+        private final long cancelledLoads;
+
+        Metrics(String name, long requests, long loads, long coalesced, long cancelledLoads) {
+            this.name = name;
+            this.requests = requests;
+            this.loads = loads;
+            this.coalesced = coalesced;
+            this.cancelledLoads = cancelledLoads;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getLoads() {
+            return loads;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getCancelledLoads() {
+            return cancelledLoads;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + requests + " requests, " + loads + " calls, " + coalesced + " saved by coalescing, "
+                    + cancelledLoads + " cancelled";
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.technathon.vmedicine.api;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} permits and regains {@code permitsPerPeriod} of them
+ * per period, continuously. Not thread-safe; {@link RateLimiter} guards it.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double permitsPerNano;
+    private final LongSupplier nanoClock;
+    private double permits;
+    private long lastRefill;
+
+    TokenBucket(int capacity, int permitsPerPeriod, long periodNanos, LongSupplier nanoClock) {
+        this.capacity = capacity;
+        this.permitsPerNano = (double) permitsPerPeriod / periodNanos;
+        this.nanoClock = nanoClock;
+        this.permits = capacity;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * @return 0 if a permit is available now, otherwise how long until one is.
+     */
+    long nanosUntilAvailable() {
+        refill();
+        return permits >= 1 ? 0 : (long) Math.ceil((1 - permits) / permitsPerNano);
+    }
+
+    /**
+     * Takes a permit; call only when {@link #nanosUntilAvailable()} returned 0.
+     */
+    void take() {
+        permits -= 1;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        permits = Math.min(capacity, permits + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+}
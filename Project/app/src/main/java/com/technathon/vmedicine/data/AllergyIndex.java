@@ -0,0 +1,178 @@
+package com.technathon.vmedicine.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compiled, immutable form of the drug-allergy data.
+ * Every medicine gets a dense integer ID and every allergy class is interned to a dense integer ID,
+ * so a check is just a walk over a few ints instead of string comparisons.
+ *
+ * The index is a read-only view over a ByteBuffer, either built in memory by {@link Builder}
+ * or mapped from an {@link InteractionBundle}. Layout: medicine {@link NameTable}, allergy class
+ * {@link NameTable}, int[medicineCount + 1] row offsets, int[] allergy class IDs (in data order per medicine).
+ */
+public final class AllergyIndex {
+
+    private final ByteBuffer buffer;
+    private final NameTable medicines;
+    private final NameTable allergyClasses;
+    private final int rowOffsetsStart;
+    private final int classIdsStart;
+    private final int end;
+
+    private AllergyIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.medicines = NameTable.read(buffer, 0);
+        this.allergyClasses = NameTable.read(buffer, medicines.end());
+        this.rowOffsetsStart = allergyClasses.end();
+        this.classIdsStart = rowOffsetsStart + (medicines.size() + 1) * 4;
+        this.end = classIdsStart + buffer.getInt(rowOffsetsStart + medicines.size() * 4) * 4;
+        if (end > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupt allergy index section");
+        }
+    }
+
+    /**
+     * Opens an index over a buffer whose position 0 is the start of the section.
+     */
+    static AllergyIndex read(ByteBuffer section) {
+        return new AllergyIndex(section);
+    }
+
+    /**
+     * Lowercases and trims a medicine or allergy name the same way the index keys were built.
+     */
+    public static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param normalizedName A name already passed through {@link #normalize(String)}.
+     * @return The medicine ID, or -1 if the medicine is not in the index.
+     */
+    public int medicineId(String normalizedName) {
+        return medicines.find(normalizedName);
+    }
+
+    /**
+     * @param normalizedName A name already passed through {@link #normalize(String)}.
+     * @return The allergy class ID, or -1 if no medicine references this allergy class.
+     */
+    public int allergyClassId(String normalizedName) {
+        return allergyClasses.find(normalizedName);
+    }
+
+    public String medicineName(int medicineId) {
+        return medicines.nameAt(medicineId);
+    }
+
+    public String allergyClassName(int allergyClassId) {
+        return allergyClasses.nameAt(allergyClassId);
+    }
+
+    public int medicineCount() {
+        return medicines.size();
+    }
+
+    public int allergyClassCount() {
+        return allergyClasses.size();
+    }
+
+    /**
+     * @return The number of allergy classes that interact with a medicine (0 for unknown IDs).
+     */
+    public int allergyClassCountOf(int medicineId) {
+        if (medicineId < 0 || medicineId >= medicines.size()) {
+            return 0;
+        }
+        return rowOffset(medicineId + 1) - rowOffset(medicineId);
+    }
+
+    /**
+     * @return The i-th allergy class ID that interacts with a medicine, in data order.
+     */
+    public int allergyClassOf(int medicineId, int i) {
+        return buffer.getInt(classIdsStart + (rowOffset(medicineId) + i) * 4);
+    }
+
+    private int rowOffset(int medicineId) {
+        return buffer.getInt(rowOffsetsStart + medicineId * 4);
+    }
+
+    /**
+     * @return The encoded section, e.g. for writing into an {@link InteractionBundle}.
+     */
+    ByteBuffer section() {
+        ByteBuffer section = buffer.duplicate();
+        section.position(0);
+        section.limit(end);
+        return section.slice();
+    }
+
+    public static final class Builder {
+        private final Map<String, List<String>> entries = new LinkedHashMap<>();
+
+        /**
+         * Adds (or extends) the allergy classes that interact with a medicine. Names can be any case.
+         */
+        public Builder add(String medicineName, String... allergyClasses) {
+            List<String> classes = entries.get(normalize(medicineName));
+            if (classes == null) {
+                classes = new ArrayList<>();
+                entries.put(normalize(medicineName), classes);
+            }
+            for (String allergyClass : allergyClasses) {
+                String normalized = normalize(allergyClass);
+                if (!normalized.isEmpty() && !classes.contains(normalized)) {
+                    classes.add(normalized);
+                }
+            }
+            return this;
+        }
+
+        public AllergyIndex build() {
+            List<String> medicineNames = NameTable.sort(entries.keySet());
+            List<String> allClasses = new ArrayList<>();
+            for (List<String> classes : entries.values()) {
+                allClasses.addAll(classes);
+            }
+            List<String> classNames = NameTable.sort(allClasses);
+            Map<String, Integer> classIds = new HashMap<>();
+            for (int i = 0; i < classNames.size(); i++) {
+                classIds.put(classNames.get(i), i);
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                NameTable.write(medicineNames, out);
+                NameTable.write(classNames, out);
+                int rowOffset = 0;
+                out.writeInt(rowOffset);
+                for (String medicine : medicineNames) {
+                    rowOffset += entries.get(medicine).size();
+                    out.writeInt(rowOffset);
+                }
+                for (String medicine : medicineNames) {
+                    for (String allergyClass : entries.get(medicine)) {
+                        out.writeInt(classIds.get(allergyClass));
+                    }
+                }
+                out.flush();
+                return new AllergyIndex(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // Writing to memory cannot fail
+            }
+        }
+    }
+}
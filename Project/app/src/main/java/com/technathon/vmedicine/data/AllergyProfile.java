@@ -0,0 +1,80 @@
+package com.technathon.vmedicine.data;
+
+import java.util.List;
+
+/**
+ * A user's allergies compiled against an {@link AllergyIndex}.
+ * Allergies are normalized and interned once, so checking a medicine is a set test on allergy class IDs
+ * with no string work and no allocation.
+ */
+public final class AllergyProfile {
+
+    private final AllergyIndex index;
+    private final boolean[] present;     // allergy class ID -> user has this allergy
+    private final String[] displayNames; // allergy class ID -> the user's own spelling of it
+    private final boolean empty;
+
+    private AllergyProfile(AllergyIndex index, boolean[] present, String[] displayNames, boolean empty) {
+        this.index = index;
+        this.present = present;
+        this.displayNames = displayNames;
+        this.empty = empty;
+    }
+
+    /**
+     * Normalizes the user's allergies and maps them to allergy class IDs.
+     * Allergies that no medicine in the index refers to are dropped, they can never match.
+     *
+     * @param index The index the profile will be checked against.
+     * @param userAllergies Allergies as entered by the user (any case, may be null).
+     */
+    public static AllergyProfile compile(AllergyIndex index, List<String> userAllergies) {
+        boolean[] present = new boolean[index.allergyClassCount()];
+        String[] displayNames = new String[present.length];
+        boolean empty = true;
+
+        if (userAllergies != null) {
+            for (String allergy : userAllergies) {
+                if (allergy == null) {
+                    continue;
+                }
+                int classId = index.allergyClassId(AllergyIndex.normalize(allergy));
+                if (classId >= 0 && !present[classId]) {
+                    present[classId] = true;
+                    displayNames[classId] = allergy; // Keep the first spelling, like the old list scan did
+                    empty = false;
+                }
+            }
+        }
+        return new AllergyProfile(index, present, displayNames, empty);
+    }
+
+    public AllergyIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return True if none of the user's allergies are known to interact with any medicine.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @param medicineId A medicine ID from the same {@link AllergyIndex} this profile was compiled against.
+     * @return The user's allergy (original casing) that interacts with the medicine, or null.
+     */
+    public String findInteraction(int medicineId) {
+        if (empty) {
+            return null;
+        }
+        int count = index.allergyClassCountOf(medicineId);
+        for (int i = 0; i < count; i++) {
+            int classId = index.allergyClassOf(medicineId, i);
+            if (present[classId]) {
+                return displayNames[classId];
+            }
+        }
+        return null;
+    }
+}
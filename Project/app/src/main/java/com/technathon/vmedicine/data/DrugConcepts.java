@@ -0,0 +1,155 @@
+package com.technathon.vmedicine.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canonicalization dictionary: maps every brand name, generic name and synonym of a drug to one dense
+ * integer concept ID, so "Tylenol", "Paracetamol" and "Acetaminophen" are the same drug everywhere.
+ * Each concept has one canonical name, which is the name the allergy index and interaction graph use.
+ *
+ * Like {@link AllergyIndex}, this is a read-only view over a ByteBuffer. Layout: spelling {@link NameTable},
+ * int[spellingCount] concept ID per spelling, int conceptCount, int[conceptCount] spelling ID of each
+ * concept's canonical name. Concept IDs follow the sort order of the canonical names.
+ */
+public final class DrugConcepts {
+
+    private final ByteBuffer buffer;
+    private final NameTable spellings;
+    private final int conceptOfStart;
+    private final int conceptCount;
+    private final int canonicalStart;
+    private final int end;
+
+    private DrugConcepts(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.spellings = NameTable.read(buffer, 0);
+        this.conceptOfStart = spellings.end();
+        int conceptCountPosition = conceptOfStart + spellings.size() * 4;
+        this.conceptCount = buffer.getInt(conceptCountPosition);
+        this.canonicalStart = conceptCountPosition + 4;
+        this.end = canonicalStart + conceptCount * 4;
+        if (conceptCount < 0 || end > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupt drug concepts section");
+        }
+    }
+
+    /**
+     * Opens the dictionary over a buffer whose position 0 is the start of the section.
+     */
+    static DrugConcepts read(ByteBuffer section) {
+        return new DrugConcepts(section);
+    }
+
+    /**
+     * @param normalizedName A name already passed through {@link AllergyIndex#normalize(String)}.
+     * @return The concept ID, or -1 if no concept has this spelling.
+     */
+    public int conceptId(String normalizedName) {
+        int spelling = spellings.find(normalizedName);
+        return spelling < 0 ? -1 : buffer.getInt(conceptOfStart + spelling * 4);
+    }
+
+    /**
+     * @return The canonical name of a concept, e.g. "paracetamol" for the concept of "tylenol".
+     */
+    public String canonicalName(int conceptId) {
+        return spellings.nameAt(buffer.getInt(canonicalStart + conceptId * 4));
+    }
+
+    public int conceptCount() {
+        return conceptCount;
+    }
+
+    /**
+     * @return The number of distinct spellings (canonical names included) across all concepts.
+     */
+    public int spellingCount() {
+        return spellings.size();
+    }
+
+    /**
+     * @return A spelling by ID (0 until {@link #spellingCount()}), e.g. to feed every known name to a matcher.
+     */
+    public String spelling(int spellingId) {
+        return spellings.nameAt(spellingId);
+    }
+
+    /**
+     * @return The encoded section, e.g. for writing into an {@link InteractionBundle}.
+     */
+    ByteBuffer section() {
+        ByteBuffer section = buffer.duplicate();
+        section.position(0);
+        section.limit(end);
+        return section.slice();
+    }
+
+    public static final class Builder {
+        private final Map<String, String> canonicalOf = new LinkedHashMap<>();
+
+        /**
+         * Adds a drug concept with its other names (brands, synonyms). Names can be any case.
+         * If the canonical name is already known, the synonyms join the concept that owns it.
+         * A synonym that already belongs to another concept keeps its first owner, so curated names added
+         * first win. A name known to be shared by different drugs is better left out than added here, since
+         * whichever drug came first would then own it.
+         */
+        public Builder addConcept(String canonicalName, String... synonyms) {
+            String canonical = AllergyIndex.normalize(canonicalName);
+            if (canonical.isEmpty()) {
+                return this;
+            }
+            String owner = canonicalOf.get(canonical);
+            if (owner == null) {
+                owner = canonical;
+                canonicalOf.put(canonical, canonical);
+            }
+            for (String synonym : synonyms) {
+                String normalized = AllergyIndex.normalize(synonym);
+                if (!normalized.isEmpty() && !canonicalOf.containsKey(normalized)) {
+                    canonicalOf.put(normalized, owner);
+                }
+            }
+            return this;
+        }
+
+        public DrugConcepts build() {
+            List<String> spellingNames = NameTable.sort(canonicalOf.keySet());
+            Map<String, Integer> spellingIds = new HashMap<>();
+            for (int i = 0; i < spellingNames.size(); i++) {
+                spellingIds.put(spellingNames.get(i), i);
+            }
+            List<String> canonicalNames = NameTable.sort(new ArrayList<>(canonicalOf.values()));
+            Map<String, Integer> conceptIds = new HashMap<>();
+            for (int i = 0; i < canonicalNames.size(); i++) {
+                conceptIds.put(canonicalNames.get(i), i);
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                NameTable.write(spellingNames, out);
+                for (String spelling : spellingNames) {
+                    out.writeInt(conceptIds.get(canonicalOf.get(spelling)));
+                }
+                out.writeInt(canonicalNames.size());
+                for (String canonical : canonicalNames) {
+                    out.writeInt(spellingIds.get(canonical));
+                }
+                out.flush();
+                return new DrugConcepts(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // Writing to memory cannot fail
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.technathon.vmedicine.data;
+
+// A single drug-drug interaction found by DrugInteractionGraph
+public final class DrugInteraction {
+    private final String drugName;
+    private final String interactingDrugName;
+    private final int severity;
+
+    public DrugInteraction(String drugName, String interactingDrugName, int severity) {
+        this.drugName = drugName;
+        this.interactingDrugName = interactingDrugName;
+        this.severity = severity;
+    }
+
+    public String getDrugName() {
+        return drugName;
+    }
+
+    public String getInteractingDrugName() {
+        return interactingDrugName;
+    }
+
+    /**
+     * @return One of the DrugInteractionGraph.SEVERITY_* constants.
+     */
+    public int getSeverity() {
+        return severity;
+    }
+
+    public String getSeverityLabel() {
+        switch (severity) {
+            case DrugInteractionGraph.SEVERITY_MAJOR:
+                return "major";
+            case DrugInteractionGraph.SEVERITY_MODERATE:
+                return "moderate";
+            case DrugInteractionGraph.SEVERITY_MINOR:
+                return "minor";
+            default:
+                return "none";
+        }
+    }
+}
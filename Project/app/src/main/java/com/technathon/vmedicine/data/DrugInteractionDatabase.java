@@ -1,67 +1,295 @@
 package com.technathon.vmedicine.data;
 
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import android.util.Log;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DrugInteractionDatabase {
 
-    private static final String TAG = "DrugInteractionDB";
+    // A simple mock database of drug-allergy interactions, compiled once into an index.
+    // Key: Medicine Name (matched case-insensitively)
+    // Value: Allergies that interact with this medicine (interned to allergy class IDs)
+    private static final AllergyIndex MOCK_ALLERGY_INDEX = new AllergyIndex.Builder()
+            .add("penicillin", "penicillin", "cephalexin")
+            .add("aspirin", "aspirin", "nsaids")
+            .add("ibuprofen", "ibuprofen", "nsaids", "aspirin")
+            .add("amoxicillin", "penicillin") // Amoxicillin is a type of penicillin
+            .add("sulfamethoxazole", "sulfa drugs")
+            .add("codeine", "opioids")
+            .add("morphine", "opioids")
+            .add("insulin", "insulin allergy")
+            .add("paracetamol", "acetaminophen allergy")
+            // Add more mock data as needed for testing
+            .build();
 
-    // A simple mock database of drug-allergy interactions
-    // Key: Medicine Name (LOWERCASE for consistent comparison)
-    // Value: List of allergies that interact with this medicine (LOWERCASE)
-    private static final Map<String, List<String>> MOCK_ALLERGY_DATA = new HashMap<>();
+    // A simple mock graph of drug-drug interactions, checked against the user's current medications
+    private static final DrugInteractionGraph MOCK_INTERACTION_GRAPH = new DrugInteractionGraph.Builder()
+            .addInteraction("warfarin", "aspirin", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("warfarin", "ibuprofen", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("warfarin", "paracetamol", DrugInteractionGraph.SEVERITY_MINOR)
+            .addInteraction("warfarin", "sulfamethoxazole", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("aspirin", "ibuprofen", DrugInteractionGraph.SEVERITY_MODERATE)
+            .addInteraction("lisinopril", "ibuprofen", DrugInteractionGraph.SEVERITY_MODERATE)
+            .addInteraction("lisinopril", "spironolactone", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("codeine", "morphine", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("tramadol", "sertraline", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("simvastatin", "clarithromycin", DrugInteractionGraph.SEVERITY_MAJOR)
+            .addInteraction("methotrexate", "amoxicillin", DrugInteractionGraph.SEVERITY_MODERATE)
+            .addInteraction("metformin", "insulin", DrugInteractionGraph.SEVERITY_MINOR)
+            // Add more mock data as needed for testing
+            .build();
 
-    static {
-        // Initialize our mock allergy data with LOWERCASE names
-        MOCK_ALLERGY_DATA.put("penicillin", Arrays.asList("penicillin", "cephalexin"));
-        MOCK_ALLERGY_DATA.put("aspirin", Arrays.asList("aspirin", "nsaids"));
-        MOCK_ALLERGY_DATA.put("ibuprofen", Arrays.asList("ibuprofen", "nsaids", "aspirin"));
-        MOCK_ALLERGY_DATA.put("amoxicillin", Arrays.asList("penicillin")); // Amoxicillin is a type of penicillin
-        MOCK_ALLERGY_DATA.put("sulfamethoxazole", Arrays.asList("sulfa drugs"));
-        MOCK_ALLERGY_DATA.put("codeine", Arrays.asList("opioids"));
-        MOCK_ALLERGY_DATA.put("morphine", Arrays.asList("opioids"));
-        MOCK_ALLERGY_DATA.put("insulin", Arrays.asList("insulin allergy"));
-        MOCK_ALLERGY_DATA.put("paracetamol", Arrays.asList("acetaminophen allergy"));
-        // Add more mock data as needed for testing, always in lowercase
+    // A simple mock brand/generic dictionary. The first name is the canonical name used by the data above.
+    private static final DrugConcepts MOCK_DRUG_CONCEPTS = new DrugConcepts.Builder()
+            .addConcept("paracetamol", "acetaminophen", "tylenol", "panadol", "calpol", "crocin", "dolo")
+            .addConcept("ibuprofen", "advil", "motrin", "brufen", "nurofen")
+            .addConcept("aspirin", "acetylsalicylic acid", "ecosprin", "disprin", "bayer aspirin")
+            .addConcept("amoxicillin", "amoxil", "mox")
+            .addConcept("penicillin", "penicillin v", "penicillin g")
+            .addConcept("sulfamethoxazole", "gantanol")
+            .addConcept("codeine", "codeine phosphate")
+            .addConcept("morphine", "ms contin", "morphine sulfate")
+            .addConcept("insulin")
+            .addConcept("warfarin", "coumadin", "jantoven")
+            .addConcept("lisinopril", "zestril", "prinivil")
+            .addConcept("spironolactone", "aldactone")
+            .addConcept("tramadol", "ultram")
+            .addConcept("sertraline", "zoloft")
+            .addConcept("simvastatin", "zocor")
+            .addConcept("clarithromycin", "biaxin")
+            .addConcept("methotrexate", "trexall")
+            .addConcept("metformin", "glucophage", "glycomet")
+            .build();
+
+    // The data currently in use: the mock data until a bundle is installed.
+    // Readers take one snapshot per check and never lock; installs swap the whole snapshot at once.
+    private static final AtomicReference<InteractionSnapshot> current =
+            new AtomicReference<>(new InteractionSnapshot(0, MOCK_ALLERGY_INDEX, MOCK_INTERACTION_GRAPH, MOCK_DRUG_CONCEPTS));
+
+    /**
+     * @return The current, internally consistent version of the interaction data.
+     */
+    public static InteractionSnapshot getSnapshot() {
+        return current.get();
+    }
+
+    public static AllergyIndex getAllergyIndex() {
+        return current.get().getAllergyIndex();
+    }
+
+    public static DrugInteractionGraph getInteractionGraph() {
+        return current.get().getInteractionGraph();
+    }
+
+    /**
+     * @return The data version of the installed bundle, or 0 while the built-in mock data is in use.
+     */
+    public static long getDataVersion() {
+        return current.get().getDataVersion();
+    }
+
+    /**
+     * Replaces the interaction data with the contents of a bundle, unless data of the same or a newer
+     * version is already installed. In-flight checks finish on the snapshot they started with.
+     * Profiles compiled against the previous data recompile on their next check.
+     *
+     * @return True if the bundle was installed.
+     */
+    public static boolean install(InteractionBundle bundle) {
+        InteractionSnapshot update = InteractionSnapshot.of(bundle);
+        while (true) {
+            InteractionSnapshot installed = current.get();
+            if (installed.getDataVersion() >= update.getDataVersion() && installed.getDataVersion() != 0) {
+                return false;
+            }
+            if (current.compareAndSet(installed, update)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts the built-in mock data back. For tests only.
+     */
+    static void resetToMockData() {
+        current.set(new InteractionSnapshot(0, MOCK_ALLERGY_INDEX, MOCK_INTERACTION_GRAPH, MOCK_DRUG_CONCEPTS));
+    }
+
+    /**
+     * Resolves a scanned, typed or OCR'd medicine name to the name used by the interaction data.
+     * Brand names and synonyms resolve to their concept's canonical name ("Tylenol" to "paracetamol"),
+     * strengths, units and dosage forms are ignored and small misspellings are tolerated,
+     * e.g. "Amoxicilin 250mg" resolves to "amoxicillin".
+     *
+     * @return The dictionary name, or the normalized input if nothing is close enough.
+     */
+    public static String resolveMedicineName(String medicineName) {
+        InteractionSnapshot snapshot = getSnapshot();
+        String normalized = AllergyIndex.normalize(medicineName);
+        DrugConcepts concepts = snapshot.getDrugConcepts();
+        int conceptId = concepts.conceptId(normalized);
+        if (conceptId >= 0) {
+            return concepts.canonicalName(conceptId);
+        }
+        if (snapshot.getAllergyIndex().medicineId(normalized) >= 0 || snapshot.getInteractionGraph().drugId(normalized) >= 0) {
+            return normalized; // Exact hit, skip the fuzzy matcher
+        }
+        String match = snapshot.getNameMatcher().match(medicineName);
+        if (match == null) {
+            return normalized;
+        }
+        conceptId = concepts.conceptId(match);
+        return conceptId >= 0 ? concepts.canonicalName(conceptId) : match;
+    }
+
+    /**
+     * Looks up the concept ID shared by all names of a drug (brand, generic, synonyms), tolerating the same
+     * noise as {@link #resolveMedicineName(String)}. Concept IDs are only stable within one dataset version,
+     * so keep them for in-memory lookups and caches, never persist them.
+     *
+     * @return The concept ID, or -1 if the name is not a known drug.
+     */
+    public static int conceptId(String medicineName) {
+        return conceptId(getSnapshot(), medicineName);
+    }
+
+    private static int conceptId(InteractionSnapshot snapshot, String medicineName) {
+        DrugConcepts concepts = snapshot.getDrugConcepts();
+        int conceptId = concepts.conceptId(AllergyIndex.normalize(medicineName));
+        if (conceptId >= 0) {
+            return conceptId;
+        }
+        String match = snapshot.getNameMatcher().match(medicineName);
+        return match != null ? concepts.conceptId(match) : -1;
+    }
+
+    /**
+     * Finds every known medicine named in a block of free text, such as a whole OCR'd prescription,
+     * in a single pass over the text.
+     *
+     * @return Distinct dictionary names in order of first appearance.
+     */
+    public static List<String> findMedicineNames(String text) {
+        return new ArrayList<>(getSnapshot().getNameScanner().findNames(text));
+    }
+
+    /**
+     * Looks up the medicine ID for a scanned or typed medicine name (any case, see {@link #resolveMedicineName(String)}).
+     *
+     * @return The medicine ID, or -1 if the medicine is not in the database.
+     */
+    public static int medicineId(String medicineName) {
+        InteractionSnapshot snapshot = getSnapshot();
+        int conceptId = conceptId(snapshot, medicineName);
+        if (conceptId >= 0) {
+            return snapshot.medicineIdOfConcept(conceptId);
+        }
+        return snapshot.getAllergyIndex().medicineId(resolveMedicineName(medicineName));
+    }
+
+    /**
+     * Compiles a list of user allergies into an {@link AllergyProfile}.
+     * Prefer {@link UserProfile#allergyProfile()}, which compiles once per profile.
+     */
+    public static AllergyProfile compileAllergies(List<String> userAllergies) {
+        return AllergyProfile.compile(getAllergyIndex(), userAllergies);
     }
 
     /**
      * Checks if a given medicine interacts with any of the user's known allergies.
      * This is a MOCK implementation for testing purposes.
+     * Compiles the allergy list on every call; callers holding a {@link UserProfile} should use
+     * {@link #checkForAllergyInteraction(String, AllergyProfile)} instead.
      *
      * @param medicineName The name of the medicine to check (can be any case from scan).
      * @param userAllergies A list of allergies the user has (e.g., "Penicillin", "Sulfa drugs" from database).
      * @return The original name of the interacting allergy (from userAllergies) if found, otherwise null.
      */
     public static String checkForAllergyInteraction(String medicineName, List<String> userAllergies) {
-        if (medicineName == null || medicineName.trim().isEmpty() || userAllergies == null || userAllergies.isEmpty()) {
-            Log.d(TAG, "checkForAllergyInteraction: Invalid input (medicineName or userAllergies is empty/null)");
+        if (userAllergies == null || userAllergies.isEmpty()) {
+            return null;
+        }
+        return checkForAllergyInteraction(medicineName, compileAllergies(userAllergies));
+    }
+
+    /**
+     * Checks a medicine name against a compiled allergy profile.
+     *
+     * @param medicineName The name of the medicine to check (can be any case from scan).
+     * @param allergies The user's compiled allergies.
+     * @return The user's allergy (original casing) that interacts with the medicine, or null.
+     */
+    public static String checkForAllergyInteraction(String medicineName, AllergyProfile allergies) {
+        if (medicineName == null || allergies == null || allergies.isEmpty()) {
+            return null;
+        }
+        // Look the medicine up in the index the profile was compiled against, so the IDs always agree
+        return allergies.findInteraction(allergies.getIndex().medicineId(resolveMedicineName(medicineName)));
+    }
+
+    /**
+     * Allocation-free check of a medicine ID (see {@link #medicineId(String)}) against a compiled allergy profile.
+     * Both must come from the same {@link AllergyIndex}.
+     *
+     * @return The user's allergy (original casing) that interacts with the medicine, or null.
+     */
+    public static String checkForAllergyInteraction(int medicineId, AllergyProfile allergies) {
+        if (medicineId < 0 || allergies == null) {
             return null;
         }
+        return allergies.findInteraction(medicineId);
+    }
+
+    /**
+     * Screens a whole medication list against one allergy profile in a single pass.
+     *
+     * @param medications Medicine names (any case), e.g. a profile's current medications.
+     * @param allergies The user's compiled allergies.
+     * @return Interacting medicines mapped to the user's allergy they conflict with, in list order.
+     *         Empty if nothing interacts.
+     */
+    public static Map<String, String> screenMedications(List<String> medications, AllergyProfile allergies) {
+        Map<String, String> interactions = new LinkedHashMap<>();
+        if (medications == null || allergies == null || allergies.isEmpty()) {
+            return interactions;
+        }
+        for (String medicine : medications) {
+            String interactingAllergy = checkForAllergyInteraction(medicine, allergies);
+            if (interactingAllergy != null) {
+                interactions.put(medicine, interactingAllergy);
+            }
+        }
+        return interactions;
+    }
 
-        // Convert incoming medicineName to LOWERCASE for lookup
-        String lowerCaseMedicineName = medicineName.toLowerCase().trim();
-        Log.d(TAG, "Checking allergy for medicine (lowercase): " + lowerCaseMedicineName + " against user allergies: " + userAllergies.toString());
-
-        // Get potential interacting allergies for the medicine from our lowercase mock data
-        List<String> medicineRelatedAllergiesFromDb = MOCK_ALLERGY_DATA.get(lowerCaseMedicineName);
-
-        if (medicineRelatedAllergiesFromDb != null) {
-            for (String medicineRelatedAllergyLower : medicineRelatedAllergiesFromDb) {
-                // For each user allergy, convert it to lowercase and compare
-                for (String userAllergyOriginalCase : userAllergies) {
-                    if (userAllergyOriginalCase.toLowerCase().trim().equals(medicineRelatedAllergyLower.trim())) {
-                        Log.d(TAG, "Interaction found! Medicine '" + medicineName + "' interacts with '" + userAllergyOriginalCase + "' allergy.");
-                        return userAllergyOriginalCase; // Return the user's allergy in its original casing
-                    }
-                }
+    /**
+     * Compiles medicine names against the current interaction graph, e.g. a user's current medications.
+     * Prefer {@link UserProfile#regimen()}, which compiles once per profile.
+     */
+    public static Regimen compileRegimen(List<String> currentMedications) {
+        List<String> resolved = new ArrayList<>();
+        if (currentMedications != null) {
+            for (String medication : currentMedications) {
+                resolved.add(resolveMedicineName(medication));
             }
         }
-        Log.d(TAG, "No direct allergy interaction found for '" + medicineName + "'.");
-        return null; // No interaction found
+        return Regimen.compile(getInteractionGraph(), resolved);
+    }
+
+    /**
+     * Checks a medicine against every drug the user already takes.
+     *
+     * @param medicineName The name of the medicine to check (can be any case from scan).
+     * @param regimen The user's compiled current medications.
+     * @return The interactions found, in regimen order. Empty if none.
+     */
+    public static List<DrugInteraction> checkForDrugInteractions(String medicineName, Regimen regimen) {
+        if (medicineName == null || regimen == null || regimen.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Look the medicine up in the graph the regimen was compiled against, so the IDs always agree
+        return regimen.findInteractions(regimen.getGraph().drugId(resolveMedicineName(medicineName)));
     }
 }
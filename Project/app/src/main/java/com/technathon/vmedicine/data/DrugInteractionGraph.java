@@ -0,0 +1,265 @@
+package com.technathon.vmedicine.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable drug-drug interaction graph.
+ * Drugs get dense integer IDs and the adjacency is stored in compressed sparse row form:
+ * the partners of drug {@code d} are {@code partners[offsets[d] .. offsets[d + 1])}, sorted ascending,
+ * with the matching severity in {@code severities}. A pair lookup is a binary search over one short row,
+ * so checking a medicine against an N-drug regimen is N lookups with no boxing.
+ *
+ * The graph is a read-only view over a ByteBuffer, either built in memory by {@link Builder}
+ * or mapped from an {@link InteractionBundle}. Layout: drug {@link NameTable}, int[drugCount + 1] offsets,
+ * int[] partners, byte[] severities.
+ */
+public final class DrugInteractionGraph {
+
+    public static final int SEVERITY_NONE = 0;
+    public static final int SEVERITY_MINOR = 1;
+    public static final int SEVERITY_MODERATE = 2;
+    public static final int SEVERITY_MAJOR = 3;
+
+    private final ByteBuffer buffer;
+    private final NameTable drugs;
+    private final int offsetsStart;
+    private final int partnersStart;
+    private final int severitiesStart;
+    private final int edgeCount;
+
+    private DrugInteractionGraph(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.drugs = NameTable.read(buffer, 0);
+        this.offsetsStart = drugs.end();
+        this.partnersStart = offsetsStart + (drugs.size() + 1) * 4;
+        this.edgeCount = buffer.getInt(offsetsStart + drugs.size() * 4);
+        this.severitiesStart = partnersStart + edgeCount * 4;
+        if (severitiesStart + edgeCount > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupt interaction graph section");
+        }
+    }
+
+    /**
+     * Opens a graph over a buffer whose position 0 is the start of the section.
+     */
+    static DrugInteractionGraph read(ByteBuffer section) {
+        return new DrugInteractionGraph(section);
+    }
+
+    /**
+     * @return The drug ID for a medicine name (any case), or -1 if the drug has no known interactions.
+     */
+    public int drugId(String drugName) {
+        return drugs.find(AllergyIndex.normalize(drugName));
+    }
+
+    /**
+     * Maps a list of medicine names to drug IDs. Unknown names map to -1.
+     */
+    public int[] drugIds(List<String> drugNames) {
+        if (drugNames == null) {
+            return new int[0];
+        }
+        int[] ids = new int[drugNames.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = drugId(drugNames.get(i));
+        }
+        return ids;
+    }
+
+    public String drugName(int drugId) {
+        return drugs.nameAt(drugId);
+    }
+
+    public int drugCount() {
+        return drugs.size();
+    }
+
+    /**
+     * @return The number of distinct interacting pairs in the graph.
+     */
+    public int interactionCount() {
+        return edgeCount / 2;
+    }
+
+    /**
+     * @return The severity of the interaction between two drugs, or {@link #SEVERITY_NONE}.
+     */
+    public int severity(int drugId, int otherDrugId) {
+        if (drugId < 0 || otherDrugId < 0 || drugId >= drugs.size() || otherDrugId >= drugs.size()) {
+            return SEVERITY_NONE;
+        }
+        int low = offset(drugId);
+        int high = offset(drugId + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int partner = buffer.getInt(partnersStart + mid * 4);
+            if (partner < otherDrugId) {
+                low = mid + 1;
+            } else if (partner > otherDrugId) {
+                high = mid - 1;
+            } else {
+                return buffer.get(severitiesStart + mid);
+            }
+        }
+        return SEVERITY_NONE;
+    }
+
+    private int offset(int drugId) {
+        return buffer.getInt(offsetsStart + drugId * 4);
+    }
+
+    /**
+     * @return The worst severity between a drug and any drug of the regimen, or {@link #SEVERITY_NONE}.
+     */
+    public int worstSeverity(int drugId, int[] regimenDrugIds) {
+        int worst = SEVERITY_NONE;
+        for (int regimenDrugId : regimenDrugIds) {
+            worst = Math.max(worst, severity(drugId, regimenDrugId));
+        }
+        return worst;
+    }
+
+    /**
+     * Checks one drug against every drug of a regimen. Only the hits are allocated.
+     *
+     * @param drugId The drug being added, e.g. a scanned medicine.
+     * @param regimenDrugIds IDs of the drugs the user already takes (see {@link #drugIds(List)}).
+     * @return The interactions found, in regimen order. Empty if none.
+     */
+    public List<DrugInteraction> findInteractions(int drugId, int[] regimenDrugIds) {
+        List<DrugInteraction> interactions = new ArrayList<>();
+        if (drugId < 0) {
+            return interactions;
+        }
+        for (int regimenDrugId : regimenDrugIds) {
+            int severity = severity(drugId, regimenDrugId);
+            if (severity != SEVERITY_NONE) {
+                interactions.add(new DrugInteraction(drugName(drugId), drugName(regimenDrugId), severity));
+            }
+        }
+        return interactions;
+    }
+
+    /**
+     * @return The encoded section, e.g. for writing into an {@link InteractionBundle}.
+     */
+    ByteBuffer section() {
+        ByteBuffer section = buffer.duplicate();
+        section.position(0);
+        section.limit(severitiesStart + edgeCount);
+        return section.slice();
+    }
+
+    public static final class Builder {
+        private final Map<String, Integer> drugIds = new HashMap<>();
+        private final List<String> drugNames = new ArrayList<>();
+        // Each directed edge is packed as (from << 32) | (to << 8) | severity, so sorting groups rows by drug
+        private long[] edges = new long[64];
+        private int edgeCount;
+
+        /**
+         * Adds a symmetric interaction between two drugs (any case).
+         * If the pair is added more than once, the highest severity wins.
+         */
+        public Builder addInteraction(String drugName, String otherDrugName, int severity) {
+            if (severity < SEVERITY_MINOR || severity > SEVERITY_MAJOR) {
+                throw new IllegalArgumentException("Unknown severity: " + severity);
+            }
+            int a = intern(drugName);
+            int b = intern(otherDrugName);
+            if (a == b) {
+                return this;
+            }
+            addEdge(a, b, severity);
+            addEdge(b, a, severity);
+            return this;
+        }
+
+        private int intern(String drugName) {
+            String normalized = AllergyIndex.normalize(drugName);
+            Integer id = drugIds.get(normalized);
+            if (id == null) {
+                id = drugNames.size();
+                drugIds.put(normalized, id);
+                drugNames.add(normalized);
+            }
+            return id;
+        }
+
+        private void addEdge(int from, int to, int severity) {
+            if (edgeCount == edges.length) {
+                edges = Arrays.copyOf(edges, edgeCount * 2);
+            }
+            edges[edgeCount++] = ((long) from << 32) | ((long) to << 8) | severity;
+        }
+
+        public DrugInteractionGraph build() {
+            // Final drug IDs follow name order, so remap the insertion-order IDs before sorting the edges
+            List<String> sortedNames = NameTable.sort(drugNames);
+            int[] remap = new int[drugNames.size()];
+            for (int i = 0; i < sortedNames.size(); i++) {
+                remap[drugIds.get(sortedNames.get(i))] = i;
+            }
+            long[] sorted = new long[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                int from = remap[(int) (edges[i] >>> 32)];
+                int to = remap[(int) ((edges[i] >>> 8) & 0xFFFFFF)];
+                sorted[i] = ((long) from << 32) | ((long) to << 8) | (edges[i] & 0xFF);
+            }
+            Arrays.sort(sorted);
+
+            int drugCount = sortedNames.size();
+            int[] offsets = new int[drugCount + 1];
+            int[] partners = new int[sorted.length];
+            byte[] severities = new byte[sorted.length];
+            int size = 0;
+            long previous = -1;
+            for (long edge : sorted) {
+                int from = (int) (edge >>> 32);
+                int to = (int) ((edge >>> 8) & 0xFFFFFF);
+                byte severity = (byte) (edge & 0xFF);
+                if (size > 0 && (edge >>> 8) == (previous >>> 8)) {
+                    // Duplicates of a pair sort next to each other with the highest severity last
+                    severities[size - 1] = severity;
+                } else {
+                    partners[size] = to;
+                    severities[size] = severity;
+                    size++;
+                    offsets[from + 1] = size;
+                }
+                previous = edge;
+            }
+            // Drugs whose row is empty still have a zero end offset; carry the previous row's end forward
+            for (int d = 1; d <= drugCount; d++) {
+                offsets[d] = Math.max(offsets[d], offsets[d - 1]);
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                NameTable.write(sortedNames, out);
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(partners[i]);
+                }
+                out.write(severities, 0, size);
+                out.flush();
+                return new DrugInteractionGraph(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // Writing to memory cannot fail
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Fuzzy matcher from noisy medicine names (OCR text, QR payloads, typed input) to dictionary names.
+ * Input is cleaned of strengths, units and dosage forms ("Amoxicillin 250mg tablets" becomes "amoxicillin"),
+ * then matched exactly or, failing that, by Levenshtein distance against the few names that can be close.
+ *
+ * <p>Candidates come from an index of each name's bigrams (adjacent letter pairs). One edit changes at most two
+ * of a name's bigrams, so a name within distance k of the query shares at least max(n, m) - 1 - 2k of them,
+ * where n and m are the lengths; names of a length more than k away are skipped as well. Only the names left
+ * are compared, with a Levenshtein check that gives up once it exceeds the best distance so far.
+ */
+public final class DrugNameMatcher {
+
+    // Strength with its unit, e.g. "250mg", "0.5 ml", "10,000 iu", "2%"
+    private static final Pattern STRENGTH = Pattern.compile(
+            "\\b\\d+(?:[.,]\\d+)*\\s*(?:mg|mcg|µg|ug|g|kg|ml|l|iu|units?|%|mmol|meq)(?:\\s*/\\s*\\d*\\s*(?:ml|l|g|tab|dose))?\\b|\\d+(?:[.,]\\d+)*\\s*%");
+    // Dosage forms and packaging words that are never part of a drug name
+    private static final Pattern DOSAGE_FORM = Pattern.compile(
+            "\\b(?:tablets?|tabs?|capsules?|caps?|syrup|suspension|solution|cream|ointment|gel|drops?|injection|inj|"
+                    + "oral|topical|chewable|dispersible|film[- ]coated|extended[- ]release|er|sr|xr|xl|cr|dr|ds)\\b");
+    private static final Pattern NON_NAME = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern STANDALONE_NUMBER = Pattern.compile("\\b\\d+\\b");
+
+    private final String[] names;
+    private final Map<String, Integer> exact;
+    // Bigram (first char << 16 | second char) to the names containing it, each as name index << 4 | occurrences
+    private final Map<Integer, int[]> postings;
+
+    private DrugNameMatcher(String[] names) {
+        this.names = names;
+        this.exact = new HashMap<>(names.length * 2);
+        // Collect (bigram, entry) pairs as longs and sort them, which groups each bigram's entries in name order
+        long[] pairs = new long[16];
+        int size = 0;
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            exact.put(names[i], i);
+            bigramCounts(names[i], counts);
+            for (Map.Entry<Integer, Integer> bigram : counts.entrySet()) {
+                if (size == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, size * 2);
+                }
+                pairs[size++] = (long) bigram.getKey() << 32 | (i << 4 | Math.min(bigram.getValue(), 15));
+            }
+        }
+        Arrays.sort(pairs, 0, size);
+        this.postings = new HashMap<>();
+        for (int start = 0; start < size; ) {
+            int bigram = (int) (pairs[start] >> 32);
+            int end = start;
+            while (end < size && (int) (pairs[end] >> 32) == bigram) {
+                end++;
+            }
+            int[] list = new int[end - start];
+            for (int j = start; j < end; j++) {
+                list[j - start] = (int) pairs[j];
+            }
+            postings.put(bigram, list);
+            start = end;
+        }
+    }
+
+    /**
+     * Builds a matcher over dictionary names. Names are cleaned like queries; duplicates are dropped.
+     */
+    public static DrugNameMatcher build(Collection<String> dictionaryNames) {
+        Map<String, Boolean> unique = new LinkedHashMap<>();
+        for (String name : dictionaryNames) {
+            String cleaned = clean(name);
+            if (!cleaned.isEmpty()) {
+                unique.put(cleaned, Boolean.TRUE);
+            }
+        }
+        return new DrugNameMatcher(unique.keySet().toArray(new String[0]));
+    }
+
+    /**
+     * Normalizes a raw medicine string: lowercases it and strips strengths, units, dosage forms and punctuation.
+     */
+    public static String clean(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        String text = raw.toLowerCase(Locale.ROOT);
+        text = STRENGTH.matcher(text).replaceAll(" ");
+        text = DOSAGE_FORM.matcher(text).replaceAll(" ");
+        text = NON_NAME.matcher(text).replaceAll(" ");
+        text = STANDALONE_NUMBER.matcher(text).replaceAll(" ");
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * The largest edit distance accepted for a name of this length. Short names must match exactly,
+     * otherwise "aspirin" would match unrelated 4-letter words.
+     */
+    static int maxDistanceFor(int length) {
+        if (length <= 4) {
+            return 0;
+        }
+        return length <= 8 ? 1 : 2;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return The closest dictionary name (cleaned form), or null if nothing is close enough. Of names at the
+     * same distance, the one first in the dictionary wins.
+     */
+    public String match(String raw) {
+        String query = clean(raw);
+        if (query.isEmpty() || names.length == 0) {
+            return null;
+        }
+        Integer hit = exact.get(query);
+        if (hit != null) {
+            return names[hit];
+        }
+        int maxDistance = maxDistanceFor(query.length());
+        if (maxDistance == 0) {
+            return null;
+        }
+
+        // Count the bigrams each name shares with the query; names reaching the lowest possible threshold
+        // (for the longest name allowed) are candidates, checked against their own threshold below
+        Map<Integer, Integer> queryBigrams = new LinkedHashMap<>();
+        bigramCounts(query, queryBigrams);
+        int lowestThreshold = query.length() - 1 - 2 * maxDistance;
+        int[] shared = new int[names.length];
+        List<Integer> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> bigram : queryBigrams.entrySet()) {
+            int[] list = postings.get(bigram.getKey());
+            if (list == null) {
+                continue;
+            }
+            for (int entry : list) {
+                int name = entry >>> 4;
+                int before = shared[name];
+                shared[name] = before + Math.min(entry & 15, bigram.getValue());
+                if (before < Math.max(lowestThreshold, 1) && shared[name] >= Math.max(lowestThreshold, 1)) {
+                    candidates.add(name);
+                }
+            }
+        }
+
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        int[] row = new int[query.length() + 1];
+        int[] previousRow = new int[query.length() + 1];
+        candidates.sort(null);
+        for (int name : candidates) {
+            String candidate = names[name];
+            int lengthDifference = Math.abs(candidate.length() - query.length());
+            if (lengthDifference >= bestDistance
+                    || shared[name] < Math.max(query.length(), candidate.length()) - 1 - 2 * (bestDistance - 1)) {
+                continue;
+            }
+            int distance = distance(query, candidate, bestDistance - 1, row, previousRow);
+            if (distance < bestDistance) {
+                best = name;
+                bestDistance = distance;
+            }
+        }
+        return best >= 0 ? names[best] : null;
+    }
+
+    /**
+     * Counts each bigram of the text into the (cleared) map.
+     */
+    private static void bigramCounts(String text, Map<Integer, Integer> counts) {
+        counts.clear();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            counts.merge(text.charAt(i) << 16 | text.charAt(i + 1), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Levenshtein distance using two caller-provided rows of at least a.length() + 1, or limit + 1 as soon as
+     * it is known to exceed the limit.
+     */
+    private static int distance(String a, String b, int limit, int[] row, int[] previousRow) {
+        int[] previous = previousRow;
+        int[] current = row;
+        for (int i = 0; i <= a.length(); i++) {
+            previous[i] = i;
+        }
+        for (int j = 1; j <= b.length(); j++) {
+            current[0] = j;
+            int rowMinimum = j;
+            char bj = b.charAt(j - 1);
+            for (int i = 1; i <= a.length(); i++) {
+                int cost = a.charAt(i - 1) == bj ? 0 : 1;
+                current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+                rowMinimum = Math.min(rowMinimum, current[i]);
+            }
+            if (rowMinimum > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[a.length()];
+    }
+}
@@ -0,0 +1,264 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds every dictionary medicine name in a block of text (e.g. a whole OCR'd prescription) in one pass,
+ * using an Aho-Corasick automaton. Matching ignores case, treats any run of whitespace as a single space
+ * and only reports whole words, so "aspirin" is not found inside "aspirinate".
+ * The automaton is stored in flat arrays; each node's transitions are a sorted slice of edgeChars.
+ */
+public final class DrugNameScanner {
+
+    /**
+     * One occurrence of a dictionary name in the scanned text.
+     */
+    public static final class Match {
+        private final String name;
+        private final int start;
+        private final int end;
+
+        Match(String name, int start, int end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return The dictionary name (normalized form).
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Index of the first matched character in the scanned text.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return Index after the last matched character in the scanned text.
+         */
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    private final String[] names;
+    private final int[] edgeStart; // Transitions of node n are edgeStart[n] until edgeStart[n + 1]
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] failure;
+    private final int[] output;     // Index into names of the name ending at this node, or -1
+    private final int[] outputLink; // Nearest node on the failure chain with an output, or -1
+
+    private DrugNameScanner(String[] names, int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+                            int[] failure, int[] output, int[] outputLink) {
+        this.names = names;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.output = output;
+        this.outputLink = outputLink;
+    }
+
+    /**
+     * Builds a scanner over dictionary names. Names are normalized like the text being scanned.
+     */
+    public static DrugNameScanner build(Collection<String> dictionaryNames) {
+        // Trie with per-node hash maps, flattened below
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new HashMap<>());
+        terminal.add(-1);
+        List<String> names = new ArrayList<>();
+        for (String raw : dictionaryNames) {
+            String name = normalize(raw);
+            if (name.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                Integer next = children.get(node).get(name.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<>());
+                    terminal.add(-1);
+                    children.get(node).put(name.charAt(i), next);
+                }
+                node = next;
+            }
+            if (terminal.get(node) == -1) {
+                terminal.set(node, names.size());
+                names.add(name);
+            }
+        }
+
+        int nodeCount = children.size();
+        int[] edgeStart = new int[nodeCount + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            edgeStart[n + 1] = edgeStart[n] + children.get(n).size();
+        }
+        char[] edgeChars = new char[edgeStart[nodeCount]];
+        int[] edgeTargets = new int[edgeChars.length];
+        int[] output = new int[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            Character[] keys = children.get(n).keySet().toArray(new Character[0]);
+            Arrays.sort(keys);
+            for (int i = 0; i < keys.length; i++) {
+                edgeChars[edgeStart[n] + i] = keys[i];
+                edgeTargets[edgeStart[n] + i] = children.get(n).get(keys[i]);
+            }
+            output[n] = terminal.get(n);
+        }
+
+        // Breadth-first over the trie to fill in failure and output links
+        int[] failure = new int[nodeCount];
+        int[] outputLink = new int[nodeCount];
+        outputLink[0] = -1;
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            int child = edgeTargets[e];
+            failure[child] = 0;
+            outputLink[child] = -1;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+                int child = edgeTargets[e];
+                int fallback = failure[node];
+                int target;
+                while ((target = step(edgeStart, edgeChars, edgeTargets, fallback, edgeChars[e])) == -1 && fallback != 0) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = target == -1 ? 0 : target;
+                outputLink[child] = output[failure[child]] != -1 ? failure[child] : outputLink[failure[child]];
+                queue[tail++] = child;
+            }
+        }
+        return new DrugNameScanner(names.toArray(new String[0]), edgeStart, edgeChars, edgeTargets,
+                failure, output, outputLink);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Finds all dictionary names in the text. Overlapping hits are resolved leftmost-longest, so
+     * "insulin glargine" is reported once rather than also as "insulin".
+     *
+     * @return Matches in text order.
+     */
+    public List<Match> scan(CharSequence text) {
+        if (text == null || text.length() == 0 || names.length == 0) {
+            return Collections.emptyList();
+        }
+        // Original index of each character fed to the automaton, so matches map back to the text
+        int[] positions = new int[text.length()];
+        int fed = 0;
+        boolean lastWasSpace = true;
+        List<Match> hits = new ArrayList<>();
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (lastWasSpace) {
+                    continue;
+                }
+                c = ' ';
+                lastWasSpace = true;
+            } else {
+                c = Character.toLowerCase(c);
+                lastWasSpace = false;
+            }
+            positions[fed++] = i;
+
+            int next;
+            while ((next = step(edgeStart, edgeChars, edgeTargets, node, c)) == -1 && node != 0) {
+                node = failure[node];
+            }
+            node = next == -1 ? 0 : next;
+
+            for (int hit = output[node] != -1 ? node : outputLink[node]; hit != -1; hit = outputLink[hit]) {
+                String name = names[output[hit]];
+                int start = positions[fed - name.length()];
+                if (isWordBoundary(text, start - 1) && isWordBoundary(text, i + 1)) {
+                    hits.add(new Match(name, start, i + 1));
+                }
+            }
+        }
+        return leftmostLongest(hits);
+    }
+
+    /**
+     * @return The distinct names found in the text, in order of first appearance.
+     */
+    public Set<String> findNames(CharSequence text) {
+        Set<String> found = new LinkedHashSet<>();
+        for (Match match : scan(text)) {
+            found.add(match.getName());
+        }
+        return found;
+    }
+
+    private static List<Match> leftmostLongest(List<Match> hits) {
+        if (hits.size() < 2) {
+            return hits;
+        }
+        Collections.sort(hits, (a, b) -> a.start != b.start
+                ? Integer.compare(a.start, b.start) : Integer.compare(b.end, a.end));
+        List<Match> kept = new ArrayList<>(hits.size());
+        int coveredUntil = -1;
+        for (Match match : hits) {
+            if (match.start >= coveredUntil) {
+                kept.add(match);
+                coveredUntil = match.end;
+            }
+        }
+        return kept;
+    }
+
+    private static boolean isWordBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    private static int step(int[] edgeStart, char[] edgeChars, int[] edgeTargets, int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+}
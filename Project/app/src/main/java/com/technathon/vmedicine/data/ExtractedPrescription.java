@@ -0,0 +1,136 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The profile fields read from a prescription, on the device by {@link PrescriptionExtractor} or by Gemini.
+ * The field names are the JSON keys the Gemini prompt asks for, so Gemini's answer binds to this class.
+ */
+public final class ExtractedPrescription {
+
+    private List<String> allergies;
+    private List<String> currentMedications;
+    private List<String> medicalConditions;
+
+    // For Gson
+    public ExtractedPrescription() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    public ExtractedPrescription(List<String> allergies, List<String> currentMedications, List<String> medicalConditions) {
+        this.allergies = allergies;
+        this.currentMedications = currentMedications;
+        this.medicalConditions = medicalConditions;
+    }
+
+    // A JSON answer may leave a key out, which leaves the field null
+    public List<String> getAllergies() {
+        return allergies != null ? allergies : Collections.emptyList();
+    }
+
+    public List<String> getCurrentMedications() {
+        return currentMedications != null ? currentMedications : Collections.emptyList();
+    }
+
+    public List<String> getMedicalConditions() {
+        return medicalConditions != null ? medicalConditions : Collections.emptyList();
+    }
+
+    /**
+     * Joins the readings of a prescription's parts, in order, keeping each item once. Items are the same
+     * whatever their case and spacing ("Metformin 500mg", "metformin 500 mg"); conditions are also the same if
+     * one ends with at least two words that make up the other ({@link #sameCondition}), and the fuller name is
+     * kept ("Heart failure", "Congestive heart failure").
+     */
+    public static ExtractedPrescription merge(List<ExtractedPrescription> parts) {
+        Map<String, String> allergies = new LinkedHashMap<>();
+        Map<String, String> medications = new LinkedHashMap<>();
+        Map<String, String> conditions = new LinkedHashMap<>();
+        for (ExtractedPrescription part : parts) {
+            for (String allergy : part.getAllergies()) {
+                allergies.putIfAbsent(key(allergy), allergy.trim());
+            }
+            for (String medication : part.getCurrentMedications()) {
+                medications.putIfAbsent(key(medication), medication.trim());
+            }
+            for (String condition : part.getMedicalConditions()) {
+                addCondition(conditions, condition);
+            }
+        }
+        return new ExtractedPrescription(new ArrayList<>(allergies.values()), new ArrayList<>(medications.values()),
+                new ArrayList<>(conditions.values()));
+    }
+
+    private static void addCondition(Map<String, String> conditions, String condition) {
+        String key = conditionKey(condition);
+        for (Map.Entry<String, String> found : conditions.entrySet()) {
+            if (!sameCondition(found.getKey(), key)) {
+                continue;
+            }
+            if (key.length() > found.getKey().length()) { // Keep the fuller name where the shorter one was
+                Map<String, String> replaced = new LinkedHashMap<>();
+                for (Map.Entry<String, String> entry : conditions.entrySet()) {
+                    if (entry == found) {
+                        replaced.put(key, condition.trim());
+                    } else if (!sameCondition(entry.getKey(), key)) {
+                        replaced.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                conditions.clear();
+                conditions.putAll(replaced);
+            }
+            return;
+        }
+        conditions.put(key, condition.trim());
+    }
+
+    /**
+     * @return The condition's words in lower case, separated by single spaces: the same for "Heart failure",
+     * "heart  failure" and "Heart-failure".
+     */
+    static String conditionKey(String condition) {
+        StringBuilder key = new StringBuilder();
+        for (String word : condition.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (key.length() > 0) {
+                    key.append(' ');
+                }
+                key.append(word);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Whether two {@link #conditionKey condition keys} name the same condition: they are equal, or one ends with
+     * all the words of the other and those are at least two ("Heart failure", "Congestive heart failure"). A
+     * single word is not enough, nor a shared start: "PE" is not "Hypertension", "Diabetes" not "Diabetes
+     * insipidus".
+     */
+    static boolean sameCondition(String key, String otherKey) {
+        return key.equals(otherKey) || endsWithWords(key, otherKey) || endsWithWords(otherKey, key);
+    }
+
+    private static boolean endsWithWords(String longer, String shorter) {
+        return shorter.indexOf(' ') >= 0 && longer.endsWith(" " + shorter);
+    }
+
+    private static String key(String item) {
+        return item.replaceAll("\\s+", "").toLowerCase(Locale.ROOT);
+    }
+
+    public boolean isEmpty() {
+        return getAllergies().isEmpty() && getCurrentMedications().isEmpty() && getMedicalConditions().isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "allergies=" + getAllergies() + ", currentMedications=" + getCurrentMedications()
+                + ", medicalConditions=" + getMedicalConditions();
+    }
+}
@@ -0,0 +1,133 @@
+package com.technathon.vmedicine.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Versioned binary bundle of interaction data (drug-allergy index, drug-drug graph and, optionally,
+ * the brand/generic concept dictionary).
+ * The file is memory-mapped and every lookup reads the mapped bytes by offset, so opening even a large
+ * formulary only parses the header and keeps next to nothing on the Java heap.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * int    magic ("VMIB")
+ * int    format version
+ * long   data version (chosen by whoever built the bundle, e.g. a release number)
+ * int    section count
+ * {int type, int offset, int length} per section, offsets from the start of the file
+ * section data
+ * </pre>
+ * Readers skip section types they do not know, so new sections can be added without breaking old apps.
+ */
+public final class InteractionBundle {
+
+    public static final int MAGIC = 0x564D4942; // "VMIB"
+    public static final int FORMAT_VERSION = 1;
+
+    static final int SECTION_ALLERGY_INDEX = 1;
+    static final int SECTION_INTERACTION_GRAPH = 2;
+    static final int SECTION_DRUG_CONCEPTS = 3; // Optional; bundles without it get an empty dictionary
+
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    static final int SECTION_ENTRY_SIZE = 4 + 4 + 4;
+
+    private final long dataVersion;
+    private final AllergyIndex allergyIndex;
+    private final DrugInteractionGraph interactionGraph;
+    private final DrugConcepts drugConcepts;
+
+    private InteractionBundle(long dataVersion, AllergyIndex allergyIndex, DrugInteractionGraph interactionGraph,
+                              DrugConcepts drugConcepts) {
+        this.dataVersion = dataVersion;
+        this.allergyIndex = allergyIndex;
+        this.interactionGraph = interactionGraph;
+        this.drugConcepts = drugConcepts;
+    }
+
+    /**
+     * Memory-maps a bundle file. The mapping stays valid after the file channel is closed.
+     *
+     * @throws IOException If the file cannot be read or is not a valid bundle.
+     */
+    public static InteractionBundle open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a bundle from a buffer (mapped or on-heap) positioned at the start of the bundle.
+     *
+     * @throws IOException If the buffer does not hold a valid bundle.
+     */
+    public static InteractionBundle wrap(ByteBuffer buffer) throws IOException {
+        ByteBuffer bundle = buffer.slice();
+        try {
+            if (bundle.getInt(0) != MAGIC) {
+                throw new IOException("Not an interaction bundle");
+            }
+            int formatVersion = bundle.getInt(4);
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported interaction bundle format version " + formatVersion);
+            }
+            long dataVersion = bundle.getLong(8);
+            int sectionCount = bundle.getInt(16);
+
+            AllergyIndex allergyIndex = null;
+            DrugInteractionGraph interactionGraph = null;
+            DrugConcepts drugConcepts = null;
+            for (int i = 0; i < sectionCount; i++) {
+                int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+                int type = bundle.getInt(entry);
+                ByteBuffer section = slice(bundle, bundle.getInt(entry + 4), bundle.getInt(entry + 8));
+                if (type == SECTION_ALLERGY_INDEX) {
+                    allergyIndex = AllergyIndex.read(section);
+                } else if (type == SECTION_INTERACTION_GRAPH) {
+                    interactionGraph = DrugInteractionGraph.read(section);
+                } else if (type == SECTION_DRUG_CONCEPTS) {
+                    drugConcepts = DrugConcepts.read(section);
+                }
+            }
+            if (allergyIndex == null || interactionGraph == null) {
+                throw new IOException("Interaction bundle is missing a required section");
+            }
+            if (drugConcepts == null) {
+                drugConcepts = new DrugConcepts.Builder().build();
+            }
+            return new InteractionBundle(dataVersion, allergyIndex, interactionGraph, drugConcepts);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt interaction bundle", e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer bundle, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bundle.limit()) {
+            throw new IndexOutOfBoundsException("Section out of bounds");
+        }
+        ByteBuffer section = bundle.duplicate();
+        section.position(offset);
+        section.limit(offset + length);
+        return section.slice();
+    }
+
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    public AllergyIndex getAllergyIndex() {
+        return allergyIndex;
+    }
+
+    public DrugInteractionGraph getInteractionGraph() {
+        return interactionGraph;
+    }
+
+    public DrugConcepts getDrugConcepts() {
+        return drugConcepts;
+    }
+}
@@ -0,0 +1,75 @@
+package com.technathon.vmedicine.data;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes an {@link InteractionBundle} file from in-memory data. Used by the JVM-side bundle builder
+ * tool and by tests; the app itself only reads bundles.
+ */
+public final class InteractionBundleWriter {
+
+    private long dataVersion;
+    private AllergyIndex allergyIndex = new AllergyIndex.Builder().build();
+    private DrugInteractionGraph interactionGraph = new DrugInteractionGraph.Builder().build();
+    private DrugConcepts drugConcepts = new DrugConcepts.Builder().build();
+
+    public InteractionBundleWriter setDataVersion(long dataVersion) {
+        this.dataVersion = dataVersion;
+        return this;
+    }
+
+    public InteractionBundleWriter setAllergyIndex(AllergyIndex allergyIndex) {
+        this.allergyIndex = allergyIndex;
+        return this;
+    }
+
+    public InteractionBundleWriter setInteractionGraph(DrugInteractionGraph interactionGraph) {
+        this.interactionGraph = interactionGraph;
+        return this;
+    }
+
+    public InteractionBundleWriter setDrugConcepts(DrugConcepts drugConcepts) {
+        this.drugConcepts = drugConcepts;
+        return this;
+    }
+
+    public void writeTo(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        }
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        ByteBuffer[] sections = {allergyIndex.section(), interactionGraph.section(), drugConcepts.section()};
+        int[] types = {InteractionBundle.SECTION_ALLERGY_INDEX, InteractionBundle.SECTION_INTERACTION_GRAPH,
+                InteractionBundle.SECTION_DRUG_CONCEPTS};
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(InteractionBundle.MAGIC);
+        out.writeInt(InteractionBundle.FORMAT_VERSION);
+        out.writeLong(dataVersion);
+        out.writeInt(sections.length);
+
+        int offset = InteractionBundle.HEADER_SIZE + sections.length * InteractionBundle.SECTION_ENTRY_SIZE;
+        for (int i = 0; i < sections.length; i++) {
+            out.writeInt(types[i]);
+            out.writeInt(offset);
+            out.writeInt(sections[i].remaining());
+            offset += sections[i].remaining();
+        }
+        for (ByteBuffer section : sections) {
+            byte[] chunk = new byte[8192];
+            while (section.hasRemaining()) {
+                int length = Math.min(chunk.length, section.remaining());
+                section.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+        out.flush();
+    }
+}
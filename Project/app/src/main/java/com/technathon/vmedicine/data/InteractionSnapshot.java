@@ -0,0 +1,126 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One consistent version of the interaction data.
+ * Snapshots are immutable and swapped atomically by DrugInteractionDatabase, so a check that reads
+ * one snapshot never sees the allergy index of one dataset version with the graph of another.
+ */
+public final class InteractionSnapshot {
+
+    private final long dataVersion;
+    private final AllergyIndex allergyIndex;
+    private final DrugInteractionGraph interactionGraph;
+    private final DrugConcepts drugConcepts;
+    // Per concept ID: the medicine ID in allergyIndex and the drug ID in interactionGraph (-1 if absent)
+    private final int[] conceptMedicineIds;
+    private final int[] conceptDrugIds;
+    private volatile DrugNameMatcher nameMatcher; // Built on first use, see getNameMatcher()
+    private volatile DrugNameScanner nameScanner; // Built on first use, see getNameScanner()
+
+    public InteractionSnapshot(long dataVersion, AllergyIndex allergyIndex, DrugInteractionGraph interactionGraph,
+                               DrugConcepts drugConcepts) {
+        this.dataVersion = dataVersion;
+        this.allergyIndex = allergyIndex;
+        this.interactionGraph = interactionGraph;
+        this.drugConcepts = drugConcepts;
+        this.conceptMedicineIds = new int[drugConcepts.conceptCount()];
+        this.conceptDrugIds = new int[drugConcepts.conceptCount()];
+        for (int concept = 0; concept < conceptMedicineIds.length; concept++) {
+            String canonical = drugConcepts.canonicalName(concept);
+            conceptMedicineIds[concept] = allergyIndex.medicineId(canonical);
+            conceptDrugIds[concept] = interactionGraph.drugId(canonical);
+        }
+    }
+
+    public static InteractionSnapshot of(InteractionBundle bundle) {
+        return new InteractionSnapshot(bundle.getDataVersion(), bundle.getAllergyIndex(), bundle.getInteractionGraph(),
+                bundle.getDrugConcepts());
+    }
+
+    /**
+     * @return The bundle's data version, or 0 for the built-in mock data.
+     */
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    public AllergyIndex getAllergyIndex() {
+        return allergyIndex;
+    }
+
+    public DrugInteractionGraph getInteractionGraph() {
+        return interactionGraph;
+    }
+
+    public DrugConcepts getDrugConcepts() {
+        return drugConcepts;
+    }
+
+    /**
+     * @return The allergy index medicine ID of a concept, or -1 if the index does not list it.
+     */
+    public int medicineIdOfConcept(int conceptId) {
+        return conceptId < 0 ? -1 : conceptMedicineIds[conceptId];
+    }
+
+    /**
+     * @return The interaction graph drug ID of a concept, or -1 if the graph does not list it.
+     */
+    public int drugIdOfConcept(int conceptId) {
+        return conceptId < 0 ? -1 : conceptDrugIds[conceptId];
+    }
+
+    /**
+     * Returns the fuzzy matcher over every medicine name (brand names and synonyms included) in this snapshot.
+     * Built on first use (call it from a background thread after installing new data to keep it off the UI thread).
+     */
+    public DrugNameMatcher getNameMatcher() {
+        DrugNameMatcher matcher = nameMatcher;
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = nameMatcher;
+                if (matcher == null) {
+                    matcher = DrugNameMatcher.build(medicineNames());
+                    nameMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Returns the scanner that finds this snapshot's medicine names in free text. Built on first use, like
+     * {@link #getNameMatcher()}.
+     */
+    public DrugNameScanner getNameScanner() {
+        DrugNameScanner scanner = nameScanner;
+        if (scanner == null) {
+            synchronized (this) {
+                scanner = nameScanner;
+                if (scanner == null) {
+                    scanner = DrugNameScanner.build(medicineNames());
+                    nameScanner = scanner;
+                }
+            }
+        }
+        return scanner;
+    }
+
+    private List<String> medicineNames() {
+        List<String> names = new ArrayList<>(allergyIndex.medicineCount() + interactionGraph.drugCount()
+                + drugConcepts.spellingCount());
+        for (int i = 0; i < drugConcepts.spellingCount(); i++) {
+            names.add(drugConcepts.spelling(i));
+        }
+        for (int i = 0; i < allergyIndex.medicineCount(); i++) {
+            names.add(allergyIndex.medicineName(i));
+        }
+        for (int i = 0; i < interactionGraph.drugCount(); i++) {
+            names.add(interactionGraph.drugName(i));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,153 @@
+package com.technathon.vmedicine.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted table of UTF-8 names read straight out of a ByteBuffer.
+ * A name's ID is its position in sort order, and lookups binary-search the encoded bytes in place,
+ * so a table mapped from a file costs nothing on the heap until a name is actually decoded.
+ *
+ * Layout: int count, int[count + 1] byte offsets (relative to the string data), string data.
+ */
+final class NameTable {
+
+    private final ByteBuffer buffer;
+    private final int base;
+    private final int count;
+    private final int dataStart;
+
+    private NameTable(ByteBuffer buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+        this.count = buffer.getInt(base);
+        this.dataStart = base + 4 + (count + 1) * 4;
+    }
+
+    /**
+     * Reads a table starting at an absolute position of the buffer.
+     */
+    static NameTable read(ByteBuffer buffer, int position) {
+        NameTable table = new NameTable(buffer, position);
+        if (table.count < 0 || table.end() > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupt name table at " + position);
+        }
+        return table;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return The absolute buffer position just past this table.
+     */
+    int end() {
+        return dataStart + offset(count);
+    }
+
+    /**
+     * @return The ID of the name, or -1 if it is not in the table.
+     */
+    int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    String nameAt(int id) {
+        int start = dataStart + offset(id);
+        byte[] bytes = new byte[offset(id + 1) - offset(id)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int offset(int id) {
+        return buffer.getInt(base + 4 + id * 4);
+    }
+
+    private int compareAt(int id, byte[] key) {
+        int start = dataStart + offset(id);
+        int length = offset(id + 1) - offset(id);
+        int shared = Math.min(length, key.length);
+        for (int i = 0; i < shared; i++) {
+            int diff = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Sorts names into table order (unsigned UTF-8 byte order) and drops duplicates.
+     * A name's index in the returned list is its ID once written.
+     */
+    static List<String> sort(Collection<String> names) {
+        byte[][] encoded = new byte[names.size()][];
+        int i = 0;
+        for (String name : names) {
+            encoded[i++] = name.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(encoded, NameTable::compareBytes);
+
+        List<String> sorted = new ArrayList<>(encoded.length);
+        for (int j = 0; j < encoded.length; j++) {
+            if (j == 0 || compareBytes(encoded[j - 1], encoded[j]) != 0) {
+                sorted.add(new String(encoded[j], StandardCharsets.UTF_8));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Writes names that are already in {@link #sort(Collection)} order.
+     */
+    static void write(List<String> sortedNames, DataOutputStream out) throws IOException {
+        byte[][] encoded = new byte[sortedNames.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = sortedNames.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        out.writeInt(encoded.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] name : encoded) {
+            offset += name.length;
+            out.writeInt(offset);
+        }
+        for (byte[] name : encoded) {
+            out.write(name);
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int shared = Math.min(a.length, b.length);
+        for (int i = 0; i < shared; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
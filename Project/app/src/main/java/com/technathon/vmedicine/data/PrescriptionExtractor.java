@@ -0,0 +1,520 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads allergies, current medications and medical conditions from a prescription's OCR text on the device,
+ * without a network call. The rules:
+ * <ul>
+ *     <li>Section headers ("Allergies:", "Rx", "Diagnosis:", "Current meds:") say what the lines below them
+ *     list; items are split on commas and semicolons.</li>
+ *     <li>Dose grammar ("Tab. Metformin 500 mg BD") and the medicine dictionary find medications anywhere.
+ *     A medication is kept up to its strength: "Metformin 500 mg".</li>
+ *     <li>A dictionary of condition terms and abbreviations ("HTN", "type 2 diabetes") finds conditions
+ *     anywhere, unless negated ("no diabetes").</li>
+ *     <li>"Allergic to ..." finds allergies anywhere.</li>
+ * </ul>
+ * The result comes with a confidence: the share of the text's lines the rules accounted for, either as
+ * items or as lines known to carry none (letterheads, patient details, dates, vitals). Free prose, such as
+ * a discharge summary's narrative, gives a low confidence, and that text is better read by Gemini.
+ */
+public final class PrescriptionExtractor {
+
+    /**
+     * Below this confidence, part of the text was not understood and the result may be missing items.
+     */
+    public static final float CONFIDENT = 0.8f;
+
+    private static final int MAX_ITEM_WORDS = 5;
+    private static final int MAX_NAME_WORDS = 3; // Words of a medicine name not in the dictionary
+
+    /**
+     * What the rules read from a text, and how much of the text they understood.
+     */
+    public static final class Extraction {
+        private final ExtractedPrescription prescription;
+        private final float confidence;
+
+        Extraction(ExtractedPrescription prescription, float confidence) {
+            this.prescription = prescription;
+            this.confidence = confidence;
+        }
+
+        public ExtractedPrescription getPrescription() {
+            return prescription;
+        }
+
+        /**
+         * @return From 0 (nothing found) to 1 (every line accounted for).
+         */
+        public float getConfidence() {
+            return confidence;
+        }
+
+        public boolean isConfident() {
+            return confidence >= CONFIDENT;
+        }
+    }
+
+    private enum Section {
+        NONE, ALLERGIES, MEDICATIONS, CONDITIONS,
+        OTHER // Under a header the rules do not know, e.g. "Chief complaint:"
+    }
+
+    // "Label: rest of the line"; the label has no digits, so "Amlodipine 5 mg: once daily" is no header
+    private static final Pattern HEADER = Pattern.compile("^\\s*([A-Za-z][A-Za-z /&.'()-]{0,40}?)\\s*:\\s*(.*)$");
+    private static final Pattern ALLERGY_LABEL = Pattern.compile(
+            "(?:(?:known|drug|reported|medication)\\s+)*(?:allerg(?:y|ies)|allergic to|adverse (?:drug )?reactions?|adr)");
+    private static final Pattern MEDICATION_LABEL = Pattern.compile(
+            "(?:(?:current|home|discharge|regular|active|prescribed|new|opd)\\s+)*"
+                    + "(?:medications?|medicines?|meds|drugs|rx|prescriptions?|treatment)");
+    private static final Pattern CONDITION_LABEL = Pattern.compile(
+            "(?:(?:medical|past|known|chronic|active|final|provisional|discharge|primary|secondary)\\s+)*"
+                    + "(?:conditions?|diagnos[ie]s|dx|(?:medical )?history|problems?|problem list|pmh|comorbidit(?:y|ies)|impression)");
+    // Labels and first words of lines that carry no profile items
+    private static final Set<String> DETAIL_LABELS = new HashSet<>(Arrays.asList(
+            "name", "patient", "pt", "age", "sex", "gender", "dob", "date", "dr", "doctor", "physician", "consultant",
+            "hospital", "clinic", "address", "phone", "tel", "mobile", "contact", "email", "mrn", "uhid", "id", "ip",
+            "op", "reg", "registration", "signature", "sign", "follow", "review", "next", "weight", "wt", "height",
+            "ht", "bp", "pulse", "temp", "temperature", "spo2", "ward", "bed", "admitted", "discharged", "ref",
+            "referred", "time", "unit", "department", "dept"));
+    private static final Set<String> DETAIL_LINE_STARTS = new HashSet<>(Arrays.asList(
+            "dr", "doctor", "date", "review", "follow", "next", "bp", "pulse", "temp", "weight", "signature", "sign", "ref"));
+    private static final Pattern LETTERHEAD = Pattern.compile(
+            "(?i)\\b(?:clinic|hospital|medical cent(?:er|re)|health ?care|nursing home|pharmacy|mbbs|discharge summary)\\b");
+
+    private static final Pattern LIST_MARKER = Pattern.compile("^\\s*(?:\\d{1,2}[.)]|[-*•·])\\s*");
+    private static final Pattern DOSAGE_FORM = Pattern.compile(
+            "^(?i)(?:tabs?|tablets?|caps?|capsules?|syp|syr|syrup|inj|injection|oint|ointment|gel|cream|drops|susp|inh)\\b\\.?\\s*");
+    private static final Pattern LEAD_VERB = Pattern.compile("^(?i)(?:continue|start(?:ed)?(?: on)?|take|resume|add|give)\\s+");
+    private static final Pattern STOP_VERB = Pattern.compile("^(?i)(?:stop(?:ped)?|discontinue[d]?|hold|avoid)\\b");
+    private static final Pattern DOSE = Pattern.compile(
+            "(?i)(?<![\\w.])\\d+(?:[.,]\\d+)?\\s*(?:mg|mcg|µg|ug|gm?|ml|iu|units?|puffs?|drops?|%)(?![A-Za-z])");
+    // Frequencies and directions that follow a medicine name: "OD", "1-0-1", "x 5 days", "after food"
+    private static final Set<String> DIRECTION_WORDS = new HashSet<>(Arrays.asList(
+            "od", "bd", "bid", "tid", "tds", "qid", "qds", "qd", "hs", "prn", "sos", "stat", "once", "twice", "thrice",
+            "daily", "weekly", "every", "morning", "night", "nightly", "evening", "after", "before", "with", "at", "for",
+            "x", "times", "day", "days", "week", "weeks", "wks", "month", "months", "hours", "hrs", "food", "meals",
+            "meal", "bedtime", "inhaled", "orally", "po", "iv", "im", "sc", "if", "when", "as", "needed", "a", "in",
+            "the"));
+    private static final Pattern TOKEN = Pattern.compile("\\S+");
+    private static final Pattern WORD = Pattern.compile("[A-Za-z0-9]+");
+    private static final Pattern FREQUENCY = Pattern.compile("(?i)\\d+(?:-\\d+){2,}|x\\d+|\\d+");
+
+    private static final Pattern ALLERGIC_TO = Pattern.compile("(?i)\\ballergic\\s+to\\s+([^.;,()]+)");
+    private static final Pattern NO_ALLERGIES = Pattern.compile(
+            "(?i)^(?:nkda|nka|nkma|none(?: known)?|nil|no|n/a|not known|no known(?: drug)? allerg\\w*)$");
+    private static final Pattern ALLERGY_REACTION = Pattern.compile(
+            "(?i)\\s+(?:[-–]|(?:causing|causes|caused|which|that|leads|led|gives|reaction)\\b).*$");
+    private static final Pattern ALLERGY_WORDS = Pattern.compile("(?i)\\b(?:allergic to|allergic|allergy|allergies)\\b");
+    private static final Pattern PARENTHESES = Pattern.compile("\\([^)]*\\)?");
+    private static final Pattern CONDITION_QUALIFIER = Pattern.compile("(?i)\\s+(?:since|for|x|diagnosed|on|-|–)\\s.*$");
+    // Negation before a term in the same clause: "no diabetes", "denies asthma", "r/o pneumonia"
+    private static final Pattern NEGATION = Pattern.compile(
+            "(?i)\\b(?:no|not|denies|denied|negative for|without|r/o|rule out|ruled out)\\b[^.;]*$");
+
+    // Condition spellings (normalized) to the name shown; each row starts with the name shown
+    private static final Map<String, String> CONDITION_NAMES = new LinkedHashMap<>();
+    private static final DrugNameScanner CONDITIONS;
+
+    static {
+        condition("Hypertension", "htn", "high blood pressure");
+        condition("Type 2 Diabetes", "t2dm", "dm2", "type ii diabetes", "niddm", "diabetes mellitus type 2");
+        condition("Type 1 Diabetes", "t1dm", "type i diabetes", "iddm", "diabetes mellitus type 1");
+        condition("Diabetes", "diabetes mellitus");
+        condition("Asthma", "bronchial asthma");
+        condition("COPD", "chronic obstructive pulmonary disease");
+        condition("Coronary Artery Disease", "cad", "ischemic heart disease", "ihd");
+        condition("Heart Failure", "chf", "congestive heart failure");
+        condition("Atrial Fibrillation", "afib", "a fib");
+        condition("Hyperlipidemia", "dyslipidemia", "high cholesterol", "hypercholesterolemia");
+        condition("Hypothyroidism");
+        condition("Hyperthyroidism");
+        condition("Chronic Kidney Disease", "ckd");
+        condition("GERD", "acid reflux", "gastroesophageal reflux disease");
+        condition("Epilepsy", "seizure disorder");
+        condition("Depression", "major depressive disorder", "mdd");
+        condition("Anxiety", "generalized anxiety disorder");
+        condition("Osteoarthritis");
+        condition("Rheumatoid Arthritis");
+        condition("Migraine", "migraines");
+        condition("Osteoporosis");
+        condition("Gout");
+        condition("Anemia", "anaemia");
+        condition("Obesity");
+        condition("Pneumonia");
+        condition("Urinary Tract Infection", "uti");
+        condition("Stroke");
+        condition("Tuberculosis", "tb");
+        condition("Psoriasis");
+        condition("Eczema", "atopic dermatitis");
+        CONDITIONS = DrugNameScanner.build(CONDITION_NAMES.keySet());
+    }
+
+    private static void condition(String name, String... spellings) {
+        CONDITION_NAMES.put(name.toLowerCase(Locale.ROOT), name);
+        for (String spelling : spellings) {
+            CONDITION_NAMES.put(spelling, name);
+        }
+    }
+
+    private PrescriptionExtractor() {
+    }
+
+    /**
+     * Extracts the profile fields with the current medicine dictionary.
+     */
+    public static Extraction extract(String text) {
+        return extract(text, DrugInteractionDatabase.getSnapshot().getNameScanner());
+    }
+
+    static Extraction extract(String text, DrugNameScanner medicines) {
+        Items allergies = new Items();
+        Items medications = new Items();
+        Items conditions = new Items();
+        int contentLines = 0;
+        int understoodLines = 0;
+        Section section = Section.NONE;
+        for (String line : (text != null ? text : "").split("\\r?\\n")) {
+            if (!hasLetter(line)) {
+                continue; // Blank lines, dates, rules
+            }
+            contentLines++;
+            int found = allergies.size() + medications.size() + conditions.size();
+            boolean understood;
+
+            String content = line;
+            Section header = standaloneHeader(line);
+            if (header != null) {
+                section = header;
+                content = "";
+                understood = true;
+            } else {
+                Matcher labelled = HEADER.matcher(line);
+                if (labelled.matches()) {
+                    String label = labelled.group(1).trim().toLowerCase(Locale.ROOT);
+                    section = sectionOf(label);
+                    if (section == Section.OTHER && isDetailLabel(label)) {
+                        // "Patient: ...", "Date: ..."
+                        section = Section.NONE;
+                        content = "";
+                        understood = true;
+                    } else {
+                        content = labelled.group(2);
+                        understood = content.trim().isEmpty();
+                    }
+                } else {
+                    understood = isDetailLine(line);
+                    if (understood) {
+                        content = "";
+                    }
+                }
+            }
+
+            if (!content.trim().isEmpty()) {
+                switch (section) {
+                    case ALLERGIES:
+                        understood = readAllergies(content, allergies);
+                        break;
+                    case MEDICATIONS:
+                        understood = readMedications(content, medicines, medications);
+                        findConditions(content, conditions);
+                        break;
+                    case CONDITIONS:
+                        String medication = medicationItem(content, medicines, false);
+                        if (medication != null) {
+                            medications.add(medication);
+                        } else if (!isStopped(content)) {
+                            readConditions(content, conditions);
+                        }
+                        understood = true;
+                        break;
+                    default:
+                        understood = readFreeText(content, medicines, allergies, medications, conditions);
+                        break;
+                }
+            }
+            if (understood || allergies.size() + medications.size() + conditions.size() > found) {
+                understoodLines++;
+            }
+        }
+
+        ExtractedPrescription prescription = new ExtractedPrescription(allergies.list(), medications.list(), conditions.list());
+        float confidence = contentLines == 0 || prescription.isEmpty() ? 0 : (float) understoodLines / contentLines;
+        return new Extraction(prescription, confidence);
+    }
+
+    private static Section standaloneHeader(String line) {
+        String label = line.trim().replaceAll("[\\s:]+$", "").toLowerCase(Locale.ROOT);
+        Section section = sectionOf(label);
+        return section == Section.OTHER ? null : section;
+    }
+
+    private static Section sectionOf(String label) {
+        if (ALLERGY_LABEL.matcher(label).matches()) {
+            return Section.ALLERGIES;
+        }
+        if (MEDICATION_LABEL.matcher(label).matches()) {
+            return Section.MEDICATIONS;
+        }
+        if (CONDITION_LABEL.matcher(label).matches()) {
+            return Section.CONDITIONS;
+        }
+        return Section.OTHER;
+    }
+
+    private static boolean isDetailLabel(String label) {
+        return DETAIL_LABELS.contains(firstWord(label));
+    }
+
+    private static boolean isDetailLine(String line) {
+        return DETAIL_LINE_STARTS.contains(firstWord(line)) || LETTERHEAD.matcher(line).find();
+    }
+
+    /**
+     * @return True if every item was read as an allergy or as "none".
+     */
+    private static boolean readAllergies(String content, Items allergies) {
+        boolean understood = true;
+        for (String item : content.split("[,;&]|\\band\\b")) {
+            String allergy = PARENTHESES.matcher(LIST_MARKER.matcher(item).replaceFirst("")).replaceAll(" ");
+            allergy = ALLERGY_REACTION.matcher(allergy).replaceFirst("");
+            allergy = ALLERGY_WORDS.matcher(allergy).replaceAll(" ").trim().replaceAll("[\\s.:]+$", "");
+            if (allergy.isEmpty() || NO_ALLERGIES.matcher(allergy).matches()) {
+                continue;
+            }
+            if (wordCount(allergy) > MAX_ITEM_WORDS - 1) {
+                understood = false;
+                continue;
+            }
+            allergies.add(tidy(allergy));
+        }
+        return understood;
+    }
+
+    /**
+     * @return True if every item was read as a medication or as directions.
+     */
+    private static boolean readMedications(String content, DrugNameScanner medicines, Items medications) {
+        boolean understood = true;
+        // Commas inside numbers ("1,000 mg") do not split
+        for (String item : content.split(";|,(?!\\d)")) {
+            if (!hasLetter(item) || isDirections(item)) {
+                continue;
+            }
+            String medication = medicationItem(item, medicines, true);
+            if (medication != null) {
+                medications.add(medication);
+            } else if (!isStopped(item)) {
+                understood = false;
+            }
+        }
+        return understood;
+    }
+
+    private static void readConditions(String content, Items conditions) {
+        for (String item : content.split("[,;]|\\.\\s+")) {
+            String condition = PARENTHESES.matcher(LIST_MARKER.matcher(item).replaceFirst("")).replaceAll(" ").trim();
+            condition = CONDITION_QUALIFIER.matcher(condition).replaceFirst("").replaceAll("[\\s.:]+$", "");
+            if (!hasLetter(condition)) {
+                continue;
+            }
+            String known = CONDITION_NAMES.get(condition.toLowerCase(Locale.ROOT).replaceAll("\\s+", " "));
+            if (known != null) {
+                conditions.addCondition(known);
+            } else if (wordCount(condition) <= MAX_ITEM_WORDS && !NEGATION.matcher(condition).find()) {
+                conditions.addCondition(tidy(condition));
+            } else {
+                findConditions(condition, conditions);
+            }
+        }
+    }
+
+    /**
+     * Reads a line outside the known sections: a medication with its dose, conditions named in passing,
+     * "allergic to ...".
+     *
+     * @return True if the line was understood: it named something, or told to stop a medicine.
+     */
+    private static boolean readFreeText(String content, DrugNameScanner medicines, Items allergies, Items medications,
+                                        Items conditions) {
+        boolean understood = false;
+        Matcher allergic = ALLERGIC_TO.matcher(content);
+        while (allergic.find()) {
+            if (!NEGATION.matcher(content.substring(0, allergic.start())).find()) {
+                understood |= readAllergies(allergic.group(1), allergies);
+            }
+        }
+        if (isStopped(content)) {
+            return true;
+        }
+        String medication = medicationItem(content, medicines, false);
+        if (medication != null) {
+            medications.add(medication);
+            understood = true;
+        }
+        return findConditions(content, conditions) | understood;
+    }
+
+    /**
+     * Reads one medication: from the dictionary name (or the start of the item) up to the strength, e.g.
+     * "2. Tab. Metformin 500mg BD after food" gives "Metformin 500mg".
+     *
+     * @param inSection True under a medications header, where an item needs neither a dictionary name nor a dose.
+     * @return The medication, or null if the item does not read as one.
+     */
+    static String medicationItem(String item, DrugNameScanner medicines, boolean inSection) {
+        String text = LIST_MARKER.matcher(item).replaceFirst("");
+        Matcher form = DOSAGE_FORM.matcher(text);
+        boolean hasForm = form.find();
+        if (hasForm) {
+            text = text.substring(form.end());
+        }
+        text = LEAD_VERB.matcher(text).replaceFirst("").trim();
+        if (text.isEmpty() || STOP_VERB.matcher(text).find()) {
+            return null;
+        }
+
+        List<DrugNameScanner.Match> names = medicines.scan(text);
+        DrugNameScanner.Match name = names.isEmpty() ? null : names.get(0);
+        int start = name != null ? name.getStart() : 0;
+        Matcher dose = DOSE.matcher(text);
+        boolean hasDose = dose.find(name != null ? name.getEnd() : 0);
+        if (name == null) {
+            boolean shortName = hasDose && wordCount(text.substring(0, dose.start())) <= MAX_NAME_WORDS
+                    && Character.isLetter(text.charAt(0));
+            if (!shortName && !inSection && !hasForm) {
+                return null;
+            }
+        } else if (!hasDose && !inSection && !hasForm && wordCount(text) > MAX_ITEM_WORDS - 1) {
+            return null; // A medicine named in passing in a sentence
+        }
+
+        int end = hasDose ? dose.end() : directionsStart(text, name != null ? name.getEnd() : start);
+        String medication = text.substring(start, end).replaceAll("[\\s.,;:(-]+$", "");
+        if (!hasLetter(medication) || wordCount(medication) > MAX_ITEM_WORDS + 1
+                || (name == null && !hasDose && wordCount(medication) > MAX_NAME_WORDS)) {
+            return null;
+        }
+        return tidy(medication);
+    }
+
+    /**
+     * @return True for an instruction to stop a medicine ("Stop aspirin"), which is no current medication.
+     */
+    private static boolean isStopped(String item) {
+        return STOP_VERB.matcher(LIST_MARKER.matcher(item).replaceFirst("")).find();
+    }
+
+    private static int directionsStart(String text, int from) {
+        Matcher word = TOKEN.matcher(text);
+        int position = from;
+        while (word.find(position)) {
+            String token = word.group().toLowerCase(Locale.ROOT).replaceAll("^[(]+|[.,;:)]+$", "");
+            if (DIRECTION_WORDS.contains(token) || (FREQUENCY.matcher(token).matches() && token.contains("-"))
+                    || token.startsWith("(")) {
+                return word.start();
+            }
+            position = word.end();
+        }
+        return text.length();
+    }
+
+    private static boolean isDirections(String item) {
+        for (String token : item.toLowerCase(Locale.ROOT).split("[\\s.,;:()/]+")) {
+            if (!token.isEmpty() && !DIRECTION_WORDS.contains(token) && !FREQUENCY.matcher(token).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the dictionary conditions named in the text and not negated.
+     *
+     * @return True if any was named, negated or not.
+     */
+    private static boolean findConditions(String text, Items conditions) {
+        List<DrugNameScanner.Match> matches = CONDITIONS.scan(text);
+        for (DrugNameScanner.Match match : matches) {
+            if (!NEGATION.matcher(text.substring(0, match.getStart())).find()) {
+                conditions.addCondition(CONDITION_NAMES.get(match.getName()));
+            }
+        }
+        return !matches.isEmpty();
+    }
+
+    /**
+     * Trims an item and gives it a capital first letter; all-capitals OCR text ("MONTELUKAST 10MG") is
+     * lowercased first, short abbreviations ("COPD") are kept.
+     */
+    static String tidy(String item) {
+        String text = item.trim().replaceAll("\\s+", " ");
+        boolean shouting = text.length() > 4 && text.equals(text.toUpperCase(Locale.ROOT));
+        if (shouting) {
+            text = text.toLowerCase(Locale.ROOT);
+        }
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+
+    private static String firstWord(String text) {
+        Matcher word = WORD.matcher(text);
+        return word.find() ? word.group().toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static int wordCount(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+    }
+
+    private static boolean hasLetter(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetter(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Items in order of first appearance, without case-insensitive repeats.
+     */
+    private static final class Items {
+        private final Map<String, String> items = new LinkedHashMap<>();
+
+        void add(String item) {
+            items.putIfAbsent(item.toLowerCase(Locale.ROOT), item);
+        }
+
+        /**
+         * Adds a condition unless it names one already found ({@link ExtractedPrescription#sameCondition}):
+         * "Heart failure" and "Congestive heart failure" are one condition, "PE" and "Hypertension" two.
+         */
+        void addCondition(String condition) {
+            String key = ExtractedPrescription.conditionKey(condition);
+            for (String found : items.keySet()) {
+                if (ExtractedPrescription.sameCondition(found, key)) {
+                    return;
+                }
+            }
+            items.put(key, condition);
+        }
+
+        int size() {
+            return items.size();
+        }
+
+        List<String> list() {
+            return new ArrayList<>(items.values());
+        }
+    }
+}
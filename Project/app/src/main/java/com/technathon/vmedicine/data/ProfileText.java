@@ -0,0 +1,141 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Text helpers for the profile editing screens and the chat prompt. Kept free of Android APIs so they
+ * can be unit tested and benchmarked on the JVM.
+ */
+public final class ProfileText {
+
+    private ProfileText() {
+    }
+
+    /**
+     * Splits a comma-separated field as typed on the prescription review screen.
+     * Whitespace around commas is dropped; items are kept as typed.
+     *
+     * @return The items, or an empty list if the text is null or blank.
+     */
+    public static List<String> splitCommaSeparated(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(text.split("\\s*,\\s*")));
+    }
+
+    /**
+     * Splits a comma-separated field as typed on the profile screen: items are trimmed, empty items are
+     * dropped and everything is uppercased.
+     *
+     * @return The items, or an empty list if the text is null or blank.
+     */
+    public static List<String> splitCommaSeparatedUpperCase(String text) {
+        List<String> items = new ArrayList<>();
+        if (text == null) {
+            return items;
+        }
+        int start = 0;
+        while (start <= text.length()) {
+            int comma = text.indexOf(',', start);
+            int end = comma == -1 ? text.length() : comma;
+            String item = text.substring(start, end).trim();
+            if (!item.isEmpty()) {
+                items.add(item.toUpperCase(Locale.ROOT));
+            }
+            start = end + 1;
+        }
+        return items;
+    }
+
+    /**
+     * Extracts the medicine name from a profile medication entry, which may carry details in parentheses,
+     * e.g. "Metformin (500 mg, twice daily)" gives "Metformin".
+     */
+    public static String medicineName(String medication) {
+        int parenthesisIndex = medication.indexOf(" (");
+        return parenthesisIndex != -1 ?
+                medication.substring(0, parenthesisIndex).trim() :
+                medication.trim();
+    }
+
+    /**
+     * Screens a profile's current medications against its own allergies, for the screens that save a profile.
+     *
+     * @return The warning to show, or null if nothing conflicts.
+     */
+    public static String allergyWarning(UserProfile userProfile) {
+        return allergyWarning(DrugInteractionDatabase.screenMedications(
+                userProfile.getCurrentMedications(), userProfile.allergyProfile()));
+    }
+
+    /**
+     * @param interactions Interacting medicines mapped to the allergy they conflict with, as
+     *                     {@link DrugInteractionDatabase#screenMedications} gives them.
+     * @return The warning to show, or null if there are none.
+     */
+    static String allergyWarning(Map<String, String> interactions) {
+        if (interactions.isEmpty()) {
+            return null;
+        }
+        StringBuilder warning = new StringBuilder("WARNING: ");
+        for (Map.Entry<String, String> interaction : interactions.entrySet()) {
+            warning.append(interaction.getKey()).append(" conflicts with your ").append(interaction.getValue()).append(" allergy. ");
+        }
+        return warning.toString().trim();
+    }
+
+    /**
+     * Builds the chat prompt: assistant instructions, the user's profile (if known) and the user's message.
+     *
+     * @param userProfile The current user's profile, or null if it has not loaded.
+     */
+    public static String buildPersonalizedPrompt(UserProfile userProfile, String userMessage) {
+        return buildSystemInstruction(userProfile) + "User Query: " + userMessage;
+    }
+
+    /**
+     * Builds the part of the chat prompt that does not change between messages: assistant instructions and the
+     * user's profile (if known). Sent once per request as Gemini's system instruction rather than with every turn.
+     *
+     * @param userProfile The current user's profile, or null if it has not loaded.
+     */
+    public static String buildSystemInstruction(UserProfile userProfile) {
+        StringBuilder promptBuilder = new StringBuilder(512);
+        promptBuilder.append("You are VMedicine AI, a helpful assistant specialized in general medicine information. ");
+        promptBuilder.append("Provide concise and direct answers. DO NOT give specific medical advice or dosages, always recommend consulting a doctor/pharmacist. ");
+        promptBuilder.append("If a query is about personal health or medicine, use the provided user profile context. ");
+        promptBuilder.append("If a question is outside medical/health domain, politely decline. ");
+        promptBuilder.append("Keep responses brief, usually 1-3 sentences.\n\n");
+
+        if (userProfile != null) {
+            promptBuilder.append("User Profile Context:\n");
+            promptBuilder.append("- Age: ").append(userProfile.getAge()).append(" years\n");
+            appendList(promptBuilder, "- Medical Conditions: ", userProfile.getMedicalConditions());
+            appendList(promptBuilder, "- Allergies: ", userProfile.getAllergies());
+            appendList(promptBuilder, "- Current Medications: ", userProfile.getCurrentMedications());
+            promptBuilder.append("\n"); // Separate context from query
+        } else {
+            promptBuilder.append("User profile is not available. Provide general medical information.\n\n");
+        }
+        return promptBuilder.toString();
+    }
+
+    private static void appendList(StringBuilder builder, String label, List<String> items) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        builder.append(label);
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(items.get(i));
+        }
+        builder.append('\n');
+    }
+}
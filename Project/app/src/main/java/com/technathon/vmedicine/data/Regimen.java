@@ -0,0 +1,48 @@
+package com.technathon.vmedicine.data;
+
+import java.util.List;
+
+/**
+ * A user's current medications compiled against a {@link DrugInteractionGraph}.
+ * Keeps the graph it was compiled against, so its drug IDs are never checked against another dataset version.
+ */
+public final class Regimen {
+
+    private final DrugInteractionGraph graph;
+    private final int[] drugIds;
+
+    private Regimen(DrugInteractionGraph graph, int[] drugIds) {
+        this.graph = graph;
+        this.drugIds = drugIds;
+    }
+
+    /**
+     * @param graph The graph the regimen will be checked against.
+     * @param currentMedications Medicine names as entered by the user (any case, may be null).
+     */
+    public static Regimen compile(DrugInteractionGraph graph, List<String> currentMedications) {
+        return new Regimen(graph, graph.drugIds(currentMedications));
+    }
+
+    public DrugInteractionGraph getGraph() {
+        return graph;
+    }
+
+    public boolean isEmpty() {
+        return drugIds.length == 0;
+    }
+
+    /**
+     * @return The interactions between a drug of the same graph and this regimen, in regimen order.
+     */
+    public List<DrugInteraction> findInteractions(int drugId) {
+        return graph.findInteractions(drugId, drugIds);
+    }
+
+    /**
+     * @return The worst severity between a drug of the same graph and this regimen.
+     */
+    public int worstSeverity(int drugId) {
+        return graph.worstSeverity(drugId, drugIds);
+    }
+}
@@ -11,6 +11,11 @@ public class UserProfile {
     private List<String> medicalConditions;
     private int age;
 
+    // Compiled form of 'allergies', built on first use. Not a bean property, so Firestore ignores it.
+    private transient AllergyProfile allergyProfile;
+    // Compiled form of 'currentMedications' for the interaction graph, built on first use.
+    private transient Regimen regimen;
+
     // Required public no-argument constructor for Firestore deserialization
     public UserProfile() {
         this.allergies = new ArrayList<>();
@@ -49,6 +54,34 @@ public class UserProfile {
         return age;
     }
 
+    /**
+     * Returns the user's allergies compiled for fast interaction checks.
+     * Built once and reused until the allergies are replaced via {@link #setAllergies(List)}
+     * or new interaction data is installed.
+     */
+    public AllergyProfile allergyProfile() {
+        AllergyProfile compiled = allergyProfile;
+        if (compiled == null || compiled.getIndex() != DrugInteractionDatabase.getAllergyIndex()) {
+            compiled = DrugInteractionDatabase.compileAllergies(allergies);
+            allergyProfile = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the user's current medications compiled for drug-drug interaction checks.
+     * Built once and reused until the medications are replaced via {@link #setCurrentMedications(List)}
+     * or new interaction data is installed.
+     */
+    public Regimen regimen() {
+        Regimen compiled = regimen;
+        if (compiled == null || compiled.getGraph() != DrugInteractionDatabase.getInteractionGraph()) {
+            compiled = DrugInteractionDatabase.compileRegimen(currentMedications);
+            regimen = compiled;
+        }
+        return compiled;
+    }
+
     // --- Setters --- (Required for Firestore's automatic data mapping)
     public void setUserId(String userId) {
         this.userId = userId;
@@ -56,10 +89,12 @@ public class UserProfile {
 
     public void setAllergies(List<String> allergies) {
         this.allergies = allergies != null ? allergies : new ArrayList<>();
+        this.allergyProfile = null;
     }
 
     public void setCurrentMedications(List<String> currentMedications) { // Corrected: was currentMedations
         this.currentMedications = currentMedications != null ? currentMedications : new ArrayList<>();
+        this.regimen = null;
     }
 
     public void setMedicalConditions(List<String> medicalConditions) {
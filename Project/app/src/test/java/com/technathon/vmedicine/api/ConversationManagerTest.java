@@ -0,0 +1,84 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConversationManagerTest {
+
+    private static final String INSTRUCTION = "You are VMedicine AI.\n\n";
+
+    @Test
+    public void beginTurn_sendsTheInstructionOnceAndTheHistoryAsTurns() {
+        ConversationManager conversation = new ConversationManager();
+        conversation.setSystemInstruction(INSTRUCTION);
+        conversation.beginTurn("Is paracetamol safe with ibuprofen?");
+        conversation.completeTurn("Usually, yes. Ask your pharmacist.");
+
+        GeminiRequest request = conversation.beginTurn("And with alcohol?");
+
+        assertEquals(INSTRUCTION, request.systemInstruction.text());
+        assertEquals(3, request.contents.size());
+        assertEquals("model", request.contents.get(1).role);
+        assertEquals("And with alcohol?", request.contents.get(2).text());
+        for (GeminiContent content : request.contents) {
+            assertFalse("The instruction is not repeated in the turns", content.text().contains("VMedicine AI"));
+        }
+    }
+
+    @Test
+    public void abandonTurn_dropsTheFailedMessage() {
+        ConversationManager conversation = new ConversationManager();
+        conversation.beginTurn("First question");
+        conversation.abandonTurn();
+        conversation.completeTurn("A late reply to nothing");
+
+        GeminiRequest request = conversation.beginTurn("Second question");
+
+        assertEquals(1, request.contents.size());
+        assertEquals(0, conversation.getTurnCount());
+    }
+
+    @Test
+    public void longConversation_keepsRequestsSteadyAndSummarizesOlderTurns() {
+        ConversationManager conversation = new ConversationManager(400, 100);
+        conversation.setSystemInstruction(INSTRUCTION);
+        int largestLater = 0;
+        int atTwenty = 0;
+        GeminiRequest request = null;
+        for (int i = 1; i <= 200; i++) {
+            request = conversation.beginTurn("Question " + i + ": what about drug number " + i + "? " + filler(150));
+            conversation.completeTurn("Answer " + i + ". " + filler(250));
+            int size = new Gson().toJson(request).length();
+            if (i == 20) {
+                atTwenty = size;
+            } else if (i > 20) {
+                largestLater = Math.max(largestLater, size);
+            }
+        }
+
+        assertTrue("Request size stays flat: " + atTwenty + " then up to " + largestLater, largestLater <= atTwenty * 1.1);
+        assertTrue(conversation.getLastRequestTokens() <= 400 + 100 + ConversationManager.estimateTokens(INSTRUCTION) + 100);
+        String instruction = request.systemInstruction.text();
+        assertTrue(instruction, instruction.startsWith(INSTRUCTION + "Earlier in this conversation:\n"));
+        assertTrue(instruction, instruction.contains("- The user asked: Question 19"));
+        assertFalse("The oldest summaries are dropped too", instruction.contains("Question 1:"));
+        assertEquals("user", request.contents.get(0).role);
+    }
+
+    @Test
+    public void shorten_keepsTheFirstSentenceWithinTheLimit() {
+        assertEquals("Take it with food.", ConversationManager.shorten("Take it with food. It may upset the stomach."));
+        assertEquals(120, ConversationManager.shorten(filler(500)).length());
+    }
+
+    private static String filler(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("lorem ipsum ");
+        }
+        return text.substring(0, length);
+    }
+}
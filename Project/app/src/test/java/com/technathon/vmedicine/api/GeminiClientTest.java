@@ -0,0 +1,138 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class GeminiClientTest {
+
+    // OCR output is full of what hand escaping got wrong: quotes, backslashes, newlines, control characters
+    private static final String SCANNED = "Rx: \"Amoxicillin\" 500mg\\day\nAllergy: Penicillin\t(severe) \u0001 ☤";
+
+    private MockWebServer server;
+    private GeminiClient gemini;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        OkHttpClient client = HttpStack.newBuilder().build(); // With the gzip interceptor, as in the app
+        gemini = new GeminiClient(client, server.url("/").toString(), GeminiClient.DEFAULT_MODEL, "test-key");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void generateContent_writesTheRequestAsJsonWhateverTheTextHolds() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"candidates\": [{\"content\": {\"role\": \"model\", \"parts\": "
+                + "[{\"text\": \"{\\\"allergies\\\": [\\\"Penicillin\\\"]}\"}]}, \"finishReason\": \"STOP\"}],"
+                + " \"usageMetadata\": {\"totalTokenCount\": 12}}"));
+        GeminiRequest.Schema strings = GeminiRequest.Schema.arrayOf(GeminiRequest.Schema.string());
+        GeminiRequest request = GeminiRequest.prompt(SCANNED + repeat("x", 2000))
+                .withJsonResponse(GeminiRequest.Schema.object(new String[]{"allergies", "medicalConditions"}, strings, strings));
+
+        ApiResult<GeminiResponse> result = await(request);
+
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("/v1beta/models/gemini-2.0-flash:generateContent?key=test-key", recorded.getPath());
+        assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+        JsonObject sent = JsonParser.parseString(Okio.buffer(new GzipSource(recorded.getBody())).readUtf8()).getAsJsonObject();
+        assertEquals(SCANNED + repeat("x", 2000), sent.getAsJsonArray("contents").get(0).getAsJsonObject()
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString());
+        JsonObject config = sent.getAsJsonObject("generationConfig");
+        assertEquals("application/json", config.get("responseMimeType").getAsString());
+        assertEquals("[\"allergies\",\"medicalConditions\"]", config.getAsJsonObject("responseSchema").get("propertyOrdering").toString());
+        assertFalse("Unset fields are left out", sent.has("systemInstruction"));
+
+        assertEquals(200, result.getCode());
+        assertEquals("STOP", result.getBody().candidates.get(0).finishReason);
+        Extracted extracted = GeminiClient.parseJson(result.getBody().text(), Extracted.class);
+        assertEquals("Penicillin", extracted.allergies.get(0));
+    }
+
+    @Test
+    public void generateContent_keepsTheErrorBodyOfFailedCalls() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\": {\"status\": \"INVALID_ARGUMENT\"}}"));
+
+        ApiResult<GeminiResponse> result = await(GeminiRequest.prompt("hi"));
+
+        assertFalse(result.isSuccessful());
+        assertEquals(400, result.getCode());
+        assertEquals("{\"error\": {\"status\": \"INVALID_ARGUMENT\"}}", result.getErrorBody());
+    }
+
+    @Test
+    public void body_isWrittenAgainForEverySend() throws IOException {
+        GeminiRequest request = GeminiRequest.prompt(SCANNED);
+        Buffer first = new Buffer();
+        Buffer second = new Buffer();
+
+        GeminiClient.body(request).writeTo(first);
+        GeminiClient.body(request).writeTo(second);
+
+        assertEquals(-1, GeminiClient.body(request).contentLength());
+        assertEquals(first.readUtf8(), second.readUtf8());
+    }
+
+    @Test
+    public void response_withoutCandidatesHasNoText() {
+        assertEquals("", GeminiClient.parseEvent("{\"usageMetadata\": {\"totalTokenCount\": 3}}").text());
+        assertEquals("", GeminiClient.parseEvent("{\"candidates\": [{\"finishReason\": \"SAFETY\"}]}").text());
+    }
+
+    private ApiResult<GeminiResponse> await(GeminiRequest request) throws InterruptedException {
+        AtomicReference<ApiResult<GeminiResponse>> result = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        gemini.generateContent(request, new SingleFlight.Listener<ApiResult<GeminiResponse>>() {
+            @Override
+            public void onSuccess(ApiResult<GeminiResponse> value) {
+                result.set(value);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                failure.set(error);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        return result.get();
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+
+    private static final class Extracted {
+        List<String> allergies;
+    }
+}
@@ -0,0 +1,165 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+public class GeminiStreamTest {
+
+    // What streamGenerateContent?alt=sse sends: one GenerateContentResponse per event, the last with usage only
+    private static final String EVENTS = event("Paracetamol ")
+            + ": keep-alive comment\n\n"
+            + event("is usually taken ")
+            + event("every 4 to 6 hours.")
+            + "data: {\"usageMetadata\": {\"totalTokenCount\": 42}}\n\n";
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = HttpStack.newBuilder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void stream_deliversTextAsItArrivesAndMeasuresTimeToFirstToken() throws Exception {
+        // Trickled out like a model generating the answer: the first event arrives long before the last
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setChunkedBody(EVENTS, 32)
+                .throttleBody(64, 100, TimeUnit.MILLISECONDS));
+        Recorder recorder = new Recorder();
+
+        GeminiStream.enqueue(client, request(), recorder);
+
+        assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, recorder.texts.size());
+        assertEquals("Paracetamol ", recorder.texts.get(0));
+        assertEquals("Paracetamol is usually taken every 4 to 6 hours.", recorder.completed.get());
+        GeminiStream.Timing timing = recorder.timing.get();
+        assertEquals(4, timing.getEvents());
+        assertTrue(timing.toString(), timing.getTimeToFirstTokenMillis() >= 0);
+        assertTrue("The first words show well before the reply is done: " + timing,
+                timing.getTimeToFirstTokenMillis() + 200 < timing.getTotalMillis());
+        assertTrue(server.takeRequest().getPath().contains(":streamGenerateContent?alt=sse&key=test-key"));
+    }
+
+    @Test
+    public void stream_cancelledAfterTheFirstTokenReportsNothingMore() throws Exception {
+        server.enqueue(new MockResponse()
+                .setChunkedBody(EVENTS, 32)
+                .throttleBody(64, 200, TimeUnit.MILLISECONDS));
+        Recorder recorder = new Recorder();
+        CountDownLatch firstText = new CountDownLatch(1);
+        AtomicReference<Call> call = new AtomicReference<>();
+
+        call.set(GeminiStream.enqueue(client, request(), new GeminiStream.Listener() {
+            @Override
+            public void onText(String text) {
+                recorder.onText(text);
+                firstText.countDown();
+            }
+
+            @Override
+            public void onComplete(String text, GeminiStream.Timing timing) {
+                recorder.onComplete(text, timing);
+            }
+
+            @Override
+            public void onHttpError(int code, String errorBody) {
+                recorder.onHttpError(code, errorBody);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                recorder.onFailure(error);
+            }
+        }));
+        assertTrue(firstText.await(10, TimeUnit.SECONDS));
+        call.get().cancel(); // The user left the chat
+
+        assertFalse("Neither completion nor failure after cancelling", recorder.done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, recorder.texts.size());
+    }
+
+    @Test
+    public void stream_reportsHttpErrorsWithTheirBody() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setBody("{\"error\": {\"status\": \"RESOURCE_EXHAUSTED\"}}"));
+        Recorder recorder = new Recorder();
+
+        GeminiStream.enqueue(client, request(), recorder);
+
+        assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        assertEquals("429 {\"error\": {\"status\": \"RESOURCE_EXHAUSTED\"}}", recorder.error.get());
+        assertTrue(recorder.texts.isEmpty());
+    }
+
+    private Request request() {
+        String url = GeminiStream.streamUrl(server.url("/").toString(), "gemini-2.0-flash", "test-key");
+        return new Request.Builder()
+                .url(url)
+                .post(RequestBody.create("{\"contents\": []}", MediaType.get("application/json; charset=utf-8")))
+                .build();
+    }
+
+    private static String event(String text) {
+        return "data: {\"candidates\": [{\"content\": {\"parts\": [{\"text\": \"" + text + "\"}], \"role\": \"model\"}}]}\n\n";
+    }
+
+    private static final class Recorder implements GeminiStream.Listener {
+        final List<String> texts = Collections.synchronizedList(new ArrayList<>());
+        final AtomicReference<String> completed = new AtomicReference<>();
+        final AtomicReference<GeminiStream.Timing> timing = new AtomicReference<>();
+        final AtomicReference<String> error = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onText(String text) {
+            texts.add(text);
+        }
+
+        @Override
+        public void onComplete(String text, GeminiStream.Timing timing) {
+            completed.set(text);
+            this.timing.set(timing);
+            done.countDown();
+        }
+
+        @Override
+        public void onHttpError(int code, String errorBody) {
+            error.set(code + " " + errorBody);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            this.error.set(error.toString());
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class HttpStackTest {
+
+    private static final int REQUESTS = 10;
+
+    private MockWebServer server;
+    private HandshakeCertificates clientCertificates;
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        HeldCertificate localhost = new HeldCertificate.Builder()
+                .addSubjectAlternativeName("localhost")
+                .build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(localhost)
+                .build();
+        clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(localhost.certificate())
+                .build();
+        server = new MockWebServer();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.start();
+        HttpStack.resetPreconnects();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Compares a client per call (as the screens used to do) with the shared stack by the TLS handshakes
+     * each one makes.
+     */
+    @Test
+    public void sharedClient_handshakesOnceForManyCalls() throws IOException {
+        for (int i = 0; i < REQUESTS * 2; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+        }
+
+        for (int i = 0; i < REQUESTS; i++) {
+            execute(testClient(new OkHttpClient.Builder()), "/new-client");
+        }
+        int perCallClientHandshakes = handshakes.getAndSet(0);
+
+        OkHttpClient shared = testClient(HttpStack.newBuilder());
+        Protocol protocol = null;
+        for (int i = 0; i < REQUESTS; i++) {
+            protocol = execute(shared, "/shared");
+        }
+        int sharedHandshakes = handshakes.get();
+
+        assertEquals(REQUESTS, perCallClientHandshakes);
+        assertEquals(1, sharedHandshakes);
+        assertEquals(Protocol.HTTP_2, protocol);
+    }
+
+    @Test
+    public void preconnect_warmsTheConnectionForTheFirstCall() throws Exception {
+        // Answered by method: the warm-up is recorded before it takes a queued response, so a queue could race
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return "HEAD".equals(request.getMethod()) ? new MockResponse() : new MockResponse().setBody("ok");
+            }
+        });
+        OkHttpClient shared = testClient(HttpStack.newBuilder());
+        String baseUrl = server.url("/").toString();
+
+        HttpStack.preconnect(shared, baseUrl);
+        HttpStack.preconnect(shared, baseUrl); // Repeated screen opens do not send more warm-up requests
+        RecordedRequest warmUp = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("HEAD", warmUp.getMethod());
+        assertEquals(1, handshakes.get());
+
+        execute(shared, "/v1beta/models");
+
+        assertEquals("No new handshake after preconnect", 1, handshakes.get());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void preconnect_triesAgainAfterAFailedWarmUp() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse();
+            }
+        });
+        OkHttpClient shared = testClient(HttpStack.newBuilder());
+        // Same host, nothing listening: the warm-up fails
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        String unreachable = server.url("/").newBuilder().port(closedPort).build().toString();
+        String baseUrl = server.url("/").toString();
+
+        HttpStack.preconnect(shared, unreachable);
+        // Skipped while the failing warm-up is in flight, sent once it has failed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getRequestCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            HttpStack.preconnect(shared, baseUrl);
+        }
+        assertEquals("HEAD", server.takeRequest(5, TimeUnit.SECONDS).getMethod());
+
+        Thread.sleep(200);
+        HttpStack.preconnect(shared, baseUrl);
+        Thread.sleep(200);
+        assertEquals("Not again after a warm-up that connected", 1, server.getRequestCount());
+    }
+
+    @Test
+    public void largeRequestBodies_areGzipped() throws Exception {
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        OkHttpClient shared = testClient(HttpStack.newBuilder());
+        StringBuilder prompt = new StringBuilder("{\"contents\": [{\"parts\": [{\"text\": \"");
+        for (int i = 0; i < 200; i++) {
+            prompt.append("Patient takes warfarin and asks about ibuprofen. ");
+        }
+        prompt.append("\"}]}]}");
+        MediaType json = MediaType.get("application/json; charset=utf-8");
+
+        post(shared, RequestBody.create(prompt.toString(), json));
+        post(shared, RequestBody.create("{\"small\": true}", json));
+
+        RecordedRequest large = server.takeRequest();
+        assertEquals("gzip", large.getHeader("Content-Encoding"));
+        assertTrue(large.getBodySize() < prompt.length() / 4);
+        Buffer unzipped = new Buffer();
+        unzipped.writeAll(Okio.buffer(new GzipSource(large.getBody())));
+        assertEquals(prompt.toString(), unzipped.readUtf8());
+
+        RecordedRequest small = server.takeRequest();
+        assertNull(small.getHeader("Content-Encoding"));
+        assertEquals("{\"small\": true}", small.getBody().readUtf8());
+    }
+
+    private OkHttpClient testClient(OkHttpClient.Builder builder) {
+        return builder
+                .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager())
+                .eventListener(new EventListener() {
+                    @Override
+                    public void secureConnectEnd(Call call, Handshake handshake) {
+                        handshakes.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    private Protocol execute(OkHttpClient client, String path) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(server.url(path)).build()).execute()) {
+            assertEquals("ok", response.body().string());
+            return response.protocol();
+        }
+    }
+
+    private void post(OkHttpClient client, RequestBody body) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/generate")).post(body).build()).execute()) {
+            assertTrue(response.isSuccessful());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class InstructionCacheTest {
+
+    private static final long TTL = TimeUnit.DAYS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(20000));
+
+    @Test
+    public void key_dependsOnAgeGroupAndConditionsOnly() {
+        String key = InstructionCache.key("acetaminophen", 34, Arrays.asList("Asthma", "diabetes "));
+
+        assertEquals(key, InstructionCache.key("acetaminophen", 40, Arrays.asList("DIABETES", "asthma")));
+        assertNotEquals("Another age group", key, InstructionCache.key("acetaminophen", 70, Arrays.asList("Asthma", "Diabetes")));
+        assertNotEquals("A new condition", key, InstructionCache.key("acetaminophen", 34, Arrays.asList("Asthma", "Diabetes", "Gout")));
+        assertEquals(InstructionCache.key("ibuprofen", 0, null), InstructionCache.key("ibuprofen", 0, Collections.emptyList()));
+    }
+
+    @Test
+    public void isCommonProfile_onlyForNoneOrOneCommonCondition() {
+        assertTrue(InstructionCache.isCommonProfile(null));
+        assertTrue(InstructionCache.isCommonProfile(Collections.singletonList(" ")));
+        assertTrue(InstructionCache.isCommonProfile(Collections.singletonList("hypertension ")));
+        assertFalse("Rare", InstructionCache.isCommonProfile(Collections.singletonList("Atrial fibrillation")));
+        assertFalse("A combination", InstructionCache.isCommonProfile(Arrays.asList("Asthma", "Hypertension")));
+    }
+
+    @Test
+    public void prompt_isTheSameForEveryProfileWithTheSameKey() {
+        String prompt = InstructionCache.prompt("acetaminophen", 34, Arrays.asList("Asthma", "diabetes "));
+
+        assertEquals(prompt, InstructionCache.prompt("acetaminophen", 40, Arrays.asList("DIABETES", "asthma")));
+        assertTrue(prompt.contains("'acetaminophen'"));
+        assertTrue(prompt.contains("(adult (18-64 years)) and their medical conditions: asthma, diabetes."));
+        assertTrue(InstructionCache.prompt("ibuprofen", 0, null).contains("medical conditions: none."));
+    }
+
+    @Test
+    public void get_answersFromMemoryThenDiskUntilTheTtl() throws IOException {
+        File directory = folder.newFolder("instructions");
+        InstructionCache cache = newCache(directory, 2);
+        String key = InstructionCache.key("acetaminophen", 34, null);
+        assertNull(cache.get(key));
+        cache.put(key, "Take with water.");
+
+        assertEquals("Take with water.", cache.get(key));
+        InstructionCache restarted = newCache(directory, 2);
+        assertEquals("Take with water.", restarted.get(key));
+        assertEquals("Take with water.", restarted.get(key));
+        assertEquals(1, restarted.metrics().getDiskHits());
+        assertEquals(1, restarted.metrics().getMemoryHits());
+
+        now.addAndGet(TTL + 1);
+        assertNull("Expired in memory", restarted.get(key));
+        assertNull("And removed from disk", newCache(directory, 2).get(key));
+    }
+
+    @Test
+    public void memoryTier_evictsLeastRecentlyUsed() throws IOException {
+        InstructionCache cache = newCache(folder.newFolder("instructions"), 2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C"); // Pushes "b" out of memory
+
+        assertEquals("B", cache.get("b"));
+        assertEquals("Served from disk", 1, cache.metrics().getDiskHits());
+        assertEquals(1, cache.metrics().getMemoryHits());
+    }
+
+    @Test
+    public void repeatScans_reportTheHitRatio() throws IOException {
+        InstructionCache cache = newCache(folder.newFolder("instructions"), InstructionCache.DEFAULT_MEMORY_ENTRIES);
+        String[] scans = {"acetaminophen", "ibuprofen", "acetaminophen", "acetaminophen", "ibuprofen"};
+        for (String medicine : scans) {
+            String key = InstructionCache.key(medicine, 34, Collections.singletonList("Asthma"));
+            if (cache.get(key) == null) {
+                cache.put(key, "Instructions for " + medicine);
+            }
+        }
+
+        InstructionCache.Metrics metrics = cache.metrics();
+        assertEquals(2, metrics.getMisses());
+        assertEquals(0.6, metrics.getHitRatio(), 1e-9);
+        assertTrue(metrics.toString(), metrics.toString().contains("hit ratio 0.60"));
+    }
+
+    private InstructionCache newCache(File directory, int memoryEntries) {
+        return new InstructionCache(new DiskLruCache(directory, InstructionCache.DEFAULT_MAX_BYTES), TTL, memoryEntries, now::get);
+    }
+}
@@ -0,0 +1,229 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+public class LabelCacheTest {
+
+    private static final long TTL = TimeUnit.DAYS.toMillis(7);
+    private static final long STALE = TimeUnit.DAYS.toMillis(30);
+    private static final String TYLENOL_LABEL = "{\"results\": [{\"openfda\": {\"brand_name\": [\"Tylenol\"],"
+            + " \"generic_name\": [\"ACETAMINOPHEN\"]}, \"warnings\": [\"Not cached\"]}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(20000));
+    private final MemoryLabels localLabels = new MemoryLabels();
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void diskCache_evictsLeastRecentlyUsedAndSurvivesReopening() throws IOException {
+        File directory = folder.newFolder("labels");
+        DiskLruCache disk = new DiskLruCache(directory, 300);
+        disk.put("paracetamol", new byte[100]);
+        disk.put("ibuprofen", new byte[100]);
+        disk.put("warfarin", new byte[100]);
+        assertNotNull(disk.get("paracetamol")); // Now the most recently used
+
+        disk.put("aspirin", new byte[100]);
+
+        assertNull("Least recently used entry is evicted", disk.get("ibuprofen"));
+        assertNotNull(disk.get("paracetamol"));
+        assertEquals(300, disk.size());
+
+        DiskLruCache reopened = new DiskLruCache(directory, 300);
+        assertEquals(3, reopened.entryCount());
+        assertArrayEquals(new byte[100], reopened.get("warfarin"));
+        reopened.put("warfarin", "smaller".getBytes(StandardCharsets.UTF_8));
+        assertEquals(207, reopened.size());
+    }
+
+    @Test
+    public void entries_areFreshThenStaleThenGone() throws IOException {
+        LabelCache cache = newCache(folder.newFolder("labels"));
+        OpenFDAResponse labels = new OpenFDAResponse();
+        labels.results = new ArrayList<>();
+        labels.results.add(new Result());
+        cache.put("paracetamol", ApiResult.success(200, labels));
+        cache.put("unknown drug", ApiResult.error(404, "{\"error\": \"NOT_FOUND\"}"));
+        cache.put("ibuprofen", ApiResult.error(500, "Server error")); // Never cached
+
+        LabelCache.Entry fresh = cache.get("paracetamol");
+        assertFalse(fresh.isStale());
+        assertEquals(1, fresh.getResult().getBody().results.size());
+        assertEquals(404, cache.get("unknown drug").getResult().getCode());
+        assertNull(cache.get("ibuprofen"));
+
+        now.addAndGet(TTL + 1);
+        assertTrue(cache.get("paracetamol").isStale());
+
+        now.addAndGet(STALE);
+        assertNull(cache.get("paracetamol"));
+    }
+
+    @Test
+    public void repository_servesFromDiskAndRevalidatesStaleEntries() throws Exception {
+        server.enqueue(new MockResponse().setBody(TYLENOL_LABEL));
+        server.enqueue(new MockResponse().setBody(TYLENOL_LABEL));
+        File directory = folder.newFolder("labels");
+        LabelRepository repository = newRepository(directory);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        // First view: network, then cached under the canonical name
+        loadAndWait(repository, "paracetamol", "Tylenol", events);
+        assertEquals(1, server.getRequestCount());
+        assertEquals("network 1", events.get(0));
+
+        // Another name of the same drug, in a new process: disk only
+        LabelRepository restarted = newRepository(directory);
+        assertNull(restarted.load("paracetamol", "Paracetamol", record(events, "disk")));
+        assertEquals("disk 1", events.get(1));
+        assertEquals(1, server.getRequestCount());
+
+        // Past the TTL: shown at once from disk, refreshed in the background
+        now.addAndGet(TTL + 1);
+        assertNull(restarted.load("paracetamol", "Paracetamol", record(events, "stale")));
+        assertEquals("stale 1", events.get(2));
+        assertEquals("/drug/label.json?search=(openfda.brand_name:%22tylenol%22+OR+openfda.generic_name:tylenol)&limit=1",
+                server.takeRequest().getPath());
+        assertEquals("/drug/label.json?search=(openfda.brand_name:%22paracetamol%22+OR+openfda.generic_name:paracetamol)&limit=1",
+                server.takeRequest(5, TimeUnit.SECONDS).getPath());
+        for (int i = 0; i < 50 && restarted.peek("paracetamol", "Paracetamol").isStale(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse("Refresh rewrote the entry", restarted.peek("paracetamol", "Paracetamol").isStale());
+        assertNull(restarted.peek("paracetamol", "Paracetamol").getResult().getBody().results.get(0).warnings);
+    }
+
+    @Test
+    public void repository_answersOfflineFromTheLocalStore() throws Exception {
+        server.enqueue(new MockResponse().setBody(TYLENOL_LABEL));
+        LabelRepository repository = newRepository(folder.newFolder("labels"));
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        loadAndWait(repository, "paracetamol", "Tylenol", events);
+        assertEquals("Network answers are added to the store", 1, localLabels.labels.size());
+
+        // A new install with an empty answer cache, offline: the store knows the drug by its generic name
+        server.shutdown();
+        LabelRepository offline = newRepository(folder.newFolder("fresh-cache"));
+        assertNull(offline.load("acetaminophen", "Acetaminophen", record(events, "store")));
+        assertEquals("store 1", events.get(1));
+        assertTrue("Store answers are topped up when online", offline.peek("acetaminophen", "Acetaminophen").isStale());
+        assertNull(offline.peek("aspirin", "Aspirin"));
+    }
+
+    @Test
+    public void refreshAll_batchesStaleMedicinesAndSkipsFreshOnes() throws Exception {
+        server.enqueue(new MockResponse().setBody(TYLENOL_LABEL)); // Batch: only Tylenol matches
+        server.enqueue(new MockResponse().setResponseCode(404).setBody("{\"error\": \"NOT_FOUND\"}"));
+        LabelRepository repository = newRepository(folder.newFolder("labels"));
+        Map<String, String> medicines = new LinkedHashMap<>();
+        medicines.put("paracetamol", "Tylenol");
+        medicines.put("unknown drug", "Zzyzx");
+
+        assertEquals("One batch, one follow-up for the unmatched name", 2, repository.refreshAll(medicines));
+        String batchPath = server.takeRequest().getPath();
+        assertTrue(batchPath, batchPath.contains("Tylenol") && batchPath.contains("Zzyzx"));
+        assertFalse(repository.peek("paracetamol", "Tylenol").isStale());
+        assertEquals(404, repository.peek("unknown drug", "Zzyzx").getResult().getCode());
+
+        assertEquals("Fresh entries are not fetched again", 0, repository.refreshAll(medicines));
+        now.addAndGet(TTL + 1);
+        server.enqueue(new MockResponse().setBody(TYLENOL_LABEL));
+        server.enqueue(new MockResponse().setResponseCode(404));
+        assertEquals(2, repository.refreshAll(medicines));
+    }
+
+    private LabelCache newCache(File directory) {
+        return new LabelCache(new DiskLruCache(directory, LabelCache.DEFAULT_MAX_BYTES), TTL, STALE, now::get);
+    }
+
+    private LabelRepository newRepository(File directory) {
+        return new LabelRepository(newCache(directory), localLabels, OpenFDAClient.createService(server.url("/").toString(),
+                new OkHttpClient(), OpenFDATypeAdapterFactory.namesOnly()));
+    }
+
+    private static void loadAndWait(LabelRepository repository, String key, String name, List<String> events)
+            throws InterruptedException {
+        int before = events.size();
+        assertNotNull(repository.load(key, name, record(events, "network")));
+        for (int i = 0; i < 250 && events.size() == before; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static LabelRepository.Listener record(List<String> events, String source) {
+        return new LabelRepository.Listener() {
+            @Override
+            public void onLabels(ApiResult<OpenFDAResponse> labels, boolean stale) {
+                events.add(source + " " + labels.getBody().results.size());
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                events.add(source + " failed: " + error);
+            }
+        };
+    }
+
+    /**
+     * Stands in for the SQLite store (covered by the instrumented tests): matches whole names only.
+     */
+    private static final class MemoryLabels implements LabelRepository.LocalLabels {
+        final List<Result> labels = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<Result> findByName(String medicineName, int limit) {
+            List<Result> found = new ArrayList<>();
+            for (Result label : labels) {
+                List<String> names = new ArrayList<>(label.openfda.brandName);
+                names.addAll(label.openfda.genericName);
+                for (String name : names) {
+                    if (name.equalsIgnoreCase(medicineName) && found.size() < limit) {
+                        found.add(label);
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public void putAll(Collection<Result> results) {
+            labels.addAll(results);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+import static org.junit.Assert.*;
+
+public class OpenFDAServiceTest {
+
+    private static final String LABEL_RESPONSE = "{\"meta\": {\"results\": {\"skip\": 0, \"limit\": 1, \"total\": 12}},"
+            + " \"results\": [{"
+            + "   \"boxed_warning\": [\"Never read.\"],"
+            + "   \"openfda\": {\"brand_name\": [\"Tylenol\"], \"generic_name\": [\"ACETAMINOPHEN\"], \"route\": \"ORAL\","
+            + "                \"package_ndc\": [\"50580-449-10\"], \"is_original_packager\": [true]},"
+            + "   \"indications_and_usage\": [\"Uses: minor aches and pains\"],"
+            + "   \"warnings\": [\"Liver warning\", null],"
+            + "   \"spl_product_data_elements\": [{\"nested\": [1, 2.5, false]}]"
+            + " }]}";
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void searchDrugLabel_sendsPreEncodedQueryAndReadsModeledFields() throws Exception {
+        server.enqueue(new MockResponse().setBody(LABEL_RESPONSE));
+        OpenFDAService service = OpenFDAClient.createService(server.url("/").toString(), client,
+                OpenFDATypeAdapterFactory.allModeledFields());
+
+        Response<OpenFDAResponse> response = service.searchDrugLabel(OpenFDAClient.brandOrGenericNameQuery("Tylenol 500"), 1).execute();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/drug/label.json?search=(openfda.brand_name:%22Tylenol+500%22+OR+openfda.generic_name:Tylenol+500)&limit=1",
+                request.getPath());
+        Result result = response.body().results.get(0);
+        assertEquals("Tylenol", result.openfda.brandName.get(0));
+        assertEquals("ACETAMINOPHEN", result.openfda.genericName.get(0));
+        assertEquals("ORAL", result.openfda.route.get(0)); // Bare string read as a one-element list
+        assertEquals("Uses: minor aches and pains", result.indicationsAndUsage.get(0));
+        assertEquals(1, result.warnings.size());
+    }
+
+    @Test
+    public void enqueuedCalls_callBackOffTheCallersThread() throws Exception {
+        server.enqueue(new MockResponse().setBody(LABEL_RESPONSE));
+        OpenFDAService service = OpenFDAClient.createService(server.url("/").toString(), client,
+                OpenFDATypeAdapterFactory.namesOnly());
+        AtomicReference<String> callbackThread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        ApiResult.loader(service.searchDrugLabel("openfda.brand_name:Tylenol", 1)).load(
+                new SingleFlight.Listener<ApiResult<OpenFDAResponse>>() {
+                    @Override
+                    public void onSuccess(ApiResult<OpenFDAResponse> labels) {
+                        callbackThread.set(Thread.currentThread().getName());
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // Retrofit's Android default would be the main thread, where the answers' cache writes do not belong
+        assertEquals("OpenFDA callbacks", callbackThread.get());
+    }
+
+    @Test
+    public void namesOnly_skipsLabelText() throws Exception {
+        server.enqueue(new MockResponse().setBody(LABEL_RESPONSE));
+        OpenFDAService service = OpenFDAClient.createService(server.url("/").toString(), client,
+                OpenFDATypeAdapterFactory.namesOnly());
+
+        Result result = service.searchDrugLabel("openfda.brand_name:Tylenol", 1).execute().body().results.get(0);
+
+        assertEquals("Tylenol", result.openfda.brandName.get(0));
+        assertNull(result.indicationsAndUsage);
+        assertNull(result.warnings);
+    }
+
+    @Test
+    public void notFound_isAnUnsuccessfulResponse() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404)
+                .setBody("{\"error\": {\"code\": \"NOT_FOUND\", \"message\": \"No matches found!\"}}"));
+        OpenFDAService service = OpenFDAClient.createService(server.url("/").toString(), client,
+                OpenFDATypeAdapterFactory.namesOnly());
+
+        Response<OpenFDAResponse> response = service.searchDrugLabel("openfda.brand_name:Nothing", 1).execute();
+
+        assertFalse(response.isSuccessful());
+        assertEquals(404, response.code());
+    }
+
+    @Test
+    public void batch_looksUpAllMedicinesInOneRequestAndSplitsTheLabels() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"results\": ["
+                + "{\"openfda\": {\"brand_name\": [\"Tylenol Extra Strength\"], \"generic_name\": [\"ACETAMINOPHEN\"]}},"
+                + "{\"openfda\": {\"brand_name\": [\"Advil\"], \"generic_name\": [\"IBUPROFEN\"]}},"
+                + "{\"openfda\": {\"brand_name\": [\"Duexis\"], \"generic_name\": [\"IBUPROFEN AND FAMOTIDINE\"]}},"
+                + "{\"openfda\": {\"brand_name\": [\"Advilon\"], \"generic_name\": [\"SOMETHING ELSE\"]}},"
+                + "{\"indications_and_usage\": [\"No openfda section\"]}"
+                + "]}"));
+        OpenFDAService service = OpenFDAClient.createService(server.url("/").toString(), client,
+                OpenFDATypeAdapterFactory.namesOnly());
+        List<OpenFDABatch> batches = OpenFDABatch.of(Arrays.asList("Tylenol", "Ibuprofen", "advil", "ADVIL", " ", "Zyrtec"));
+        assertEquals(1, batches.size());
+        OpenFDABatch batch = batches.get(0);
+
+        Response<OpenFDAResponse> response = service.searchDrugLabel(batch.query(), batch.limit()).execute();
+
+        assertEquals("/drug/label.json?search=((openfda.brand_name:%22Tylenol%22+OR+openfda.generic_name:Tylenol)"
+                        + "+OR+(openfda.brand_name:%22Ibuprofen%22+OR+openfda.generic_name:Ibuprofen)"
+                        + "+OR+(openfda.brand_name:%22advil%22+OR+openfda.generic_name:advil)"
+                        + "+OR+(openfda.brand_name:%22Zyrtec%22+OR+openfda.generic_name:Zyrtec))&limit=20",
+                server.takeRequest().getPath());
+        Map<String, List<Result>> byName = batch.split(response.body().results);
+        assertEquals(Arrays.asList("Tylenol", "Ibuprofen", "advil", "Zyrtec"), new ArrayList<>(byName.keySet()));
+        assertEquals(1, byName.get("Tylenol").size());
+        assertEquals(2, byName.get("Ibuprofen").size()); // The combination product mentions it too
+        assertEquals(1, byName.get("advil").size()); // Whole words only, so not "Advilon"
+        assertTrue(byName.get("Zyrtec").isEmpty());
+    }
+
+    @Test
+    public void batch_splitsLongMedicationListsIntoSeveralQueries() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < OpenFDABatch.MAX_NAMES_PER_QUERY + 5; i++) {
+            names.add("Medicine" + i);
+        }
+
+        List<OpenFDABatch> batches = OpenFDABatch.of(names);
+
+        assertEquals(2, batches.size());
+        assertEquals(OpenFDABatch.MAX_NAMES_PER_QUERY, batches.get(0).getNames().size());
+        assertEquals(Arrays.asList("Medicine20", "Medicine21", "Medicine22", "Medicine23", "Medicine24"),
+                batches.get(1).getNames());
+        assertEquals(5 * OpenFDABatch.LABELS_PER_NAME, batches.get(1).limit());
+    }
+}
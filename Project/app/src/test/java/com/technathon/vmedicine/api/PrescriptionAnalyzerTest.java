@@ -0,0 +1,309 @@
+package com.technathon.vmedicine.api;
+
+import com.google.gson.Gson;
+import com.technathon.vmedicine.data.ExtractedPrescription;
+import com.technathon.vmedicine.data.PrescriptionCorpus;
+import com.technathon.vmedicine.data.PrescriptionExtractor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PrescriptionAnalyzerTest {
+
+    private static final PrescriptionCorpus.Case STRUCTURED = PrescriptionCorpus.CASES.get(0);
+    private static final PrescriptionCorpus.Case NARRATIVE = PrescriptionCorpus.CASES.get(3);
+
+    private MockWebServer server;
+    private PrescriptionAnalyzer analyzer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        OkHttpClient client = HttpStack.newBuilder().build();
+        analyzer = new PrescriptionAnalyzer(new GeminiClient(client, server.url("/").toString(), GeminiClient.DEFAULT_MODEL, "test-key"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void analyze_answersOnTheDeviceWhenConfident() throws Exception {
+        Outcome outcome = new Outcome();
+
+        assertNull(analyzer.analyze(STRUCTURED.text, outcome));
+
+        assertEquals("Answered before analyze returned", 0, outcome.done.getCount());
+        assertEquals(PrescriptionAnalyzer.Source.ON_DEVICE, outcome.source.get());
+        assertEquals(Arrays.asList("Penicillin", "Sulfa drugs"), outcome.prescription.get().getAllergies());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void analyze_asksGeminiWhenUnsure() throws Exception {
+        server.enqueue(new MockResponse().setBody(answer(
+                "{\"allergies\": [\"Codeine\"], \"currentMedications\": [\"Furosemide 40 mg\"], \"medicalConditions\": [\"COPD\"]}")));
+        Outcome outcome = new Outcome();
+
+        assertNotNull(analyzer.analyze(NARRATIVE.text, outcome));
+
+        outcome.await();
+        assertEquals("The device's reading is offered meanwhile",
+                Collections.singletonList("Codeine"), outcome.onDevice.get().getAllergies());
+        assertEquals(PrescriptionAnalyzer.Source.GEMINI, outcome.source.get());
+        assertEquals(Collections.singletonList("Furosemide 40 mg"), outcome.prescription.get().getCurrentMedications());
+        String sent = Okio.buffer(new GzipSource(server.takeRequest().getBody())).readUtf8();
+        assertTrue(sent.contains("allergic to codeine"));
+    }
+
+    @Test
+    public void analyze_fallsBackToTheDeviceWhenGeminiFails() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("{\"error\": {\"status\": \"UNAVAILABLE\"}}"));
+        Outcome outcome = new Outcome();
+
+        analyzer.analyze(NARRATIVE.text, outcome);
+
+        outcome.await();
+        assertTrue(outcome.error.get().getMessage(), outcome.error.get().getMessage().startsWith("HTTP 503"));
+        assertEquals(Collections.singletonList("Codeine"), outcome.fallback.get().getAllergies());
+    }
+
+    @Test
+    public void extractWithGemini_failsOnAnswersThatAreNotTheRequestedJson() throws Exception {
+        server.enqueue(new MockResponse().setBody(answer("Allergies: codeine")));
+        Outcome outcome = new Outcome();
+
+        analyzer.extractWithGemini(NARRATIVE.text, outcome.asGeminiListener());
+
+        outcome.await();
+        assertNotNull(outcome.error.get());
+    }
+
+    @Test
+    public void chunks_groupWholeBlocksUpToTheChunkSize() {
+        assertEquals(Arrays.asList("aaaa\nbbbb", "cccccccccccc", "dd"),
+                PrescriptionAnalyzer.chunks(Arrays.asList("aaaa", "bbbb", "cccccccccccc", "dd"), 10));
+        assertEquals(Collections.emptyList(), PrescriptionAnalyzer.chunks(Collections.emptyList(), 10));
+    }
+
+    @Test
+    public void analyzeBlocks_leavesShortTextWhole() throws Exception {
+        server.enqueue(new MockResponse().setBody(answer("{\"allergies\": [\"Codeine\"]}")));
+        Outcome outcome = new Outcome();
+
+        analyzer.analyzeBlocks(Arrays.asList(NARRATIVE.text.split("\n")), outcome);
+
+        outcome.await();
+        assertEquals(1, server.getRequestCount());
+        assertTrue(gunzip(server.takeRequest()).contains("Stop ibuprofen."));
+    }
+
+    @Test
+    public void analyzeBlocks_asksAboutChunksInParallelAndMergesTheAnswers() throws Exception {
+        PagedGemini gemini = new PagedGemini(-1);
+        server.setDispatcher(gemini);
+        Outcome outcome = new Outcome();
+
+        assertNotNull(analyzer.analyzeBlocks(pages(6), 200, 2, outcome));
+        outcome.await();
+
+        assertEquals(6, server.getRequestCount());
+        assertEquals("In flight at most", 2, gemini.maxInFlight.get());
+        assertEquals(PrescriptionAnalyzer.Source.GEMINI, outcome.source.get());
+        ExtractedPrescription merged = outcome.prescription.get();
+        assertEquals(Collections.singletonList("Codeine"), merged.getAllergies());
+        assertEquals(Arrays.asList("Drug1 10 mg", "Drug2 10 mg", "Drug3 10 mg", "Drug4 10 mg", "Drug5 10 mg", "Drug6 10 mg"),
+                merged.getCurrentMedications());
+        assertEquals(Collections.singletonList("Congestive heart failure"), merged.getMedicalConditions());
+    }
+
+    @Test
+    public void analyzeBlocks_keepsTheDeviceReadingOfAChunkGeminiFailedOn() throws Exception {
+        server.setDispatcher(new PagedGemini(2));
+        Outcome outcome = new Outcome();
+
+        analyzer.analyzeBlocks(pages(3), 200, 3, outcome);
+
+        outcome.await();
+        assertTrue(outcome.error.get().getMessage(), outcome.error.get().getMessage().startsWith("HTTP 503"));
+        assertEquals("The other chunks' answers are kept",
+                Arrays.asList("Drug1 10 mg", "Drug3 10 mg"), outcome.fallback.get().getCurrentMedications());
+        assertEquals(Collections.singletonList("Codeine"), outcome.fallback.get().getAllergies());
+    }
+
+    @Test
+    public void analyzeBlocks_startsNoMoreChunksAndReportsNothingOnceCancelled() throws Exception {
+        server.setDispatcher(new PagedGemini(-1));
+        for (int pages = 2; pages <= 3; pages++) { // All chunks in flight when cancelled, then one still to start
+            Outcome outcome = new Outcome();
+            int requests = server.getRequestCount();
+
+            SingleFlight.Cancellable call = analyzer.analyzeBlocks(pages(pages), 200, 2, outcome);
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            call.cancel();
+
+            assertFalse("Reported after cancel", outcome.done.await(1, TimeUnit.SECONDS));
+            assertEquals("Started after cancel", requests + 2, server.getRequestCount());
+        }
+    }
+
+    /**
+     * Pages of a discharge summary written as prose, each a block the device is not confident about.
+     */
+    private static List<String> pages(int count) {
+        List<String> pages = new ArrayList<>();
+        for (int page = 1; page <= count; page++) {
+            pages.add("Page " + page + ". He was treated with IV antibiotics and nebulisers and improved steadily.\n"
+                    + "He reports he is allergic to codeine which causes vomiting.");
+        }
+        return pages;
+    }
+
+    private static String gunzip(RecordedRequest request) throws IOException {
+        return Okio.buffer(new GzipSource(request.getBody())).readUtf8();
+    }
+
+    /**
+     * Answers each page after a delay with the same allergy and the same condition, each written two ways, and
+     * a medication of its own, and counts the requests in flight. Fails the given page with a 503.
+     */
+    private static final class PagedGemini extends Dispatcher {
+        private static final Pattern PAGE = Pattern.compile("Page (\\d+)\\.");
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final int failingPage;
+
+        PagedGemini(int failingPage) {
+            this.failingPage = failingPage;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(300);
+                Matcher page;
+                try {
+                    page = PAGE.matcher(gunzip(request));
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+                assertTrue(page.find());
+                int number = Integer.parseInt(page.group(1));
+                if (number == failingPage) {
+                    return new MockResponse().setResponseCode(503).setBody("{\"error\": {\"status\": \"UNAVAILABLE\"}}");
+                }
+                return new MockResponse().setBody(answer("{\"allergies\": [\"" + (number % 2 == 0 ? "codeine " : "Codeine")
+                        + "\"], \"currentMedications\": [\"Drug"
+                        + number + " 10 mg\"], \"medicalConditions\": [\"" + (number % 2 == 0 ? "Congestive heart failure" : "heart failure") + "\"]}"));
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Accuracy of both paths over the labeled corpus, against the live Gemini API. Runs only with
+     * GEMINI_API_KEY set; handing the unsure prescriptions to Gemini must not make the answers worse.
+     */
+    @Test
+    public void corpus_onDeviceAndGeminiPaths() throws Exception {
+        String apiKey = System.getenv("GEMINI_API_KEY");
+        assumeTrue("GEMINI_API_KEY not set", apiKey != null && !apiKey.isEmpty());
+        PrescriptionAnalyzer live = new PrescriptionAnalyzer(new GeminiClient(HttpStack.newBuilder().build(), apiKey));
+        PrescriptionCorpus.Report onDevice = new PrescriptionCorpus.Report();
+        PrescriptionCorpus.Report combined = new PrescriptionCorpus.Report();
+        for (PrescriptionCorpus.Case labeled : PrescriptionCorpus.CASES) {
+            PrescriptionExtractor.Extraction extraction = PrescriptionExtractor.extract(labeled.text);
+            onDevice.add(labeled, extraction.getPrescription());
+
+            Outcome outcome = new Outcome();
+            live.extractWithGemini(labeled.text, outcome.asGeminiListener());
+            outcome.await();
+            assertNull(labeled.name + ": " + outcome.error.get(), outcome.error.get());
+            combined.add(labeled, extraction.isConfident() ? extraction.getPrescription() : outcome.prescription.get());
+        }
+
+        assertTrue(combined.misses.toString(), combined.overall.f1() >= onDevice.overall.f1());
+    }
+
+    private static String answer(String text) {
+        return "{\"candidates\": [{\"content\": {\"role\": \"model\", \"parts\": [{\"text\": "
+                + new Gson().toJson(text) + "}]},"
+                + " \"finishReason\": \"STOP\"}]}";
+    }
+
+    private static final class Outcome implements PrescriptionAnalyzer.Listener {
+        final AtomicReference<ExtractedPrescription> onDevice = new AtomicReference<>();
+        final AtomicReference<ExtractedPrescription> prescription = new AtomicReference<>();
+        final AtomicReference<PrescriptionAnalyzer.Source> source = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicReference<ExtractedPrescription> fallback = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onAskingGemini(ExtractedPrescription onDevice) {
+            this.onDevice.set(onDevice);
+        }
+
+        @Override
+        public void onExtracted(ExtractedPrescription prescription, PrescriptionAnalyzer.Source source) {
+            this.prescription.set(prescription);
+            this.source.set(source);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable error, ExtractedPrescription onDevice) {
+            this.error.set(error);
+            this.fallback.set(onDevice);
+            done.countDown();
+        }
+
+        SingleFlight.Listener<ExtractedPrescription> asGeminiListener() {
+            return new SingleFlight.Listener<ExtractedPrescription>() {
+                @Override
+                public void onSuccess(ExtractedPrescription value) {
+                    onExtracted(value, PrescriptionAnalyzer.Source.GEMINI);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    Outcome.this.onFailure(error, null);
+                }
+            };
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        }
+    }
+}
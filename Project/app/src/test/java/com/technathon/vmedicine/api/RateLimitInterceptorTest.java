@@ -0,0 +1,224 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import static org.junit.Assert.*;
+
+public class RateLimitInterceptorTest {
+
+    private static final String LABEL = "{\"results\": [{\"openfda\": {\"brand_name\": [\"Tylenol\"]}}]}";
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void throttlingServer_everyLookupSucceedsByHonoringRetryAfter() throws Exception {
+        ThrottlingDispatcher throttling = new ThrottlingDispatcher(3);
+        server.setDispatcher(throttling);
+        // The client-side limit is too generous on purpose, so the server has to push back
+        OpenFDAService service = service(limiter(100, 100), 3, 100);
+        int lookups = 8;
+        List<Integer> codes = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(lookups);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            service.searchDrugLabel("openfda.brand_name:Drug" + i, 1).enqueue(collect(codes, done));
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        for (int code : codes) {
+            assertEquals(200, code);
+        }
+        assertTrue(throttling.throttled.get() > 0);
+        assertTrue("Waited for Retry-After", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void throttledWithoutRetryAfter_backsOffExponentially() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse().setBody(LABEL));
+        OpenFDAService service = service(limiter(100, 100), 3, 200);
+
+        long start = System.nanoTime();
+        Response<OpenFDAResponse> response = service.searchDrugLabel("openfda.brand_name:Tylenol", 1).execute();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(response.isSuccessful());
+        assertEquals(3, server.getRequestCount());
+        assertTrue("At least half of 200 ms, then half of 400 ms", elapsedMillis >= 300);
+    }
+
+    @Test
+    public void stillThrottledAfterMaxRetries_returnsThe429() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(429).setBody("{\"error\": \"slow down\"}"));
+        }
+        OpenFDAService service = service(limiter(100, 100), 2, 10);
+
+        Response<OpenFDAResponse> response = service.searchDrugLabel("openfda.brand_name:Tylenol", 1).execute();
+
+        assertEquals(429, response.code());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void interactiveLookups_jumpAheadOfWaitingBackgroundWork() throws Exception {
+        server.setDispatcher(new ThrottlingDispatcher(1000));
+        // One permit, then one every 300 ms
+        OpenFDAService service = service(new RateLimiter(new TokenBucket(1, 1, TimeUnit.MILLISECONDS.toNanos(300), System::nanoTime)), 0, 10);
+        assertTrue(service.searchDrugLabel("first", 1).execute().isSuccessful());
+        List<Integer> codes = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+
+        for (int i = 0; i < 3; i++) {
+            service.searchDrugLabel("background" + i, 1, RequestPriority.BACKGROUND).enqueue(collect(codes, done));
+        }
+        Thread.sleep(100); // The background lookups are queued at the limiter by now
+        service.searchDrugLabel("interactive", 1, RequestPriority.INTERACTIVE).enqueue(collect(codes, done));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertTrue(server.takeRequest().getPath().contains("first"));
+        assertTrue(server.takeRequest().getPath().contains("interactive"));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(server.takeRequest().getPath().contains("background"));
+        }
+    }
+
+    @Test
+    public void usedUpQuota_failsFastInsteadOfBlocking() throws Exception {
+        server.setDispatcher(new ThrottlingDispatcher(1000));
+        OpenFDAService service = service(limiter(100, 1), 0, 10);
+        assertTrue(service.searchDrugLabel("first", 1).execute().isSuccessful());
+
+        long start = System.nanoTime();
+        try {
+            service.searchDrugLabel("second", 1).execute();
+            fail("Daily quota is used up");
+        } catch (RateLimitedException e) {
+            assertTrue(e.getRetryAfterMillis() > TimeUnit.HOURS.toMillis(1));
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1000);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void backoff_isJitteredAndCapped() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(limiter(1, 1), 3, 1000, 30_000, new Random(7));
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long exponential = Math.min(30_000, 1000L << attempt);
+            long delay = interceptor.backoffMillis(attempt);
+            assertTrue(delay >= exponential / 2 && delay <= exponential);
+        }
+        assertNotEquals(interceptor.backoffMillis(3), interceptor.backoffMillis(3));
+    }
+
+    @Test
+    public void tokenBucket_refillsContinuouslyUpToCapacity() {
+        AtomicLong now = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(2, 4, TimeUnit.SECONDS.toNanos(1), now::get);
+        bucket.take();
+        bucket.take();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), bucket.nanosUntilAvailable());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(0, bucket.nanosUntilAvailable());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, bucket.nanosUntilAvailable());
+            bucket.take();
+        }
+        assertTrue("Never more than the capacity", bucket.nanosUntilAvailable() > 0);
+    }
+
+    private OpenFDAService service(RateLimiter limiter, int maxRetries, long baseBackoffMillis) {
+        return OpenFDAClient.createService(server.url("/").toString(), new OkHttpClient(),
+                OpenFDATypeAdapterFactory.namesOnly(),
+                new RateLimitInterceptor(limiter, maxRetries, baseBackoffMillis, 10_000, new Random(42)));
+    }
+
+    private static RateLimiter limiter(int perMinute, int perDay) {
+        return RateLimiter.perMinuteAndDay(perMinute, perDay);
+    }
+
+    private static Callback<OpenFDAResponse> collect(List<Integer> codes, CountDownLatch done) {
+        return new Callback<OpenFDAResponse>() {
+            @Override
+            public void onResponse(Call<OpenFDAResponse> call, Response<OpenFDAResponse> response) {
+                synchronized (codes) {
+                    codes.add(response.code());
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Call<OpenFDAResponse> call, Throwable t) {
+                synchronized (codes) {
+                    codes.add(-1);
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    /**
+     * Stub server with a fixed-window quota: beyond it, 429 with Retry-After up to the next window.
+     */
+    private static final class ThrottlingDispatcher extends Dispatcher {
+        final AtomicInteger throttled = new AtomicInteger();
+        private final int perSecond;
+        private long windowStart = System.currentTimeMillis();
+        private int inWindow;
+
+        ThrottlingDispatcher(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000) {
+                windowStart = now;
+                inWindow = 0;
+            }
+            if (++inWindow > perSecond) {
+                throttled.incrementAndGet();
+                return new MockResponse().setResponseCode(429).setHeader("Retry-After", "1")
+                        .setBody("{\"error\": {\"code\": \"OVER_RATE_LIMIT\"}}");
+            }
+            return new MockResponse().setBody(LABEL);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.technathon.vmedicine.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentCallersForOneKey_shareOneCall() throws Exception {
+        SingleFlight<ApiResult<String>> group = new SingleFlight<>("test");
+        // Answered by search term: the two loads race, so a queue could hand either one the "label" response
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return request.getPath().contains("tylenol")
+                        ? new MockResponse().setBody("label").setBodyDelay(200, TimeUnit.MILLISECONDS)
+                        : new MockResponse().setBody("other");
+            }
+        });
+        OkHttpClient client = new OkHttpClient();
+        Request request = new Request.Builder().url(server.url("/drug/label.json?search=tylenol")).build();
+        Request otherRequest = new Request.Builder().url(server.url("/drug/label.json?search=advil")).build();
+        List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(6);
+
+        for (int i = 0; i < 5; i++) {
+            group.execute("tylenol", ApiResult.loader(client, request), collect(bodies, done));
+        }
+        group.execute("advil", ApiResult.loader(client, otherRequest), collect(bodies, done));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(5, Collections.frequency(bodies, "label"));
+        assertEquals(1, Collections.frequency(bodies, "other"));
+        SingleFlight.Metrics metrics = group.metrics();
+        assertEquals(6, metrics.getRequests());
+        assertEquals(2, metrics.getLoads());
+        assertEquals(4, metrics.getCoalesced());
+    }
+
+    @Test
+    public void finishedCalls_areNotReused() {
+        SingleFlight<String> group = new SingleFlight<>("test");
+        AtomicInteger loads = new AtomicInteger();
+        SingleFlight.Loader<String> immediate = listener -> {
+            listener.onSuccess("value " + loads.incrementAndGet());
+            return () -> { };
+        };
+        List<String> values = new ArrayList<>();
+
+        group.execute("key", immediate, collect(values, new CountDownLatch(2)));
+        group.execute("key", immediate, collect(values, new CountDownLatch(2)));
+
+        assertEquals(2, loads.get());
+        assertEquals(List.of("value 1", "value 2"), values);
+    }
+
+    @Test
+    public void cancellingOneTicket_keepsTheCallForTheOthers() {
+        SingleFlight<String> group = new SingleFlight<>("test");
+        ManualLoader loader = new ManualLoader();
+        List<String> values = new ArrayList<>();
+
+        SingleFlight<String>.Ticket superseded = group.execute("key", loader, collect(values, new CountDownLatch(2)));
+        group.execute("key", loader, collect(values, new CountDownLatch(2)));
+        superseded.cancel();
+        loader.listener.onSuccess("value");
+
+        assertEquals(1, loader.started);
+        assertFalse(loader.cancelled);
+        assertEquals(List.of("value"), values);
+        assertEquals(0, group.metrics().getCancelledLoads());
+    }
+
+    @Test
+    public void cancellingEveryTicket_cancelsTheCall() {
+        SingleFlight<String> group = new SingleFlight<>("test");
+        ManualLoader loader = new ManualLoader();
+        List<String> values = new ArrayList<>();
+
+        SingleFlight<String>.Ticket first = group.execute("key", loader, collect(values, new CountDownLatch(2)));
+        SingleFlight<String>.Ticket second = group.execute("key", loader, collect(values, new CountDownLatch(2)));
+        first.cancel();
+        second.cancel();
+        loader.listener.onFailure(new IOException("Canceled")); // What OkHttp reports for a cancelled call
+
+        assertTrue(loader.cancelled);
+        assertTrue(values.isEmpty());
+        assertEquals(1, group.metrics().getCancelledLoads());
+
+        // The next caller starts a fresh call instead of joining the cancelled one
+        group.execute("key", loader, collect(values, new CountDownLatch(1)));
+        assertEquals(2, loader.started);
+    }
+
+    @Test
+    public void cancelledHttpCall_neverReachesTheCaller() throws Exception {
+        SingleFlight<ApiResult<String>> group = new SingleFlight<>("test");
+        server.enqueue(new MockResponse().setBody("late").setHeadersDelay(2, TimeUnit.SECONDS));
+        Request request = new Request.Builder().url(server.url("/slow")).build();
+        List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+
+        SingleFlight<ApiResult<String>>.Ticket ticket = group.execute("slow",
+                ApiResult.loader(new OkHttpClient(), request), collect(bodies, new CountDownLatch(1)));
+        server.takeRequest(5, TimeUnit.SECONDS);
+        ticket.cancel();
+        Thread.sleep(100);
+
+        assertTrue(bodies.isEmpty());
+        assertEquals(1, group.metrics().getCancelledLoads());
+    }
+
+    private static <V> SingleFlight.Listener<V> collect(List<String> values, CountDownLatch done) {
+        return new SingleFlight.Listener<V>() {
+            @Override
+            public void onSuccess(V value) {
+                values.add(value instanceof ApiResult ? (String) ((ApiResult<?>) value).getBody() : (String) value);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                values.add("error: " + error.getMessage());
+                done.countDown();
+            }
+        };
+    }
+
+    private static final class ManualLoader implements SingleFlight.Loader<String> {
+        SingleFlight.Listener<String> listener;
+        int started;
+        boolean cancelled;
+
+        @Override
+        public SingleFlight.Cancellable load(SingleFlight.Listener<String> listener) {
+            this.listener = listener;
+            started++;
+            return () -> cancelled = true;
+        }
+    }
+}
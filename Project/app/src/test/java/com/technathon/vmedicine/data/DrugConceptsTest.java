@@ -0,0 +1,63 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DrugConceptsTest {
+
+    @Test
+    public void brandsGenericsAndSynonyms_shareOneConcept() {
+        DrugConcepts concepts = new DrugConcepts.Builder()
+                .addConcept("Paracetamol", "Acetaminophen", "Tylenol")
+                .addConcept("ibuprofen", "Advil", "Tylenol") // Tylenol stays with its first concept
+                .addConcept("acetaminophen", "Panadol") // Joins the concept that owns "acetaminophen"
+                .build();
+
+        assertEquals(2, concepts.conceptCount());
+        assertEquals(6, concepts.spellingCount());
+        int paracetamol = concepts.conceptId("paracetamol");
+        assertEquals(paracetamol, concepts.conceptId("acetaminophen"));
+        assertEquals(paracetamol, concepts.conceptId("tylenol"));
+        assertEquals(paracetamol, concepts.conceptId("panadol"));
+        assertEquals("paracetamol", concepts.canonicalName(paracetamol));
+        assertEquals("ibuprofen", concepts.canonicalName(concepts.conceptId("advil")));
+        assertNotEquals(paracetamol, concepts.conceptId("ibuprofen"));
+        assertEquals(-1, concepts.conceptId("warfarin"));
+    }
+
+    @Test
+    public void bundleWithoutConceptsSection_getsEmptyDictionary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new InteractionBundleWriter().writeTo(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(16, 2); // Drop the concepts section from the section table, as in bundles written before it existed
+
+        InteractionBundle bundle = InteractionBundle.wrap(buffer);
+
+        assertEquals(0, bundle.getDrugConcepts().conceptCount());
+        assertEquals(-1, bundle.getDrugConcepts().conceptId("tylenol"));
+    }
+
+    @Test
+    public void database_checksBrandNamesAgainstGenericData() {
+        assertEquals(DrugInteractionDatabase.conceptId("Paracetamol"), DrugInteractionDatabase.conceptId("Tylenol 500mg"));
+        assertEquals(DrugInteractionDatabase.medicineId("paracetamol"), DrugInteractionDatabase.medicineId("Crocin"));
+        assertEquals("ibuprofen", DrugInteractionDatabase.resolveMedicineName("Advil"));
+        assertEquals(-1, DrugInteractionDatabase.conceptId("vitamin d"));
+
+        AllergyProfile aspirinAllergy = DrugInteractionDatabase.compileAllergies(Arrays.asList("Aspirin"));
+        assertEquals("Aspirin", DrugInteractionDatabase.checkForAllergyInteraction("Advil", aspirinAllergy));
+
+        Regimen regimen = DrugInteractionDatabase.compileRegimen(Arrays.asList("Coumadin 5mg"));
+        List<DrugInteraction> interactions = DrugInteractionDatabase.checkForDrugInteractions("Tylenol", regimen);
+        assertEquals(1, interactions.size());
+        assertEquals("minor", interactions.get(0).getSeverityLabel());
+    }
+}
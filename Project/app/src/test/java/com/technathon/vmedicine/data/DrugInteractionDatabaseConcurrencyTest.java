@@ -0,0 +1,110 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DrugInteractionDatabaseConcurrencyTest {
+
+    private static final int VERSIONS = 300;
+    private static final int READERS = 4;
+
+    @After
+    public void restoreMockData() {
+        DrugInteractionDatabase.resetToMockData();
+    }
+
+    @Test
+    public void install_swapsWholeSnapshotsWhileReadersRun() throws Exception {
+        // In version v, "probe" is allergic-class "class-v" and interacts with "drug-v" at severity 1 + v % 3.
+        // A reader that mixes the data of two versions sees a mismatch.
+        List<InteractionBundle> bundles = new ArrayList<>();
+        List<String> everyClass = new ArrayList<>();
+        for (int v = 1; v <= VERSIONS; v++) {
+            bundles.add(bundle(v));
+            everyClass.add("Class-" + v);
+        }
+        List<String> allAllergies = Collections.unmodifiableList(everyClass);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong checks = new AtomicLong();
+        CountDownLatch readersStarted = new CountDownLatch(READERS);
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                readersStarted.countDown();
+                long lastVersion = 0;
+                while (!done.get() && failure.get() == null) {
+                    InteractionSnapshot snapshot = DrugInteractionDatabase.getSnapshot();
+                    long version = snapshot.getDataVersion();
+                    if (version < lastVersion) {
+                        failure.set("Version went backwards: " + lastVersion + " -> " + version);
+                    }
+                    lastVersion = version;
+                    if (version == 0) {
+                        continue; // Still on the mock data
+                    }
+
+                    AllergyIndex index = snapshot.getAllergyIndex();
+                    int probe = index.medicineId("probe");
+                    String allergyClass = index.allergyClassName(index.allergyClassOf(probe, 0));
+                    DrugInteractionGraph graph = snapshot.getInteractionGraph();
+                    int severity = graph.severity(graph.drugId("probe"), graph.drugId("drug-" + version));
+                    if (!allergyClass.equals("class-" + version) || severity != 1 + version % 3) {
+                        failure.set("Torn snapshot at version " + version + ": " + allergyClass + ", severity " + severity);
+                    }
+
+                    // Through the public API: a profile compiled against any version must match that same version
+                    String interacting = DrugInteractionDatabase.checkForAllergyInteraction("Probe",
+                            DrugInteractionDatabase.compileAllergies(allAllergies));
+                    if (interacting == null) {
+                        failure.set("Profile and medicine lookup used different data versions");
+                    }
+                    checks.incrementAndGet();
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        readersStarted.await();
+        for (InteractionBundle bundle : bundles) {
+            assertTrue(DrugInteractionDatabase.install(bundle));
+            Thread.yield();
+        }
+        assertFalse("Older data must not replace newer data", DrugInteractionDatabase.install(bundles.get(0)));
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(VERSIONS, DrugInteractionDatabase.getDataVersion());
+        assertTrue(checks.get() > 0);
+    }
+
+    private static InteractionBundle bundle(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new InteractionBundleWriter()
+                .setDataVersion(version)
+                .setAllergyIndex(new AllergyIndex.Builder().add("probe", "class-" + version).build())
+                .setInteractionGraph(new DrugInteractionGraph.Builder()
+                        .addInteraction("probe", "drug-" + version, 1 + version % 3)
+                        .build())
+                .writeTo(bytes);
+        return InteractionBundle.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+}
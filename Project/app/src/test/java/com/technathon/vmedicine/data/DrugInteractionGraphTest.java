@@ -0,0 +1,76 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DrugInteractionGraphTest {
+
+    @Test
+    public void interactions_areSymmetricAndKeepHighestSeverity() {
+        DrugInteractionGraph graph = new DrugInteractionGraph.Builder()
+                .addInteraction("Warfarin", "aspirin", DrugInteractionGraph.SEVERITY_MINOR)
+                .addInteraction("ASPIRIN", "warfarin", DrugInteractionGraph.SEVERITY_MAJOR)
+                .addInteraction("aspirin", "ibuprofen", DrugInteractionGraph.SEVERITY_MODERATE)
+                .build();
+
+        int warfarin = graph.drugId("warfarin");
+        int aspirin = graph.drugId("Aspirin");
+        assertEquals(DrugInteractionGraph.SEVERITY_MAJOR, graph.severity(warfarin, aspirin));
+        assertEquals(DrugInteractionGraph.SEVERITY_MAJOR, graph.severity(aspirin, warfarin));
+        assertEquals(DrugInteractionGraph.SEVERITY_NONE, graph.severity(warfarin, graph.drugId("ibuprofen")));
+        assertEquals(2, graph.interactionCount());
+        assertEquals(-1, graph.drugId("metformin"));
+    }
+
+    @Test
+    public void findInteractions_checksWholeRegimen() {
+        DrugInteractionGraph graph = DrugInteractionDatabase.getInteractionGraph();
+        int[] regimen = graph.drugIds(Arrays.asList("Aspirin", "Metformin", "unknown drug", "Paracetamol"));
+
+        List<DrugInteraction> interactions = graph.findInteractions(graph.drugId("warfarin"), regimen);
+
+        assertEquals(2, interactions.size());
+        assertEquals("aspirin", interactions.get(0).getInteractingDrugName());
+        assertEquals("major", interactions.get(0).getSeverityLabel());
+        assertEquals("paracetamol", interactions.get(1).getInteractingDrugName());
+        assertEquals(DrugInteractionGraph.SEVERITY_MAJOR, graph.worstSeverity(graph.drugId("warfarin"), regimen));
+    }
+
+    @Test
+    public void largeGraph_matchesReferenceMap() {
+        Random random = new Random(42);
+        DrugInteractionGraph.Builder builder = new DrugInteractionGraph.Builder();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            int a = random.nextInt(5_000);
+            int b = random.nextInt(5_000);
+            if (a == b) {
+                continue;
+            }
+            int severity = 1 + random.nextInt(3);
+            builder.addInteraction("drug" + a, "drug" + b, severity);
+            expected.merge(pairKey(a, b), severity, Math::max);
+        }
+        DrugInteractionGraph graph = builder.build();
+
+        assertEquals(expected.size(), graph.interactionCount());
+        for (int i = 0; i < 20_000; i++) {
+            int a = random.nextInt(5_000);
+            int b = random.nextInt(5_000);
+            Integer severity = a == b ? null : expected.get(pairKey(a, b));
+            assertEquals(severity != null ? (int) severity : DrugInteractionGraph.SEVERITY_NONE,
+                    graph.severity(graph.drugId("drug" + a), graph.drugId("drug" + b)));
+        }
+    }
+
+    private static long pairKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+}
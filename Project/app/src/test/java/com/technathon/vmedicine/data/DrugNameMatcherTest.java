@@ -0,0 +1,140 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DrugNameMatcherTest {
+
+    private static final String[] SYLLABLES = {
+            "am", "ox", "ic", "il", "lin", "met", "for", "min", "pra", "zo", "le", "ator", "va", "sta", "tin",
+            "ce", "pha", "lex", "dox", "cy", "clo", "pine", "lo", "sar", "tan", "hy", "dro", "chlo", "ro", "thia",
+            "zide", "ome", "pra", "nex", "ium", "ser", "tra", "line", "flu", "cox", "eti", "ben", "dil", "mab"};
+
+    @Test
+    public void clean_stripsStrengthUnitsAndForms() {
+        assertEquals("amoxicillin", DrugNameMatcher.clean("Amoxicillin 250mg"));
+        assertEquals("amoxicillin", DrugNameMatcher.clean("AMOXICILLIN 500 mg Capsules"));
+        assertEquals("metformin", DrugNameMatcher.clean("Metformin ER 1,000 mg tablet"));
+        assertEquals("insulin glargine", DrugNameMatcher.clean("Insulin Glargine 100 units/ml injection"));
+        assertEquals("hydrocortisone", DrugNameMatcher.clean("Hydrocortisone 1% cream"));
+    }
+
+    @Test
+    public void match_toleratesTyposAndDoses() {
+        DrugNameMatcher matcher = DrugNameMatcher.build(Arrays.asList("amoxicillin", "penicillin", "aspirin", "ibuprofen", "codeine"));
+
+        assertEquals("amoxicillin", matcher.match("Amoxicillin 250mg"));
+        assertEquals("amoxicillin", matcher.match("Amoxicilin"));
+        assertEquals("ibuprofen", matcher.match("ibuprofin 400 mg tabs"));
+        assertEquals("penicillin", matcher.match("Penicilln"));
+        assertNull(matcher.match("paracetamol"));
+        assertNull("Short names must not fuzzy-match", matcher.match("cod"));
+    }
+
+    @Test
+    public void database_resolvesNoisyNamesForAllergyChecks() {
+        AllergyProfile penicillinAllergy = DrugInteractionDatabase.compileAllergies(Arrays.asList("Penicillin"));
+
+        assertEquals("Penicillin", DrugInteractionDatabase.checkForAllergyInteraction("Amoxicillin 250mg", penicillinAllergy));
+        assertEquals("Penicillin", DrugInteractionDatabase.checkForAllergyInteraction("Amoxicilin", penicillinAllergy));
+        assertNull(DrugInteractionDatabase.checkForAllergyInteraction("Metformin 500mg", penicillinAllergy));
+    }
+
+    /**
+     * Recall at formulary scale. Latency is measured by DrugNameMatcherBenchmark in :benchmark.
+     */
+    @Test
+    public void match_findsTypoedNamesAmong50kNames() {
+        Random random = new Random(7);
+        List<String> names = syntheticNames(50_000, random);
+        DrugNameMatcher matcher = DrugNameMatcher.build(names);
+
+        int queries = 2_000;
+        int correct = 0;
+        for (int i = 0; i < queries; i++) {
+            String expected = names.get(random.nextInt(names.size()));
+            String noisy = typo(expected, random) + (i % 2 == 0 ? " 250mg tablets" : "");
+            if (expected.equals(matcher.match(noisy))) {
+                correct++;
+            }
+        }
+        double recall = correct / (double) queries;
+
+        // Some typos land exactly on (or nearer to) another synthetic name, so recall cannot be 1.0
+        assertTrue("Recall too low: " + recall, recall >= 0.9);
+    }
+
+    /**
+     * The bigram and length filters must never drop the closest name: compares with the distance to every name.
+     */
+    @Test
+    public void match_findsAsCloseANameAsAFullScan() {
+        Random random = new Random(11);
+        List<String> names = syntheticNames(5_000, random);
+        DrugNameMatcher matcher = DrugNameMatcher.build(names);
+
+        for (int i = 0; i < 500; i++) {
+            String query = typo(typo(names.get(random.nextInt(names.size())), random), random);
+            int closest = Integer.MAX_VALUE;
+            for (String name : names) {
+                closest = Math.min(closest, levenshtein(query, name));
+            }
+            String match = matcher.match(query);
+            if (closest <= DrugNameMatcher.maxDistanceFor(query.length())) {
+                assertNotNull(query, match);
+                assertEquals(query + " -> " + match, closest, levenshtein(query, match));
+            } else {
+                assertNull(query, match);
+            }
+        }
+    }
+
+    /**
+     * Names built from drug-like syllables, unique and in the order generated.
+     */
+    static List<String> syntheticNames(int count, Random random) {
+        Set<String> dictionary = new LinkedHashSet<>();
+        while (dictionary.size() < count) {
+            StringBuilder name = new StringBuilder();
+            int syllables = 3 + random.nextInt(3);
+            for (int i = 0; i < syllables; i++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            dictionary.add(name.toString());
+        }
+        return new ArrayList<>(dictionary);
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                d[i][j] = i == 0 ? j : j == 0 ? i : Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    static String typo(String name, Random random) {
+        char[] letters = name.toCharArray();
+        int position = 1 + random.nextInt(letters.length - 2);
+        switch (random.nextInt(3)) {
+            case 0: // Substitution
+                letters[position] = (char) ('a' + random.nextInt(26));
+                return new String(letters);
+            case 1: // Deletion
+                return name.substring(0, position) + name.substring(position + 1);
+            default: // Insertion
+                return name.substring(0, position) + (char) ('a' + random.nextInt(26)) + name.substring(position);
+        }
+    }
+}
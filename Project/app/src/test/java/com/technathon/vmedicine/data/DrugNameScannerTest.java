@@ -0,0 +1,71 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DrugNameScannerTest {
+
+    @Test
+    public void scan_findsWholeWordsIgnoringCaseAndLineBreaks() {
+        DrugNameScanner scanner = DrugNameScanner.build(Arrays.asList(
+                "aspirin", "insulin", "insulin glargine", "amoxicillin", "codeine", "she"));
+        String prescription = "Rx: AMOXICILLIN 500mg tds x 5 days\n"
+                + "Insulin\n  Glargine 10 units at night\n"
+                + "Aspirinate (not a match), codeine-free cough syrup, aspirin 75mg";
+
+        List<DrugNameScanner.Match> matches = scanner.scan(prescription);
+
+        List<String> names = new ArrayList<>();
+        for (DrugNameScanner.Match match : matches) {
+            names.add(match.getName());
+        }
+        assertEquals(Arrays.asList("amoxicillin", "insulin glargine", "codeine", "aspirin"), names);
+        DrugNameScanner.Match insulin = matches.get(1);
+        assertEquals("Insulin\n  Glargine", prescription.substring(insulin.getStart(), insulin.getEnd()));
+    }
+
+    @Test
+    public void findNames_usesFailureLinksForOverlappingNames() {
+        DrugNameScanner scanner = DrugNameScanner.build(Arrays.asList("he", "she", "hers", "his"));
+
+        assertEquals(Arrays.asList("she", "hers", "his"), new ArrayList<>(scanner.findNames("ushers she hers his")));
+        assertTrue(scanner.findNames("no drugs here").isEmpty());
+        assertTrue(scanner.findNames("").isEmpty());
+    }
+
+    @Test
+    public void database_findsMockMedicinesInPrescriptionText() {
+        assertEquals(Arrays.asList("warfarin", "paracetamol"),
+                DrugInteractionDatabase.findMedicineNames("Warfarin 5mg od; Paracetamol 1g prn; vitamin D"));
+    }
+
+    /**
+     * A 50k-name dictionary over long text; DrugNameScannerBenchmark times the same scan.
+     */
+    @Test
+    public void scan_50kNamesOverLongText() {
+        Random random = new Random(11);
+        List<String> dictionary = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            dictionary.add("drug" + Integer.toString(i * 7919, 36));
+        }
+        DrugNameScanner scanner = DrugNameScanner.build(dictionary);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append(i % 10 == 0 ? dictionary.get(random.nextInt(dictionary.size())) : "take one tablet daily")
+                    .append(i % 3 == 0 ? "\n" : " ");
+        }
+
+        assertEquals(2_000, scanner.scan(text).size());
+        Set<String> names = scanner.findNames("prescribed " + dictionary.get(123) + ", " + dictionary.get(45_678));
+        assertEquals(Arrays.asList(dictionary.get(123), dictionary.get(45_678)), new ArrayList<>(names));
+    }
+}
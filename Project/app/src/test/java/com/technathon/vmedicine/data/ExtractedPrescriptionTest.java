@@ -0,0 +1,39 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ExtractedPrescriptionTest {
+
+    @Test
+    public void merge_keepsEachItemOnceInOrder() {
+        ExtractedPrescription merged = ExtractedPrescription.merge(Arrays.asList(
+                new ExtractedPrescription(Arrays.asList("Codeine"), Arrays.asList("Metformin 500mg"), Arrays.asList("heart failure")),
+                new ExtractedPrescription(Arrays.asList("codeine "), Arrays.asList("metformin 500 mg", "Warfarin 5 mg"),
+                        Arrays.asList("Congestive heart failure"))));
+
+        assertEquals(Collections.singletonList("Codeine"), merged.getAllergies());
+        assertEquals(Arrays.asList("Metformin 500mg", "Warfarin 5 mg"), merged.getCurrentMedications());
+        assertEquals("The fuller name, where the shorter one was", Collections.singletonList("Congestive heart failure"),
+                merged.getMedicalConditions());
+    }
+
+    @Test
+    public void merge_keepsAbbreviationsAndConditionsThatShareAStart() {
+        ExtractedPrescription merged = ExtractedPrescription.merge(Arrays.asList(
+                conditions("Hypertension", "Anemia"),
+                conditions("PE", "MI", "Diabetes insipidus"),
+                conditions("Diabetes", "Kidney injury", "Acute kidney injury")));
+
+        assertEquals(Arrays.asList("Hypertension", "Anemia", "PE", "MI", "Diabetes insipidus", "Diabetes", "Acute kidney injury"),
+                merged.getMedicalConditions());
+    }
+
+    private static ExtractedPrescription conditions(String... conditions) {
+        return new ExtractedPrescription(Collections.emptyList(), Collections.emptyList(), Arrays.asList(conditions));
+    }
+}
@@ -0,0 +1,114 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class InteractionBundleTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_throughMappedFile_keepsAllLookups() throws IOException {
+        AllergyIndex allergies = new AllergyIndex.Builder()
+                .add("Amoxicillin", "penicillin")
+                .add("ibuprofen", "ibuprofen", "NSAIDs", "aspirin")
+                .add("ácido acetilsalicílico", "aspirin")
+                .build();
+        DrugInteractionGraph interactions = new DrugInteractionGraph.Builder()
+                .addInteraction("warfarin", "aspirin", DrugInteractionGraph.SEVERITY_MAJOR)
+                .addInteraction("aspirin", "ibuprofen", DrugInteractionGraph.SEVERITY_MODERATE)
+                .build();
+        DrugConcepts concepts = new DrugConcepts.Builder()
+                .addConcept("aspirin", "acetylsalicylic acid", "Ecosprin")
+                .build();
+        File file = temporaryFolder.newFile("interactions.vmib");
+        new InteractionBundleWriter()
+                .setDataVersion(42)
+                .setAllergyIndex(allergies)
+                .setInteractionGraph(interactions)
+                .setDrugConcepts(concepts)
+                .writeTo(file);
+
+        InteractionBundle bundle = InteractionBundle.open(file);
+
+        assertEquals(42, bundle.getDataVersion());
+        AllergyIndex index = bundle.getAllergyIndex();
+        assertEquals(3, index.medicineCount());
+        assertEquals(4, index.allergyClassCount());
+        AllergyProfile profile = AllergyProfile.compile(index, Arrays.asList("Aspirin", "Latex"));
+        assertEquals("Aspirin", profile.findInteraction(index.medicineId("ibuprofen")));
+        assertEquals("Aspirin", profile.findInteraction(index.medicineId("ácido acetilsalicílico")));
+        assertNull(profile.findInteraction(index.medicineId("amoxicillin")));
+        assertEquals(-1, index.medicineId("metformin"));
+
+        DrugInteractionGraph graph = bundle.getInteractionGraph();
+        assertEquals(2, graph.interactionCount());
+        assertEquals(DrugInteractionGraph.SEVERITY_MAJOR, graph.severity(graph.drugId("aspirin"), graph.drugId("Warfarin")));
+        assertEquals(DrugInteractionGraph.SEVERITY_NONE, graph.severity(graph.drugId("warfarin"), graph.drugId("ibuprofen")));
+        assertEquals("warfarin", graph.drugName(graph.drugId("WARFARIN")));
+
+        DrugConcepts mappedConcepts = bundle.getDrugConcepts();
+        assertEquals("aspirin", mappedConcepts.canonicalName(mappedConcepts.conceptId("ecosprin")));
+        assertEquals(3, mappedConcepts.spellingCount());
+    }
+
+    @Test
+    public void largeBundle_opensLazily() throws IOException {
+        AllergyIndex.Builder allergies = new AllergyIndex.Builder();
+        DrugInteractionGraph.Builder interactions = new DrugInteractionGraph.Builder();
+        for (int i = 0; i < 100_000; i++) {
+            allergies.add("medicine-" + i, "class-" + (i % 500));
+            interactions.addInteraction("medicine-" + i, "medicine-" + ((i * 7919) % 100_000), 1 + i % 3);
+        }
+        File file = temporaryFolder.newFile("large.vmib");
+        new InteractionBundleWriter()
+                .setAllergyIndex(allergies.build())
+                .setInteractionGraph(interactions.build())
+                .writeTo(file);
+
+        InteractionBundle bundle = InteractionBundle.open(file);
+        int id = bundle.getAllergyIndex().medicineId("medicine-98765");
+
+        assertEquals("medicine-98765", bundle.getAllergyIndex().medicineName(id));
+        assertEquals(100_000, bundle.getAllergyIndex().medicineCount());
+        int classId = bundle.getAllergyIndex().allergyClassOf(id, 0);
+        assertEquals("class-265", bundle.getAllergyIndex().allergyClassName(classId));
+    }
+
+    @Test
+    public void wrap_rejectsCorruptData() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new InteractionBundleWriter().writeTo(bytes);
+        byte[] valid = bytes.toByteArray();
+        assertNotNull(InteractionBundle.wrap(ByteBuffer.wrap(valid)));
+
+        byte[] badMagic = valid.clone();
+        badMagic[0] = 'X';
+        assertInvalid(badMagic);
+
+        byte[] badVersion = valid.clone();
+        badVersion[7] = 99;
+        assertInvalid(badVersion);
+
+        assertInvalid(Arrays.copyOf(valid, valid.length - 3));
+    }
+
+    private static void assertInvalid(byte[] data) {
+        try {
+            InteractionBundle.wrap(ByteBuffer.wrap(data));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.technathon.vmedicine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prescriptions as OCR reads them, labeled with the profile fields a person would fill in, and the scoring
+ * of an extractor's answers against the labels. Shared by the on-device and the Gemini extraction tests.
+ */
+public final class PrescriptionCorpus {
+
+    public static final class Case {
+        public final String name;
+        public final String text;
+        public final ExtractedPrescription expected;
+
+        Case(String name, String text, List<String> allergies, List<String> medications, List<String> conditions) {
+            this.name = name;
+            this.text = text;
+            this.expected = new ExtractedPrescription(allergies, medications, conditions);
+        }
+    }
+
+    public static final List<Case> CASES = Collections.unmodifiableList(Arrays.asList(
+            new Case("clinic prescription",
+                    "City Care Clinic\n"
+                            + "Dr. A. Sharma, MBBS\n"
+                            + "Patient: Ravi Kumar   Age: 58\n"
+                            + "Date: 12/03/2024\n"
+                            + "Allergies: Penicillin (rash), Sulfa drugs\n"
+                            + "Diagnosis: Hypertension, Type 2 Diabetes Mellitus\n"
+                            + "Rx:\n"
+                            + "1. Tab. Lisinopril 10 mg OD\n"
+                            + "2. Tab. Metformin 500mg BD after food\n"
+                            + "3. Tab Atorvastatin 20 mg HS\n"
+                            + "Review after 1 month",
+                    list("Penicillin", "Sulfa drugs"),
+                    list("Lisinopril 10 mg", "Metformin 500 mg", "Atorvastatin 20 mg"),
+                    list("Hypertension", "Type 2 Diabetes")),
+            new Case("no known allergies",
+                    "Patient Name: Mary Jones\n"
+                            + "DOB: 04/11/1961\n"
+                            + "Known Allergies: NKDA\n"
+                            + "Current Medications: Warfarin 5mg daily, Simvastatin 40 mg at night\n"
+                            + "Medical History: Atrial fibrillation, hyperlipidemia\n"
+                            + "Signature: ______",
+                    list(),
+                    list("Warfarin 5 mg", "Simvastatin 40 mg"),
+                    list("Atrial fibrillation", "Hyperlipidemia")),
+            new Case("all capitals",
+                    "SUNRISE HOSPITAL\n"
+                            + "OPD PRESCRIPTION\n"
+                            + "ALLERGY: ASPIRIN\n"
+                            + "DX: ASTHMA\n"
+                            + "TAB MONTELUKAST 10MG HS\n"
+                            + "SALBUTAMOL INHALER 2 PUFFS SOS",
+                    list("Aspirin"),
+                    list("Montelukast 10 mg", "Salbutamol inhaler 2 puffs"),
+                    list("Asthma")),
+            new Case("discharge narrative",
+                    "DISCHARGE SUMMARY\n"
+                            + "Mr. Thomas, 72 y/o male admitted with worsening shortness of breath over 3 days.\n"
+                            + "Background of COPD and congestive heart failure. He reports he is allergic to codeine which causes vomiting.\n"
+                            + "He was treated with IV antibiotics and nebulisers and improved steadily.\n"
+                            + "He will continue furosemide 40 mg every morning and tiotropium 18 mcg inhaled once daily.\n"
+                            + "Stop ibuprofen.",
+                    list("Codeine"),
+                    list("Furosemide 40 mg", "Tiotropium 18 mcg"),
+                    list("COPD", "Congestive heart failure")),
+            new Case("short note",
+                    "Pt c/o headache x 2 days\n"
+                            + "Advised rest and plenty of fluids\n"
+                            + "Paracetamol 500 mg if needed",
+                    list(),
+                    list("Paracetamol 500 mg"),
+                    list()),
+            new Case("brand names",
+                    "Dr. Mehta's Clinic\n"
+                            + "Name: S. Iyer  Age/Sex: 34/F\n"
+                            + "C/O: fever, body ache\n"
+                            + "Rx\n"
+                            + "Tab Dolo 650 mg 1-0-1 x 3 days\n"
+                            + "Cap Amoxil 500 mg TDS x 5 days\n"
+                            + "Syp Benadryl 10 ml HS\n"
+                            + "Follow up after 5 days",
+                    list(),
+                    list("Dolo 650 mg", "Amoxil 500 mg", "Benadryl 10 ml"),
+                    list()),
+            new Case("abbreviations",
+                    "Medications: Metoprolol 25mg BID; Aspirin 81 mg daily; Levothyroxine 50 mcg\n"
+                            + "PMH: HTN, CAD, hypothyroidism\n"
+                            + "Allergies: Latex, Shellfish",
+                    list("Latex", "Shellfish"),
+                    list("Metoprolol 25 mg", "Aspirin 81 mg", "Levothyroxine 50 mcg"),
+                    list("Hypertension", "Coronary artery disease", "Hypothyroidism")),
+            new Case("negations",
+                    "Allergies: None known\n"
+                            + "History: No diabetes. Asthma since childhood.\n"
+                            + "Plan: Continue Budesonide 200 mcg inhaler twice daily",
+                    list(),
+                    list("Budesonide 200 mcg"),
+                    list("Asthma")),
+            new Case("unreadable",
+                    "Pt seen tod4y, rep0rts feeling w0rse\n"
+                            + "BP 150/95 repeat in 2 wks\n"
+                            + "see attached sheet for meds",
+                    list(),
+                    list(),
+                    list()),
+            new Case("reactions and lists",
+                    "Drug Allergies: Ibuprofen - hives; Morphine (nausea)\n"
+                            + "Current meds:\n"
+                            + "- Tramadol 50 mg PRN\n"
+                            + "- Sertraline 100 mg OD\n"
+                            + "Conditions:\n"
+                            + "- Osteoarthritis\n"
+                            + "- Depression",
+                    list("Ibuprofen", "Morphine"),
+                    list("Tramadol 50 mg", "Sertraline 100 mg"),
+                    list("Osteoarthritis", "Depression")),
+            new Case("insulin",
+                    "Diagnosis: Type 1 diabetes\n"
+                            + "Inj. Insulin Glargine 18 units at bedtime\n"
+                            + "Inj Insulin Lispro 6 units before meals\n"
+                            + "Allergy: Nil",
+                    list(),
+                    list("Insulin glargine 18 units", "Insulin lispro 6 units"),
+                    list("Type 1 diabetes")),
+            new Case("structured discharge summary",
+                    "DISCHARGE SUMMARY\n"
+                            + "Patient: John Doe    MRN: 0045521\n"
+                            + "Date of Admission: 02/01/2024   Date of Discharge: 06/01/2024\n"
+                            + "Final Diagnosis: Community acquired pneumonia; Chronic kidney disease stage 3\n"
+                            + "Past Medical History: Hypertension, Gout\n"
+                            + "Allergies: Penicillin\n"
+                            + "Discharge Medications:\n"
+                            + "1. Azithromycin 500 mg OD x 3 days\n"
+                            + "2. Amlodipine 5 mg OD\n"
+                            + "3. Allopurinol 100 mg OD\n"
+                            + "Follow up: Medicine OPD in 1 week",
+                    list("Penicillin"),
+                    list("Azithromycin 500 mg", "Amlodipine 5 mg", "Allopurinol 100 mg"),
+                    list("Community acquired pneumonia", "Chronic kidney disease stage 3", "Hypertension", "Gout")),
+            new Case("handwritten shorthand",
+                    "Rx\n"
+                            + "Amlo 5 OD\n"
+                            + "Glycomet GP1 1-0-1\n"
+                            + "Ecosprin 75",
+                    list(),
+                    list("Amlo 5", "Glycomet GP1", "Ecosprin 75"),
+                    list())
+    ));
+
+    /**
+     * Item-level agreement with the labels, per field and overall.
+     */
+    public static final class Score {
+        private int matched;
+        private int extra;
+        private int missed;
+
+        void add(int matched, int extra, int missed) {
+            this.matched += matched;
+            this.extra += extra;
+            this.missed += missed;
+        }
+
+        public double precision() {
+            return matched + extra == 0 ? 1 : (double) matched / (matched + extra);
+        }
+
+        public double recall() {
+            return matched + missed == 0 ? 1 : (double) matched / (matched + missed);
+        }
+
+        public double f1() {
+            double precision = precision();
+            double recall = recall();
+            return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "precision %.2f, recall %.2f, F1 %.2f", precision(), recall(), f1());
+        }
+    }
+
+    public static final class Report {
+        public final Score allergies = new Score();
+        public final Score medications = new Score();
+        public final Score conditions = new Score();
+        public final Score overall = new Score();
+        public final List<String> misses = new ArrayList<>();
+
+        /**
+         * Scores one answer against its case's labels.
+         */
+        public void add(Case labeled, ExtractedPrescription answer) {
+            compare(labeled, "allergies", labeled.expected.getAllergies(), answer.getAllergies(), allergies);
+            compare(labeled, "medications", labeled.expected.getCurrentMedications(), answer.getCurrentMedications(), medications);
+            compare(labeled, "conditions", labeled.expected.getMedicalConditions(), answer.getMedicalConditions(), conditions);
+        }
+
+        private void compare(Case labeled, String field, List<String> expected, List<String> actual, Score score) {
+            List<String> unmatched = new ArrayList<>(actual);
+            int matched = 0;
+            for (String item : expected) {
+                String match = null;
+                for (String candidate : unmatched) {
+                    if (sameItem(field, item, candidate)) {
+                        match = candidate;
+                        break;
+                    }
+                }
+                if (match != null) {
+                    unmatched.remove(match);
+                    matched++;
+                } else {
+                    misses.add(labeled.name + ": missed " + field + " '" + item + "' in " + actual);
+                }
+            }
+            for (String item : unmatched) {
+                misses.add(labeled.name + ": extra " + field + " '" + item + "'");
+            }
+            score.add(matched, unmatched.size(), expected.size() - matched);
+            overall.add(matched, unmatched.size(), expected.size() - matched);
+        }
+
+        @Override
+        public String toString() {
+            return "allergies " + allergies + "; medications " + medications + "; conditions " + conditions
+                    + "; overall " + overall;
+        }
+    }
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:\\.\\d+)?");
+
+    /**
+     * Medications are the same drug at the same strength, however the dose is written; conditions are the
+     * same if one names the other ("Pneumonia", "Community acquired pneumonia"); allergies must be equal.
+     * Case is ignored.
+     */
+    static boolean sameItem(String field, String expected, String actual) {
+        String a = expected.toLowerCase(Locale.ROOT).trim();
+        String b = actual.toLowerCase(Locale.ROOT).trim();
+        switch (field) {
+            case "medications":
+                return medicationKey(a).equals(medicationKey(b));
+            case "conditions":
+                return a.contains(b) || b.contains(a);
+            default:
+                return a.equals(b);
+        }
+    }
+
+    private static String medicationKey(String medication) {
+        String drug = medication.split("\\s+")[0];
+        Matcher strength = NUMBER.matcher(medication.substring(drug.length()));
+        return drug + "|" + (strength.find() ? strength.group() : "");
+    }
+
+    private static List<String> list(String... items) {
+        return Arrays.asList(items);
+    }
+
+    private PrescriptionCorpus() {
+    }
+}
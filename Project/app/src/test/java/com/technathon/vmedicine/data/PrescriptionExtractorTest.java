@@ -0,0 +1,95 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PrescriptionExtractorTest {
+
+    private static final DrugNameScanner MEDICINES = DrugNameScanner.build(Arrays.asList(
+            "lisinopril", "metformin", "insulin", "warfarin", "paracetamol", "dolo", "glycomet", "aspirin", "codeine"));
+
+    @Test
+    public void extract_readsSectionsAndDoseGrammar() {
+        PrescriptionExtractor.Extraction extraction = PrescriptionExtractor.extract(PrescriptionCorpus.CASES.get(0).text, MEDICINES);
+
+        ExtractedPrescription prescription = extraction.getPrescription();
+        assertEquals(Arrays.asList("Penicillin", "Sulfa drugs"), prescription.getAllergies());
+        assertEquals(Arrays.asList("Lisinopril 10 mg", "Metformin 500mg", "Atorvastatin 20 mg"), prescription.getCurrentMedications());
+        assertEquals(Arrays.asList("Hypertension", "Type 2 Diabetes Mellitus"), prescription.getMedicalConditions());
+        assertEquals("Letterhead, doctor, patient and date lines carry no items but are understood", 1f, extraction.getConfidence(), 0);
+    }
+
+    @Test
+    public void extract_skipsNegatedAndStoppedItems() {
+        ExtractedPrescription prescription = PrescriptionExtractor.extract(
+                "Allergies: NKDA\nHistory: No diabetes. Asthma since childhood.\nStop aspirin.\nWarfarin 5 mg OD", MEDICINES)
+                .getPrescription();
+
+        assertEquals(Collections.emptyList(), prescription.getAllergies());
+        assertEquals(Collections.singletonList("Asthma"), prescription.getMedicalConditions());
+        assertEquals(Collections.singletonList("Warfarin 5 mg"), prescription.getCurrentMedications());
+    }
+
+    @Test
+    public void extract_keepsConditionsThatOnlyShareLetters() {
+        assertEquals(Arrays.asList("Hypertension", "PE"), conditions("Diagnosis: Hypertension, PE"));
+        assertEquals(Arrays.asList("Anemia", "MI"), conditions("Diagnosis: Anemia, MI"));
+        assertEquals(Arrays.asList("Diabetes", "Diabetes insipidus"), conditions("Diagnosis: Diabetes, Diabetes insipidus"));
+        assertEquals("The same condition, named more fully", Collections.singletonList("Acute kidney injury"),
+                conditions("Diagnosis: Acute kidney injury, kidney injury"));
+    }
+
+    private static List<String> conditions(String text) {
+        return PrescriptionExtractor.extract(text, MEDICINES).getPrescription().getMedicalConditions();
+    }
+
+    @Test
+    public void extract_isNotConfidentAboutProse() {
+        PrescriptionExtractor.Extraction narrative = PrescriptionExtractor.extract(PrescriptionCorpus.CASES.get(3).text, MEDICINES);
+
+        assertFalse("Confidence " + narrative.getConfidence(), narrative.isConfident());
+        assertEquals("What it did read is kept", Collections.singletonList("Codeine"), narrative.getPrescription().getAllergies());
+        assertEquals(0f, PrescriptionExtractor.extract("", MEDICINES).getConfidence(), 0);
+        assertEquals("Nothing found", 0f, PrescriptionExtractor.extract("Dr. Rao\nsee attached sheet", MEDICINES).getConfidence(), 0);
+    }
+
+    @Test
+    public void medicationItem_keepsTheNameUpToTheStrength() {
+        assertEquals("Metformin 500mg", PrescriptionExtractor.medicationItem("2. Tab. Metformin 500mg BD after food", MEDICINES, false));
+        assertEquals("Montelukast 10mg", PrescriptionExtractor.medicationItem("TAB MONTELUKAST 10MG HS", MEDICINES, false));
+        assertEquals("Insulin Glargine 18 units", PrescriptionExtractor.medicationItem("Inj. Insulin Glargine 18 units at bedtime", MEDICINES, false));
+        assertEquals("Glycomet GP1", PrescriptionExtractor.medicationItem("Glycomet GP1 1-0-1", MEDICINES, true));
+        assertEquals("Amlo 5", PrescriptionExtractor.medicationItem("Amlo 5 OD", MEDICINES, true));
+        assertNull("A dose with a sentence in front", PrescriptionExtractor.medicationItem(
+                "He will continue furosemide 40 mg every morning", MEDICINES, false));
+        assertNull("A medicine named in passing", PrescriptionExtractor.medicationItem(
+                "He was given paracetamol in the emergency room", MEDICINES, false));
+    }
+
+    /**
+     * Accuracy over the labeled corpus, split by whether the extractor was confident (the app then skips
+     * Gemini). Confident answers must agree with the labels.
+     */
+    @Test
+    public void corpus_confidentAnswersMatchTheLabels() {
+        PrescriptionCorpus.Report confident = new PrescriptionCorpus.Report();
+        List<String> unsureCases = new ArrayList<>();
+        for (PrescriptionCorpus.Case labeled : PrescriptionCorpus.CASES) {
+            PrescriptionExtractor.Extraction extraction = PrescriptionExtractor.extract(labeled.text);
+            if (extraction.isConfident()) {
+                confident.add(labeled, extraction.getPrescription());
+            } else {
+                unsureCases.add(labeled.name);
+            }
+        }
+
+        assertEquals(Arrays.asList("discharge narrative", "short note", "unreadable"), unsureCases);
+        assertTrue(confident.misses.toString(), confident.overall.f1() >= 0.95);
+    }
+}
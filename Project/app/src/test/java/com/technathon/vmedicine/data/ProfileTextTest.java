@@ -0,0 +1,57 @@
+package com.technathon.vmedicine.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProfileTextTest {
+
+    @Test
+    public void splitCommaSeparated_keepsItemsAsTyped() {
+        assertEquals(Arrays.asList("Lisinopril 10mg", "Metformin 500mg"), ProfileText.splitCommaSeparated("Lisinopril 10mg ,  Metformin 500mg"));
+        assertTrue(ProfileText.splitCommaSeparated("   ").isEmpty());
+        assertTrue(ProfileText.splitCommaSeparated(null).isEmpty());
+    }
+
+    @Test
+    public void splitCommaSeparatedUpperCase_trimsDropsEmptyAndUppercases() {
+        assertEquals(Arrays.asList("PENICILLIN", "SULFA DRUGS"), ProfileText.splitCommaSeparatedUpperCase(" penicillin,, Sulfa drugs , "));
+        assertEquals(Collections.singletonList("LATEX"), ProfileText.splitCommaSeparatedUpperCase("latex"));
+        assertTrue(ProfileText.splitCommaSeparatedUpperCase(",").isEmpty());
+        assertTrue(ProfileText.splitCommaSeparatedUpperCase(null).isEmpty());
+    }
+
+    @Test
+    public void medicineName_dropsTheParenthesizedDose() {
+        assertEquals("Lisinopril", ProfileText.medicineName(" Lisinopril (10mg)"));
+        assertEquals("METFORMIN", ProfileText.medicineName("METFORMIN"));
+    }
+
+    @Test
+    public void allergyWarning_namesEachConflictInOrder() {
+        Map<String, String> interactions = new LinkedHashMap<>();
+        interactions.put("Amoxicillin", "PENICILLIN");
+        interactions.put("Sulfamethoxazole", "SULFA DRUGS");
+
+        assertEquals("WARNING: Amoxicillin conflicts with your PENICILLIN allergy. Sulfamethoxazole conflicts with your SULFA DRUGS allergy.",
+                ProfileText.allergyWarning(interactions));
+        assertNull(ProfileText.allergyWarning(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void buildPersonalizedPrompt_includesOnlyKnownProfileFields() {
+        UserProfile profile = new UserProfile("u1", Arrays.asList("Penicillin", "Latex"), Collections.emptyList(),
+                Collections.singletonList("Asthma"), 34);
+
+        String prompt = ProfileText.buildPersonalizedPrompt(profile, "Is cetirizine safe?");
+
+        assertTrue(prompt.contains("- Age: 34 years\n- Medical Conditions: Asthma\n- Allergies: Penicillin, Latex\n\nUser Query: Is cetirizine safe?"));
+        assertFalse(prompt.contains("Current Medications"));
+        assertTrue(ProfileText.buildPersonalizedPrompt(null, "hi").contains("User profile is not available."));
+    }
+}
@@ -0,0 +1,68 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.AllergyProfile;
+import com.technathon.vmedicine.data.DrugInteractionDatabase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrugInteractionDatabase.checkForAllergyInteraction, as called when a medicine is scanned.
+ * Each invocation checks the next name from a mix of exact, brand, noisy and unknown names.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AllergyCheckBenchmark {
+
+    private static final String[] MEDICINES = {
+            "Amoxicillin", "ibuprofen", "Advil", "Paracetamol 500mg", "Amoxicilin 250mg tablets", "metformin", "Vitamin D"};
+
+    private List<String> allergies;
+    private AllergyProfile profile;
+    private int[] medicineIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        allergies = Arrays.asList("Penicillin", "Aspirin", "Sulfa drugs", "Latex", "Opioids");
+        profile = DrugInteractionDatabase.compileAllergies(allergies);
+        medicineIds = new int[MEDICINES.length];
+        for (int i = 0; i < MEDICINES.length; i++) {
+            medicineIds[i] = DrugInteractionDatabase.medicineId(MEDICINES[i]);
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == MEDICINES.length ? 0 : index + 1;
+        return index;
+    }
+
+    /** Allergy list passed as strings, compiled on every call. */
+    @Benchmark
+    public String checkWithAllergyList() {
+        return DrugInteractionDatabase.checkForAllergyInteraction(MEDICINES[nextIndex()], allergies);
+    }
+
+    /** Allergies compiled once per profile, medicine resolved by name on every call. */
+    @Benchmark
+    public String checkWithCompiledProfile() {
+        return DrugInteractionDatabase.checkForAllergyInteraction(MEDICINES[nextIndex()], profile);
+    }
+
+    /** Medicine already resolved to an ID. */
+    @Benchmark
+    public String checkWithMedicineId() {
+        return DrugInteractionDatabase.checkForAllergyInteraction(medicineIds[nextIndex()], profile);
+    }
+}
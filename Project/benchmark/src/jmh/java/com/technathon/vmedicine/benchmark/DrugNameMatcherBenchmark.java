@@ -0,0 +1,69 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.DrugNameMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrugNameMatcher.match over 50,000 synthetic names, the formulary-scale target of under a millisecond per
+ * lookup. Each invocation matches the next of 2,000 names with one typo, half of them with a dose and form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrugNameMatcherBenchmark {
+
+    private static final String[] SYLLABLES = {
+            "am", "ox", "ic", "il", "lin", "met", "for", "min", "pra", "zo", "le", "ator", "va", "sta", "tin",
+            "ce", "pha", "lex", "dox", "cy", "clo", "pine", "lo", "sar", "tan", "hy", "dro", "chlo", "ro", "thia",
+            "zide", "ome", "pra", "nex", "ium", "ser", "tra", "line", "flu", "cox", "eti", "ben", "dil", "mab"};
+
+    private DrugNameMatcher matcher;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        Set<String> dictionary = new LinkedHashSet<>();
+        while (dictionary.size() < 50_000) {
+            StringBuilder name = new StringBuilder();
+            int syllables = 3 + random.nextInt(3);
+            for (int i = 0; i < syllables; i++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            dictionary.add(name.toString());
+        }
+        matcher = DrugNameMatcher.build(dictionary);
+
+        List<String> names = new ArrayList<>(dictionary);
+        queries = new String[2_000];
+        for (int i = 0; i < queries.length; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            int position = 1 + random.nextInt(name.length() - 2);
+            String typo = name.substring(0, position) + (char) ('a' + random.nextInt(26)) + name.substring(position + 1);
+            queries[i] = typo + (i % 2 == 0 ? " 250mg tablets" : "");
+        }
+    }
+
+    /** p50 and p99 are in the SampleTime percentiles of the result. */
+    @Benchmark
+    public String match() {
+        String query = queries[next];
+        next = next + 1 == queries.length ? 0 : next + 1;
+        return matcher.match(query);
+    }
+}
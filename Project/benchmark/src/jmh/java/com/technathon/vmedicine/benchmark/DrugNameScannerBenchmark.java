@@ -0,0 +1,58 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.DrugNameScanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrugNameScanner over a 50,000-name dictionary: building it, and scanning about 400 KB of text in which
+ * every tenth phrase is a medicine name (the workload of DrugNameScannerTest).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrugNameScannerBenchmark {
+
+    private List<String> dictionary;
+    private DrugNameScanner scanner;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        dictionary = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            dictionary.add("drug" + Integer.toString(i * 7919, 36));
+        }
+        scanner = DrugNameScanner.build(dictionary);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append(i % 10 == 0 ? dictionary.get(random.nextInt(dictionary.size())) : "take one tablet daily")
+                    .append(i % 3 == 0 ? "\n" : " ");
+        }
+        this.text = text.toString();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DrugNameScanner build() {
+        return DrugNameScanner.build(dictionary);
+    }
+
+    @Benchmark
+    public List<DrugNameScanner.Match> scan() {
+        return scanner.scan(text);
+    }
+}
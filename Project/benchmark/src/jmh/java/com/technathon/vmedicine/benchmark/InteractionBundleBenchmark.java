@@ -0,0 +1,56 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.AllergyIndex;
+import com.technathon.vmedicine.data.DrugInteractionGraph;
+import com.technathon.vmedicine.data.InteractionBundle;
+import com.technathon.vmedicine.data.InteractionBundleWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening a bundle of 100,000 medicines and looking up the first one, the cost the app pays once at startup
+ * (InteractionDataLoader). The bundle is memory-mapped, so this should not grow with the bundle size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InteractionBundleBenchmark {
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        AllergyIndex.Builder allergies = new AllergyIndex.Builder();
+        DrugInteractionGraph.Builder interactions = new DrugInteractionGraph.Builder();
+        for (int i = 0; i < 100_000; i++) {
+            allergies.add("medicine-" + i, "class-" + (i % 500));
+            interactions.addInteraction("medicine-" + i, "medicine-" + ((i * 7919) % 100_000), 1 + i % 3);
+        }
+        file = File.createTempFile("interactions", ".vmib");
+        new InteractionBundleWriter()
+                .setAllergyIndex(allergies.build())
+                .setInteractionGraph(interactions.build())
+                .writeTo(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int openAndLookUp() throws IOException {
+        return InteractionBundle.open(file).getAllergyIndex().medicineId("medicine-98765");
+    }
+}
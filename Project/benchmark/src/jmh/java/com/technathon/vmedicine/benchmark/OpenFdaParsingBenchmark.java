@@ -0,0 +1,110 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.technathon.vmedicine.api.OpenFDAResponse;
+import com.technathon.vmedicine.api.OpenFDATypeAdapterFactory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one OpenFDA drug/label search response, starting from the raw response bytes as they come off
+ * the network. "small" is a real-sized single label (openfda-label-response.json); "large" pads its
+ * warnings to about 300 KB, like the labels with long boxed warnings and package inserts.
+ *
+ * Run with -Pjmh.gc to compare the bytes allocated per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OpenFdaParsingBenchmark {
+
+    @Param({"small", "large"})
+    public String payload;
+
+    private final Gson reflectiveGson = new Gson();
+    private final Gson streamingGson = new GsonBuilder()
+            .registerTypeAdapterFactory(OpenFDATypeAdapterFactory.allModeledFields())
+            .create();
+    private final Gson namesOnlyGson = new GsonBuilder()
+            .registerTypeAdapterFactory(OpenFDATypeAdapterFactory.namesOnly())
+            .create();
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        String body;
+        try (InputStream in = OpenFdaParsingBenchmark.class.getResourceAsStream("/openfda-label-response.json")) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (payload.equals("large")) {
+            JsonObject response = JsonParser.parseString(body).getAsJsonObject();
+            JsonObject label = response.getAsJsonArray("results").get(0).getAsJsonObject();
+            StringBuilder padding = new StringBuilder();
+            String warning = label.getAsJsonArray("warnings").get(0).getAsString();
+            while (padding.length() < 150_000) {
+                padding.append(warning).append(' ');
+            }
+            JsonArray warnings = new JsonArray();
+            warnings.add(new JsonPrimitive(padding.toString()));
+            label.add("warnings", warnings);
+            label.add("boxed_warning", warnings.deepCopy());
+            body = response.toString();
+        }
+        responseBytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The old FindMedicineActivity path: read the body into a String, then build a full org.json tree. */
+    @Benchmark
+    public int jsonObjectTree() {
+        JSONObject jsonResponse = new JSONObject(new String(responseBytes, StandardCharsets.UTF_8));
+        JSONArray results = jsonResponse.optJSONArray("results");
+        return results != null ? results.length() : 0;
+    }
+
+    /** Gson's reflective adapters for the models, for reference. */
+    @Benchmark
+    public int gsonReflective() {
+        return count(reflectiveGson.fromJson(reader(), OpenFDAResponse.class));
+    }
+
+    /** Streaming adapters reading every modeled field. */
+    @Benchmark
+    public int gsonStreamingAllModeledFields() {
+        return count(streamingGson.fromJson(reader(), OpenFDAResponse.class));
+    }
+
+    /** Streaming adapters as FindMedicineActivity uses them, skipping the label text. */
+    @Benchmark
+    public int gsonStreamingNamesOnly() {
+        return count(namesOnlyGson.fromJson(reader(), OpenFDAResponse.class));
+    }
+
+    private InputStreamReader reader() {
+        return new InputStreamReader(new ByteArrayInputStream(responseBytes), StandardCharsets.UTF_8);
+    }
+
+    private static int count(OpenFDAResponse response) {
+        return response.results != null ? response.results.size() : 0;
+    }
+}
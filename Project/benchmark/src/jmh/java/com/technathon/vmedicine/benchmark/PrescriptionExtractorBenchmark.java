@@ -0,0 +1,58 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.PrescriptionExtractor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The on-device prescription extractor (PrescriptionReviewActivity), over a clinic prescription it reads
+ * confidently and a discharge narrative it hands on to Gemini. The budget is a few milliseconds per
+ * prescription, well under a Gemini round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrescriptionExtractorBenchmark {
+
+    private static final String PRESCRIPTION = "City Care Clinic\n"
+            + "Dr. A. Sharma, MBBS\n"
+            + "Patient: Ravi Kumar   Age: 58\n"
+            + "Date: 12/03/2024\n"
+            + "Allergies: Penicillin (rash), Sulfa drugs\n"
+            + "Diagnosis: Hypertension, Type 2 Diabetes Mellitus\n"
+            + "Rx:\n"
+            + "1. Tab. Lisinopril 10 mg OD\n"
+            + "2. Tab. Metformin 500mg BD after food\n"
+            + "3. Tab Atorvastatin 20 mg HS\n"
+            + "Review after 1 month";
+
+    private static final String NARRATIVE = "DISCHARGE SUMMARY\n"
+            + "Mr. Thomas, 72 y/o male admitted with worsening shortness of breath over 3 days.\n"
+            + "Background of COPD and congestive heart failure. He reports he is allergic to codeine which causes vomiting.\n"
+            + "He was treated with IV antibiotics and nebulisers and improved steadily.\n"
+            + "He will continue furosemide 40 mg every morning and tiotropium 18 mcg inhaled once daily.\n"
+            + "Stop ibuprofen.";
+
+    @Setup
+    public void setUp() {
+        PrescriptionExtractor.extract(""); // Builds the medicine dictionary's scanner
+    }
+
+    @Benchmark
+    public PrescriptionExtractor.Extraction extractPrescription() {
+        return PrescriptionExtractor.extract(PRESCRIPTION);
+    }
+
+    @Benchmark
+    public PrescriptionExtractor.Extraction extractNarrative() {
+        return PrescriptionExtractor.extract(NARRATIVE);
+    }
+}
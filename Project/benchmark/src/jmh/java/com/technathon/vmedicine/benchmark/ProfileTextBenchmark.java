@@ -0,0 +1,53 @@
+package com.technathon.vmedicine.benchmark;
+
+import com.technathon.vmedicine.data.ProfileText;
+import com.technathon.vmedicine.data.UserProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chat prompt builder (ChatBotActivity) and the comma-list parsers of the profile screens
+ * (UserProfileActivity, PrescriptionReviewActivity).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProfileTextBenchmark {
+
+    private static final String MEDICATIONS_FIELD =
+            "Lisinopril 10mg, Metformin 500mg ,  Atorvastatin 20mg,Aspirin 75mg, , Levothyroxine 50mcg, Omeprazole 20mg ";
+
+    private UserProfile profile;
+
+    @Setup
+    public void setUp() {
+        List<String> medications = ProfileText.splitCommaSeparated(MEDICATIONS_FIELD);
+        profile = new UserProfile("benchmark-user", Arrays.asList("Penicillin", "Sulfa drugs"), medications,
+                Arrays.asList("Hypertension", "Type 2 Diabetes", "Hypothyroidism"), 67);
+    }
+
+    @Benchmark
+    public String buildPersonalizedPrompt() {
+        return ProfileText.buildPersonalizedPrompt(profile, "Can I take ibuprofen for my knee pain?");
+    }
+
+    @Benchmark
+    public List<String> splitCommaSeparated() {
+        return ProfileText.splitCommaSeparated(MEDICATIONS_FIELD);
+    }
+
+    @Benchmark
+    public List<String> splitCommaSeparatedUpperCase() {
+        return ProfileText.splitCommaSeparatedUpperCase(MEDICATIONS_FIELD);
+    }
+}
@@ -0,0 +1,173 @@
+package com.technathon.vmedicine.tools;
+
+import com.technathon.vmedicine.data.AllergyIndex;
+import com.technathon.vmedicine.data.DrugConcepts;
+import com.technathon.vmedicine.data.DrugInteractionGraph;
+import com.technathon.vmedicine.data.InteractionBundle;
+import com.technathon.vmedicine.data.InteractionBundleWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds an interaction bundle (interactions.vmib) from tab-separated source files.
+ *
+ * allergies.tsv:    medicine TAB allergy class[,allergy class...]
+ * interactions.tsv: drug TAB drug TAB severity (minor, moderate, major or 1-3)
+ * concepts.tsv:     canonical name TAB brand name or synonym[,brand name or synonym...]
+ *
+ * Every medicine in the allergy and interaction files also becomes a concept of its own unless the
+ * concepts file already lists it, so each name the app can check has a concept ID.
+ *
+ * Blank lines and lines starting with '#' are ignored.
+ */
+public final class BuildInteractionBundle {
+
+    private BuildInteractionBundle() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("out") || !options.containsKey("version")) {
+            System.err.println("Usage: --out <file> --version <n> [--allergies <tsv>] [--interactions <tsv>] [--concepts <tsv>]");
+            System.exit(2);
+        }
+
+        AllergyIndex.Builder allergies = new AllergyIndex.Builder();
+        if (options.containsKey("allergies")) {
+            readAllergies(new File(options.get("allergies")), allergies);
+        }
+        DrugInteractionGraph.Builder interactions = new DrugInteractionGraph.Builder();
+        if (options.containsKey("interactions")) {
+            readInteractions(new File(options.get("interactions")), interactions);
+        }
+
+        DrugConcepts.Builder concepts = new DrugConcepts.Builder();
+        if (options.containsKey("concepts")) {
+            readConcepts(new File(options.get("concepts")), concepts);
+        }
+        writeBundle(new File(options.get("out")), Long.parseLong(options.get("version")), allergies, interactions, concepts);
+    }
+
+    /**
+     * Registers every allergy and interaction medicine as a concept, writes the bundle and reads it back
+     * so a broken bundle never leaves this tool.
+     */
+    static InteractionBundle writeBundle(File out, long dataVersion, AllergyIndex.Builder allergies,
+                                         DrugInteractionGraph.Builder interactions, DrugConcepts.Builder concepts) throws IOException {
+        AllergyIndex allergyIndex = allergies.build();
+        DrugInteractionGraph interactionGraph = interactions.build();
+        for (int i = 0; i < allergyIndex.medicineCount(); i++) {
+            concepts.addConcept(allergyIndex.medicineName(i));
+        }
+        for (int i = 0; i < interactionGraph.drugCount(); i++) {
+            concepts.addConcept(interactionGraph.drugName(i));
+        }
+
+        new InteractionBundleWriter()
+                .setDataVersion(dataVersion)
+                .setAllergyIndex(allergyIndex)
+                .setInteractionGraph(interactionGraph)
+                .setDrugConcepts(concepts.build())
+                .writeTo(out);
+
+        InteractionBundle bundle = InteractionBundle.open(out);
+        System.out.printf(Locale.ROOT, "Wrote %s: data version %d, %d medicines, %d allergy classes, %d interacting pairs, "
+                        + "%d drug concepts (%d names), %d bytes%n",
+                out, bundle.getDataVersion(), bundle.getAllergyIndex().medicineCount(),
+                bundle.getAllergyIndex().allergyClassCount(), bundle.getInteractionGraph().interactionCount(),
+                bundle.getDrugConcepts().conceptCount(), bundle.getDrugConcepts().spellingCount(), out.length());
+        return bundle;
+    }
+
+    static void readAllergies(File file, AllergyIndex.Builder builder) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (isSkipped(line)) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected 2 columns");
+                }
+                builder.add(columns[0], columns[1].split("\\s*,\\s*"));
+            }
+        }
+    }
+
+    static void readInteractions(File file, DrugInteractionGraph.Builder builder) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (isSkipped(line)) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length != 3) {
+                    throw new IOException(file + ":" + lineNumber + ": expected 3 columns");
+                }
+                builder.addInteraction(columns[0], columns[1], parseSeverity(columns[2], file, lineNumber));
+            }
+        }
+    }
+
+    static void readConcepts(File file, DrugConcepts.Builder builder) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (isSkipped(line)) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected 2 columns");
+                }
+                builder.addConcept(columns[0], columns[1].split("\\s*,\\s*"));
+            }
+        }
+    }
+
+    static int parseSeverity(String value, File file, int lineNumber) throws IOException {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "minor":
+            case "1":
+                return DrugInteractionGraph.SEVERITY_MINOR;
+            case "moderate":
+            case "2":
+                return DrugInteractionGraph.SEVERITY_MODERATE;
+            case "major":
+            case "3":
+                return DrugInteractionGraph.SEVERITY_MAJOR;
+            default:
+                throw new IOException(file + ":" + lineNumber + ": unknown severity '" + value + "'");
+        }
+    }
+
+    private static boolean isSkipped(String line) {
+        return line.trim().isEmpty() || line.startsWith("#");
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,196 @@
+package com.technathon.vmedicine.tools;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.technathon.vmedicine.api.Result;
+import com.technathon.vmedicine.data.AllergyIndex;
+import com.technathon.vmedicine.data.DrugConcepts;
+import com.technathon.vmedicine.data.DrugInteractionGraph;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports OpenFDA's bulk drug/label download (https://open.fda.gov/apis/downloads/) from local files.
+ * Each input is either the JSON file or the .zip it is distributed in; zips are read as a stream without
+ * unpacking. The JSON is pulled one label at a time, so memory use does not grow with the size of the
+ * dump: only the fields modeled in Result and OpenFDA are kept, everything else is skipped unparsed.
+ *
+ * Outputs a compact label file (see {@link LabelFile}) and an interaction bundle whose drug concepts
+ * map each label's brand names to its generic name. A brand found on labels of different generics (store
+ * brands such as "Pain Relief") is left out, so it resolves to no drug rather than to whichever the dump
+ * listed first. Allergy and interaction TSVs can be merged in, as with {@link BuildInteractionBundle}.
+ */
+public final class ImportOpenFdaLabels {
+
+    // Marks a brand found on labels of different generics
+    private static final String AMBIGUOUS = "";
+
+    private final Gson gson = new Gson();
+    private final DrugConcepts.Builder concepts;
+    private final LabelFile.Writer labels;
+    // Normalized brand name to the normalized generic name of its labels, or AMBIGUOUS
+    private final Map<String, String> genericOfBrand = new LinkedHashMap<>();
+    private int labelCount;
+    private int skippedCount;
+    private int ambiguousBrandCount;
+
+    ImportOpenFdaLabels(DrugConcepts.Builder concepts, LabelFile.Writer labels) {
+        this.concepts = concepts;
+        this.labels = labels;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = BuildInteractionBundle.parseOptions(args);
+        if (!options.containsKey("input") || !options.containsKey("labels") || !options.containsKey("out")
+                || !options.containsKey("version")) {
+            System.err.println("Usage: --input <json or zip>[,<json or zip>...] --labels <file> --out <bundle> --version <n> "
+                    + "[--allergies <tsv>] [--interactions <tsv>] [--concepts <tsv>]");
+            System.exit(2);
+        }
+
+        AllergyIndex.Builder allergies = new AllergyIndex.Builder();
+        if (options.containsKey("allergies")) {
+            BuildInteractionBundle.readAllergies(new File(options.get("allergies")), allergies);
+        }
+        DrugInteractionGraph.Builder interactions = new DrugInteractionGraph.Builder();
+        if (options.containsKey("interactions")) {
+            BuildInteractionBundle.readInteractions(new File(options.get("interactions")), interactions);
+        }
+        // Curated concepts go first so they win over names found in labels
+        DrugConcepts.Builder concepts = new DrugConcepts.Builder();
+        if (options.containsKey("concepts")) {
+            BuildInteractionBundle.readConcepts(new File(options.get("concepts")), concepts);
+        }
+
+        long start = System.nanoTime();
+        File labelsFile = new File(options.get("labels"));
+        ImportOpenFdaLabels importer;
+        try (LabelFile.Writer labels = new LabelFile.Writer(labelsFile)) {
+            importer = new ImportOpenFdaLabels(concepts, labels);
+            for (String input : options.get("input").split(",")) {
+                importer.importFile(new File(input.trim()));
+            }
+        }
+        importer.addBrandNames();
+        System.out.printf(Locale.ROOT, "Imported %d labels (%d without openfda names skipped) into %s, %d bytes, in %d ms; "
+                        + "%d brand names shared by different generics left out%n",
+                importer.getLabelCount(), importer.getSkippedCount(), labelsFile, labelsFile.length(),
+                (System.nanoTime() - start) / 1_000_000, importer.getAmbiguousBrandCount());
+
+        BuildInteractionBundle.writeBundle(new File(options.get("out")), Long.parseLong(options.get("version")),
+                allergies, interactions, concepts);
+    }
+
+    /**
+     * Imports one bulk file: a .zip holding label JSON files, or a label JSON file itself.
+     */
+    void importFile(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                ZipInputStream zip = new ZipInputStream(in);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                        importJson(zip);
+                    }
+                }
+            } else {
+                importJson(in);
+            }
+        }
+    }
+
+    /**
+     * Pulls labels out of a {"meta": ..., "results": [...]} document. Does not close the stream,
+     * so it can read one zip entry at a time.
+     */
+    void importJson(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("results") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                // Gson skips unknown fields without building them, so each label costs only its modeled fields
+                Result result = gson.fromJson(reader, Result.class);
+                addLabel(result);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private void addLabel(Result result) throws IOException {
+        if (result == null || result.openfda == null || isEmpty(result.openfda.genericName)) {
+            skippedCount++;
+            return;
+        }
+        // Combination products list one generic name; labels with several generic names get no brand mapping,
+        // since the brand cannot be attributed to one of them
+        List<String> genericNames = result.openfda.genericName;
+        for (String genericName : genericNames) {
+            concepts.addConcept(genericName);
+        }
+        if (genericNames.size() == 1 && result.openfda.brandName != null) {
+            String generic = AllergyIndex.normalize(genericNames.get(0));
+            for (String brandName : result.openfda.brandName) {
+                String brand = AllergyIndex.normalize(brandName);
+                if (brand.isEmpty() || brand.equals(generic)) {
+                    continue;
+                }
+                String known = genericOfBrand.putIfAbsent(brand, generic);
+                if (known != null && !known.equals(generic) && !known.equals(AMBIGUOUS)) {
+                    genericOfBrand.put(brand, AMBIGUOUS);
+                    ambiguousBrandCount++;
+                }
+            }
+        }
+        labels.write(result);
+        labelCount++;
+    }
+
+    /**
+     * Maps the brand names to their generics once every input has been imported, leaving out the brands
+     * found on labels of different generics.
+     */
+    void addBrandNames() {
+        for (Map.Entry<String, String> brand : genericOfBrand.entrySet()) {
+            if (!brand.getValue().equals(AMBIGUOUS)) {
+                concepts.addConcept(brand.getValue(), brand.getKey());
+            }
+        }
+        genericOfBrand.clear();
+    }
+
+    private static boolean isEmpty(List<String> values) {
+        return values == null || values.isEmpty();
+    }
+
+    int getLabelCount() {
+        return labelCount;
+    }
+
+    int getSkippedCount() {
+        return skippedCount;
+    }
+
+    int getAmbiguousBrandCount() {
+        return ambiguousBrandCount;
+    }
+}
@@ -0,0 +1,121 @@
+package com.technathon.vmedicine.tools;
+
+import com.technathon.vmedicine.api.OpenFDA;
+import com.technathon.vmedicine.api.Result;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact local copy of the drug-label fields the app models in {@link Result} and {@link OpenFDA}.
+ * Records are appended one at a time, so writing a label file takes constant memory.
+ *
+ * Layout (gzip-compressed, big-endian): int magic ("VMLB"), int format version, then per record a
+ * byte 1 followed by five string lists (generic names, brand names, routes, indications and usage,
+ * warnings), and a final byte 0. A string list is an int count followed by int byte length + UTF-8 bytes
+ * per string.
+ */
+final class LabelFile {
+
+    static final int MAGIC = 0x564D4C42; // "VMLB"
+    static final int FORMAT_VERSION = 1;
+
+    private LabelFile() {
+    }
+
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private int recordCount;
+
+        Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 64 * 1024)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+        }
+
+        void write(Result result) throws IOException {
+            OpenFDA openfda = result.openfda != null ? result.openfda : new OpenFDA();
+            out.writeByte(1);
+            writeList(openfda.genericName);
+            writeList(openfda.brandName);
+            writeList(openfda.route);
+            writeList(result.indicationsAndUsage);
+            writeList(result.warnings);
+            recordCount++;
+        }
+
+        int getRecordCount() {
+            return recordCount;
+        }
+
+        private void writeList(List<String> values) throws IOException {
+            if (values == null) {
+                out.writeInt(0);
+                return;
+            }
+            out.writeInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(0);
+            out.close();
+        }
+    }
+
+    /**
+     * Streams the records of a label file to a consumer, one at a time.
+     *
+     * @throws IOException If the file cannot be read or is not a label file.
+     */
+    static void read(File file, Consumer<Result> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a label file: " + file);
+            }
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported label file format version " + formatVersion);
+            }
+            while (in.readByte() == 1) {
+                Result result = new Result();
+                result.openfda = new OpenFDA();
+                result.openfda.genericName = readList(in);
+                result.openfda.brandName = readList(in);
+                result.openfda.route = readList(in);
+                result.indicationsAndUsage = readList(in);
+                result.warnings = readList(in);
+                consumer.accept(result);
+            }
+        }
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,141 @@
+package com.technathon.vmedicine.tools;
+
+import com.google.gson.stream.JsonWriter;
+import com.technathon.vmedicine.api.Result;
+import com.technathon.vmedicine.data.AllergyIndex;
+import com.technathon.vmedicine.data.DrugConcepts;
+import com.technathon.vmedicine.data.DrugInteractionGraph;
+import com.technathon.vmedicine.data.InteractionBundle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ImportOpenFdaLabelsTest {
+
+    private static final String SAMPLE = "{\"meta\": {\"disclaimer\": \"...\", \"results\": {\"total\": 3}},"
+            + " \"results\": ["
+            + "  {\"id\": \"a\", \"spl_product_data_elements\": [\"x\"], \"boxed_warning\": [\"ignored\"],"
+            + "   \"openfda\": {\"brand_name\": [\"Tylenol\"], \"generic_name\": [\"ACETAMINOPHEN\"], \"route\": [\"ORAL\"],"
+            + "                \"rxcui\": [\"1\"], \"package_ndc\": [\"0-0\"]},"
+            + "   \"indications_and_usage\": [\"For pain.\"], \"warnings\": [\"Liver warning.\"]},"
+            + "  {\"id\": \"b\", \"openfda\": {}, \"warnings\": [\"No names, skipped.\"]},"
+            + "  {\"id\": \"c\", \"openfda\": {\"brand_name\": [\"Advil\", \"Advil Liqui-Gels\"], \"generic_name\": [\"IBUPROFEN\"]},"
+            + "   \"nested\": {\"deep\": [[1, 2], {\"x\": null}]}}"
+            + "]}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void importJson_keepsModeledFieldsAndMapsBrandsToGenerics() throws IOException {
+        File labelsFile = temporaryFolder.newFile("labels.vmlb");
+        DrugConcepts.Builder concepts = new DrugConcepts.Builder();
+        ImportOpenFdaLabels importer;
+        try (LabelFile.Writer labels = new LabelFile.Writer(labelsFile)) {
+            importer = new ImportOpenFdaLabels(concepts, labels);
+            importer.importJson(new ByteArrayInputStream(SAMPLE.getBytes(StandardCharsets.UTF_8)));
+        }
+        importer.addBrandNames();
+
+        assertEquals(2, importer.getLabelCount());
+        assertEquals(1, importer.getSkippedCount());
+        DrugConcepts built = concepts.build();
+        assertEquals("acetaminophen", built.canonicalName(built.conceptId("tylenol")));
+        assertEquals("ibuprofen", built.canonicalName(built.conceptId("advil liqui-gels")));
+
+        List<Result> results = new ArrayList<>();
+        LabelFile.read(labelsFile, results::add);
+        assertEquals(2, results.size());
+        assertEquals("ACETAMINOPHEN", results.get(0).openfda.genericName.get(0));
+        assertEquals("ORAL", results.get(0).openfda.route.get(0));
+        assertEquals("For pain.", results.get(0).indicationsAndUsage.get(0));
+        assertEquals("Liver warning.", results.get(0).warnings.get(0));
+        assertTrue(results.get(1).warnings.isEmpty());
+    }
+
+    @Test
+    public void addBrandNames_leavesOutBrandsOfDifferentGenerics() throws IOException {
+        String dump = "{\"results\": ["
+                + "  {\"openfda\": {\"brand_name\": [\"Pain Relief\", \"Tylenol\"], \"generic_name\": [\"ACETAMINOPHEN\"]}},"
+                + "  {\"openfda\": {\"brand_name\": [\"Pain Relief\", \"Advil\"], \"generic_name\": [\"IBUPROFEN\"]}},"
+                + "  {\"openfda\": {\"brand_name\": [\"pain relief\"], \"generic_name\": [\"NAPROXEN\"]}},"
+                + "  {\"openfda\": {\"brand_name\": [\"Tylenol\"], \"generic_name\": [\"Acetaminophen\"]}}"
+                + "]}";
+        DrugConcepts.Builder concepts = new DrugConcepts.Builder();
+        ImportOpenFdaLabels importer;
+        try (LabelFile.Writer labels = new LabelFile.Writer(temporaryFolder.newFile("labels.vmlb"))) {
+            importer = new ImportOpenFdaLabels(concepts, labels);
+            importer.importJson(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+        }
+        importer.addBrandNames();
+
+        DrugConcepts built = concepts.build();
+        assertEquals("Bound to no drug rather than the first one listed", -1, built.conceptId("pain relief"));
+        assertEquals(1, importer.getAmbiguousBrandCount());
+        assertEquals("The same generic on another label", "acetaminophen", built.canonicalName(built.conceptId("tylenol")));
+        assertEquals("ibuprofen", built.canonicalName(built.conceptId("advil")));
+        assertEquals(3, built.conceptCount());
+    }
+
+    /**
+     * Streams a generated dump through a zip, the way OpenFDA ships it.
+     */
+    @Test
+    public void importFile_streamsLargeZippedDump() throws IOException {
+        int recordCount = 50_000;
+        File zip = temporaryFolder.newFile("drug-label-0001-of-0001.json.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("drug-label-0001-of-0001.json"));
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.beginObject().name("meta").beginObject().name("last_updated").value("2025-01-01").endObject();
+            writer.name("results").beginArray();
+            for (int i = 0; i < recordCount; i++) {
+                writer.beginObject()
+                        .name("id").value("label-" + i)
+                        .name("description").beginArray().value("A long description that the importer never keeps. " + i).endArray()
+                        .name("openfda").beginObject()
+                        .name("brand_name").beginArray().value("Brand " + i).endArray()
+                        .name("generic_name").beginArray().value("generic " + (i % 5_000)).endArray()
+                        .name("manufacturer_name").beginArray().value("Maker " + i).endArray()
+                        .endObject()
+                        .name("warnings").beginArray().value("Warning " + i).endArray()
+                        .endObject();
+            }
+            writer.endArray().endObject();
+            writer.flush();
+            out.closeEntry();
+        }
+
+        File labelsFile = temporaryFolder.newFile("labels.vmlb");
+        File bundleFile = temporaryFolder.newFile("interactions.vmib");
+        DrugConcepts.Builder concepts = new DrugConcepts.Builder();
+        ImportOpenFdaLabels importer;
+        try (LabelFile.Writer labels = new LabelFile.Writer(labelsFile)) {
+            importer = new ImportOpenFdaLabels(concepts, labels);
+            importer.importFile(zip);
+        }
+        importer.addBrandNames();
+
+        assertEquals(recordCount, importer.getLabelCount());
+        InteractionBundle bundle = BuildInteractionBundle.writeBundle(bundleFile, 7,
+                new AllergyIndex.Builder(),
+                new DrugInteractionGraph.Builder(), concepts);
+        assertEquals(5_000, bundle.getDrugConcepts().conceptCount());
+        DrugConcepts mapped = bundle.getDrugConcepts();
+        assertEquals("generic 1234", mapped.canonicalName(mapped.conceptId("brand 11234")));
+    }
+}